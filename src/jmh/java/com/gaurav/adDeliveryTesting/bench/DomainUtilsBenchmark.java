@@ -0,0 +1,41 @@
+package com.gaurav.adDeliveryTesting.bench;
+
+import com.gaurav.adDeliveryTesting.utils.DomainUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DomainUtilsBenchmark {
+
+    String bareHost = "News.Example.com";
+    String hostWithPath = "news.example.com/sports/today";
+    String urlHeader = "https://news.example.com/sports/today?utm_source=x";
+    String referer = "https://www.example.org/article/123#top";
+
+    @Benchmark
+    public String xDomainBare() {
+        return DomainUtils.extractHost(bareHost, null, null);
+    }
+
+    @Benchmark
+    public String xDomainWithPath() {
+        return DomainUtils.extractHost(hostWithPath, null, null);
+    }
+
+    @Benchmark
+    public String xDomainUrl() {
+        return DomainUtils.extractHost(urlHeader, null, null);
+    }
+
+    /** No X-Domain: falls through to Origin (absent) then Referer. */
+    @Benchmark
+    public String refererFallback() {
+        return DomainUtils.extractHost(null, null, referer);
+    }
+}
@@ -0,0 +1,35 @@
+package com.gaurav.adDeliveryTesting.bench;
+
+import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyUtilsBenchmark {
+
+    BigDecimal bid = new BigDecimal("1.25");
+    BigDecimal remaining = new BigDecimal("98231.40");
+    long cents = 9_823_140L;
+
+    @Benchmark
+    public long toCents() {
+        return MoneyUtils.toCents(bid);
+    }
+
+    @Benchmark
+    public long toCentsLarge() {
+        return MoneyUtils.toCents(remaining);
+    }
+
+    @Benchmark
+    public BigDecimal fromCents() {
+        return MoneyUtils.fromCents(cents);
+    }
+}
@@ -0,0 +1,41 @@
+package com.gaurav.adDeliveryTesting.bench;
+
+import com.gaurav.adDeliveryTesting.service.RedisKeys;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Per-request Redis key and pick-cache key building. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServeKeyBenchmark {
+
+    String country = "US";
+    String language = "en-US";
+    String device = "Mobile";
+    String os = "Android";
+    String browser = "Chrome";
+    String iab = "IAB1-1";
+    String ip = "203.0.113.42";
+    String domain = "news.example.com";
+
+    @Benchmark
+    public String zsetKey() {
+        return RedisKeys.zset(country, language, device, os);
+    }
+
+    @Benchmark
+    public String rrKey() {
+        return RedisKeys.rr(country, language, device, os);
+    }
+
+    /** Same expression as the negative/positive cache key in AdDeliveryService.serve. */
+    @Benchmark
+    public String pickCacheKey() {
+        return String.join("|", country, language, device, os, browser, iab, ip, domain);
+    }
+}
@@ -0,0 +1,41 @@
+package com.gaurav.adDeliveryTesting.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.gaurav.adDeliveryTesting.responseDto.ServeResponseDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/** The /serve response body, with the default mapper and with Afterburner registered. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServeResponseJsonBenchmark {
+
+    ObjectMapper plain;
+    ObjectMapper afterburner;
+    ServeResponseDTO dto;
+
+    @Setup
+    public void setup() {
+        plain = new ObjectMapper();
+        afterburner = new ObjectMapper().registerModule(new AfterburnerModule());
+        dto = new ServeResponseDTO(42, "https://ads.example.com/click?cid=42&src=serve",
+                new BigDecimal("1.25"), new BigDecimal("98230.15"));
+    }
+
+    @Benchmark
+    public byte[] serializePlain() throws Exception {
+        return plain.writeValueAsBytes(dto);
+    }
+
+    @Benchmark
+    public byte[] serializeAfterburner() throws Exception {
+        return afterburner.writeValueAsBytes(dto);
+    }
+}
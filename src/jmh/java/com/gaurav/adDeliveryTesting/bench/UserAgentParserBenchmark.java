@@ -0,0 +1,73 @@
+package com.gaurav.adDeliveryTesting.bench;
+
+import com.gaurav.adDeliveryTesting.utils.UserAgentInfo;
+import com.gaurav.adDeliveryTesting.utils.UserAgentParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserAgentParserBenchmark {
+
+    static final String[] UAS = {
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Safari/605.1.15",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36 Edg/124.0.2478.51",
+            "Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0",
+            "Mozilla/5.0 (SMART-TV; Linux; Tizen 6.0) AppleWebKit/538.1 (KHTML, like Gecko) Version/6.0 TV Safari/538.1",
+    };
+
+    private final UserAgentParser parser = new UserAgentParser();
+    private int i;
+
+    private String next() {
+        i = (i + 1) % UAS.length;
+        return UAS[i];
+    }
+
+    @Benchmark
+    public String parseOS() {
+        return parser.parseOS(next());
+    }
+
+    @Benchmark
+    public String parseBrowser() {
+        return parser.parseBrowser(next());
+    }
+
+    @Benchmark
+    public String parseDevice() {
+        return parser.parseDevice(next(), null);
+    }
+
+    /** Three separate lookups on the same UA (the controller's old call pattern). */
+    @Benchmark
+    public void parseAll(Blackhole bh) {
+        String ua = next();
+        bh.consume(parser.parseOS(ua));
+        bh.consume(parser.parseDevice(ua, null));
+        bh.consume(parser.parseBrowser(ua));
+    }
+
+    // Each request brings its own header String (no cached hash), so the two below copy it too.
+
+    /** What the controller pays per request now: one cache hit. */
+    @Benchmark
+    public UserAgentInfo classifyCached() {
+        return parser.classify(new String(next()));
+    }
+
+    /** Cache miss: one automaton pass over the UA. */
+    @Benchmark
+    public UserAgentInfo classifyUncached() {
+        return UserAgentParser.parse(new String(next()));
+    }
+}
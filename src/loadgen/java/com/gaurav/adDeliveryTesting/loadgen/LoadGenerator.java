@@ -0,0 +1,213 @@
+package com.gaurav.adDeliveryTesting.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for /api/v1/serve and /api/v1/serveByParams.
+ *
+ * Requests are fired on a fixed schedule (constant arrival rate) whether or not earlier ones
+ * have returned, and latency is measured from the intended send time, so a stalled server shows
+ * up in the percentiles instead of silently lowering the offered load.
+ *
+ *   mvn -Ploadgen -DskipTests verify -Dloadgen.args="--rate=2000 --duration=60 --endpoint=mix"
+ *
+ * Options (all --key=value):
+ *   url       base URL                          (http://localhost:8080)
+ *   endpoint  serve | params | mix              (serve)
+ *   async     true = hit the /async variants     (false)
+ *   rate      requests per second               (1000)
+ *   duration  measured seconds                  (30)
+ *   warmup    unmeasured seconds before that    (10)
+ *   mix       captured TSV (see RequestMix)     (synthetic)
+ *   mixSize   synthetic mix size                (10000)
+ *   seed      synthetic mix seed                (42)
+ *   timeoutMs per-request timeout               (2000)
+ *   maxInFlight  cap before requests count as dropped (20000)
+ *   hgrm      write the full percentile distribution here (optional)
+ */
+public final class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_US = TimeUnit.SECONDS.toMicros(60);
+
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder noContent = new LongAdder();
+    private final LongAdder otherStatus = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_US, 3);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = parse(args);
+        String url       = opt.getOrDefault("url", "http://localhost:8080");
+        String endpoint  = opt.getOrDefault("endpoint", "serve");
+        boolean async    = Boolean.parseBoolean(opt.getOrDefault("async", "false"));
+        int rate         = Integer.parseInt(opt.getOrDefault("rate", "1000"));
+        int duration     = Integer.parseInt(opt.getOrDefault("duration", "30"));
+        int warmup       = Integer.parseInt(opt.getOrDefault("warmup", "10"));
+        int timeoutMs    = Integer.parseInt(opt.getOrDefault("timeoutMs", "2000"));
+        int maxInFlight  = Integer.parseInt(opt.getOrDefault("maxInFlight", "20000"));
+
+        RequestMix mix = opt.containsKey("mix")
+                ? RequestMix.fromTsv(Path.of(opt.get("mix")))
+                : RequestMix.synthetic(Integer.parseInt(opt.getOrDefault("mixSize", "10000")),
+                                       Long.parseLong(opt.getOrDefault("seed", "42")));
+
+        System.out.printf("target=%s endpoint=%s%s rate=%d/s warmup=%ds duration=%ds mix=%d requests%n",
+                url, endpoint, async ? " (async)" : "", rate, warmup, duration, mix.size());
+
+        Histogram total = new LoadGenerator().run(url, endpoint, async, rate, warmup, duration, timeoutMs, maxInFlight, mix);
+
+        if (opt.containsKey("hgrm")) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(Path.of(opt.get("hgrm"))))) {
+                total.outputPercentileDistribution(out, 1000.0); // in ms
+            }
+        }
+    }
+
+    private Histogram run(String url, String endpoint, boolean async, int rate, int warmupSec, int durationSec,
+                          int timeoutMs, int maxInFlight, RequestMix mix) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(timeoutMs))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        long periodNs = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSec);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSec);
+        long nextReport = measureFrom + TimeUnit.SECONDS.toNanos(5);
+
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_US, 3);
+        Histogram interval = null;
+
+        for (long i = 0; ; i++) {
+            long intended = start + i * periodNs;
+            if (intended >= end) break;
+
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            if (now >= nextReport) {
+                interval = recorder.getIntervalHistogram(interval);
+                total.add(interval);
+                report("interval", interval, 5);
+                nextReport += TimeUnit.SECONDS.toNanos(5);
+            }
+
+            // warmup requests are sent but never counted, even if they complete later
+            boolean measured = intended >= measureFrom;
+            if (inFlight.get() >= maxInFlight) {
+                if (measured) dropped.increment();
+                continue;
+            }
+
+            send(client, request(url, endpoint, async, mix.get(i), i, timeoutMs), intended, measured);
+        }
+
+        // let stragglers finish (they still count against their intended time)
+        long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs + 500L);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+
+        report("total", total, durationSec);
+        return total;
+    }
+
+    private void send(HttpClient client, HttpRequest req, long intended, boolean measured) {
+        inFlight.incrementAndGet();
+        client.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resp, err) -> {
+                    inFlight.decrementAndGet();
+                    if (!measured) return;
+                    recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended),
+                            HIGHEST_TRACKABLE_US));
+                    if (err != null) errors.increment();
+                    else if (resp.statusCode() == 200) ok.increment();
+                    else if (resp.statusCode() == 204) noContent.increment();
+                    else otherStatus.increment();
+                });
+    }
+
+    private static HttpRequest request(String url, String endpoint, boolean async, RequestMix.Req r, long i, int timeoutMs) {
+        String suffix = async ? "/async" : "";
+        boolean params = endpoint.equals("params") || (endpoint.equals("mix") && (i & 1) == 1);
+        HttpRequest.Builder b = HttpRequest.newBuilder()
+                .timeout(Duration.ofMillis(timeoutMs))
+                .GET();
+        if (params) {
+            return b.uri(URI.create(url + "/api/v1/serveByParams" + suffix + r.paramsQuery())).build();
+        }
+        b.uri(URI.create(url + "/api/v1/serve" + suffix));
+        header(b, "X-Country", r.country());
+        header(b, "User-Agent", r.userAgent());
+        header(b, "Accept-Language", r.acceptLanguage());
+        header(b, "X-Domain", r.domain());
+        header(b, "X-IAB", r.iab());
+        header(b, "X-Forwarded-For", r.forwardedFor());
+        return b.build();
+    }
+
+    private static void header(HttpRequest.Builder b, String name, String value) {
+        if (value != null && !value.isEmpty()) b.header(name, value);
+    }
+
+    private void report(String label, Histogram h, int seconds) {
+        long n = h.getTotalCount();
+        if (label.equals("interval")) {
+            System.out.printf("[%s] %7.0f req/s  p50=%.2fms p99=%.2fms max=%.2fms in-flight=%d%n",
+                    label, n / (double) seconds, ms(h, 50), ms(h, 99), h.getMaxValue() / 1000.0, inFlight.get());
+            return;
+        }
+        long answered = ok.sum() + noContent.sum() + otherStatus.sum();
+        long all = answered + errors.sum() + dropped.sum();
+        System.out.println("---------------------------------------------------------------");
+        System.out.printf("requests   %d (%.0f req/s achieved)%n", all, all / (double) seconds);
+        System.out.printf("fill rate  %.2f%%  (200: %d)%n", pct(ok.sum(), all), ok.sum());
+        System.out.printf("204 rate   %.2f%%  (204: %d)%n", pct(noContent.sum(), all), noContent.sum());
+        System.out.printf("other      %d non-200/204, %d errors/timeouts, %d dropped at max in-flight%n",
+                otherStatus.sum(), errors.sum(), dropped.sum());
+        System.out.printf("latency ms p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f p99.99=%.2f max=%.2f%n",
+                ms(h, 50), ms(h, 90), ms(h, 99), ms(h, 99.9), ms(h, 99.99), h.getMaxValue() / 1000.0);
+    }
+
+    private static double ms(Histogram h, double p) {
+        return h.getValueAtPercentile(p) / 1000.0;
+    }
+
+    private static double pct(long part, long all) {
+        return all == 0 ? 0.0 : 100.0 * part / all;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> m = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--") || !a.contains("=")) throw new IllegalArgumentException("expected --key=value, got " + a);
+            int eq = a.indexOf('=');
+            m.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        return m;
+    }
+}
@@ -0,0 +1,106 @@
+package com.gaurav.adDeliveryTesting.loadgen;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A fixed, replayable list of serve requests.
+ *
+ * Either loaded from a captured TSV (one request per line, '#' comments allowed):
+ *   country  user-agent  accept-language  x-domain  x-iab  x-forwarded-for  [device  os  browser]
+ * or generated synthetically from a seed, so two runs with the same seed send the same mix.
+ */
+final class RequestMix {
+
+    /** One request; the trailing three fields are only needed for /serveByParams. */
+    record Req(String country, String userAgent, String acceptLanguage, String domain,
+               String iab, String forwardedFor, String device, String os, String browser) {
+
+        String paramsQuery() {
+            StringBuilder sb = new StringBuilder(160);
+            param(sb, "country", country);
+            param(sb, "language", firstLanguage(acceptLanguage));
+            param(sb, "device", device);
+            param(sb, "os", os);
+            param(sb, "browser", browser);
+            param(sb, "domain", domain);
+            param(sb, "ip", forwardedFor);
+            param(sb, "iab", iab);
+            return sb.toString();
+        }
+
+        private static void param(StringBuilder sb, String k, String v) {
+            if (v == null || v.isEmpty()) return;
+            sb.append(sb.isEmpty() ? '?' : '&').append(k).append('=').append(URLEncoder.encode(v, StandardCharsets.UTF_8));
+        }
+
+        private static String firstLanguage(String al) {
+            if (al == null) return "Others";
+            String first = al.split(",")[0].trim();
+            return first.isEmpty() ? "Others" : first;
+        }
+    }
+
+    // UA, device, os, browser — the classification UserAgentParser would produce
+    private static final String[][] AGENTS = {
+            {"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36", "Desktop", "Windows", "Chrome"},
+            {"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36 Edg/124.0.2478.51", "Desktop", "Windows", "Edge"},
+            {"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Safari/605.1.15", "Desktop", "Mac", "Safari"},
+            {"Mozilla/5.0 (iPhone; CPU iPhone OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Mobile/15E148 Safari/604.1", "Mobile", "iOS", "Safari"},
+            {"Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36", "Mobile", "Android", "Chrome"},
+            {"Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0", "Desktop", "Others", "Firefox"},
+            {"Mozilla/5.0 (SMART-TV; Linux; Tizen 6.0) AppleWebKit/538.1 (KHTML, like Gecko) Version/6.0 TV Safari/538.1", "TV", "TV", "Safari"},
+    };
+    // skewed on purpose: a few hot segments, a long tail
+    private static final String[] COUNTRIES = {"US", "US", "US", "GB", "GB", "DE", "IN", "IN", "NP", "BR", "FR", "JP"};
+    private static final String[] LANGUAGES = {"en-US,en;q=0.9", "en-US", "en-GB,en;q=0.8", "de-DE", "hi-IN", "ne-NP", "pt-BR", "fr-FR", "ja-JP"};
+    private static final String[] DOMAINS   = {"news.example.com", "example.com", "sports.example.org", "blog.sample.net", "shop.test.io", ""};
+    private static final String[] IABS      = {"IAB1", "IAB1-1", "IAB2", "IAB3", "IAB9-30", "IAB17", ""};
+
+    private final List<Req> reqs;
+
+    private RequestMix(List<Req> reqs) {
+        if (reqs.isEmpty()) throw new IllegalArgumentException("empty request mix");
+        this.reqs = reqs;
+    }
+
+    int size() { return reqs.size(); }
+
+    Req get(long i) { return reqs.get((int) (i % reqs.size())); }
+
+    static RequestMix synthetic(int size, long seed) {
+        Random rnd = new Random(seed);
+        List<Req> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String[] a = AGENTS[rnd.nextInt(AGENTS.length)];
+            String ip = "10." + rnd.nextInt(256) + "." + rnd.nextInt(256) + "." + (1 + rnd.nextInt(254));
+            out.add(new Req(pick(rnd, COUNTRIES), a[0], pick(rnd, LANGUAGES), pick(rnd, DOMAINS),
+                    pick(rnd, IABS), ip, a[1], a[2], a[3]));
+        }
+        return new RequestMix(out);
+    }
+
+    static RequestMix fromTsv(Path file) throws IOException {
+        List<Req> out = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] f = line.split("\t", -1);
+            if (f.length < 6) throw new IllegalArgumentException("expected at least 6 tab-separated fields: " + line);
+            out.add(new Req(f[0], f[1], f[2], f[3], f[4], f[5],
+                    f.length > 6 ? f[6] : "Desktop",
+                    f.length > 7 ? f[7] : "Others",
+                    f.length > 8 ? f[8] : ""));
+        }
+        return new RequestMix(out);
+    }
+
+    private static String pick(Random rnd, String[] arr) {
+        return arr[rnd.nextInt(arr.length)];
+    }
+}
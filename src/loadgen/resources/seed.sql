@@ -0,0 +1,72 @@
+-- Synthetic campaigns for load tests. Table shapes match what Hibernate (ddl-auto=update)
+-- creates for Campaign / CampaignFilters, so the app starts cleanly on top of them.
+-- Values line up with the synthetic mix in RequestMix.
+
+CREATE TABLE IF NOT EXISTS campaign (
+    campaign_id      integer PRIMARY KEY,
+    delivery_link    varchar(255),
+    total_budget     numeric(38,2),
+    remaining_budget numeric(38,2),
+    bidding_rate     numeric(38,2)
+);
+CREATE TABLE IF NOT EXISTS campaign_filters (
+    id          serial PRIMARY KEY,
+    campaign_id integer NOT NULL UNIQUE REFERENCES campaign(campaign_id)
+);
+CREATE TABLE IF NOT EXISTS campaign_countries           (filter_id integer NOT NULL REFERENCES campaign_filters(id), country varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_languages           (filter_id integer NOT NULL REFERENCES campaign_filters(id), language varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_devices             (filter_id integer NOT NULL REFERENCES campaign_filters(id), device varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_oses                (filter_id integer NOT NULL REFERENCES campaign_filters(id), os varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_browsers            (filter_id integer NOT NULL REFERENCES campaign_filters(id), browser varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_iab_category_filter (filter_id integer NOT NULL REFERENCES campaign_filters(id), iab_category varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_allowed_domain      (filter_id integer NOT NULL REFERENCES campaign_filters(id), allowed_domain varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_allowed_ip          (filter_id integer NOT NULL REFERENCES campaign_filters(id), allowed_ip varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_excluded_domain     (filter_id integer NOT NULL REFERENCES campaign_filters(id), excluded_domain varchar(255));
+CREATE TABLE IF NOT EXISTS campaign_excluded_ip         (filter_id integer NOT NULL REFERENCES campaign_filters(id), excluded_ip varchar(255));
+
+-- deterministic: same data on every fresh volume
+SELECT setseed(0.42);
+
+INSERT INTO campaign (campaign_id, delivery_link, total_budget, remaining_budget, bidding_rate)
+SELECT g,
+       'https://ads.example.com/click?cid=' || g,
+       1000000.00,
+       1000000.00,
+       round((0.10 + (g % 50) * 0.05)::numeric, 2)
+FROM generate_series(1, 10000) g;
+
+INSERT INTO campaign_filters (campaign_id)
+SELECT campaign_id FROM campaign ORDER BY campaign_id;
+
+-- every campaign targets 1-3 countries, 1-2 languages, 1-3 devices, 1-3 OSes
+INSERT INTO campaign_countries (filter_id, country)
+SELECT f.id, c.v FROM campaign_filters f
+CROSS JOIN LATERAL (SELECT v FROM unnest(ARRAY['US','GB','DE','IN','NP','BR','FR','JP']) v ORDER BY random() LIMIT 1 + (f.id % 3)) c;
+
+INSERT INTO campaign_languages (filter_id, language)
+SELECT f.id, l.v FROM campaign_filters f
+CROSS JOIN LATERAL (SELECT v FROM unnest(ARRAY['en-US','en-GB','de-DE','hi-IN','ne-NP','pt-BR','fr-FR','ja-JP']) v ORDER BY random() LIMIT 1 + (f.id % 2)) l;
+
+INSERT INTO campaign_devices (filter_id, device)
+SELECT f.id, d.v FROM campaign_filters f
+CROSS JOIN LATERAL (SELECT v FROM unnest(ARRAY['Desktop','Mobile','TV']) v ORDER BY random() LIMIT 1 + (f.id % 3)) d;
+
+INSERT INTO campaign_oses (filter_id, os)
+SELECT f.id, o.v FROM campaign_filters f
+CROSS JOIN LATERAL (SELECT v FROM unnest(ARRAY['Windows','Mac','Android','iOS','TV','Others']) v ORDER BY random() LIMIT 1 + (f.id % 3)) o;
+
+-- a slice of campaigns with allow/block constraints so the Lua checks do real work
+INSERT INTO campaign_browsers (filter_id, browser)
+SELECT id, (ARRAY['Chrome','Safari','Firefox','Edge'])[1 + id % 4] FROM campaign_filters WHERE id % 5 = 0;
+
+INSERT INTO campaign_iab_category_filter (filter_id, iab_category)
+SELECT id, (ARRAY['IAB1','IAB1-1','IAB2','IAB3','IAB9-30','IAB17'])[1 + id % 6] FROM campaign_filters WHERE id % 7 = 0;
+
+INSERT INTO campaign_allowed_domain (filter_id, allowed_domain)
+SELECT id, (ARRAY['news.example.com','example.com','sports.example.org'])[1 + id % 3] FROM campaign_filters WHERE id % 11 = 0;
+
+INSERT INTO campaign_excluded_domain (filter_id, excluded_domain)
+SELECT id, 'shop.test.io' FROM campaign_filters WHERE id % 13 = 0;
+
+INSERT INTO campaign_excluded_ip (filter_id, excluded_ip)
+SELECT id, '10.0.0.' || (1 + id % 254) FROM campaign_filters WHERE id % 17 = 0;
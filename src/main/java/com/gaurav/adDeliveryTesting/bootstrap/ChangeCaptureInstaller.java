@@ -0,0 +1,138 @@
+package com.gaurav.adDeliveryTesting.bootstrap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Installs the change-capture triggers: any write to a campaign, its filters row or one of the
+ * ten filter collection tables inserts the campaign id into campaign_change_outbox and sends
+ * pg_notify('campaign_changed', id). Idempotent, runs on every start.
+ *
+ * campaign UPDATEs that only lower remaining_budget (the BudgetDeltaFlusher write-behind, DB
+ * fallback spends) are ignored, otherwise every flush would re-index every spending campaign. A
+ * raise is a top-up: the amount goes into campaign_budget_topup for the listener to add to Redis.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "adserve.sync.enabled", havingValue = "true")
+public class ChangeCaptureInstaller {
+
+    public static final String CHANNEL = "campaign_changed";
+
+    private static final List<String> FILTER_TABLES = List.of(
+            "campaign_countries", "campaign_languages", "campaign_devices", "campaign_oses",
+            "campaign_browsers", "campaign_iab_category_filter",
+            "campaign_allowed_domain", "campaign_allowed_ip",
+            "campaign_excluded_domain", "campaign_excluded_ip");
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx; // main pool is auto-commit=false; without a tx the DDL is rolled back
+
+    public ChangeCaptureInstaller(JdbcTemplate jdbc, PlatformTransactionManager txm) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txm);
+    }
+
+    @Order(0) // before CampaignChangeListener drains the outbox
+    @EventListener(ApplicationReadyEvent.class)
+    public void install() {
+        log.info("Ensuring campaign change-capture triggers exist...");
+
+        tx.executeWithoutResult(status -> {
+            jdbc.execute("""
+                CREATE TABLE IF NOT EXISTS campaign_change_outbox (
+                  id           bigserial PRIMARY KEY,
+                  campaign_id  int NOT NULL,
+                  changed_at   timestamptz NOT NULL DEFAULT now(),
+                  processed_at timestamptz
+                );
+                CREATE INDEX IF NOT EXISTS ix_cco_pending ON campaign_change_outbox (campaign_id) WHERE processed_at IS NULL;
+                CREATE INDEX IF NOT EXISTS ix_cco_processed ON campaign_change_outbox (processed_at) WHERE processed_at IS NOT NULL;
+
+                CREATE TABLE IF NOT EXISTS campaign_budget_topup (
+                  id           bigserial PRIMARY KEY,
+                  campaign_id  int NOT NULL,
+                  amount       numeric NOT NULL,
+                  created_at   timestamptz NOT NULL DEFAULT now(),
+                  applied_at   timestamptz
+                );
+                CREATE INDEX IF NOT EXISTS ix_cbt_pending ON campaign_budget_topup (id) WHERE applied_at IS NULL;
+                CREATE INDEX IF NOT EXISTS ix_cbt_applied ON campaign_budget_topup (applied_at) WHERE applied_at IS NOT NULL;
+
+                CREATE OR REPLACE FUNCTION campaign_changed(cid int) RETURNS void AS $$
+                BEGIN
+                  IF cid IS NULL THEN RETURN; END IF;
+                  -- one pending row per campaign is enough; NOTIFY dedups identical payloads per tx itself
+                  INSERT INTO campaign_change_outbox (campaign_id)
+                  SELECT cid
+                  WHERE NOT EXISTS (SELECT 1 FROM campaign_change_outbox
+                                    WHERE campaign_id = cid AND processed_at IS NULL);
+                  PERFORM pg_notify('%1$s', cid::text);
+                END $$ LANGUAGE plpgsql;
+
+                CREATE OR REPLACE FUNCTION trg_campaign_changed() RETURNS trigger AS $$
+                BEGIN
+                  IF TG_OP = 'DELETE' THEN PERFORM campaign_changed(OLD.campaign_id);
+                  ELSE PERFORM campaign_changed(NEW.campaign_id);
+                  END IF;
+                  RETURN NULL;
+                END $$ LANGUAGE plpgsql;
+
+                CREATE OR REPLACE FUNCTION trg_campaign_topup() RETURNS trigger AS $$
+                BEGIN
+                  INSERT INTO campaign_budget_topup (campaign_id, amount)
+                  VALUES (NEW.campaign_id, NEW.remaining_budget - OLD.remaining_budget);
+                  PERFORM campaign_changed(NEW.campaign_id); -- an exhausted campaign goes back into the index
+                  RETURN NULL;
+                END $$ LANGUAGE plpgsql;
+
+                CREATE OR REPLACE FUNCTION trg_filter_elem_changed() RETURNS trigger AS $$
+                DECLARE fid int;
+                BEGIN
+                  IF TG_OP = 'DELETE' THEN fid := OLD.filter_id; ELSE fid := NEW.filter_id; END IF;
+                  PERFORM campaign_changed((SELECT campaign_id FROM campaign_filters WHERE id = fid));
+                  RETURN NULL;
+                END $$ LANGUAGE plpgsql;
+
+                DROP TRIGGER IF EXISTS tg_campaign_ins_del ON campaign;
+                CREATE TRIGGER tg_campaign_ins_del AFTER INSERT OR DELETE ON campaign
+                  FOR EACH ROW EXECUTE FUNCTION trg_campaign_changed();
+                DROP TRIGGER IF EXISTS tg_campaign_upd ON campaign;
+                CREATE TRIGGER tg_campaign_upd AFTER UPDATE ON campaign
+                  FOR EACH ROW
+                  WHEN (OLD.bidding_rate  IS DISTINCT FROM NEW.bidding_rate
+                     OR OLD.delivery_link IS DISTINCT FROM NEW.delivery_link
+                     OR OLD.total_budget  IS DISTINCT FROM NEW.total_budget)
+                  EXECUTE FUNCTION trg_campaign_changed();
+                DROP TRIGGER IF EXISTS tg_campaign_topup ON campaign;
+                CREATE TRIGGER tg_campaign_topup AFTER UPDATE ON campaign
+                  FOR EACH ROW
+                  WHEN (NEW.remaining_budget > OLD.remaining_budget)
+                  EXECUTE FUNCTION trg_campaign_topup();
+
+                DROP TRIGGER IF EXISTS tg_campaign_filters_changed ON campaign_filters;
+                CREATE TRIGGER tg_campaign_filters_changed AFTER INSERT OR UPDATE OR DELETE ON campaign_filters
+                  FOR EACH ROW EXECUTE FUNCTION trg_campaign_changed();
+                """.formatted(CHANNEL));
+
+            for (String t : FILTER_TABLES) {
+                jdbc.execute("""
+                    DROP TRIGGER IF EXISTS tg_%1$s_changed ON %1$s;
+                    CREATE TRIGGER tg_%1$s_changed AFTER INSERT OR UPDATE OR DELETE ON %1$s
+                      FOR EACH ROW EXECUTE FUNCTION trg_filter_elem_changed();
+                    """.formatted(t));
+            }
+        });
+
+        log.info("Change-capture triggers ensured on campaign, campaign_filters and {} filter tables", FILTER_TABLES.size());
+    }
+}
@@ -1,15 +1,49 @@
 // src/main/java/com/gaurav/adDeliveryTesting/bootstrap/TargetingWarmup.java
 package com.gaurav.adDeliveryTesting.bootstrap;
 
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.service.CampaignMetadataCache;
+import com.gaurav.adDeliveryTesting.service.CampaignSnapshotService;
+import com.gaurav.adDeliveryTesting.service.LocalServeEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
+/**
+ * Boot-time local state from the campaign snapshot: fills the metadata cache and, with
+ * adserve.engine=local, the in-JVM targeting index. Runs inside ApplicationReadyEvent, so the
+ * readiness probe only flips once it is done. Redis is shared and kept current by the
+ * change-capture listener, so nothing is written there.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 @ConditionalOnProperty(value = "adserve.warmup.enabled", havingValue = "true", matchIfMissing = false)
 public class TargetingWarmup {
-    // leave empty or keep a tiny manual method if you want a button later
-}
\ No newline at end of file
+
+    private final ObjectProvider<CampaignSnapshotService> snapshots;
+    private final ObjectProvider<LocalServeEngine> localEngine;
+    private final CampaignMetadataCache meta;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmFromSnapshot() {
+        CampaignSnapshotService s = snapshots.getIfAvailable();
+        if (s == null) {
+            log.info("Warmup enabled but adserve.snapshot.enabled=false; nothing to load");
+            return;
+        }
+        long t0 = System.nanoTime();
+        List<CampaignTargeting> campaigns = s.loadCurrent();
+        if (campaigns == null) return; // cold start: caches fill lazily, local engine rebuilds from the DB
+
+        for (CampaignTargeting t : campaigns) meta.put(t);
+        localEngine.ifAvailable(e -> e.install(campaigns));
+        log.info("Warmed {} campaigns from snapshot in {} ms", campaigns.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+}
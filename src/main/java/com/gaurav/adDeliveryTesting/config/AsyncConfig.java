@@ -0,0 +1,11 @@
+package com.gaurav.adDeliveryTesting.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+
+// @Async methods run on Boot's applicationTaskExecutor: a pool on platform threads,
+// one virtual thread per task with spring.threads.virtual.enabled=true
+@Configuration
+@EnableAsync
+public class AsyncConfig {
+}
@@ -0,0 +1,46 @@
+package com.gaurav.adDeliveryTesting.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Two pools on the same database: the main one (JPA, serve-path fallback) bound to
+ * spring.datasource.hikari.*, and a small one for BudgetDeltaFlusher bound to
+ * spring.datasource.flusher.hikari.*, so a slow flush can't take connections from serving.
+ *
+ * Declaring any DataSource turns Boot's own off, hence the explicit @Primary main pool.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties props,
+                                       ObjectProvider<JdbcConnectionDetails> details) {
+        return build(props, details.getIfAvailable());
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.flusher.hikari")
+    public HikariDataSource flusherDataSource(DataSourceProperties props,
+                                              ObjectProvider<JdbcConnectionDetails> details) {
+        return build(props, details.getIfAvailable());
+    }
+
+    private static HikariDataSource build(DataSourceProperties props, JdbcConnectionDetails details) {
+        HikariDataSource ds = props.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        if (details != null) { // docker-compose / testcontainers service connections
+            ds.setJdbcUrl(details.getJdbcUrl());
+            ds.setUsername(details.getUsername());
+            ds.setPassword(details.getPassword());
+        }
+        return ds;
+    }
+}
@@ -4,6 +4,7 @@ import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
@@ -37,10 +38,31 @@ public class RedisCacheConfig {
         Config cfg = new Config();
         cfg.setThreads(32);        // adjust to ~1–2x cores
         cfg.setNettyThreads(64);
+        String scheme = props.getSsl().isEnabled() ? "rediss://" : "redis://";
+        String password = (props.getPassword() != null && !props.getPassword().isBlank()) ? props.getPassword() : null;
+
+        if (isCluster(props)) {
+            // spring.data.redis.cluster.nodes; the serve path switches to per-slot scripts (ServeScriptService)
+            cfg.useClusterServers()
+                    .addNodeAddress(props.getCluster().getNodes().stream().map(n -> scheme + n).toArray(String[]::new))
+                    .setPassword(password)
+                    .setReadMode(ReadMode.MASTER)           // budgets are read-after-write
+                    .setScanInterval(2000)                  // topology refresh
+                    .setMasterConnectionPoolSize(1000)      // per master
+                    .setMasterConnectionMinimumIdleSize(64)
+                    .setSubscriptionConnectionPoolSize(128)
+                    .setIdleConnectionTimeout(8000)
+                    .setConnectTimeout(600)
+                    .setTimeout(700)
+                    .setRetryAttempts(1)
+                    .setRetryInterval(100)
+                    .setPingConnectionInterval(0);
+            return Redisson.create(cfg);
+        }
 
         var single = cfg.useSingleServer()
-                .setAddress((props.getSsl().isEnabled() ? "rediss://" : "redis://") + props.getHost() + ":" + props.getPort())
-                .setPassword((props.getPassword() != null && !props.getPassword().isBlank()) ? props.getPassword() : null)
+                .setAddress(scheme + props.getHost() + ":" + props.getPort())
+                .setPassword(password)
                 .setConnectionPoolSize(3000)            // bigger pool to avoid "Unable to acquire connection"
                 .setConnectionMinimumIdleSize(256)
                 .setSubscriptionConnectionPoolSize(128)
@@ -54,4 +76,13 @@ public class RedisCacheConfig {
         return Redisson.create(cfg);
     }
 
+    /**
+     * Cluster mode: spring.data.redis.cluster.nodes is set. Decides the client above and, for the
+     * services, whether scripts may touch keys in other slots (RedisKeys, ServeScriptService).
+     */
+    public static boolean isCluster(RedisProperties props) {
+        return props.getCluster() != null
+                && props.getCluster().getNodes() != null
+                && !props.getCluster().getNodes().isEmpty();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.gaurav.adDeliveryTesting.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors for the blocking bits of the async serve path.
+ *
+ * serveDbExecutor runs the DB fallback pick + spend. Bounded on purpose: when the queue is full new
+ * work is rejected and the request answers 204, same as the DbBulkhead fast-fail on the blocking
+ * path, instead of piling up behind Hikari.
+ *
+ * campaignMetaLoader runs the metadata cache's loads. It has to be a separate pool: fallback tasks
+ * call the synchronous meta.get(), and a load queued behind those tasks on their own pool would
+ * never run once every worker waits on one. It never rejects (Tomcat threads call meta.get() too);
+ * loads are one findById each and Caffeine coalesces them per id, so the queue stays short.
+ *
+ * serveLeaseExecutor runs the async path's budget lease spends, which may refill with a blocking
+ * grant eval that Redisson refuses on its own threads. Bounded like serveDbExecutor: a full queue
+ * answers no-serve instead of backing up into the common pool.
+ */
+@Configuration
+public class ServeAsyncConfig {
+
+    @Bean(name = "serveDbExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor serveDbExecutor(@Value("${adserve.async.db.threads:32}") int threads,
+                                              @Value("${adserve.async.db.queue:1000}") int queue,
+                                              @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        // with virtual threads the pool size is only a concurrency cap (like DbBulkhead), not a memory cost
+        ThreadFactory factory = virtual
+                ? Thread.ofVirtual().name("serve-db-", 1).factory()
+                : Thread.ofPlatform().name("serve-db-", 1).daemon(true).factory();
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue),
+                factory,
+                new ThreadPoolExecutor.AbortPolicy());
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
+    }
+
+    @Bean(name = "serveLeaseExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor serveLeaseExecutor(@Value("${adserve.async.lease.threads:16}") int threads,
+                                                 @Value("${adserve.async.lease.queue:1000}") int queue,
+                                                 @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        ThreadFactory factory = virtual
+                ? Thread.ofVirtual().name("serve-lease-", 1).factory()
+                : Thread.ofPlatform().name("serve-lease-", 1).daemon(true).factory();
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue),
+                factory,
+                new ThreadPoolExecutor.AbortPolicy());
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
+    }
+
+    @Bean(name = "campaignMetaLoader", destroyMethod = "shutdown")
+    public ExecutorService campaignMetaLoader(@Value("${adserve.meta.load.threads:8}") int threads,
+                                              @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        if (virtual) return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("meta-load-", 1).factory());
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().name("meta-load-", 1).daemon(true).factory());
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
+    }
+}
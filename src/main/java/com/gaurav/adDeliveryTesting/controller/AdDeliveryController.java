@@ -7,6 +7,7 @@ import com.gaurav.adDeliveryTesting.responseDto.ServeResponseDTO;
 import com.gaurav.adDeliveryTesting.service.AdDeliveryService;
 import com.gaurav.adDeliveryTesting.service.CampaignCacheService;
 import com.gaurav.adDeliveryTesting.utils.DomainUtils;
+import com.gaurav.adDeliveryTesting.utils.UserAgentInfo;
 import com.gaurav.adDeliveryTesting.utils.UserAgentParser;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
@@ -16,6 +17,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @RestController
@@ -40,24 +43,38 @@ public class AdDeliveryController {
         return new ResponseEntity<>(service.getCampaign(), HttpStatus.OK);
     }
 
+    // caps one page view's slot count so a single request can't drain a segment
+    private static final int MAX_SLOTS = 10;
+
     @GetMapping("/serve")
     public ResponseEntity<?> serveAd(HttpServletRequest req) {
-        final String country  = header(req, "X-Country");
-        final String language = parser.parseLanguage(req.getHeader("Accept-Language"));
-        final String ua       = req.getHeader("User-Agent");
-        final String os       = parser.parseOS(ua);
-        final String device   = parser.parseDevice(ua, header(req, "X-Device"));
-        final String browser  = parser.parseBrowser(ua);
-
-        final String ip       = clientIp(req);
-        final String domain   = DomainUtils.extractHost(header(req, "X-Domain"), req.getHeader("Origin"), req.getHeader("Referer"));
-        final String iab      = header(req, "X-IAB"); // optional
-
-        return service.serve(country, language, device, os, ip, domain, browser, iab)
+        final ServeContext c = context(req);
+        return service.serve(c.country(), c.language(), c.device(), c.os(), c.ip(), c.domain(), c.browser(), c.iab())
                 .<ResponseEntity<?>>map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.noContent().build());
     }
 
+    /** Same as /serve on the async pipeline; the Tomcat thread is released while Redis works. */
+    @GetMapping("/serve/async")
+    public CompletableFuture<ResponseEntity<?>> serveAdAsync(HttpServletRequest req) {
+        final ServeContext c = context(req);
+        return service.serveAsync(c.country(), c.language(), c.device(), c.os(), c.ip(), c.domain(), c.browser(), c.iab())
+                .thenApply(AdDeliveryController::okOrNoContent);
+    }
+
+    /** Several distinct ads for one page view; headers are parsed once and the pick is one Redis call. */
+    @GetMapping("/serve/batch")
+    public ResponseEntity<?> serveBatch(HttpServletRequest req,
+                                        @RequestParam(defaultValue = "3") int slots) {
+        if (slots < 1 || slots > MAX_SLOTS) {
+            return ResponseEntity.badRequest().body("slots must be between 1 and " + MAX_SLOTS);
+        }
+        final ServeContext c = context(req);
+        List<ServeResponseDTO> ads = service.serveBatch(c.country(), c.language(), c.device(), c.os(),
+                c.ip(), c.domain(), c.browser(), c.iab(), slots);
+        return ads.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(ads);
+    }
+
     @GetMapping("/test")
     public ResponseEntity<String> tester(){
         return new ResponseEntity<>("Hello World",HttpStatus.OK);
@@ -81,6 +98,43 @@ public class AdDeliveryController {
                 .orElseGet(() -> ResponseEntity.noContent().build());
     }
 
+    @GetMapping("/serveByParams/async")
+    public CompletableFuture<ResponseEntity<?>> serveByParamsAsync(@RequestParam String country,
+                                                                   @RequestParam String language,
+                                                                   @RequestParam String device,
+                                                                   @RequestParam String os,
+                                                                   @RequestParam(required = false) String browser,
+                                                                   @RequestParam(required = false) String domain,
+                                                                   @RequestParam(required = false) String ip,
+                                                                   @RequestParam(required = false, name = "iab") String iab) {
+        String d = DomainUtils.extractHost(domain, null, null);
+        return service.serveAsync(country, language, device, os,
+                        nullToEmpty(ip), d, nullToEmpty(browser), nullToEmpty(iab))
+                .thenApply(AdDeliveryController::okOrNoContent);
+    }
+
+    private static ResponseEntity<?> okOrNoContent(Optional<ServeResponseDTO> ad) {
+        return ad.<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    private record ServeContext(String country, String language, String device, String os,
+                                String ip, String domain, String browser, String iab) {}
+
+    private ServeContext context(HttpServletRequest req) {
+        final UserAgentInfo ua = parser.classify(req.getHeader("User-Agent"));
+        return new ServeContext(
+                header(req, "X-Country"),
+                parser.parseLanguage(req.getHeader("Accept-Language")),
+                ua.device(header(req, "X-Device")),
+                ua.os(),
+                clientIp(req),
+                DomainUtils.extractHost(header(req, "X-Domain"), req.getHeader("Origin"), req.getHeader("Referer")),
+                ua.browser(),
+                header(req, "X-IAB") // optional
+        );
+    }
+
     private static String header(HttpServletRequest req, String name) {
         String v = req.getHeader(name);
         return (v == null || v.isBlank()) ? null : v.trim();
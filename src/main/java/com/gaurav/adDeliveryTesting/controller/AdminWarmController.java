@@ -1,17 +1,37 @@
 package com.gaurav.adDeliveryTesting.controller;
 
+import com.gaurav.adDeliveryTesting.service.AdDeliveryService;
+import com.gaurav.adDeliveryTesting.service.BudgetShards;
+import com.gaurav.adDeliveryTesting.service.RedisCircuitBreaker;
+import com.gaurav.adDeliveryTesting.service.RedisScriptRegistry;
+import com.gaurav.adDeliveryTesting.service.StreamingWarmService;
 import com.gaurav.adDeliveryTesting.service.WarmService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/admin")
 public class AdminWarmController {
 
     private final WarmService warm;
+    private final RedisScriptRegistry scripts;
+    private final StreamingWarmService streamingWarm;
+    private final RedisCircuitBreaker breaker;
+    private final AdDeliveryService delivery;
+
+    @Autowired(required = false)
+    private BudgetShards shards; // only with adserve.budget.shards.enabled=true
 
-    public AdminWarmController(WarmService warm) {
+    public AdminWarmController(WarmService warm, RedisScriptRegistry scripts, StreamingWarmService streamingWarm,
+                               RedisCircuitBreaker breaker, AdDeliveryService delivery) {
         this.warm = warm;
+        this.scripts = scripts;
+        this.streamingWarm = streamingWarm;
+        this.breaker = breaker;
+        this.delivery = delivery;
     }
 
     /** Warm a single campaign completely. */
@@ -32,4 +52,79 @@ public class AdminWarmController {
         int n = warm.warmAllPaged(pageSize, batchLoadSize);
         return ResponseEntity.ok("Warmed " + n + " campaigns");
     }
-}
\ No newline at end of file
+
+    /**
+     * Cold-start warm: DB cursor -> bounded pool of pipelined writers. Example:
+     * POST /admin/warm-stream?chunkSize=2000&workers=8
+     */
+    @PostMapping("/warm-stream")
+    public ResponseEntity<?> warmStream(@RequestParam(defaultValue = "2000") int chunkSize,
+                                        @RequestParam(defaultValue = "8") int workers) {
+        var done = streamingWarm.warmAll(chunkSize, workers);
+        if (done == null) return ResponseEntity.status(409).body(streamingWarm.progress());
+        return ResponseEntity.ok(done);
+    }
+
+    /** Progress of the running (or last) streaming warm. */
+    @GetMapping("/warm-stream")
+    public ResponseEntity<StreamingWarmService.Progress> warmStreamProgress() {
+        return ResponseEntity.ok(streamingWarm.progress());
+    }
+
+    /** Rewrite every campaign into the compact targeting layout (campaign:tgt:{id} + non-empty sets). */
+    @PostMapping("/migrate/targeting")
+    public ResponseEntity<String> migrateTargeting(@RequestParam(defaultValue = "1000") int batchLoadSize) {
+        int n = warm.migrateTargetingRecords(batchLoadSize);
+        return ResponseEntity.ok("Migrated targeting for " + n + " campaigns");
+    }
+
+    /**
+     * Move every campaign to the {id}-tagged Redis Cluster key layout (single node, right after the
+     * deploy; campaigns aren't served from Redis until this has run). See WarmService#migrateKeyLayout.
+     */
+    @PostMapping("/migrate/keys")
+    public ResponseEntity<String> migrateKeys(@RequestParam(defaultValue = "1000") int batchLoadSize) {
+        int n = warm.migrateKeyLayout(batchLoadSize);
+        return ResponseEntity.ok("Migrated keys for " + n + " campaigns");
+    }
+
+    /** Which Lua script revisions (name -> SHA) this instance calls. */
+    @GetMapping("/scripts")
+    public ResponseEntity<Map<String, String>> scripts() {
+        return ResponseEntity.ok(scripts.versions());
+    }
+
+    /** Redis breaker state: open = serving from the in-memory outage matcher. */
+    @GetMapping("/redis-breaker")
+    public ResponseEntity<Map<String, Object>> redisBreaker() {
+        return ResponseEntity.ok(Map.of("open", breaker.isOpen(), "trips", breaker.trips()));
+    }
+
+    /** Split a hot campaign's budget over sub-counters (adserve.budget.shards.count). */
+    @PostMapping("/budget-shards/{id}")
+    public ResponseEntity<String> shardBudget(@PathVariable int id) {
+        if (shards == null) return ResponseEntity.status(409).body("adserve.budget.shards.enabled=false");
+        shards.shard(id);
+        return ResponseEntity.ok("Sharded budget of campaign " + id);
+    }
+
+    /** Pool a campaign's sub-counters back into one budget counter. */
+    @DeleteMapping("/budget-shards/{id}")
+    public ResponseEntity<String> unshardBudget(@PathVariable int id) {
+        if (shards == null) return ResponseEntity.status(409).body("adserve.budget.shards.enabled=false");
+        shards.unshard(id);
+        return ResponseEntity.ok("Unsharded budget of campaign " + id);
+    }
+
+    /** Adaptive DB limiter: current limit, in flight, queued, rejections, current vs baseline RTT. */
+    @GetMapping("/db-limiter")
+    public ResponseEntity<Map<String, Object>> dbLimiter() {
+        return ResponseEntity.ok(delivery.dbLimiterStats());
+    }
+
+    /** Negative / positive pick cache counters for the DB fallback path. */
+    @GetMapping("/pick-caches")
+    public ResponseEntity<Map<String, Object>> pickCaches() {
+        return ResponseEntity.ok(delivery.pickCacheStats());
+    }
+}
@@ -0,0 +1,26 @@
+package com.gaurav.adDeliveryTesting.model;
+
+import java.util.List;
+
+/**
+ * Read-only view of a campaign and its filters, as the serve index needs it.
+ * Built straight from SQL rows (one row per campaign, collections as arrays), no JPA entity graph.
+ * {@code hasFilters} is false when the campaign has no campaign_filters row at all.
+ */
+public record CampaignTargeting(
+        int campaignId,
+        String deliveryLink,
+        long bidCents,
+        long remainingCents,
+        boolean hasFilters,
+        List<String> countries,
+        List<String> languages,
+        List<String> devices,
+        List<String> oses,
+        List<String> browsers,
+        List<String> iabCategories,
+        List<String> allowedDomains,
+        List<String> allowedIps,
+        List<String> excludedDomains,
+        List<String> excludedIps) {
+}
@@ -14,14 +14,19 @@ public interface AdDeliveryNativeRepo extends Repository<com.gaurav.adDeliveryTe
         FROM campaign c
         JOIN campaign_filters f ON f.campaign_id = c.campaign_id
         WHERE c.remaining_budget > 0
-          AND EXISTS (SELECT 1 FROM campaign_countries cc
-                      WHERE cc.filter_id = f.id AND cc.country = :country)
-          AND EXISTS (SELECT 1 FROM campaign_languages cl
-                      WHERE cl.filter_id = f.id AND cl.language = :language)
-          AND EXISTS (SELECT 1 FROM campaign_devices cd
-                      WHERE cd.filter_id = f.id AND cd.device   = :device)
-          AND EXISTS (SELECT 1 FROM campaign_oses co
-                      WHERE co.filter_id = f.id AND co.os       = :os)
+          -- an empty list on a dimension means "any"
+          AND (NOT EXISTS (SELECT 1 FROM campaign_countries cc WHERE cc.filter_id = f.id)
+               OR EXISTS (SELECT 1 FROM campaign_countries cc
+                          WHERE cc.filter_id = f.id AND cc.country = :country))
+          AND (NOT EXISTS (SELECT 1 FROM campaign_languages cl WHERE cl.filter_id = f.id)
+               OR EXISTS (SELECT 1 FROM campaign_languages cl
+                          WHERE cl.filter_id = f.id AND cl.language = :language))
+          AND (NOT EXISTS (SELECT 1 FROM campaign_devices cd WHERE cd.filter_id = f.id)
+               OR EXISTS (SELECT 1 FROM campaign_devices cd
+                          WHERE cd.filter_id = f.id AND cd.device   = :device))
+          AND (NOT EXISTS (SELECT 1 FROM campaign_oses co WHERE co.filter_id = f.id)
+               OR EXISTS (SELECT 1 FROM campaign_oses co
+                          WHERE co.filter_id = f.id AND co.os       = :os))
         ORDER BY c.bidding_rate DESC, c.campaign_id
         LIMIT :limit
         """,
@@ -5,6 +5,8 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.List;
+
 public interface AdDeliveryPickRepo extends Repository<com.gaurav.adDeliveryTesting.model.Campaign, Integer> {
     @Query(value = """
         SELECT c.campaign_id
@@ -14,10 +16,15 @@ public interface AdDeliveryPickRepo extends Repository<com.gaurav.adDeliveryTest
               SELECT 1
               FROM campaign_filters f
               WHERE f.campaign_id = c.campaign_id
-                AND EXISTS (SELECT 1 FROM campaign_countries  cc WHERE cc.filter_id = f.id AND cc.country  = :country)
-                AND EXISTS (SELECT 1 FROM campaign_languages  cl WHERE cl.filter_id = f.id AND cl.language = :language)
-                AND EXISTS (SELECT 1 FROM campaign_devices    cd WHERE cd.filter_id = f.id AND cd.device   = :device)
-                AND EXISTS (SELECT 1 FROM campaign_oses       co WHERE co.filter_id = f.id AND co.os       = :os)
+                -- coarse dims: an empty list means "any"
+                AND (NOT EXISTS (SELECT 1 FROM campaign_countries cc WHERE cc.filter_id = f.id)
+                     OR EXISTS (SELECT 1 FROM campaign_countries  cc WHERE cc.filter_id = f.id AND cc.country  = :country))
+                AND (NOT EXISTS (SELECT 1 FROM campaign_languages cl WHERE cl.filter_id = f.id)
+                     OR EXISTS (SELECT 1 FROM campaign_languages  cl WHERE cl.filter_id = f.id AND cl.language = :language))
+                AND (NOT EXISTS (SELECT 1 FROM campaign_devices   cd WHERE cd.filter_id = f.id)
+                     OR EXISTS (SELECT 1 FROM campaign_devices    cd WHERE cd.filter_id = f.id AND cd.device   = :device))
+                AND (NOT EXISTS (SELECT 1 FROM campaign_oses      co WHERE co.filter_id = f.id)
+                     OR EXISTS (SELECT 1 FROM campaign_oses       co WHERE co.filter_id = f.id AND co.os       = :os))
 
                 -- browser: enforced if list exists (match your "working" SQL)
                 AND (
@@ -31,18 +38,22 @@ public interface AdDeliveryPickRepo extends Repository<com.gaurav.adDeliveryTest
                   OR EXISTS (SELECT 1 FROM campaign_iab_category_filter ib WHERE ib.filter_id = f.id AND ib.iab_category = :iab)
                 )
 
-                -- IP block then allow
-                AND NOT EXISTS (SELECT 1 FROM campaign_excluded_ip x WHERE x.filter_id = f.id AND x.excluded_ip = :ip)
+                -- IP block then allow; :ips is the address plus its enclosing ranges for the CIDR
+                -- lengths in use (IpPrefixes.patterns), matching ranges stored in canonical form
+                AND NOT EXISTS (SELECT 1 FROM campaign_excluded_ip x WHERE x.filter_id = f.id AND x.excluded_ip IN (:ips))
                 AND (
                   NOT EXISTS (SELECT 1 FROM campaign_allowed_ip a WHERE a.filter_id = f.id)
-                  OR EXISTS (SELECT 1 FROM campaign_allowed_ip a WHERE a.filter_id = f.id AND a.allowed_ip = :ip)
+                  OR EXISTS (SELECT 1 FROM campaign_allowed_ip a WHERE a.filter_id = f.id AND a.allowed_ip = '*')
+                  OR EXISTS (SELECT 1 FROM campaign_allowed_ip a WHERE a.filter_id = f.id AND a.allowed_ip IN (:ips))
                 )
 
-                -- domain block then allow (store & pass lowercased)
-                AND NOT EXISTS (SELECT 1 FROM campaign_excluded_domain xd WHERE xd.filter_id = f.id AND xd.excluded_domain = :domain)
+                -- domain block then allow (store & pass lowercased); :domains is the host plus
+                -- its '*.parent' patterns (DomainUtils.suffixPatterns), so wildcards match too
+                AND NOT EXISTS (SELECT 1 FROM campaign_excluded_domain xd WHERE xd.filter_id = f.id AND xd.excluded_domain IN (:domains))
                 AND (
                   NOT EXISTS (SELECT 1 FROM campaign_allowed_domain ad WHERE ad.filter_id = f.id)
-                  OR EXISTS (SELECT 1 FROM campaign_allowed_domain ad WHERE ad.filter_id = f.id AND ad.allowed_domain = :domain)
+                  OR EXISTS (SELECT 1 FROM campaign_allowed_domain ad WHERE ad.filter_id = f.id AND ad.allowed_domain = '*')
+                  OR EXISTS (SELECT 1 FROM campaign_allowed_domain ad WHERE ad.filter_id = f.id AND ad.allowed_domain IN (:domains))
                 )
           )
         ORDER BY c.bidding_rate DESC, c.campaign_id
@@ -55,7 +66,7 @@ public interface AdDeliveryPickRepo extends Repository<com.gaurav.adDeliveryTest
             @Param("os")       String os,
             @Param("browser")  String browser,   // pass a real value; see note below
             @Param("iab")      String iab,       // pass a real value
-            @Param("ip")       String ip,
-            @Param("domain")   String domain     // lowercased host
+            @Param("ips")      List<String> ips,         // IpPrefixes.patterns(ip)
+            @Param("domains")  List<String> domains  // DomainUtils.suffixPatterns(lowercased host)
     );
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.gaurav.adDeliveryTesting.repo;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Campaign snapshots as {@link CampaignTargeting}, one row per campaign: streamed (warm passes,
+ * index builds) or by id (re-index, lazy indexing).
+ *
+ * Each filter collection comes back as an ARRAY(...) subquery over its (filter_id) index instead of
+ * a join, so there is no cartesian product, and rows are pulled through a server-side cursor
+ * (fetch size inside a transaction) so heap use doesn't grow with the table. Nothing here is a
+ * managed entity, so there is no persistence context to dirty-check or clear.
+ */
+@Repository
+public class CampaignTargetingRepo {
+
+    private static final String STREAM_SQL = """
+        SELECT c.campaign_id, c.delivery_link, c.bidding_rate, c.remaining_budget,
+               f.id IS NOT NULL AS has_filters,
+               ARRAY(SELECT country         FROM campaign_countries           WHERE filter_id = f.id) AS countries,
+               ARRAY(SELECT language        FROM campaign_languages           WHERE filter_id = f.id) AS languages,
+               ARRAY(SELECT device          FROM campaign_devices             WHERE filter_id = f.id) AS devices,
+               ARRAY(SELECT os              FROM campaign_oses                WHERE filter_id = f.id) AS oses,
+               ARRAY(SELECT browser         FROM campaign_browsers            WHERE filter_id = f.id) AS browsers,
+               ARRAY(SELECT iab_category    FROM campaign_iab_category_filter WHERE filter_id = f.id) AS iabs,
+               ARRAY(SELECT allowed_domain  FROM campaign_allowed_domain      WHERE filter_id = f.id) AS allow_domains,
+               ARRAY(SELECT allowed_ip      FROM campaign_allowed_ip          WHERE filter_id = f.id) AS allow_ips,
+               ARRAY(SELECT excluded_domain FROM campaign_excluded_domain     WHERE filter_id = f.id) AS block_domains,
+               ARRAY(SELECT excluded_ip     FROM campaign_excluded_ip         WHERE filter_id = f.id) AS block_ips
+        FROM campaign c
+        LEFT JOIN campaign_filters f ON f.campaign_id = c.campaign_id
+        """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate readTx;
+
+    public CampaignTargetingRepo(JdbcTemplate jdbc, PlatformTransactionManager txm) {
+        this.jdbc = jdbc;
+        this.readTx = new TransactionTemplate(txm);
+        this.readTx.setReadOnly(true);
+    }
+
+    public long count() {
+        Long n = readTx.execute(status -> jdbc.queryForObject("SELECT count(*) FROM campaign", Long.class));
+        return n == null ? 0 : n;
+    }
+
+    /** Snapshots for {@code ids}, in no particular order; ids without a campaign row are skipped. */
+    public List<CampaignTargeting> findByIds(Collection<Integer> ids) {
+        if (ids.isEmpty()) return List.of();
+        Integer[] arr = ids.toArray(Integer[]::new);
+        List<CampaignTargeting> out = readTx.execute(status -> jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(STREAM_SQL + " WHERE c.campaign_id = ANY(?)");
+            ps.setArray(1, con.createArrayOf("integer", arr));
+            return ps;
+        }, (rs, i) -> map(rs)));
+        return out == null ? List.of() : out;
+    }
+
+    /** Calls {@code sink} for every campaign, on the calling thread, in cursor order. */
+    public void streamAll(int fetchSize, Consumer<CampaignTargeting> sink) {
+        readTx.executeWithoutResult(status -> jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(STREAM_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize); // pgjdbc only uses a cursor with auto-commit off, hence the tx
+            return ps;
+        }, (ResultSet rs) -> sink.accept(map(rs))));
+    }
+
+    private static CampaignTargeting map(ResultSet rs) throws SQLException {
+        return new CampaignTargeting(
+                rs.getInt("campaign_id"),
+                rs.getString("delivery_link"),
+                MoneyUtils.toCents(rs.getBigDecimal("bidding_rate")),
+                MoneyUtils.toCents(rs.getBigDecimal("remaining_budget")),
+                rs.getBoolean("has_filters"),
+                strings(rs.getArray("countries")),
+                strings(rs.getArray("languages")),
+                strings(rs.getArray("devices")),
+                strings(rs.getArray("oses")),
+                strings(rs.getArray("browsers")),
+                strings(rs.getArray("iabs")),
+                strings(rs.getArray("allow_domains")),
+                strings(rs.getArray("allow_ips")),
+                strings(rs.getArray("block_domains")),
+                strings(rs.getArray("block_ips")));
+    }
+
+    private static List<String> strings(Array a) throws SQLException {
+        if (a == null) return List.of();
+        Object[] vals = (Object[]) a.getArray();
+        if (vals.length == 0) return List.of();
+        String[] out = new String[vals.length];
+        for (int i = 0; i < vals.length; i++) out[i] = (String) vals[i];
+        return Collections.unmodifiableList(Arrays.asList(out));
+    }
+}
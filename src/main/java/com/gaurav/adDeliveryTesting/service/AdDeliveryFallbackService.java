@@ -1,34 +1,85 @@
 package com.gaurav.adDeliveryTesting.service;
 
-import com.gaurav.adDeliveryTesting.model.Campaign;
-import com.gaurav.adDeliveryTesting.model.CampaignFilters;
-import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
 import com.gaurav.adDeliveryTesting.responseDto.ServeResponseDTO;
 import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import org.redisson.api.RScript;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serving while Redis is unreachable ({@link RedisCircuitBreaker} open).
+ *
+ * Picks come from a {@link TargetingIndex} over every campaign snapshot, kept current from the
+ * change-capture listener and fully reloaded every adserve.outage.full.refresh.ms, so a request
+ * is a handful of bitmap ANDs instead of a table scan. Spend comes from a per-campaign local
+ * allowance of min(last known remaining, max.impressions x bid), so overspend during an outage
+ * is bounded by that allowance per campaign served; once the breaker closes, what was spent is
+ * pushed to campaign:budget/delta/touched like any other spend.
+ */
 @Service
 public class AdDeliveryFallbackService {
 
-    private final AdDeliveryRepo repo;
-    private final CampaignCacheService cache;
-    private final BudgetCounterService budget;
-
-    public AdDeliveryFallbackService(AdDeliveryRepo repo,
-                                     CampaignCacheService cache,
-                                     BudgetCounterService budget) {
-        this.repo = repo;
-        this.cache = cache;
-        this.budget = budget;
+    private static final Logger log = LoggerFactory.getLogger(AdDeliveryFallbackService.class);
+
+    private static final int FETCH_SIZE   = 1000;
+    private static final int MAX_ATTEMPTS = 8;   // candidates tried per request
+
+    // KEYS[1] = campaign:budget:{id}, KEYS[2] = campaign:delta:{id},
+    // KEYS[3] = campaign:touched (single node only; TouchedCampaigns marks it in a cluster)
+    // ARGV[1] = spent cents, ARGV[2] = campaignId
+    private static final String SETTLE_LUA = """
+local spent = tonumber(ARGV[1])
+if redis.call('HEXISTS', KEYS[1], 'remaining') == 1 then
+  redis.call('HINCRBY', KEYS[1], 'remaining', -spent)
+end
+redis.call('INCRBY', KEYS[2], spent)
+if KEYS[3] then redis.call('SADD', KEYS[3], ARGV[2]) end
+return 1
+""";
+
+    private final CampaignTargetingRepo rows;
+    private final RedisCircuitBreaker breaker;
+    private final RedisScriptRegistry.Script settleScript;
+    private final TouchedCampaigns touched;
+
+    private final Map<Integer, CampaignTargeting> campaigns = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile TargetingIndex index = TargetingIndex.EMPTY;
+
+    private final Map<Integer, Allowance> allowances = new ConcurrentHashMap<>();
+
+    @Value("${adserve.outage.enabled:false}")
+    private boolean enabled;
+
+    @Value("${adserve.outage.max.impressions:50}")
+    private long maxImpressions;
+
+    public AdDeliveryFallbackService(CampaignTargetingRepo rows,
+                                     RedisCircuitBreaker breaker,
+                                     RedisScriptRegistry scripts,
+                                     TouchedCampaigns touched) {
+        this.rows = rows;
+        this.breaker = breaker;
+        this.settleScript = scripts.register("outage-settle", SETTLE_LUA);
+        this.touched = touched;
     }
 
-    @Transactional(readOnly = true)
+    /** Pick + local spend from the in-memory index; never touches Redis or the DB. */
     public Optional<ServeResponseDTO> serveAdFallback(String country,
                                                       String language,
                                                       String device,
@@ -37,66 +88,116 @@ public class AdDeliveryFallbackService {
                                                       String domain,
                                                       String browser,
                                                       String iab) {
-        final String dom = domain == null ? "" : domain.trim().toLowerCase();
-        final String br  = browser == null ? "" : browser.trim();
-        final String iabCode = iab == null ? "" : iab.trim();
-        final String ipAddr  = ip == null ? "" : ip.trim();
-
-        List<Campaign> campaigns = repo.findAllWithFilters();
-
-        var matching = campaigns.stream()
-                .filter(c -> {
-                    CampaignFilters f = c.getFilters();
-                    if (f == null) return false;
+        if (!enabled) return Optional.empty();
+        TargetingIndex idx = index;
+
+        RoaringBitmap r = idx.match(country, language, device, os,
+                nvl(ip).trim(), nvl(domain).trim().toLowerCase(), nvl(browser).trim(), nvl(iab).trim());
+        if (r.isEmpty()) return Optional.empty();
+
+        for (int ord : idx.ranked(r, MAX_ATTEMPTS, ThreadLocalRandom.current().nextInt())) {
+            int id = idx.campaignId(ord);
+            long bid = idx.bidCents(ord);
+            CampaignTargeting t = campaigns.get(id);
+            if (t == null) continue;
+
+            Allowance a = allowances.computeIfAbsent(id,
+                    k -> new Allowance(Math.min(t.remainingCents(), maxImpressions * bid)));
+            if (!a.take(bid)) continue;
+
+            return Optional.of(new ServeResponseDTO(
+                    id,
+                    t.deliveryLink(),
+                    MoneyUtils.fromCents(bid),
+                    MoneyUtils.fromCents(Math.max(t.remainingCents() - a.spentTotal.get(), 0))
+            ));
+        }
+        return Optional.empty();
+    }
 
-                    if (country  != null && !f.getCountries().contains(country)) return false;
-                    if (language != null && !f.getLanguages().contains(language)) return false;
-                    if (device   != null && !f.getDevices().contains(device))     return false;
-                    if (os       != null && !f.getOsList().contains(os))          return false;
+    // ---------- Refresh ----------
+
+    /** Full reload; runs at startup and then on a long fixed delay (deletions, missed changes). */
+    @Scheduled(fixedDelayString = "${adserve.outage.full.refresh.ms:600000}")
+    public void reloadAll() {
+        if (!enabled) return;
+        long t0 = System.nanoTime();
+        Map<Integer, CampaignTargeting> fresh = new ConcurrentHashMap<>();
+        rows.streamAll(FETCH_SIZE, t -> fresh.put(t.campaignId(), t));
+        campaigns.keySet().retainAll(fresh.keySet());
+        campaigns.putAll(fresh);
+        rebuild();
+        log.info("Outage matcher reloaded: {} campaigns ({} live) in {} ms",
+                fresh.size(), index.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
 
-                    if (!f.getBrowsers().isEmpty() && !br.isEmpty() && !f.getBrowsers().contains(br)) return false;
-                    if (!iabCode.isEmpty() && !f.getIabCategory().isEmpty() && !f.getIabCategory().contains(iabCode)) return false;
+    /** Incremental update for changed campaign ids (called by the change-capture listener). */
+    public void applyChanges(Collection<Integer> ids) {
+        if (!enabled || ids.isEmpty()) return;
+        List<CampaignTargeting> found = rows.findByIds(ids);
+        for (Integer id : ids) campaigns.remove(id);
+        for (CampaignTargeting t : found) campaigns.put(t.campaignId(), t);
+        dirty.set(true);
+    }
 
-                    if (!f.getAllowedIP().isEmpty() && !ipAddr.isEmpty() && !f.getAllowedIP().contains(ipAddr)) return false;
-                    if (!f.getAllowedDomain().isEmpty() && !dom.isEmpty() &&
-                            !f.getAllowedDomain().stream().anyMatch(d -> d != null && d.equalsIgnoreCase(dom))) return false;
+    /** Coalesces bursts of changes into at most one index build per interval. */
+    @Scheduled(fixedDelayString = "${adserve.outage.rebuild.ms:1000}")
+    public void rebuildIfDirty() {
+        if (dirty.compareAndSet(true, false)) rebuild();
+    }
 
-                    if (!f.getExcludedIP().isEmpty() && !ipAddr.isEmpty() && f.getExcludedIP().contains(ipAddr)) return false;
-                    if (!f.getExcludedDomain().isEmpty() && !dom.isEmpty() &&
-                            f.getExcludedDomain().stream().anyMatch(d -> d != null && d.equalsIgnoreCase(dom))) return false;
+    private void rebuild() {
+        index = TargetingIndex.build(campaigns.values());
+    }
 
-                    return true;
-                })
-                .filter(c -> c.getRemainingBudget().compareTo(BigDecimal.ZERO) > 0)
-                .toList();
+    // ---------- Reconcile ----------
+
+    /** Push outage spend to Redis once it's reachable again; failures keep the numbers for next time. */
+    @Scheduled(fixedDelayString = "${adserve.outage.reconcile.ms:1000}")
+    public void reconcile() {
+        if (allowances.isEmpty() || breaker.isOpen()) return;
+        for (var e : allowances.entrySet()) {
+            int id = e.getKey();
+            Allowance a = e.getValue();
+            long spent = a.unsettled.getAndSet(0);
+            if (spent > 0) {
+                try {
+                    settleScript.eval(RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                            touched.spendKeys(id),
+                            Long.toString(spent), Integer.toString(id));
+                    touched.mark(id);
+                } catch (RuntimeException ex) {
+                    a.unsettled.addAndGet(spent);
+                    breaker.onFailure(ex);
+                    log.warn("Outage spend reconcile failed for campaign {}", id, ex);
+                    return;
+                }
+            }
+            // fresh allowance next outage, sized from the then-current snapshot
+            if (a.unsettled.get() == 0) allowances.remove(id, a);
+        }
+        log.debug("Outage spend reconciled with Redis");
+    }
 
-        if (matching.isEmpty()) return Optional.empty();
+    private static String nvl(String s) { return (s == null ? "" : s); }
 
-        BigDecimal topBid = matching.stream().map(Campaign::getBiddingRate).max(BigDecimal::compareTo).orElse(BigDecimal.ZERO);
-        var topCampaigns = matching.stream().filter(c -> c.getBiddingRate().compareTo(topBid) == 0).toList();
-        if (topCampaigns.isEmpty()) return Optional.empty();
+    private static final class Allowance {
+        final AtomicLong left;
+        final AtomicLong unsettled = new AtomicLong();  // spent locally, not yet in Redis
+        final AtomicLong spentTotal = new AtomicLong();
 
-        Campaign chosen = topCampaigns.get(ThreadLocalRandom.current().nextInt(topCampaigns.size()));
+        Allowance(long cents) { this.left = new AtomicLong(Math.max(cents, 0)); }
 
-        CampaignFilters cf = chosen.getFilters();
-        if (cf != null) {
-            for (String ctry : cf.getCountries())
-                for (String lang : cf.getLanguages())
-                    for (String dev  : cf.getDevices())
-                        for (String osItem : cf.getOsList())
-                            cache.addCampaignToZset(chosen, ctry, lang, dev, osItem);
+        boolean take(long cents) {
+            long v;
+            while ((v = left.get()) >= cents) {
+                if (left.compareAndSet(v, v - cents)) {
+                    unsettled.addAndGet(cents);
+                    spentTotal.addAndGet(cents);
+                    return true;
+                }
+            }
+            return false;
         }
-
-        long bidCents = MoneyUtils.toCents(chosen.getBiddingRate());
-        int rc = budget.trySpendCents(chosen.getCampaignId(), bidCents);
-        if (rc == 0) return Optional.empty();
-        if (rc == 2) cache.removeCampaignEverywhere(chosen.getCampaignId());
-
-        return Optional.of(new ServeResponseDTO(
-                chosen.getCampaignId(),
-                chosen.getDeliveryLink(),
-                chosen.getBiddingRate(),
-                chosen.getRemainingBudget().subtract(chosen.getBiddingRate())
-        ));
     }
-}
\ No newline at end of file
+}
@@ -3,16 +3,25 @@ package com.gaurav.adDeliveryTesting.service;
 import com.gaurav.adDeliveryTesting.repo.AdDeliveryPickRepo;
 import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
 import com.gaurav.adDeliveryTesting.repo.BudgetRepo;
+import com.gaurav.adDeliveryTesting.responseDto.CampaignResponseDto;
 import com.gaurav.adDeliveryTesting.responseDto.ServeResponseDTO;
+import com.gaurav.adDeliveryTesting.utils.DomainUtils;
 import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 
 @Service
@@ -25,14 +34,26 @@ public class AdDeliveryService {
     private final LazyIndexer indexer;
     private final NegativeResultCache neg;     // NEW
     private final PositivePickCache pos;       // NEW
-    private final DbBulkhead bulkhead;         // NEW
+    private final DbBulkhead bulkhead;         // adaptive limit on pick SQL + DB spends
+    private final Executor dbExecutor;         // async path only
+    private final RedisCircuitBreaker breaker; // open => serve from the in-memory fallback, skip the DB path
 
     @Autowired private AdDeliveryPickRepo pickRepo;
     @Autowired private BudgetDbService budgetDbService;
+    @Autowired private IpPrefixes ipPrefixes;
+    @Autowired(required = false) private LocalServeEngine localEngine; // only with adserve.engine=local
+
+    // candidates the batch pick may examine per requested slot before giving up
+    private static final int BATCH_SCAN_FACTOR = 8;
 
     @Value("${adserve.dbFallbackEnabled:true}")
     private boolean dbFallbackEnabled;
 
+    @Value("${adserve.db.singleflight.wait.ms:500}")
+    private long singleFlightWaitMs;
+
+    private final SingleFlight<PickKey, Integer> picks = new SingleFlight<>();
+
     public AdDeliveryService(AdDeliveryRepo repo,
                              CampaignMetadataCache meta,
                              ServeScriptService serveScript,
@@ -40,7 +61,9 @@ public class AdDeliveryService {
                              LazyIndexer indexer,
                              NegativeResultCache neg,
                              PositivePickCache pos,
-                             DbBulkhead bulkhead) {
+                             DbBulkhead bulkhead,
+                             @Qualifier("serveDbExecutor") Executor dbExecutor,
+                             RedisCircuitBreaker breaker) {
         this.repo = repo;
         this.meta = meta;
         this.serveScript = serveScript;
@@ -49,14 +72,110 @@ public class AdDeliveryService {
         this.neg = neg;
         this.pos = pos;
         this.bulkhead = bulkhead;
+        this.dbExecutor = dbExecutor;
+        this.breaker = breaker;
     }
 
     public Optional<ServeResponseDTO> serveFast(String country, String language, String device, String os,
                                                 String ip, String domain, String browser, String iab) {
-        var r = serveScript.pickAndSpend(country, language, device, os, ip, domain, browser, iab);
+        if (!breaker.allow()) return fallback.serveAdFallback(country, language, device, os, ip, domain, browser, iab);
+        ServeScriptService.ServeResult r;
+        try {
+            r = (localEngine != null)
+                    ? localEngine.pickAndSpend(country, language, device, os, ip, domain, browser, iab)
+                    : serveScript.pickAndSpend(country, language, device, os, ip, domain, browser, iab);
+            breaker.onSuccess();
+        } catch (RuntimeException e) {
+            if (!breaker.onFailure(e)) throw e;
+            return fallback.serveAdFallback(country, language, device, os, ip, domain, browser, iab);
+        }
         if (r.code == 0 || r.campaignId == null) return Optional.empty();
+        return toDto(r);
+    }
+
+    /**
+     * Up to {@code slots} distinct campaigns for one page view, spent in a single Redis round trip.
+     * If the fast path fills nothing we fall back to the single-slot {@link #serve} (DB path included).
+     */
+    public List<ServeResponseDTO> serveBatch(String country, String language, String device, String os,
+                                             String ip, String domain, String browser, String iab, int slots) {
+        int maxScan = slots * BATCH_SCAN_FACTOR;
+        List<ServeScriptService.ServeResult> results;
+        // while the breaker is open serve() below answers from the in-memory fallback (one slot)
+        boolean allowed = breaker.allow();
+        try {
+            results = !allowed ? List.of() : (localEngine != null)
+                    ? localEngine.pickAndSpendMany(country, language, device, os, ip, domain, browser, iab, slots, maxScan)
+                    : serveScript.pickAndSpendMany(country, language, device, os, ip, domain, browser, iab, slots, maxScan);
+            if (allowed) breaker.onSuccess();
+        } catch (RuntimeException e) {
+            if (!breaker.onFailure(e)) throw e;
+            results = List.of();
+        }
 
-        var v = meta.get(r.campaignId);
+        List<ServeResponseDTO> out = new ArrayList<>(results.size());
+        for (var r : results) toDto(r).ifPresent(out::add);
+        if (!out.isEmpty()) return out;
+
+        return serve(country, language, device, os, ip, domain, browser, iab)
+                .map(List::of)
+                .orElse(List.of());
+    }
+
+    /**
+     * Non-blocking variant of {@link #serve}: the Lua eval and metadata lookup are async, and the DB
+     * fallback runs on the bounded serveDbExecutor (rejected work answers empty, like the bulkhead).
+     * With adserve.engine=local the pick is in-JVM anyway; only its budget spend still blocks.
+     */
+    public CompletableFuture<Optional<ServeResponseDTO>> serveAsync(String country, String language, String device, String os,
+                                                                    String ip, String domain, String browser, String iab) {
+        final String d  = (domain  == null ? "" : domain);
+        final String br = (browser == null ? "" : browser);
+        final String ic = (iab     == null ? "" : iab);
+        final String ipx= (ip      == null ? "" : ip);
+
+        if (!breaker.allow()) {
+            return CompletableFuture.completedFuture(fallback.serveAdFallback(country, language, device, os, ipx, d, br, ic));
+        }
+        CompletableFuture<ServeScriptService.ServeResult> pick;
+        try {
+            pick = (localEngine != null)
+                    ? CompletableFuture.completedFuture(localEngine.pickAndSpend(country, language, device, os, ipx, d, br, ic))
+                    : serveScript.pickAndSpendAsync(country, language, device, os, ipx, d, br, ic);
+        } catch (RuntimeException e) {
+            pick = CompletableFuture.failedFuture(e);
+        }
+
+        return pick
+                .thenCompose(r -> (r.code == 0 || r.campaignId == null)
+                        ? CompletableFuture.completedFuture(Optional.<ServeResponseDTO>empty())
+                        : meta.getAsync(r.campaignId).thenApply(v -> toDto(r, v)))
+                .handle((fast, err) -> {
+                    if (err == null) {
+                        breaker.onSuccess();
+                        return CompletableFuture.completedFuture(fast);
+                    }
+                    if (!breaker.onFailure(err)) return CompletableFuture.<Optional<ServeResponseDTO>>failedFuture(err);
+                    return CompletableFuture.completedFuture(
+                            fallback.serveAdFallback(country, language, device, os, ipx, d, br, ic));
+                })
+                .thenCompose(f -> f)
+                .thenCompose(fast -> {
+                    if (fast.isPresent() || breaker.isOpen()) return CompletableFuture.completedFuture(fast);
+                    try {
+                        return CompletableFuture.supplyAsync(
+                                () -> serveFromDb(country, language, device, os, ipx, d, br, ic), dbExecutor);
+                    } catch (RejectedExecutionException e) {
+                        return CompletableFuture.completedFuture(Optional.empty());
+                    }
+                });
+    }
+
+    private Optional<ServeResponseDTO> toDto(ServeScriptService.ServeResult r) {
+        return toDto(r, meta.get(r.campaignId));
+    }
+
+    private static Optional<ServeResponseDTO> toDto(ServeScriptService.ServeResult r, CampaignResponseDto v) {
         if (v == null) return Optional.empty();
 
         return Optional.of(new ServeResponseDTO(
@@ -81,8 +200,17 @@ public class AdDeliveryService {
         var fast = serveFast(country, language, device, os, ipx, d, br, ic);
         if (fast.isPresent()) return fast;
 
-        // build coarse key identical to your SQL parameters order
-        final String key = String.join("|", country, language, device, os, br, ic, ipx, d);
+        // Redis is down: the DB path would take every request's load (and enqueue Redis writes); stay degraded
+        if (breaker.isOpen()) return Optional.empty();
+
+        return serveFromDb(country, language, device, os, ipx, d, br, ic);
+    }
+
+    /** Caches + bulkheaded SQL pick + DB spend; the arguments are already null-normalized. */
+    private Optional<ServeResponseDTO> serveFromDb(String country, String language, String device, String os,
+                                                   String ipx, String d, String br, String ic) {
+        // fingerprint of the SQL parameters, hashed without joining them into a String
+        final PickKey key = PickKey.of(country, language, device, os, br, ic, ipx, d);
 
         // 2) negative cache: avoid pounding DB on known-miss keys
         if (neg.recentlyMissed(key)) return Optional.empty();
@@ -92,7 +220,12 @@ public class AdDeliveryService {
         if (cachedId != null) {
             var metaDto = meta.get(cachedId);
             if (metaDto != null) {
-                var newRem = budgetDbService.trySpendAndGetRemaining(cachedId, MoneyUtils.fromCents(metaDto.bidCents()));
+                BigDecimal newRem;
+                try {
+                    newRem = spendInDb(cachedId, metaDto.bidCents());
+                } catch (DbLimited e) {
+                    return Optional.empty(); // shed, not a miss: the cached pick is still good
+                }
                 if (newRem != null) {
                     indexer.enqueueIndex(country, language, device, os, cachedId); // fire-and-forget
                     return Optional.of(new ServeResponseDTO(
@@ -110,49 +243,105 @@ public class AdDeliveryService {
             }
         }
 
-        // 4) bulkhead before doing the expensive pick SQL
-        if (!bulkhead.enter()) {
-            // fast fail under surge so we don’t exhaust Hikari waiting
-            neg.markMiss(key, /*ttl override*/ 1000); // very short miss to dampen a spike
+        // 4) one pick query per fingerprint at a time: concurrent misses wait for the leader's pick
+        //    (up to adserve.db.singleflight.wait.ms) and then each spends it on its own
+        final Integer id;
+        try {
+            id = picks.execute(key, singleFlightWaitMs, () -> pickFromDb(key, country, language, device, os, ipx, d, br, ic));
+        } catch (TimeoutException e) {
+            return Optional.empty(); // leader still running: no negative entry, this may well have an answer
+        } catch (DbLimited e) {
+            return Optional.empty(); // the leader was shed: nothing cached, the next request picks again
+        }
+        if (id == null) return Optional.empty();
+
+        var metaDto = meta.get(id);
+        if (metaDto == null) {
+            neg.markMiss(key);
             return Optional.empty();
         }
+
+        BigDecimal newRemaining;
         try {
-            Integer id = pickRepo.pickTopOne(country, language, device, os, br, ic, ipx, d);
-            if (id == null) {
-                neg.markMiss(key);
-                return Optional.empty();
-            }
+            newRemaining = spendInDb(id, metaDto.bidCents());
+        } catch (DbLimited e) {
+            return Optional.empty();
+        }
+        if (newRemaining == null) {
+            // lost the race on budget; mark short miss and bail
+            neg.markMiss(key, 1000);
+            pos.invalidate(key);
+            return Optional.empty();
+        }
 
-            var metaDto = meta.get(id);
-            if (metaDto == null) {
-                neg.markMiss(key);
-                return Optional.empty();
-            }
+        // warm positive cache briefly so repeated identical requests skip pick SQL
+        pos.put(key, id);
 
-            var newRemaining = budgetDbService.trySpendAndGetRemaining(id, MoneyUtils.fromCents(metaDto.bidCents()));
-            if (newRemaining == null) {
-                // lost the race on budget; mark short miss and bail
-                neg.markMiss(key, 1000);
-                return Optional.empty();
-            }
+        // warm Redis for this coarse key
+        indexer.enqueueIndex(country, language, device, os, id);
 
-            // warm positive cache briefly so repeated identical requests skip pick SQL
-            pos.put(key, id);
+        return Optional.of(new ServeResponseDTO(
+                metaDto.campaignId(),
+                metaDto.deliveryLink(),
+                MoneyUtils.fromCents(metaDto.bidCents()),
+                newRemaining
+        ));
+    }
 
-            // warm Redis for this coarse key
-            indexer.enqueueIndex(country, language, device, os, id);
+    /**
+     * The pick SQL under the DB limiter, run by the single-flight leader; null = nothing to serve
+     * (cached as a miss). Throws {@link DbLimited} to the leader and its followers when shed.
+     */
+    private Integer pickFromDb(PickKey key, String country, String language, String device, String os,
+                               String ipx, String d, String br, String ic) {
+        DbBulkhead.Permit permit = bulkhead.tryAcquire();
+        if (permit == null) throw DbLimited.INSTANCE; // fast fail under surge so we don’t exhaust Hikari waiting
+        try {
+            Integer id = pickRepo.pickTopOne(country, language, device, os, br, ic,
+                    ipPrefixes.patterns(ipx.trim()), DomainUtils.suffixPatterns(d.toLowerCase()));
+            if (id == null) neg.markMiss(key);
+            return id;
+        } catch (RuntimeException e) {
+            permit.failed();
+            throw e;
+        } finally {
+            permit.close();
+        }
+    }
 
-            return Optional.of(new ServeResponseDTO(
-                    metaDto.campaignId(),
-                    metaDto.deliveryLink(),
-                    MoneyUtils.fromCents(metaDto.bidCents()),
-                    newRemaining
-            ));
+    /** DB budget spend under the limiter; null when the budget is short, {@link DbLimited} when the DB is at its limit. */
+    private BigDecimal spendInDb(int campaignId, long bidCents) {
+        DbBulkhead.Permit permit = bulkhead.tryAcquire();
+        if (permit == null) throw DbLimited.INSTANCE;
+        try {
+            return budgetDbService.trySpendAndGetRemaining(campaignId, MoneyUtils.fromCents(bidCents));
+        } catch (RuntimeException e) {
+            permit.failed();
+            throw e;
         } finally {
-            bulkhead.leave();
+            permit.close();
         }
     }
 
+    /** Hit/miss/eviction counters of the DB-fallback pick caches + single-flight (GET /admin/pick-caches). */
+    public Map<String, Object> pickCacheStats() {
+        return Map.of("negative", neg.stats(), "positive", pos.stats(), "singleFlight", picks.stats());
+    }
+
+    /** Adaptive DB limiter state and counters (GET /admin/db-limiter). */
+    public Map<String, Object> dbLimiterStats() {
+        return bulkhead.stats();
+    }
+
+    /**
+     * The DB limiter turned a call away. Load shedding says nothing about the request, so it must
+     * not reach the pick caches (a negative entry would turn valid requests into misses).
+     */
+    private static final class DbLimited extends RuntimeException {
+        static final DbLimited INSTANCE = new DbLimited();
+        private DbLimited() { super("DB limiter at capacity", null, false, false); }
+    }
+
     @org.springframework.transaction.annotation.Transactional(readOnly = true)
     @Cacheable(value = "campaign", key = "'all'", unless = "#result == null || #result.isEmpty()")
     public List<com.gaurav.adDeliveryTesting.model.Campaign> getCampaign() {
@@ -1,58 +1,62 @@
 package com.gaurav.adDeliveryTesting.service;
 
 import org.redisson.api.RScript;
-import org.redisson.api.RedissonClient;
-import org.redisson.client.codec.StringCodec;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 @Component
 public class BudgetCounterService {
-    @Autowired
-    private RedissonClient redisson;
+
+    @Autowired(required = false)
+    private BudgetLeaseService leases; // only with adserve.budget.lease.enabled=true
 
     // KEYS[1] = campaign:budget:{id}
     // KEYS[2] = campaign:delta:{id}
-    // KEYS[3] = campaign:touched
+    // KEYS[3] = campaign:touched (single node only; TouchedCampaigns marks it in a cluster)
     // ARGV[1] = bidCents
     // ARGV[2] = campaignId
-    private static final String SPEND_LUA = """
--- KEYS[1] = campaign:budget:{id}
--- KEYS[2] = campaign:delta:{id}
--- KEYS[3] = campaign:touched
--- ARGV[1] = bidCents
--- ARGV[2] = campaignId
-local rem = redis.call('HGET', KEYS[1], 'remaining')
-if not rem then return {0, nil} end
-local remNum = tonumber(rem)
+    // ARGV[3] = seed (first sub-counter tried for a sharded budget, see BudgetShards)
+    private static final String SPEND_LUA = BudgetShards.SPEND_FN + """
 local bid = tonumber(ARGV[1])
-if remNum < bid then return {0, rem} end
-local newRem = remNum - bid
-redis.call('HSET', KEYS[1], 'remaining', tostring(newRem))
+local code, rem = spendBudget(KEYS[1], bid, tonumber(ARGV[3]))
+if not code then return {0} end
 redis.call('INCRBY', KEYS[2], bid)
-redis.call('SADD', KEYS[3], ARGV[2])
-if newRem <= 0 then return {2, '0'} end
-return {1, tostring(newRem)}
+if KEYS[3] then redis.call('SADD', KEYS[3], ARGV[2]) end
+return {code, tostring(rem)}
 """;
 
+    private final RedisScriptRegistry.Script spendScript;
+    private final TouchedCampaigns touched;
+
+    public BudgetCounterService(RedisScriptRegistry scripts, TouchedCampaigns touched) {
+        this.spendScript = scripts.register("spend", SPEND_LUA);
+        this.touched = touched;
+    }
+
     public int trySpendCents(int campaignId, long bidCents) {
-        String budgetKey = "campaign:budget:" + campaignId;
-        String deltaKey  = "campaign:delta:" + campaignId;
-        String touchedKey = "campaign:touched";
+        return spend(campaignId, bidCents).code;
+    }
 
-        var script = redisson.getScript(StringCodec.INSTANCE);
+    /** Same spend, but keeps the new remaining the script already computed (codes as in the serve Lua). */
+    public ServeScriptService.ServeResult spend(int campaignId, long bidCents) {
+        if (leases != null) return leases.trySpend(campaignId, bidCents);
 
-        @SuppressWarnings("unchecked")
-        java.util.List<Object> res = (java.util.List<Object>) script.eval(
+        java.util.List<Object> res = spendScript.eval(
                 RScript.Mode.READ_WRITE,
-                SPEND_LUA,
                 RScript.ReturnType.MULTI,
-                java.util.Arrays.asList(budgetKey, deltaKey, touchedKey),
+                touched.spendKeys(campaignId),
                 String.valueOf(bidCents),
-                String.valueOf(campaignId)
+                String.valueOf(campaignId),
+                String.valueOf(ThreadLocalRandom.current().nextInt(1 << 30))
         );
 
+        if (res == null || res.isEmpty()) return new ServeScriptService.ServeResult(0, null, null);
         Number code = (Number) res.get(0);
-        return code == null ? 0 : code.intValue();
+        int rc = code == null ? 0 : code.intValue();
+        Long newRem = (rc != 0 && res.size() > 1 && res.get(1) != null) ? Long.valueOf(res.get(1).toString()) : null;
+        if (rc != 0) touched.mark(campaignId);
+        return new ServeScriptService.ServeResult(rc, rc == 0 ? null : campaignId, newRem);
     }
-}
\ No newline at end of file
+}
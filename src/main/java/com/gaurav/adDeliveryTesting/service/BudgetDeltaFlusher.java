@@ -1,92 +1,283 @@
 package com.gaurav.adDeliveryTesting.service;
 
-import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
-import org.redisson.api.RBucket;
+import com.gaurav.adDeliveryTesting.config.RedisCacheConfig;
+import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import org.redisson.api.RBatch;
+import org.redisson.api.RMap;
+import org.redisson.api.RScript;
 import org.redisson.api.RSet;
 import org.redisson.api.RedissonClient;
 import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.math.BigDecimal;
-import java.sql.PreparedStatement;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Write-behind of Redis spend into campaign.remaining_budget, on the flusher pool.
+ *
+ * Each drained batch gets a batch id. The drain script parks the batch's id/delta pairs in
+ * campaign:flush:pending under that id, and the UPDATE records the id in budget_flush_batch in the
+ * same statement (ON CONFLICT DO NOTHING gates the debit). The pending entry is removed only after
+ * commit, so a failed or interrupted flush is replayed with the same id and can't debit twice.
+ *
+ * In a Redis Cluster the touched set, the pending hash and each campaign's delta sit in different
+ * slots, so no one script can do that. There the batch's ids are parked in pending first, each
+ * delta is moved into campaign:inflight:{id} under the batch id by a script in the campaign's own
+ * slot, and after commit those fields are released; a replay rebuilds the batch from the
+ * inflight fields only. It never takes a fresh delta: the batch may have committed and released
+ * its fields before the crash, and fresh spend filed under an applied id would be dropped by
+ * ON CONFLICT. Ids it finds nothing for go back into touched for the next batch. Ids popped from
+ * touched but lost before they reach pending keep their delta in Redis until the campaign's next
+ * spend marks it again.
+ */
 @Component
 public class BudgetDeltaFlusher {
 
-    private final RedissonClient redisson;
+    private static final Logger log = LoggerFactory.getLogger(BudgetDeltaFlusher.class);
+
+    private static final int MAX_PER_FLUSH = 10_000; // tune
+    private static final int DRAIN_BATCH   = 2_000;  // ids per drain call == rows per UPDATE
+
+    // single node only (undeclared delta keys)
+    // KEYS[1] = campaign:touched, KEYS[2] = pending batches hash
+    // ARGV[1] = max ids to pop, ARGV[2] = batch id
+    // returns {popped, id1, delta1, id2, delta2, ...}; only ids with a positive delta are listed
+    static final String DRAIN_LUA = RedisKeys.LUA_CKEY + """
+local ids = redis.call('SPOP', KEYS[1], tonumber(ARGV[1]))
+local out = {#ids}
+local pending = {}
+for _, id in ipairs(ids) do
+  local raw = redis.call('GETSET', ckey('delta', id), '0')
+  local v = tonumber(raw)
+  if v and v > 0 then
+    out[#out + 1] = id
+    out[#out + 1] = raw
+    pending[#pending + 1] = id .. ':' .. raw
+  end
+end
+if #pending > 0 then redis.call('HSET', KEYS[2], ARGV[2], table.concat(pending, ',')) end
+return out
+""";
+
+    // cluster mode, one campaign's slot
+    // KEYS[1] = campaign:delta:{id}, KEYS[2] = campaign:inflight:{id}
+    // ARGV[1] = batch id, ARGV[2] = '1' when replaying: only what the batch already took is returned
+    // returns the cents taken for this batch (also when already taken)
+    static final String TAKE_LUA = """
+local taken = redis.call('HGET', KEYS[2], ARGV[1])
+if taken then return tonumber(taken) end
+if ARGV[2] == '1' then return 0 end
+local v = tonumber(redis.call('GETSET', KEYS[1], '0')) or 0
+if v <= 0 then return 0 end
+redis.call('HSET', KEYS[2], ARGV[1], v)
+return v
+""";
+
+    // fixed text => one cached plan, whatever the batch size
+    private static final String APPLY_SQL = """
+        WITH fresh AS (
+            INSERT INTO budget_flush_batch (batch_id, applied_at) VALUES (?, now())
+            ON CONFLICT (batch_id) DO NOTHING
+            RETURNING batch_id
+        )
+        UPDATE campaign c
+        SET remaining_budget = c.remaining_budget - v.delta
+        FROM unnest(?::int[], ?::numeric[]) AS v(id, delta)
+        WHERE c.campaign_id = v.id
+          AND EXISTS (SELECT 1 FROM fresh)
+        """;
+
     private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final RedisScriptRegistry.Script drainScript;
+    private final RedisScriptRegistry.Script takeScript;
+    private final RedissonClient redisson;
+    private final RMap<String, String> pending;
+    private final RSet<String> touchedSet;
+    private final boolean cluster;
 
-    public BudgetDeltaFlusher(RedissonClient redisson, AdDeliveryRepo repo, DataSource ds) {
-        this.redisson = redisson;
+    public BudgetDeltaFlusher(RedisScriptRegistry scripts,
+                              RedissonClient redisson,
+                              RedisProperties redisProps,
+                              @Qualifier("flusherDataSource") DataSource ds) {
         this.jdbc = new JdbcTemplate(ds);
+        this.tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+        this.drainScript = scripts.register("delta-drain", DRAIN_LUA);
+        this.takeScript = scripts.register("delta-take", TAKE_LUA);
+        this.redisson = redisson;
+        this.pending = redisson.getMap(RedisKeys.FLUSH_PENDING, StringCodec.INSTANCE);
+        this.touchedSet = redisson.getSet(RedisKeys.TOUCHED, StringCodec.INSTANCE);
+        this.cluster = RedisCacheConfig.isCluster(redisProps);
     }
 
+    /**
+     * Replays anything left pending, then pops touched ids and zeroes their deltas server-side,
+     * DRAIN_BATCH at a time, applying each drained batch as one UPDATE before asking for the next.
+     */
     @Scheduled(fixedDelayString = "${budget.flush.interval.ms:1000}")
-    @Transactional
     public void flushDeltas() {
-        // Be explicit: RSet<String>, not var/RSet<Object>
-        // Correct
-        RSet<String> touched = redisson.getSet("campaign:touched", org.redisson.client.codec.StringCodec.INSTANCE);
-// … use touched.removeRandom();
-// DO NOT use getSetAsync() or .removeRandomAsync() unless you await futures
+        if (cluster) {
+            flushDeltasCluster();
+            return;
+        }
+        replayPending();
 
-        final int MAX_PER_FLUSH = 10_000; // tune
-        java.util.List<Object[]> batch = new java.util.ArrayList<>(1024);
+        int drained = 0;
+        while (drained < MAX_PER_FLUSH) {
+            String batchId = UUID.randomUUID().toString();
+            List<Object> res = drainScript.eval(
+                    RScript.Mode.READ_WRITE, RScript.ReturnType.MULTI,
+                    List.of(RedisKeys.TOUCHED, RedisKeys.FLUSH_PENDING),
+                    Integer.toString(DRAIN_BATCH), batchId);
+            if (res == null || res.isEmpty()) break;
 
-        for (int i = 0; i < MAX_PER_FLUSH; i++) {
-            // removeRandom() now returns String
-            String idStr = touched.removeRandom();
-            if (idStr == null) break;
+            int popped = Integer.parseInt(res.get(0).toString());
+            drained += popped;
 
-            int id;
-            try { id = Integer.parseInt(idStr); }
-            catch (NumberFormatException ignored) { continue; }
+            Batch b = new Batch((res.size() - 1) / 2);
+            for (int i = 1; i + 1 < res.size(); i += 2) {
+                b.add(res.get(i).toString(), res.get(i + 1).toString());
+            }
+            if (b.size > 0) {
+                apply(batchId, b); // on failure the batch stays pending for the next run
+                pending.fastRemove(batchId); // after commit; a replay of a committed batch is a no-op
+            }
+
+            if (popped < DRAIN_BATCH) break; // set is empty
+        }
+    }
+
+    private void replayPending() {
+        Map<String, String> left = pending.readAllMap();
+        for (Map.Entry<String, String> e : left.entrySet()) {
+            String[] pairs = e.getValue().split(",");
+            Batch b = new Batch(pairs.length);
+            for (String p : pairs) {
+                int colon = p.indexOf(':');
+                if (colon > 0) b.add(p.substring(0, colon), p.substring(colon + 1));
+            }
+            log.warn("Replaying pending budget flush batch {} ({} campaigns)", e.getKey(), b.size);
+            apply(e.getKey(), b);
+            pending.fastRemove(e.getKey());
+        }
+    }
 
-            RBucket<String> bucket = redisson.getBucket("campaign:delta:" + id, StringCodec.INSTANCE);
-            String v = bucket.getAndSet("0");
-            if (v == null || "0".equals(v)) continue;
+    // ---------- cluster mode ----------
 
-            long cents;
-            try { cents = Long.parseLong(v); } catch (Exception e) { continue; }
-            if (cents <= 0) continue;
+    private void flushDeltasCluster() {
+        pending.readAllMap().forEach((batchId, ids) -> {
+            log.warn("Replaying pending budget flush batch {}", batchId);
+            settleCluster(batchId, List.of(ids.split(",")), true);
+        });
 
-            batch.add(new Object[]{ com.gaurav.adDeliveryTesting.utils.MoneyUtils.fromCents(cents), id });
+        int drained = 0;
+        while (drained < MAX_PER_FLUSH) {
+            Set<String> ids = touchedSet.removeRandom(DRAIN_BATCH);
+            if (ids == null || ids.isEmpty()) break;
+            drained += ids.size();
+
+            String batchId = UUID.randomUUID().toString();
+            pending.fastPut(batchId, String.join(",", ids)); // before any delta is taken
+            settleCluster(batchId, ids, false);
+
+            if (ids.size() < DRAIN_BATCH) break; // set is empty
         }
+    }
 
-        if (!batch.isEmpty()) {
-            // Break into chunks of, say, 2000 rows
-            int chunkSize = 2000;
-            for (int i = 0; i < batch.size(); i += chunkSize) {
-                List<Object[]> sub = batch.subList(i, Math.min(i + chunkSize, batch.size()));
-
-                String placeholders = IntStream.range(0, sub.size())
-                        .mapToObj(j -> "(?,?)")
-                        .collect(Collectors.joining(","));
-
-                String sql = """
-            UPDATE campaign c
-            SET remaining_budget = c.remaining_budget - v.delta
-            FROM (VALUES %s) AS v(id, delta)
-            WHERE c.campaign_id = v.id
-        """.formatted(placeholders);
-
-                jdbc.update(con -> {
-                    PreparedStatement ps = con.prepareStatement(sql);
-                    int idx = 1;
-                    for (Object[] row : sub) {
-                        ps.setInt(idx++, (Integer) row[1]);           // id
-                        ps.setBigDecimal(idx++, (BigDecimal) row[0]); // delta
-                    }
-                    return ps;
-                });
+    /**
+     * Take (or, on {@code replay}, only re-read) each id's delta for the batch, apply it, then
+     * release the inflight fields.
+     */
+    private void settleCluster(String batchId, Collection<String> ids, boolean replay) {
+        List<String> idList = new ArrayList<>(ids.size());
+        List<CompletableFuture<Long>> taken = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            int campaignId;
+            try {
+                campaignId = Integer.parseInt(id);
+            } catch (NumberFormatException e) {
+                continue;
             }
+            idList.add(id);
+            taken.add(takeScript.<Long>evalAsync(
+                    RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                    List.of(RedisKeys.delta(campaignId), RedisKeys.inflight(campaignId)),
+                    batchId, replay ? "1" : "0").toCompletableFuture());
+        }
+        CompletableFuture.allOf(taken.toArray(CompletableFuture[]::new)).join();
+
+        Batch b = new Batch(idList.size());
+        List<String> retouch = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            long cents = taken.get(i).join();
+            if (cents > 0) b.add(idList.get(i), Long.toString(cents));
+            else if (replay) retouch.add(idList.get(i));
+        }
+        // a replay leaves untaken deltas alone; these campaigns may still have spend to flush
+        if (!retouch.isEmpty()) touchedSet.addAll(retouch);
+        if (b.size > 0) apply(batchId, b); // on failure the batch stays pending for the next run
+
+        RBatch release = redisson.createBatch();
+        for (Integer id : b.ids()) {
+            release.getMap(RedisKeys.inflight(id), StringCodec.INSTANCE).fastRemoveAsync(batchId);
+        }
+        if (b.size > 0) release.execute();
+        pending.fastRemove(batchId);
+    }
+
+    private void apply(String batchId, Batch b) {
+        tx.executeWithoutResult(status -> jdbc.update(APPLY_SQL, ps -> {
+            Connection con = ps.getConnection();
+            ps.setString(1, batchId);
+            ps.setArray(2, con.createArrayOf("int4", b.ids()));
+            ps.setArray(3, con.createArrayOf("numeric", b.deltas()));
+        }));
+    }
+
+    /** Batch ids older than this can't be replayed any more (pending is drained every flush). */
+    @Scheduled(fixedDelayString = "${budget.flush.batch.purge.ms:3600000}")
+    public void purgeAppliedBatches() {
+        tx.executeWithoutResult(status ->
+                jdbc.update("DELETE FROM budget_flush_batch WHERE applied_at < now() - interval '1 day'"));
+    }
+
+    private static final class Batch {
+        private final Integer[] ids;
+        private final BigDecimal[] deltas;
+        private int size;
+
+        Batch(int capacity) {
+            ids = new Integer[capacity];
+            deltas = new BigDecimal[capacity];
+        }
+
+        void add(String id, String cents) {
+            try {
+                ids[size] = Integer.valueOf(id);
+                deltas[size] = MoneyUtils.fromCents(Long.parseLong(cents));
+                size++;
+            } catch (NumberFormatException ignored) { }
         }
+
+        Integer[] ids()         { return Arrays.copyOf(ids, size); }
+        BigDecimal[] deltas()   { return Arrays.copyOf(deltas, size); }
     }
 }
@@ -0,0 +1,227 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import jakarta.annotation.PreDestroy;
+import org.redisson.api.RScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-instance budget leases.
+ *
+ * Instead of one Redis write per impression, each instance moves a slice (multiplier × bid) of
+ * campaign:budget:{id}.remaining into the hash's "leased" field and spends it from a local counter.
+ * Spent cents are settled into campaign:delta:{id} + campaign:touched on a schedule, so the
+ * BudgetDeltaFlusher flow is unchanged; unused slices go back to "remaining" when idle or on shutdown.
+ *
+ * Overspend is bounded by the outstanding leases: the only way to double count is a warm pass
+ * rewriting "remaining" from the DB while slices are still out.
+ *
+ * A lease idle for adserve.budget.lease.idle.ms is settled to zero and dropped from the map, so it
+ * only holds campaigns served recently. A caller that picked it up just before that can still
+ * spend or grant into it, so it is settled once more on the next cycle before it is forgotten.
+ */
+@Service
+@ConditionalOnProperty(value = "adserve.budget.lease.enabled", havingValue = "true")
+public class BudgetLeaseService {
+
+    private static final Logger log = LoggerFactory.getLogger(BudgetLeaseService.class);
+
+    // KEYS[1] = campaign:budget:{id}
+    // ARGV[1] = wanted cents
+    // returns {granted, remainingAfter}; granted = -1 when the budget hash is missing
+    private static final String GRANT_LUA = """
+local rem = tonumber(redis.call('HGET', KEYS[1], 'remaining'))
+if not rem then return {-1, 0} end
+local grant = tonumber(ARGV[1])
+if rem < grant then grant = rem end
+if grant <= 0 then return {0, rem} end
+redis.call('HINCRBY', KEYS[1], 'remaining', -grant)
+redis.call('HINCRBY', KEYS[1], 'leased', grant)
+return {grant, rem - grant}
+""";
+
+    // KEYS[1] = campaign:budget:{id}
+    // KEYS[2] = campaign:delta:{id}
+    // KEYS[3] = campaign:touched (single node only; TouchedCampaigns marks it in a cluster)
+    // ARGV[1] = spent cents, ARGV[2] = returned cents, ARGV[3] = campaignId
+    private static final String SETTLE_LUA = """
+local spent = tonumber(ARGV[1])
+local ret = tonumber(ARGV[2])
+if spent + ret > 0 then redis.call('HINCRBY', KEYS[1], 'leased', -(spent + ret)) end
+if ret > 0 then redis.call('HINCRBY', KEYS[1], 'remaining', ret) end
+if spent > 0 then
+  redis.call('INCRBY', KEYS[2], spent)
+  if KEYS[3] then redis.call('SADD', KEYS[3], ARGV[3]) end
+end
+return 1
+""";
+
+    private final RedisScriptRegistry.Script grantScript;
+    private final RedisScriptRegistry.Script settleScript;
+    private final Map<Integer, Lease> leases = new ConcurrentHashMap<>();
+    private final Queue<Map.Entry<Integer, Lease>> retired = new ConcurrentLinkedQueue<>(); // dropped last cycle
+    private final TouchedCampaigns touched;
+
+    @Value("${adserve.budget.lease.multiplier:100}")
+    private long multiplier;
+
+    @Value("${adserve.budget.lease.idle.ms:30000}")
+    private long idleMs;
+
+    public BudgetLeaseService(RedisScriptRegistry scripts, TouchedCampaigns touched) {
+        this.grantScript = scripts.register("lease-grant", GRANT_LUA);
+        this.settleScript = scripts.register("lease-settle", SETTLE_LUA);
+        this.touched = touched;
+    }
+
+    /** Local spend; same codes as the spend Lua (0 = no budget, 1 = spent, 2 = spent and now exhausted). */
+    public ServeScriptService.ServeResult trySpend(int campaignId, long bidCents) {
+        Lease l = leases.computeIfAbsent(campaignId, id -> new Lease());
+        if (l.retired) l = leases.computeIfAbsent(campaignId, id -> new Lease()); // raced an idle drop
+        l.lastUsedMs = System.currentTimeMillis();
+
+        if (l.take(bidCents)) return spent(campaignId, l, bidCents);
+
+        // local slice is dry: refill synchronously, one caller per campaign
+        l.lock.lock();
+        try {
+            if (l.take(bidCents)) return spent(campaignId, l, bidCents);
+            if (l.remoteDry) return new ServeScriptService.ServeResult(0, null, null);
+            grant(campaignId, l, bidCents);
+            if (l.take(bidCents)) return spent(campaignId, l, bidCents);
+            return new ServeScriptService.ServeResult(0, null, null);
+        } finally {
+            l.lock.unlock();
+        }
+    }
+
+    private ServeScriptService.ServeResult spent(int campaignId, Lease l, long bidCents) {
+        l.spent.addAndGet(bidCents);
+        long left = l.available.get();
+        if (left < bidCents && l.remoteDry) return new ServeScriptService.ServeResult(2, campaignId, 0L);
+        if (left < (multiplier * bidCents) / 4) refillAsync(campaignId, l, bidCents);
+        return new ServeScriptService.ServeResult(1, campaignId, null);
+    }
+
+    /** True if this instance's lease for the campaign covers {@code bidCents} without asking Redis. */
+    public boolean hasHeadroom(int campaignId, long bidCents) {
+        Lease l = leases.get(campaignId);
+        return l != null && l.available.get() >= bidCents;
+    }
+
+    private void grant(int campaignId, Lease l, long bidCents) {
+        List<Object> res = grantScript.eval(
+                RScript.Mode.READ_WRITE, RScript.ReturnType.MULTI,
+                List.of(RedisKeys.budget(campaignId)),
+                Long.toString(multiplier * bidCents));
+        applyGrant(l, res);
+    }
+
+    private void refillAsync(int campaignId, Lease l, long bidCents) {
+        if (l.remoteDry || !l.refilling.compareAndSet(false, true)) return;
+        grantScript.<List<Object>>evalAsync(
+                        RScript.Mode.READ_WRITE, RScript.ReturnType.MULTI,
+                        List.of(RedisKeys.budget(campaignId)),
+                        Long.toString(multiplier * bidCents))
+                .whenComplete((res, err) -> {
+                    if (err != null) log.warn("Lease top-up failed for campaign {}", campaignId, err);
+                    else applyGrant(l, res);
+                    l.refilling.set(false);
+                });
+    }
+
+    private static void applyGrant(Lease l, List<Object> res) {
+        long granted = toLong(res.get(0));
+        if (granted > 0) l.available.addAndGet(granted);
+        // missing hash or nothing left: stop asking until the next settle cycle
+        l.remoteDry = granted <= 0 || toLong(res.get(1)) <= 0;
+    }
+
+    /** Push spent cents to delta/touched and hand idle slices back to Redis. */
+    @Scheduled(fixedDelayString = "${adserve.budget.lease.settle.ms:1000}")
+    public void settle() {
+        // dropped last cycle: settle whatever a straggling caller put in since, then forget them
+        for (int n = retired.size(); n > 0; n--) {
+            Map.Entry<Integer, Lease> e = retired.poll();
+            if (e == null) break;
+            if (!settleOne(e.getKey(), e.getValue(), true)) retired.add(e); // retry next cycle
+        }
+
+        long now = System.currentTimeMillis();
+        leases.forEach((id, l) -> {
+            boolean idle = now - l.lastUsedMs > idleMs;
+            if (settleOne(id, l, idle) && idle && leases.remove(id, l)) {
+                l.retired = true;
+                retired.add(Map.entry(id, l));
+            }
+        });
+    }
+
+    @PreDestroy
+    public void returnAll() {
+        leases.forEach((id, l) -> settleOne(id, l, true));
+        retired.forEach(e -> settleOne(e.getKey(), e.getValue(), true));
+    }
+
+    /** False if the settle failed and the numbers were kept for the next cycle. */
+    private boolean settleOne(int campaignId, Lease l, boolean giveBack) {
+        long spent = l.spent.getAndSet(0);
+        long returned = giveBack ? l.available.getAndSet(0) : 0;
+        if (spent == 0 && returned == 0) {
+            l.remoteDry = false; // budget may have been topped up in Redis since
+            return true;
+        }
+        try {
+            settleScript.eval(
+                    RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                    touched.spendKeys(campaignId),
+                    Long.toString(spent), Long.toString(returned), Integer.toString(campaignId));
+            if (spent > 0) touched.mark(campaignId);
+            l.remoteDry = false;
+            return true;
+        } catch (Exception e) {
+            // keep the numbers for the next cycle rather than losing spend
+            l.spent.addAndGet(spent);
+            l.available.addAndGet(returned);
+            log.warn("Lease settle failed for campaign {}", campaignId, e);
+            return false;
+        }
+    }
+
+    private static long toLong(Object o) {
+        if (o == null) return 0L;
+        if (o instanceof Number n) return n.longValue();
+        return Long.parseLong(o.toString());
+    }
+
+    private static final class Lease {
+        final AtomicLong available = new AtomicLong();   // leased, not yet spent
+        final AtomicLong spent = new AtomicLong();       // spent, not yet settled
+        final AtomicBoolean refilling = new AtomicBoolean();
+        final ReentrantLock lock = new ReentrantLock();
+        volatile boolean remoteDry;
+        volatile boolean retired;  // dropped from the map after an idle settle
+        volatile long lastUsedMs;
+
+        boolean take(long cents) {
+            long v;
+            while ((v = available.get()) >= cents) {
+                if (available.compareAndSet(v, v - cents)) return true;
+            }
+            return false;
+        }
+    }
+}
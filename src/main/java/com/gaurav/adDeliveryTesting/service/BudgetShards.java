@@ -0,0 +1,200 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.redisson.api.RScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sharded budgets for hot campaigns.
+ *
+ * A campaign listed in campaign:budget:sharded (seeded from adserve.budget.shards.campaigns, or
+ * SADD it at runtime) gets its remaining budget split over K sub-counters
+ * campaign:budget:{id}:s0..s{K-1}, and the hash gets 'shards' = K. The spend ({@link #SPEND_FN})
+ * tries the sub-counter picked by the request's seed first, so concurrent serves of one campaign
+ * stop queueing on a single counter.
+ *
+ * Every adserve.budget.shards.rebalance.ms the sub-counters, plus anything that landed on
+ * 'remaining' meanwhile (outage reconcile, top-ups), are pooled and spread evenly again, by
+ * whichever instance takes that period's lock (SET NX PX, left to expire). Once a
+ * campaign can't keep min.bids bids per sub-counter it gets fewer, and at one it goes back to the
+ * plain counter so the tail of the budget is spent exactly.
+ *
+ * Warm passes that rewrite 'remaining' from the DB drop 'shards'; the sub-counters left behind
+ * are ignored by the spend and overwritten by the next rebalance. Not used with budget leases,
+ * which already spend locally.
+ */
+@Service
+@ConditionalOnProperty(value = "adserve.budget.shards.enabled", havingValue = "true")
+public class BudgetShards {
+
+    private static final Logger log = LoggerFactory.getLogger(BudgetShards.class);
+
+    private static final String LOCK = "lock:budget-rebalance";
+
+    /**
+     * Budget spend shared by the serve scripts and {@link BudgetCounterService}; defines
+     * spendBudget(budgetKey, bid, seed). Delta/touched bookkeeping stays with the caller.
+     */
+    static final String SPEND_FN = """
+  -- code, value: 1 spent (value = remaining; K x this sub-counter's for a sharded budget),
+  -- 2 spent and now exhausted (value 0), nil when there is no budget (nothing written)
+  local function spendBudget(budgetKey, bid, seed)
+    local b = redis.call('HMGET', budgetKey, 'remaining', 'shards')
+    local k = tonumber(b[2])
+    if (not k) or k < 2 then
+      local rem = tonumber(b[1])
+      if (not rem) or rem < bid then return nil end
+      local newRem = redis.call('HINCRBY', budgetKey, 'remaining', -bid)
+      if newRem <= 0 then return 2, 0 end
+      return 1, newRem
+    end
+
+    local first = seed % k
+    for i = 0, k - 1 do
+      local sub = budgetKey .. ':s' .. ((first + i) % k)
+      local rem = redis.call('DECRBY', sub, bid)
+      if rem >= 0 then
+        if rem >= bid then return 1, rem * k end
+        -- this one just ran dry: exhausted only if the others are too
+        for j = 0, k - 1 do
+          if (tonumber(redis.call('GET', budgetKey .. ':s' .. j)) or 0) >= bid then return 1, rem * k end
+        end
+        return 2, 0
+      end
+      redis.call('INCRBY', sub, bid)
+    end
+    return nil
+  end
+""";
+
+    // KEYS[1] = campaign:budget:{id}
+    // ARGV[1] = wanted sub-counters, ARGV[2] = minimum cents per sub-counter
+    // returns the pooled total, or -1 when there is no budget hash yet
+    static final String REBALANCE_LUA = """
+local old = tonumber(redis.call('HGET', KEYS[1], 'shards')) or 0
+local total = tonumber(redis.call('HGET', KEYS[1], 'remaining'))
+if not total then return -1 end
+for i = 0, old - 1 do
+  total = total + (tonumber(redis.call('GET', KEYS[1] .. ':s' .. i)) or 0)
+end
+
+local k = tonumber(ARGV[1])
+local minEach = tonumber(ARGV[2])
+if minEach > 0 then k = math.min(k, math.floor(total / minEach)) end
+
+if k < 2 then
+  for i = 0, old - 1 do redis.call('DEL', KEYS[1] .. ':s' .. i) end
+  redis.call('HDEL', KEYS[1], 'shards')
+  redis.call('HSET', KEYS[1], 'remaining', total)
+  return total
+end
+
+local each = math.floor(total / k)
+for i = 0, k - 1 do redis.call('SET', KEYS[1] .. ':s' .. i, each) end
+for i = k, old - 1 do redis.call('DEL', KEYS[1] .. ':s' .. i) end
+-- the odd cents (< k) stay on 'remaining' and are pooled again next time
+redis.call('HSET', KEYS[1], 'remaining', total - each * k, 'shards', k)
+return total
+""";
+
+    private final StringRedisTemplate redis;
+    private final CampaignMetadataCache meta;
+    private final RedisScriptRegistry.Script rebalanceScript;
+
+    @Autowired(required = false)
+    private BudgetLeaseService leases; // only with adserve.budget.lease.enabled=true
+
+    @Value("${adserve.budget.shards.count:8}")
+    private int shardCount;
+
+    @Value("${adserve.budget.shards.rebalance.ms:1000}")
+    private long rebalanceMs;
+
+    @Value("${adserve.budget.shards.min.bids:100}")
+    private long minBidsPerShard;
+
+    @Value("${adserve.budget.shards.campaigns:}")
+    private List<Integer> configured;
+
+    public BudgetShards(StringRedisTemplate redis, CampaignMetadataCache meta, RedisScriptRegistry scripts) {
+        this.redis = redis;
+        this.meta = meta;
+        this.rebalanceScript = scripts.register("budget-rebalance", REBALANCE_LUA);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        if (leases != null) {
+            log.warn("Budget shards are ignored with budget leases enabled");
+            return;
+        }
+        if (configured.isEmpty()) return;
+        try {
+            redis.opsForSet().add(RedisKeys.BUDGET_SHARDED, configured.stream().map(String::valueOf).toArray(String[]::new));
+        } catch (RuntimeException e) {
+            log.warn("Could not register sharded campaigns {}", configured, e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${adserve.budget.shards.rebalance.ms:1000}")
+    public void rebalance() {
+        if (leases != null || !takePeriod()) return;
+        Set<String> ids = redis.opsForSet().members(RedisKeys.BUDGET_SHARDED);
+        if (ids == null) return;
+        for (String id : ids) {
+            try {
+                rebalance(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                redis.opsForSet().remove(RedisKeys.BUDGET_SHARDED, id);
+            } catch (RuntimeException e) {
+                log.warn("Budget rebalance failed for campaign {}", id, e);
+            }
+        }
+    }
+
+    /** One rebalance per period across the fleet: the lock isn't released, it expires with the period. */
+    private boolean takePeriod() {
+        try {
+            return Boolean.TRUE.equals(redis.opsForValue().setIfAbsent(LOCK, "1", Duration.ofMillis(rebalanceMs)));
+        } catch (RuntimeException e) {
+            log.warn("Budget rebalance lock unavailable", e);
+            return false;
+        }
+    }
+
+    private void rebalance(int campaignId) {
+        var dto = meta.get(campaignId);
+        if (dto == null) return;
+        rebalanceScript.eval(
+                RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                List.of(RedisKeys.budget(campaignId)),
+                Integer.toString(Math.max(shardCount, 1)),
+                Long.toString(minBidsPerShard * dto.bidCents()));
+    }
+
+    /** Start sharding a campaign now (the periodic rebalance keeps it balanced from then on). */
+    public void shard(int campaignId) {
+        redis.opsForSet().add(RedisKeys.BUDGET_SHARDED, Integer.toString(campaignId));
+        rebalance(campaignId);
+    }
+
+    /** Stop sharding a campaign: its sub-counters are pooled back into 'remaining'. */
+    public void unshard(int campaignId) {
+        redis.opsForSet().remove(RedisKeys.BUDGET_SHARDED, Integer.toString(campaignId));
+        rebalanceScript.eval(
+                RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                List.of(RedisKeys.budget(campaignId)), "1", "0");
+    }
+}
@@ -2,142 +2,156 @@ package com.gaurav.adDeliveryTesting.service;
 
 import com.gaurav.adDeliveryTesting.model.Campaign;
 import com.gaurav.adDeliveryTesting.model.CampaignFilters;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.utils.IpAddress;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucketAsync;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RScoredSortedSetAsync;
+import org.redisson.api.RScript;
+import org.redisson.api.RSetAsync;
+import org.redisson.client.codec.StringCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
-import org.redisson.api.*;
-import org.redisson.client.codec.StringCodec;
-import java.math.BigDecimal;
-import java.time.Duration;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
-// imports to add at top of CampaignCacheService.java
-import org.redisson.api.RBatch;
-import org.redisson.api.RBucketAsync;
-import org.redisson.api.RMapAsync;
-import org.redisson.api.RScoredSortedSetAsync;
-import org.redisson.api.RSetAsync;
-import org.redisson.client.codec.StringCodec;
+import java.util.TreeSet;
+
 @Service
 public class CampaignCacheService {
 
     private static final Logger log = LoggerFactory.getLogger(CampaignCacheService.class);
 
     private final StringRedisTemplate redis;
+    private final IndexLayout layout;
 
-    public CampaignCacheService(StringRedisTemplate redis) {
+    public CampaignCacheService(StringRedisTemplate redis,
+                                @Value("${adserve.index.layout:product}") String layout) {
         this.redis = redis;
+        this.layout = IndexLayout.parse(layout);
     }
 
-    // CampaignCacheService.java (inside the class)
+    public IndexLayout layout() { return layout; }
 
     // Write one full campaign using a Redisson batch (no result collection).
-    public static void writeCampaignToBatch(RBatch batch, Campaign c) {
+    public void writeCampaignToBatch(RBatch batch, Campaign c) {
         String idStr = Integer.toString(c.getCampaignId());
 
         // budget & delta
         RMapAsync<String,String> budgetMap =
-                batch.getMap("campaign:budget:" + idStr, StringCodec.INSTANCE);
+                batch.getMap(RedisKeys.budget(c.getCampaignId()), StringCodec.INSTANCE);
         budgetMap.fastPutAsync("remaining",
                 Long.toString(c.getRemainingBudget() == null
                         ? 0L
                         : c.getRemainingBudget().movePointRight(2).longValueExact()));
+        budgetMap.fastRemoveAsync("shards"); // DB value replaces any sub-counters (BudgetShards)
 
         RBucketAsync<String> deltaBucket =
-                batch.getBucket("campaign:delta:" + idStr, StringCodec.INSTANCE);
+                batch.getBucket(RedisKeys.delta(c.getCampaignId()), StringCodec.INSTANCE);
         deltaBucket.setAsync("0");
 
         CampaignFilters f = c.getFilters();
         if (f == null) return;
 
-        // allow/block sets
-        writeSetBatch(batch, allowBrowserKey(c.getCampaignId()), f.getBrowsers());
-        writeSetBatch(batch, allowIabKey(c.getCampaignId()),     f.getIabCategory());
-        writeSetBatch(batch, allowIpKey(c.getCampaignId()),      f.getAllowedIP());
-        writeSetBatch(batch, allowDomainKey(c.getCampaignId()),  toLowerSet(f.getAllowedDomain()));
-
-        writeSetBatch(batch, blockIpKey(c.getCampaignId()),      f.getExcludedIP());
-        writeSetBatch(batch, blockDomainKey(c.getCampaignId()),  toLowerSet(f.getExcludedDomain()));
-
-        // zset memberships
-        for (String country : f.getCountries())
-            for (String lang : f.getLanguages())
-                for (String device : f.getDevices())
-                    for (String os : f.getOsList()) {
-                        String zkey = zsetKey(country, lang, device, os);
-                        double score = (double) c.getBiddingRate().movePointRight(2).longValueExact();
-
-                        RScoredSortedSetAsync<String> z =
-                                batch.getScoredSortedSet(zkey, StringCodec.INSTANCE);
-                        z.addAsync(score, idStr);
+        // compact targeting record + only the allow/block sets that constrain something
+        writeTargetingBatch(batch, c.getCampaignId(), f);
 
-                        RSetAsync<String> membership =
-                                batch.getSet(membershipKey(c.getCampaignId()), StringCodec.INSTANCE);
-                        membership.addAsync(zkey);
-                    }
+        // index memberships (layout-dependent)
+        double score = (double) c.getBiddingRate().movePointRight(2).longValueExact();
+        RSetAsync<String> membership = batch.getSet(RedisKeys.membership(c.getCampaignId()), StringCodec.INSTANCE);
+        for (String zkey : indexKeys(f)) {
+            RScoredSortedSetAsync<String> z = batch.getScoredSortedSet(zkey, StringCodec.INSTANCE);
+            z.addAsync(score, idStr);
+            membership.addAsync(zkey);
+        }
     }
 
-    // Batch set writer using async types from RBatch
-    private static void writeSetBatch(RBatch batch, String key, java.util.Collection<String> vals) {
-        RSetAsync<String> set = batch.getSet(key, StringCodec.INSTANCE);
-        set.deleteAsync();
-        if (vals == null || vals.isEmpty()) return;
+    // ---------- Layout-aware index keys ----------
 
-        java.util.List<String> cleaned = vals.stream()
-                .filter(v -> v != null && !v.trim().isEmpty())
-                .map(String::trim)
-                .toList();
+    static final String ANY = "any";
+    private static final String[] DIMS = {"country", "lang", "device", "os"};
 
-        if (!cleaned.isEmpty()) set.addAllAsync(cleaned);
+    /** Every index ZSET a campaign with these filters belongs to, under the configured layout. */
+    public List<String> indexKeys(CampaignFilters f) {
+        return indexKeys(f.getCountries(), f.getLanguages(), f.getDevices(), f.getOsList());
     }
 
-    // ---------- Key builders ----------
-
-    public static String zsetKey(String country, String language, String device, String os) {
-        return "campaign:filters:" + part(os) + ":" + part(device) + ":" + part(language) + ":" + part(country);
+    public List<String> indexKeys(CampaignTargeting t) {
+        return indexKeys(t.countries(), t.languages(), t.devices(), t.oses());
     }
 
-    public static String rrKey(String country, String language, String device, String os) {
-        return "campaign:rr:" + part(os) + ":" + part(device) + ":" + part(language) + ":" + part(country);
+    public List<String> indexKeys(Collection<String> countries, Collection<String> languages,
+                                  Collection<String> devices, Collection<String> oses) {
+        List<String> keys = new ArrayList<>();
+        if (layout == IndexLayout.PRODUCT) {
+            for (String country : countries)
+                for (String lang : languages)
+                    for (String device : devices)
+                        for (String os : oses)
+                            keys.add(RedisKeys.zset(country, lang, device, os));
+            return keys;
+        }
+        List<Collection<String>> dims = List.of(countries, languages, devices, oses);
+        for (int d = 0; d < DIMS.length; d++) {
+            Collection<String> vals = dims.get(d);
+            if (vals == null || vals.isEmpty()) {
+                keys.add(RedisKeys.dim(DIMS[d], ANY));
+                continue;
+            }
+            for (String v : vals) keys.add(RedisKeys.dim(DIMS[d], v));
+        }
+        return keys;
     }
 
-    public static String allowBrowserKey(int id) { return "campaign:allow:browser:" + id; }
-    public static String allowIabKey(int id)     { return "campaign:allow:iab:" + id; }
-    public static String allowIpKey(int id)      { return "campaign:allow:ip:" + id; }
-    public static String allowDomainKey(int id)  { return "campaign:allow:domain:" + id; }
-
-    public static String blockIpKey(int id)      { return "campaign:block:ip:" + id; }
-    public static String blockDomainKey(int id)  { return "campaign:block:domain:" + id; }
-
-    public static String membershipKey(int id)   { return "campaign:zsetkeys:" + id; }
+    /**
+     * Keys the serve script reads for one request. PRODUCT: just the coarse ZSET.
+     * DIM: the segment key to materialize into, then exact/any key pairs for country, lang, device, os.
+     */
+    public List<Object> serveKeys(String country, String language, String device, String os) {
+        if (layout == IndexLayout.PRODUCT) return List.of(RedisKeys.zset(country, language, device, os));
+        return List.of(
+                RedisKeys.seg(country, language, device, os),
+                RedisKeys.dim("country", country), RedisKeys.dim("country", ANY),
+                RedisKeys.dim("lang", language),   RedisKeys.dim("lang", ANY),
+                RedisKeys.dim("device", device),   RedisKeys.dim("device", ANY),
+                RedisKeys.dim("os", os),           RedisKeys.dim("os", ANY));
+    }
 
-    private static String part(String s) {
-        return (s == null || s.isBlank()) ? "any" : s;
+    /** Pipelined ZADD of one campaign into {@code keys} plus the reverse-membership entries. */
+    public static void addToIndexOps(RedisOperations<String, String> ops, int id, long bidCents, Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        String member = Integer.toString(id);
+        for (String key : keys) ops.opsForZSet().add(key, member, (double) bidCents);
+        ops.opsForSet().add(RedisKeys.membership(id), keys.toArray(String[]::new));
     }
 
-    private static long toCents(BigDecimal bid) {
-        return bid.movePointRight(2).longValueExact();
+    static String part(String s) {
+        return (s == null || s.isBlank()) ? "any" : s;
     }
 
     // ---------- ZSET membership (non-pipelined) ----------
 
-    /** Add a campaign to the coarse ZSET (country/lang/device/os) and track reverse membership for clean removal. */
-    public void addCampaignToZset(Campaign c, String country, String language, String device, String os) {
-        String key = zsetKey(country, language, device, os);
-        String member = Integer.toString(c.getCampaignId());
-        double score = (double) toCents(c.getBiddingRate());
-        redis.opsForZSet().add(key, member, score);
-        redis.opsForSet().add(membershipKey(c.getCampaignId()), key);
-        // Optional TTL to prevent unbounded growth if you use lazy indexing:
-        // redis.expire(key, Duration.ofHours(6));
+    /** Add a campaign to every index ZSET its filters put it in (see {@link #indexKeys}), non-pipelined. */
+    public void addCampaignToIndex(CampaignTargeting t) {
+        if (!t.hasFilters()) return;
+        String member = Integer.toString(t.campaignId());
+        List<String> keys = indexKeys(t);
+        for (String key : keys) redis.opsForZSet().add(key, member, (double) t.bidCents());
+        if (!keys.isEmpty()) redis.opsForSet().add(RedisKeys.membership(t.campaignId()), keys.toArray(String[]::new));
     }
 
     /** Remove campaign from every coarse ZSET it was added to (uses the tracked membership set). */
     public void removeCampaignEverywhere(int campaignId) {
-        String mKey = membershipKey(campaignId);
+        String mKey = RedisKeys.membership(campaignId);
         Set<String> keys = redis.opsForSet().members(mKey);
         if (keys != null && !keys.isEmpty()) {
             String member = Integer.toString(campaignId);
@@ -150,85 +164,144 @@ public class CampaignCacheService {
             }
         }
         redis.delete(mKey);
-        // Optional: also clear allow/block sets and budget entries if you’re fully de-indexing
-        // redis.delete(allowBrowserKey(campaignId));
-        // redis.delete(allowIabKey(campaignId));
-        // redis.delete(allowIpKey(campaignId));
-        // redis.delete(allowDomainKey(campaignId));
-        // redis.delete(blockIpKey(campaignId));
-        // redis.delete(blockDomainKey(campaignId));
-        // redis.delete("campaign:budget:" + campaignId);
-        // redis.delete("campaign:delta:" + campaignId);
-    }
-
-    // ---------- Allow/Block set writers (non-pipelined) ----------
-
-    /** Writes an allow set. Empty set = no constraint (we store nothing). */
-    public void writeAllowSet(String key, Collection<String> values) {
-        redis.delete(key);
-        if (values == null || values.isEmpty()) return; // empty => no constraint
-        for (String v : values) {
-            if (v == null) continue;
-            String t = v.trim();
-            if (!t.isEmpty()) redis.opsForSet().add(key, t);
-        }
     }
 
-    /** Writes a block set. Empty set = nothing blocked. */
-    public void writeBlockSet(String key, Collection<String> values) {
-        redis.delete(key);
-        if (values == null || values.isEmpty()) return;
-        for (String v : values) {
-            if (v == null) continue;
-            String t = v.trim();
-            if (!t.isEmpty()) redis.opsForSet().add(key, t);
-        }
+    // ---------- Compact targeting record ----------
+    //
+    // campaign:tgt:{id} is a hash with one field, "mask": bit set => that allow/block set exists
+    // and the serve Lua must check it. Unconstrained dims (empty list, or '*' for allow lists)
+    // get no set at all, so the script only touches what the campaign actually constrains.
+    // Campaigns without the hash (written before this layout) take the old six-set path in Lua
+    // until they are rewritten, e.g. by POST /admin/migrate/targeting.
+
+    public static final int T_ALLOW_BROWSER = 1;
+    public static final int T_ALLOW_IAB     = 2;
+    public static final int T_ALLOW_IP      = 4;
+    public static final int T_ALLOW_DOMAIN  = 8;
+    public static final int T_BLOCK_IP      = 16;
+    public static final int T_BLOCK_DOMAIN  = 32;
+
+    /**
+     * Rewrites the record and its six sets in one step, so a serve script never sees a set
+     * deleted but not yet refilled (an empty block set would let a blocked IP through).
+     * KEYS = {@link RedisKeys#targetingKeys} (one slot), ARGV = six counts, then the values;
+     * set i gets mask bit 2^(i-1). Returns the mask.
+     */
+    static final String TARGETING_LUA = """
+local mask, bit, pos = 0, 1, 7
+for i = 1, 6 do
+  local key, n = KEYS[i + 1], tonumber(ARGV[i])
+  redis.call('DEL', key)
+  -- SADD in chunks: unpack() is bounded by the Lua stack
+  for from = pos, pos + n - 1, 4000 do
+    redis.call('SADD', key, unpack(ARGV, from, math.min(from + 3999, pos + n - 1)))
+  end
+  if n > 0 then mask = mask + bit end
+  pos = pos + n
+  bit = bit * 2
+end
+redis.call('HSET', KEYS[1], 'mask', mask)
+return mask
+""";
+
+    // pipelined/queued connections send a plain EVAL, no SHA round trip
+    private static final RedisScript<Long> TARGETING_SCRIPT = RedisScript.of(TARGETING_LUA, Long.class);
+
+    /** Pipelined writer for the targeting record and its non-empty sets. */
+    public static void writeTargetingOps(RedisOperations<String, String> ops, int id, CampaignFilters f) {
+        writeTargetingOps(ops, id, f.getBrowsers(), f.getIabCategory(), f.getAllowedIP(), f.getAllowedDomain(),
+                f.getExcludedIP(), f.getExcludedDomain());
     }
 
-    /** Lowercase helper for domains before writeAllowSet/writeBlockSet. */
-    public static java.util.Set<String> toLowerSet(java.util.Set<String> in) {
-        java.util.Set<String> out = new java.util.HashSet<>();
-        if (in == null) return out;
-        for (String s : in) {
-            if (s == null) continue;
-            String t = s.trim().toLowerCase();
-            if (!t.isEmpty()) out.add(t);
-        }
-        return out;
+    /** Same as above from a streamed {@link CampaignTargeting} row. */
+    public static void writeTargetingOps(RedisOperations<String, String> ops, CampaignTargeting t) {
+        writeTargetingOps(ops, t.campaignId(), t.browsers(), t.iabCategories(), t.allowedIps(), t.allowedDomains(),
+                t.excludedIps(), t.excludedDomains());
     }
 
-    // ---------- Pipelined helpers (for WarmService/TargetingWarmup lazy indexers) ----------
+    private static void writeTargetingOps(RedisOperations<String, String> ops, int id,
+                                          Collection<String> browsers, Collection<String> iabs,
+                                          Collection<String> allowIps, Collection<String> allowDomains,
+                                          Collection<String> blockIps, Collection<String> blockDomains) {
+        List<String> allowIp = ipValues(allowValues(allowIps, false));
+        List<String> blockIp = ipValues(cleaned(blockIps, false));
+        List<String> args = targetingArgs(allowValues(browsers, false), allowValues(iabs, false), allowIp,
+                allowValues(allowDomains, true), blockIp, cleaned(blockDomains, true));
+        ops.execute(TARGETING_SCRIPT, List.of(RedisKeys.targetingKeys(id)), args.toArray());
+        String[] prefixes = ipPrefixes(allowIp, blockIp);
+        if (prefixes.length > 0) ops.opsForSet().add(RedisKeys.IP_PREFIXES, prefixes);
+    }
 
-    /** Pipelined add to ZSET + membership set. */
-    public static void addCampaignToZsetOps(RedisOperations<String, String> ops,
-                                            Campaign c, String country, String language, String device, String os) {
-        String key = zsetKey(country, language, device, os);
-        String member = Integer.toString(c.getCampaignId());
-        double score = (double) toCents(c.getBiddingRate());
-        ops.opsForZSet().add(key, member, score);
-        ops.opsForSet().add(membershipKey(c.getCampaignId()), key);
-        // ops.expire(key, Duration.ofHours(6)); // optional TTL
+    /**
+     * Everything a warm pass writes for one streamed campaign: budget + delta reset, targeting record,
+     * and one ZADD per index key (plus the reverse-membership entries).
+     */
+    public void writeCampaignOps(RedisOperations<String, String> ops, CampaignTargeting t) {
+        String budgetKey = RedisKeys.budget(t.campaignId());
+        ops.opsForHash().put(budgetKey, "remaining", Long.toString(t.remainingCents()));
+        ops.opsForHash().delete(budgetKey, "shards");
+        ops.opsForValue().set(RedisKeys.delta(t.campaignId()), "0");
+        if (!t.hasFilters()) return;
+
+        writeTargetingOps(ops, t);
+        addToIndexOps(ops, t.campaignId(), t.bidCents(), indexKeys(t));
     }
 
-    /** Pipelined allow writer. */
-    public static void writeAllowSetOps(RedisOperations<String, String> ops, String key, Collection<String> values) {
-        ops.delete(key);
-        if (values == null || values.isEmpty()) return;
-        // collapse to one SADD by passing varargs
-        ops.opsForSet().add(key, values.stream()
-                .filter(v -> v != null && !v.trim().isEmpty())
-                .map(String::trim)
-                .toArray(String[]::new));
+    /** Same as {@link #writeTargetingOps} for a Redisson batch. */
+    public static void writeTargetingBatch(RBatch batch, int id, CampaignFilters f) {
+        List<String> allowIp = ipValues(allowValues(f.getAllowedIP(), false));
+        List<String> blockIp = ipValues(cleaned(f.getExcludedIP(), false));
+        List<String> args = targetingArgs(allowValues(f.getBrowsers(), false), allowValues(f.getIabCategory(), false),
+                allowIp, allowValues(f.getAllowedDomain(), true), blockIp, cleaned(f.getExcludedDomain(), true));
+        batch.getScript(StringCodec.INSTANCE).evalAsync(RedisKeys.targeting(id), RScript.Mode.READ_WRITE,
+                TARGETING_LUA, RScript.ReturnType.INTEGER, List.<Object>of(RedisKeys.targetingKeys(id)), args.toArray());
+        String[] prefixes = ipPrefixes(allowIp, blockIp);
+        if (prefixes.length > 0) batch.<String>getSet(RedisKeys.IP_PREFIXES, StringCodec.INSTANCE).addAllAsync(List.of(prefixes));
     }
 
-    /** Pipelined block writer. */
-    public static void writeBlockSetOps(RedisOperations<String, String> ops, String key, Collection<String> values) {
-        ops.delete(key);
-        if (values == null || values.isEmpty()) return;
-        ops.opsForSet().add(key, values.stream()
+    /** ARGV for {@link #TARGETING_LUA}: the six value counts, then the values, in mask-bit order. */
+    @SafeVarargs
+    private static List<String> targetingArgs(List<String>... dims) {
+        List<String> args = new ArrayList<>();
+        for (List<String> d : dims) args.add(Integer.toString(d.size()));
+        for (List<String> d : dims) args.addAll(d);
+        return args;
+    }
+
+    /** Allow list values, or empty when the list does not constrain ('*' = allow all). */
+    private static List<String> allowValues(Collection<String> vals, boolean lower) {
+        List<String> c = cleaned(vals, lower);
+        return c.contains("*") ? List.of() : c;
+    }
+
+    /** IP entries in canonical text (IpAddress.canonical), the form ServeScriptService sends. */
+    private static List<String> ipValues(List<String> vals) {
+        return vals.stream().map(IpAddress::canonical).distinct().toList();
+    }
+
+    /**
+     * Prefix lengths (128-bit space, so an IPv4 /24 is 120) of the CIDR ranges among the
+     * canonical entries; they go into {@link RedisKeys#IP_PREFIXES} for {@link IpPrefixes}.
+     */
+    private static String[] ipPrefixes(List<String> allow, List<String> block) {
+        Set<String> out = new TreeSet<>();
+        for (List<String> l : List.of(allow, block)) {
+            for (String v : l) {
+                if (v.indexOf('/') < 0) continue;
+                IpAddress.Cidr c = IpAddress.parseCidr(v);
+                if (c != null) out.add(Integer.toString(c.prefix()));
+            }
+        }
+        return out.toArray(String[]::new);
+    }
+
+    private static List<String> cleaned(Collection<String> vals, boolean lower) {
+        if (vals == null || vals.isEmpty()) return List.of();
+        return vals.stream()
                 .filter(v -> v != null && !v.trim().isEmpty())
-                .map(String::trim)
-                .toArray(String[]::new));
+                .map(v -> lower ? v.trim().toLowerCase() : v.trim())
+                .distinct()
+                .toList();
     }
 
     // ---------- Debug helpers ----------
@@ -238,6 +311,6 @@ public class CampaignCacheService {
     }
 
     public String debugFilterKey(String country, String language, String device, String os) {
-        return zsetKey(country, language, device, os);
+        return RedisKeys.zset(country, language, device, os);
     }
 }
\ No newline at end of file
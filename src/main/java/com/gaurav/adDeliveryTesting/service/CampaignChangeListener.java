@@ -0,0 +1,250 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.bootstrap.ChangeCaptureInstaller;
+import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps Redis in step with Postgres without warm passes.
+ *
+ * Fast path: a dedicated connection LISTENs on campaign_changed; ids arriving within
+ * adserve.sync.coalesce.ms of each other are re-indexed together via {@link WarmService#reindexBatch}
+ * and their outbox rows marked processed. Every instance gets the notification, which also
+ * refreshes its own metadata cache.
+ *
+ * Backstop: campaign_change_outbox rows (written by the same triggers) are claimed with
+ * FOR UPDATE SKIP LOCKED by one instance at a time and re-indexed, covering notifications
+ * missed while no listener was connected. Re-indexing is idempotent, so overlap is harmless.
+ *
+ * Budget top-ups are claimed from campaign_budget_topup the same way and added to the Redis
+ * budgets ({@link WarmService#applyTopUps}) before each re-index. Off unless adserve.sync.enabled:
+ * it installs triggers and holds a main-pool connection for LISTEN.
+ */
+@Component
+@ConditionalOnProperty(value = "adserve.sync.enabled", havingValue = "true")
+public class CampaignChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CampaignChangeListener.class);
+
+    private static final int MAX_BATCH = 1000; // ids per reindexBatch call
+
+    private static final String CLAIM_SQL = """
+        UPDATE campaign_change_outbox o
+        SET processed_at = now()
+        WHERE o.id IN (
+            SELECT id FROM campaign_change_outbox
+            WHERE processed_at IS NULL
+            ORDER BY id
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+        )
+        RETURNING o.campaign_id
+        """;
+
+    private static final String CLAIM_TOPUPS_SQL = """
+        UPDATE campaign_budget_topup t
+        SET applied_at = now()
+        WHERE t.id IN (
+            SELECT id FROM campaign_budget_topup
+            WHERE applied_at IS NULL
+            ORDER BY id
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+        )
+        RETURNING t.campaign_id, t.amount
+        """;
+
+    // a change committed after the re-index read also marked here has its own notification coming
+    private static final String MARK_SQL = """
+        UPDATE campaign_change_outbox
+        SET processed_at = now()
+        WHERE processed_at IS NULL
+          AND campaign_id = ANY(?)
+        """;
+
+    private final DataSource ds;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx; // main pool runs with auto-commit=false
+    private final WarmService warm;
+    private final AdDeliveryFallbackService outage; // in-memory matcher used while Redis is down
+
+    @Value("${adserve.sync.coalesce.ms:200}")
+    private long coalesceMs;
+
+    @Value("${adserve.sync.outbox.retention.hours:24}")
+    private int retentionHours;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    public CampaignChangeListener(DataSource ds, JdbcTemplate jdbc, PlatformTransactionManager txm, WarmService warm,
+                                  AdDeliveryFallbackService outage) {
+        this.ds = ds;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txm);
+        this.warm = warm;
+        this.outage = outage;
+    }
+
+    @Order(1)
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        thread = Thread.ofPlatform().name("campaign-change-listener").daemon(true).start(this::listenLoop);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t != null) t.interrupt();
+    }
+
+    private void listenLoop() {
+        long backoffMs = 500;
+        while (running) {
+            try (Connection con = ds.getConnection()) {
+                con.setAutoCommit(true); // LISTEN takes effect on commit
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + ChangeCaptureInstaller.CHANNEL);
+                }
+                PGConnection pg = con.unwrap(PGConnection.class);
+                log.info("Listening for campaign changes on '{}'", ChangeCaptureInstaller.CHANNEL);
+                backoffMs = 500;
+
+                // catch up on whatever changed while we weren't listening
+                drainOutbox();
+
+                Set<Integer> pending = new LinkedHashSet<>();
+                while (running) {
+                    // block until the first id arrives, then keep collecting for the coalesce window
+                    collect(pg.getNotifications(1000), pending);
+                    if (pending.isEmpty()) continue;
+                    long until = System.currentTimeMillis() + coalesceMs;
+                    long left;
+                    while (pending.size() < MAX_BATCH && (left = until - System.currentTimeMillis()) > 0) {
+                        collect(pg.getNotifications((int) left), pending);
+                    }
+                    reindex(pending);
+                    pending.clear();
+                }
+            } catch (Exception e) {
+                if (!running) break;
+                log.warn("Campaign change listener lost its connection, retrying in {} ms", backoffMs, e);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoffMs = Math.min(backoffMs * 2, 30_000);
+            }
+        }
+    }
+
+    private static void collect(PGNotification[] ns, Set<Integer> into) {
+        if (ns == null) return;
+        for (PGNotification n : ns) {
+            try {
+                into.add(Integer.valueOf(n.getParameter()));
+            } catch (NumberFormatException ignored) { }
+        }
+    }
+
+    private void reindex(Set<Integer> ids) {
+        long t0 = System.nanoTime();
+        try {
+            outage.applyChanges(ids);
+        } catch (Exception e) {
+            log.warn("Outage matcher update for {} changed campaigns failed", ids.size(), e);
+        }
+        try {
+            applyTopUps();
+            int live = warm.reindexBatch(ids);
+            markProcessed(ids);
+            log.debug("Re-indexed {} changed campaigns ({} live) in {} ms",
+                    ids.size(), live, (System.nanoTime() - t0) / 1_000_000);
+        } catch (Exception e) {
+            // the outbox still has these ids; the poller picks them up
+            log.warn("Re-index of {} changed campaigns failed", ids.size(), e);
+        }
+    }
+
+    /** So the outbox poller doesn't re-index what a notification already did. */
+    private void markProcessed(Set<Integer> ids) {
+        tx.executeWithoutResult(status -> jdbc.update(MARK_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("int4", ids.toArray()))));
+    }
+
+    /**
+     * Backstop for lost notifications; claims are per-row so instances split the work.
+     * Claim and re-index share a transaction: if the re-index fails the rows go back to pending.
+     */
+    @Scheduled(fixedDelayString = "${adserve.sync.outbox.poll.ms:5000}")
+    public void drainOutbox() {
+        if (!running) return;
+        try {
+            applyTopUps();
+            Integer claimed;
+            do {
+                claimed = tx.execute(status -> {
+                    List<Integer> ids = jdbc.queryForList(CLAIM_SQL, Integer.class, MAX_BATCH);
+                    if (!ids.isEmpty()) {
+                        outage.applyChanges(ids);
+                        warm.reindexBatch(new LinkedHashSet<>(ids));
+                    }
+                    return ids.size();
+                });
+            } while (claimed != null && claimed == MAX_BATCH);
+        } catch (Exception e) {
+            log.warn("Outbox drain failed, retrying next poll", e);
+        }
+    }
+
+    /** Claim and Redis update share a transaction: if the update fails the top-ups stay pending. */
+    private void applyTopUps() {
+        Integer claimed;
+        do {
+            claimed = tx.execute(status -> {
+                List<Map.Entry<Integer, Long>> rows = jdbc.query(CLAIM_TOPUPS_SQL,
+                        (rs, n) -> Map.entry(rs.getInt(1), MoneyUtils.toCents(rs.getBigDecimal(2))), MAX_BATCH);
+                Map<Integer, Long> cents = new HashMap<>();
+                for (Map.Entry<Integer, Long> r : rows) cents.merge(r.getKey(), r.getValue(), Long::sum);
+                warm.applyTopUps(cents);
+                return rows.size();
+            });
+        } while (claimed != null && claimed == MAX_BATCH);
+    }
+
+    @Scheduled(fixedDelayString = "${adserve.sync.outbox.purge.ms:3600000}")
+    public void purgeOutbox() {
+        tx.executeWithoutResult(status -> {
+            jdbc.update("DELETE FROM campaign_change_outbox WHERE processed_at < now() - make_interval(hours => ?)",
+                    retentionHours);
+            jdbc.update("DELETE FROM campaign_budget_topup WHERE applied_at < now() - make_interval(hours => ?)",
+                    retentionHours);
+        });
+    }
+}
@@ -1,17 +1,22 @@
 package com.gaurav.adDeliveryTesting.service;
 
 import com.gaurav.adDeliveryTesting.model.Campaign;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
 import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
 import com.gaurav.adDeliveryTesting.responseDto.CampaignResponseDto;
 import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @Component
 public class CampaignMetadataCache {
@@ -20,17 +25,23 @@ public class CampaignMetadataCache {
     // Optional: only used if you want to also clear the @Cacheable("campaign") list cache
     private final CacheManager cacheManager; // may be null if none configured
 
-    public CampaignMetadataCache(AdDeliveryRepo repo, CacheManager cacheManager) {
+    // one cache, two views: async for the CompletableFuture serve path, synchronous() for everything else
+    private final AsyncLoadingCache<Integer, CampaignResponseDto> async;
+    private final LoadingCache<Integer, CampaignResponseDto> cache;
+
+    public CampaignMetadataCache(AdDeliveryRepo repo, CacheManager cacheManager,
+                                 @Qualifier("campaignMetaLoader") Executor loadExecutor) {
         this.repo = repo;
         this.cacheManager = cacheManager;
+        this.async = Caffeine.newBuilder()
+                .maximumSize(200_000)                   // tune for your cardinality
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .recordStats()
+                .executor(loadExecutor)                 // loads hit JPA: own pool, off the Redisson threads and serveDbExecutor (see ServeAsyncConfig)
+                .buildAsync(this::loadOne);
+        this.cache = async.synchronous();
     }
 
-    private final LoadingCache<Integer, CampaignResponseDto> cache = Caffeine.newBuilder()
-            .maximumSize(200_000)                   // tune for your cardinality
-            .expireAfterWrite(Duration.ofMinutes(10))
-            .recordStats()
-            .build(this::loadOne);
-
     // ---------- Loaders ----------
 
     private CampaignResponseDto loadOne(Integer id) {
@@ -55,6 +66,11 @@ public class CampaignMetadataCache {
         return cache.get(id);
     }
 
+    /** Non-blocking get; completes with null for unknown ids. Cache hits complete immediately. */
+    public CompletableFuture<CampaignResponseDto> getAsync(int id) {
+        return async.get(id);
+    }
+
 
     /** Warm a bunch at once (used by startup warmup). */
     public void warmAll(Iterable<Campaign> all) {
@@ -91,6 +107,11 @@ public class CampaignMetadataCache {
                 MoneyUtils.toCents(c.getRemainingBudget())
         ));
     }
+    public void put(CampaignTargeting t) {
+        cache.put(t.campaignId(), new CampaignResponseDto(
+                t.campaignId(), t.deliveryLink(), t.bidCents(), t.remainingCents()));
+    }
+
     public void invalidateCampaignListCache() { /* no-op unless you had a list cache */ }
 
     /** Optional helper if you’re reindexing many campaigns. */
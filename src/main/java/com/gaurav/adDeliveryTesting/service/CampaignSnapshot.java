@@ -0,0 +1,186 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary campaign snapshot: every {@link CampaignTargeting} (which also carries the
+ * CampaignResponseDto fields) in one file, read back through a memory-mapped buffer.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic      'ADS1'
+ *   short  version
+ *   long   createdMs  DB clock when the snapshot started
+ *   long   outboxId   max(campaign_change_outbox.id) at that point, -1 if unknown
+ *   int    count
+ *   int    dictSize   then dictSize x (int len, UTF-8 bytes)
+ *   count x record:   int id, int linkRef, long bidCents, long remainingCents, byte hasFilters,
+ *                     10 x (int n, n x int ref)   countries .. excludedIps, record order
+ *   long   crc32      over everything before it
+ * </pre>
+ * Every string (links, countries, domains, ...) is stored once in the dictionary and referenced
+ * by index; -1 is null. Decoded records share the dictionary's String instances.
+ */
+public final class CampaignSnapshot {
+
+    public static final int MAGIC = 0x41445331; // "ADS1"
+    public static final short VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 + 2 + 8 + 8 + 4;
+
+    public record Header(short version, long createdMs, long outboxId, int count) {}
+
+    public record Contents(Header header, List<CampaignTargeting> campaigns) {}
+
+    private CampaignSnapshot() {}
+
+    // ---------- Write ----------
+
+    /** Writes {@code campaigns} to {@code out}; the caller handles the temp file + rename. */
+    public static void write(Path out, long createdMs, long outboxId, Collection<CampaignTargeting> campaigns) throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        List<String> dict = new ArrayList<>();
+        for (CampaignTargeting t : campaigns) {
+            intern(refs, dict, t.deliveryLink());
+            for (List<String> l : lists(t)) for (String s : l) intern(refs, dict, s);
+        }
+
+        CRC32 crc = new CRC32();
+        try (OutputStream raw = Files.newOutputStream(out)) {
+            DataOutputStream d = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(raw, crc), 1 << 16));
+            d.writeInt(MAGIC);
+            d.writeShort(VERSION);
+            d.writeLong(createdMs);
+            d.writeLong(outboxId);
+            d.writeInt(campaigns.size());
+
+            d.writeInt(dict.size());
+            for (String s : dict) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                d.writeInt(b.length);
+                d.write(b);
+            }
+
+            for (CampaignTargeting t : campaigns) {
+                d.writeInt(t.campaignId());
+                d.writeInt(ref(refs, t.deliveryLink()));
+                d.writeLong(t.bidCents());
+                d.writeLong(t.remainingCents());
+                d.writeByte(t.hasFilters() ? 1 : 0);
+                for (List<String> l : lists(t)) {
+                    d.writeInt(l.size());
+                    for (String s : l) d.writeInt(ref(refs, s));
+                }
+            }
+            d.flush();
+
+            // trailer goes around the checksum stream
+            raw.write(ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+        }
+    }
+
+    private static void intern(Map<String, Integer> refs, List<String> dict, String s) {
+        if (s == null || refs.containsKey(s)) return;
+        refs.put(s, dict.size());
+        dict.add(s);
+    }
+
+    private static int ref(Map<String, Integer> refs, String s) {
+        return s == null ? -1 : refs.get(s);
+    }
+
+    private static List<List<String>> lists(CampaignTargeting t) {
+        return List.of(t.countries(), t.languages(), t.devices(), t.oses(), t.browsers(), t.iabCategories(),
+                t.allowedDomains(), t.allowedIps(), t.excludedDomains(), t.excludedIps());
+    }
+
+    // ---------- Read ----------
+
+    /** Just the header (no checksum pass); null if the file is missing or not a snapshot of this version. */
+    public static Header readHeader(Path in) throws IOException {
+        if (!Files.isRegularFile(in)) return null;
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES + 8) return null;
+            ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES);
+            while (b.hasRemaining() && ch.read(b) >= 0) { }
+            b.flip();
+            return header(b);
+        }
+    }
+
+    /** Maps and decodes the whole file; throws if the magic, version or checksum don't match. */
+    public static Contents read(Path in) throws IOException {
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES + 8 || size > Integer.MAX_VALUE) throw new IOException("bad snapshot size " + size);
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            crc.update(m.slice(0, (int) size - 8));
+            if (crc.getValue() != m.getLong((int) size - 8)) throw new IOException("snapshot checksum mismatch: " + in);
+
+            Header h = header(m);
+            if (h == null) throw new IOException("not a v" + VERSION + " campaign snapshot: " + in);
+
+            String[] dict = new String[m.getInt()];
+            for (int i = 0; i < dict.length; i++) {
+                byte[] b = new byte[m.getInt()];
+                m.get(b);
+                dict[i] = new String(b, StandardCharsets.UTF_8);
+            }
+
+            List<CampaignTargeting> out = new ArrayList<>(h.count());
+            for (int i = 0; i < h.count(); i++) {
+                int id = m.getInt();
+                String link = str(dict, m.getInt());
+                long bid = m.getLong();
+                long remaining = m.getLong();
+                boolean hasFilters = m.get() != 0;
+                out.add(new CampaignTargeting(id, link, bid, remaining, hasFilters,
+                        list(m, dict), list(m, dict), list(m, dict), list(m, dict), list(m, dict),
+                        list(m, dict), list(m, dict), list(m, dict), list(m, dict), list(m, dict)));
+            }
+            return new Contents(h, out);
+        }
+    }
+
+    private static Header header(ByteBuffer b) {
+        if (b.getInt() != MAGIC) return null;
+        short version = b.getShort();
+        if (version != VERSION) return null;
+        return new Header(version, b.getLong(), b.getLong(), b.getInt());
+    }
+
+    private static String str(String[] dict, int ref) {
+        return ref < 0 ? null : dict[ref];
+    }
+
+    private static List<String> list(ByteBuffer b, String[] dict) {
+        int n = b.getInt();
+        if (n == 0) return List.of();
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) out[i] = str(dict, b.getInt());
+        return Collections.unmodifiableList(Arrays.asList(out));
+    }
+}
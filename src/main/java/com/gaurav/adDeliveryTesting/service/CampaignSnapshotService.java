@@ -0,0 +1,184 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and loads the {@link CampaignSnapshot} file at adserve.snapshot.path (a volume every
+ * instance can read).
+ *
+ * One instance at a time writes it (Redisson lock, skipped while the current file is younger
+ * than the write interval), into a temp file that is renamed over the old one, so readers never
+ * see a half-written snapshot. Loading applies whatever changed since from the DB, using the
+ * campaign_change_outbox watermark stored in the header.
+ */
+@Service
+@ConditionalOnProperty(value = "adserve.snapshot.enabled", havingValue = "true")
+public class CampaignSnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(CampaignSnapshotService.class);
+
+    private static final String LOCK = "lock:campaign-snapshot";
+    private static final int FETCH_SIZE = 1000;
+
+    // Rows at or below the watermark that were processed before the snapshot started are already
+    // in it. Anything else may not be: newer rows, rows still pending (the trigger dedups onto
+    // them), and rows whose writer committed after the snapshot read (they can't be processed
+    // before they commit).
+    private static final String CHANGED_SINCE_SQL = """
+        SELECT DISTINCT campaign_id FROM campaign_change_outbox
+        WHERE id > ? OR processed_at IS NULL OR processed_at >= to_timestamp(? / 1000.0)
+        """;
+
+    private final CampaignTargetingRepo rows;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate readTx;
+    private final RedissonClient redisson;
+
+    private final Path path;
+
+    @Value("${adserve.snapshot.write.ms:300000}")
+    private long writeMs;
+
+    @Value("${adserve.snapshot.max.age.hours:12}")
+    private long maxAgeHours;
+
+    public CampaignSnapshotService(CampaignTargetingRepo rows, JdbcTemplate jdbc,
+                                   PlatformTransactionManager txm, RedissonClient redisson,
+                                   @Value("${adserve.snapshot.path:./data/campaigns.snap}") String path) {
+        this.path = Path.of(path);
+        this.rows = rows;
+        this.jdbc = jdbc;
+        this.readTx = new TransactionTemplate(txm);
+        this.readTx.setReadOnly(true);
+        this.redisson = redisson;
+    }
+
+    // ---------- Write ----------
+
+    @Scheduled(fixedDelayString = "${adserve.snapshot.write.ms:300000}",
+               initialDelayString = "${adserve.snapshot.write.initial.delay.ms:60000}")
+    public void writeIfDue() {
+        RLock lock = redisson.getLock(LOCK);
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(0, 10, TimeUnit.MINUTES);
+            if (!locked) return;
+            CampaignSnapshot.Header h = CampaignSnapshot.readHeader(path);
+            if (h != null && dbNowMs() - h.createdMs() < writeMs) return; // another instance just wrote it
+            write();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Campaign snapshot write failed", e);
+        } finally {
+            if (locked) {
+                try { lock.unlock(); } catch (Exception ignore) {}
+            }
+        }
+    }
+
+    /** Streams every campaign into a new snapshot and swaps it in; returns the campaign count. */
+    public int write() throws IOException {
+        long t0 = System.nanoTime();
+        long[] mark = watermark();
+
+        List<CampaignTargeting> all = new ArrayList<>();
+        rows.streamAll(FETCH_SIZE, all::add);
+
+        Path dir = path.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            CampaignSnapshot.write(tmp, mark[0], mark[1], all);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        log.info("Campaign snapshot written: {} campaigns, {} bytes in {} ms",
+                all.size(), Files.size(path), (System.nanoTime() - t0) / 1_000_000);
+        return all.size();
+    }
+
+    /** {DB now in ms, max outbox id or -1 without change capture}, read before the stream starts. */
+    private long[] watermark() {
+        long now = dbNowMs();
+        try {
+            Long max = readTx.execute(status -> jdbc.queryForObject(
+                    "SELECT coalesce(max(id), 0) FROM campaign_change_outbox", Long.class));
+            return new long[]{now, max == null ? 0 : max};
+        } catch (DataAccessException e) {
+            return new long[]{now, -1};
+        }
+    }
+
+    private long dbNowMs() {
+        Long now = readTx.execute(status -> jdbc.queryForObject(
+                "SELECT (extract(epoch FROM clock_timestamp()) * 1000)::bigint", Long.class));
+        return now == null ? System.currentTimeMillis() : now;
+    }
+
+    // ---------- Load ----------
+
+    /**
+     * The snapshot with DB changes since it was written applied (deleted campaigns dropped),
+     * or null when there is no usable snapshot: missing, corrupt, older than
+     * adserve.snapshot.max.age.hours, or written without an outbox watermark.
+     */
+    public List<CampaignTargeting> loadCurrent() {
+        CampaignSnapshot.Contents snap;
+        try {
+            if (CampaignSnapshot.readHeader(path) == null) return null;
+            snap = CampaignSnapshot.read(path);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable campaign snapshot {}", path, e);
+            return null;
+        }
+        CampaignSnapshot.Header h = snap.header();
+        long ageMs = dbNowMs() - h.createdMs();
+        if (h.outboxId() < 0 || ageMs > TimeUnit.HOURS.toMillis(maxAgeHours)) {
+            log.info("Campaign snapshot not used (age {} s, outbox watermark {})", ageMs / 1000, h.outboxId());
+            return null;
+        }
+
+        List<Integer> changed = readTx.execute(status ->
+                jdbc.queryForList(CHANGED_SINCE_SQL, Integer.class, h.outboxId(), h.createdMs()));
+        if (changed == null || changed.isEmpty()) return snap.campaigns();
+
+        Map<Integer, CampaignTargeting> byId = new LinkedHashMap<>();
+        for (CampaignTargeting t : snap.campaigns()) byId.put(t.campaignId(), t);
+        Map<Integer, CampaignTargeting> fresh = new HashMap<>();
+        for (CampaignTargeting t : rows.findByIds(changed)) fresh.put(t.campaignId(), t);
+        for (Integer id : changed) {
+            CampaignTargeting t = fresh.get(id);
+            if (t == null) byId.remove(id);
+            else byId.put(id, t);
+        }
+        log.info("Campaign snapshot: {} campaigns, {} changed since it was written ({} s ago)",
+                byId.size(), changed.size(), ageMs / 1000);
+        return new ArrayList<>(byId.values());
+    }
+}
@@ -1,12 +1,204 @@
 package com.gaurav.adDeliveryTesting.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit for the DB fallback (pick SQL + budget spend), gradient style.
+ *
+ * Every released {@link Permit} is an RTT sample. A short EWMA tracks current latency, the minimum
+ * over the last two windows of samples the no-load baseline; the limit moves toward
+ * limit x min(1, 1.5 x base/current) + sqrt(limit), so it grows while latency holds and shrinks
+ * (down to half per step) as soon as Postgres slows down, instead of running into Hikari's
+ * connection timeout at a fixed 32. A shrunk limit brings latency back down, which keeps the
+ * windowed minimum honest; an average-based baseline would drift up with sustained overload and
+ * never shrink it. Samples taken with fewer than half the permits in use don't move the limit
+ * (nothing learned about it). Failed calls cut it by 10%.
+ *
+ * Bounded between adserve.db.limiter.min and max (default: main Hikari pool size - 4, leaving
+ * headroom for metadata loads and change capture). When full, a caller may wait up to
+ * adserve.db.limiter.queue.ms in a queue of at most adserve.db.limiter.queue.max; otherwise it is
+ * rejected. ReentrantLock rather than synchronized, so waiting doesn't pin virtual threads.
+ */
 @Component
 class DbBulkhead {
-    // keep strictly below Hikari maximumPoolSize to preserve some headroom
-    private final java.util.concurrent.Semaphore sem =
-            new java.util.concurrent.Semaphore(32, true);
 
-    boolean enter() { return sem.tryAcquire(); }
-    void leave() { sem.release(); }
-}
\ No newline at end of file
+    private static final double TOLERANCE = 1.5;
+    private static final double SHORT_ALPHA = 0.1;        // ~10 samples
+    private static final int BASE_WINDOW = 500;           // samples per baseline window
+    private static final double SMOOTHING = 0.2;
+    private static final double DROP_BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long queueNanos;
+    private final int maxQueue;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+
+    // guarded by lock
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double shortRtt;   // ns, 0 = no sample yet
+    private long windowMin = Long.MAX_VALUE;
+    private long prevWindowMin = Long.MAX_VALUE;
+    private int windowSamples;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @Autowired
+    DbBulkhead(@Value("${adserve.db.limiter.min:4}") int minLimit,
+               @Value("${adserve.db.limiter.max:0}") int maxLimit,
+               @Value("${adserve.db.limiter.initial:16}") int initialLimit,
+               @Value("${adserve.db.limiter.queue.ms:10}") long queueMs,
+               @Value("${adserve.db.limiter.queue.max:64}") int maxQueue,
+               @Value("${spring.datasource.hikari.maximum-pool-size:40}") int poolSize) {
+        this(minLimit, maxLimit, initialLimit, queueMs, maxQueue, poolSize, System::nanoTime);
+    }
+
+    /** {@code nanoClock} times the permits (RTT samples); queue waits always use real time. */
+    DbBulkhead(int minLimit, int maxLimit, int initialLimit, long queueMs, int maxQueue, int poolSize,
+               LongSupplier nanoClock) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit > 0 ? maxLimit : poolSize - 4);
+        this.limit = Math.clamp(initialLimit, this.minLimit, this.maxLimit);
+        this.queueNanos = TimeUnit.MILLISECONDS.toNanos(queueMs);
+        this.maxQueue = maxQueue;
+        this.nanoClock = nanoClock;
+    }
+
+    /** One DB call's slot; release with {@link #close} (and {@link #failed} first if the call threw). */
+    final class Permit implements AutoCloseable {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private boolean failed;
+        private boolean released;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /** The call failed (timeout, connection error): counts as congestion, not as an RTT sample. */
+        void failed() { failed = true; }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            release(nanoClock.getAsLong() - startNanos, inFlightAtStart, failed);
+        }
+    }
+
+    /** A permit, possibly after a short queue wait, or null when the DB is at its current limit. */
+    Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) return grant();
+            if (queueNanos <= 0 || waiting >= maxQueue) {
+                rejected.increment();
+                return null;
+            }
+            waiting++;
+            queued.increment();
+            try {
+                long nanos = queueNanos;
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0) {
+                        rejected.increment();
+                        return null;
+                    }
+                    nanos = freed.awaitNanos(nanos);
+                }
+                return grant();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return null;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant() {
+        inFlight++;
+        acquired.increment();
+        return new Permit(nanoClock.getAsLong(), inFlight);
+    }
+
+    private void release(long rttNanos, int inFlightAtStart, boolean failed) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (failed) {
+                dropped.increment();
+                limit = Math.max(minLimit, limit * DROP_BACKOFF);
+            } else {
+                sample(rttNanos, inFlightAtStart);
+            }
+            if (inFlight < (int) limit) freed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rtt, int inFlightAtStart) {
+        rtt = Math.max(rtt, 1);
+        if (rtt < windowMin) windowMin = rtt;
+        if (++windowSamples >= BASE_WINDOW) {
+            prevWindowMin = windowMin;
+            windowMin = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        shortRtt = (shortRtt == 0) ? rtt : shortRtt + (rtt - shortRtt) * SHORT_ALPHA;
+
+        if (inFlightAtStart < limit / 2) return;
+
+        double gradient = Math.clamp(TOLERANCE * baseRtt() / shortRtt, 0.5, 1.0);
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + target * SMOOTHING, minLimit, maxLimit);
+    }
+
+    private long baseRtt() {
+        return Math.min(windowMin, prevWindowMin);
+    }
+
+    Map<String, Object> stats() {
+        lock.lock();
+        try {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("limit", (int) limit);
+            m.put("min", minLimit);
+            m.put("max", maxLimit);
+            m.put("inFlight", inFlight);
+            m.put("queued", waiting);
+            m.put("acquired", acquired.sum());
+            m.put("queuedTotal", queued.sum());
+            m.put("rejected", rejected.sum());
+            m.put("failed", dropped.sum());
+            m.put("rttShortMs", shortRtt / 1e6);
+            m.put("rttBaseMs", shortRtt == 0 ? 0 : baseRtt() / 1e6);
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
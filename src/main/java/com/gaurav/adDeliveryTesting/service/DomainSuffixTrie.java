@@ -0,0 +1,87 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.utils.DomainUtils;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Domain pattern -> campaign ordinals, as a trie over reversed labels (com -> example -> news).
+ *
+ * "example.com" sits on the example node's exact bitmap, "*.example.com" on its subdomain bitmap.
+ * A lookup walks the host's labels right to left, so it costs O(labels) however many campaigns
+ * and patterns there are. Built once by {@link TargetingIndex} and read-only afterwards.
+ */
+final class DomainSuffixTrie {
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        RoaringBitmap exact;       // pattern == this domain
+        RoaringBitmap subdomains;  // pattern == "*." + this domain
+    }
+
+    private final Node root = new Node();
+
+    /** {@code pattern} is lowercased and trimmed: "example.com" or "*.example.com". */
+    void add(String pattern, int ord) {
+        boolean wildcard = pattern.startsWith(DomainUtils.WILDCARD);
+        String domain = wildcard ? pattern.substring(DomainUtils.WILDCARD.length()) : pattern;
+        if (domain.isEmpty()) return;
+
+        Node n = root;
+        for (int end = domain.length(); end > 0; ) {
+            int dot = domain.lastIndexOf('.', end - 1);
+            n = n.children.computeIfAbsent(domain.substring(dot + 1, end), k -> new Node());
+            end = dot;
+        }
+        if (wildcard) {
+            if (n.subdomains == null) n.subdomains = new RoaringBitmap();
+            n.subdomains.add(ord);
+        } else {
+            if (n.exact == null) n.exact = new RoaringBitmap();
+            n.exact.add(ord);
+        }
+    }
+
+    /**
+     * Ordinals with a pattern matching {@code host} (lowercased, a trailing dot ignored), or null
+     * when none do. The result may be one of the trie's own bitmaps: don't modify it.
+     */
+    RoaringBitmap match(String host) {
+        if (host == null) return null;
+        int last = host.length();
+        if (last > 0 && host.charAt(last - 1) == '.') last--;
+        RoaringBitmap hit = null;
+        boolean shared = true;
+        Node n = root;
+        for (int end = last; end > 0; ) {
+            int dot = host.lastIndexOf('.', end - 1);
+            n = n.children.get(host.substring(dot + 1, end));
+            if (n == null) break;
+            RoaringBitmap b = (dot < 0) ? n.exact : n.subdomains;  // labels left => only wildcards apply
+            if (b != null) {
+                if (hit == null) {
+                    hit = b;
+                } else if (shared) {
+                    hit = RoaringBitmap.or(hit, b);
+                    shared = false;
+                } else {
+                    hit.or(b);
+                }
+            }
+            end = dot;
+        }
+        return hit;
+    }
+
+    void optimize() {
+        optimize(root);
+    }
+
+    private static void optimize(Node n) {
+        if (n.exact != null) n.exact.runOptimize();
+        if (n.subdomains != null) n.subdomains.runOptimize();
+        n.children.values().forEach(DomainSuffixTrie::optimize);
+    }
+}
@@ -0,0 +1,20 @@
+package com.gaurav.adDeliveryTesting.service;
+
+/**
+ * How campaigns are laid out in Redis for the serve pick (adserve.index.layout).
+ *
+ * PRODUCT: one ZSET per country x language x device x os combination a campaign targets
+ *          (campaign:filters:...). An untargeted (empty) dimension means no entries at all.
+ * DIM:     one ZSET per dimension value (campaign:dim:{dim}:{value}), with untargeted campaigns
+ *          under campaign:dim:{dim}:any. The serve Lua intersects (exact ∪ any) across the four
+ *          dimensions into a short-lived campaign:seg:... ZSET, so index size is the sum of the
+ *          list sizes, not their product.
+ */
+public enum IndexLayout {
+    PRODUCT,
+    DIM;
+
+    static IndexLayout parse(String v) {
+        return (v == null || v.isBlank()) ? PRODUCT : valueOf(v.trim().toUpperCase());
+    }
+}
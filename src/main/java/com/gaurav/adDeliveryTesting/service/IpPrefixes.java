@@ -0,0 +1,70 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.utils.IpAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IP matching for the Redis and SQL paths, which can only do set membership / equality.
+ *
+ * The client IP is expanded into its canonical text plus, for each CIDR prefix length that some
+ * campaign actually uses ({@link RedisKeys#IP_PREFIXES}), the enclosing range
+ * in canonical form, e.g. 10.1.2.3 -> [10.1.2.3, 10.1.2.0/24, 10.0.0.0/8]. IP sets are written
+ * canonicalized, so a range matches with one SISMEMBER per length in use. Lengths are re-read
+ * every adserve.ip.prefix.refresh.ms; a length used for the first time can take that long to
+ * match here (the in-JVM radix tree has no such lag).
+ */
+@Component
+public class IpPrefixes {
+
+    private static final Logger log = LoggerFactory.getLogger(IpPrefixes.class);
+
+    private final StringRedisTemplate redis;
+
+    private volatile int[] lengths = new int[0];   // 128-bit space, descending
+
+    public IpPrefixes(StringRedisTemplate redis) {
+        this.redis = redis;
+    }
+
+    @Scheduled(fixedDelayString = "${adserve.ip.prefix.refresh.ms:10000}")
+    public void refresh() {
+        try {
+            Set<String> members = redis.opsForSet().members(RedisKeys.IP_PREFIXES);
+            if (members == null) return;
+            lengths = members.stream()
+                    .mapToInt(Integer::parseInt)
+                    .filter(l -> l >= 0 && l < 128)
+                    .boxed().sorted((a, b) -> b - a)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        } catch (RuntimeException e) {
+            log.debug("IP prefix lengths not refreshed", e);
+        }
+    }
+
+    /** Values to test against an IP set, most specific first; {@code [""]} for no IP. */
+    public List<String> patterns(String ip) {
+        if (ip == null || ip.isEmpty()) return List.of("");
+        IpAddress a = IpAddress.parse(ip);
+        if (a == null) return List.of(ip);   // not an address: exact string match only
+
+        int[] lens = lengths;
+        List<String> out = new ArrayList<>(2 + lens.length);
+        String canonical = a.toString();
+        out.add(canonical);
+        if (!canonical.equals(ip)) out.add(ip);
+        for (int len : lens) {
+            if (a.isV4() && len < 96) continue;  // IPv6-only ranges
+            out.add(new IpAddress.Cidr(a.mask(len), len).canonical());
+        }
+        return out;
+    }
+}
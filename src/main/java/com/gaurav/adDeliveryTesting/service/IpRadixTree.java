@@ -0,0 +1,157 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.utils.IpAddress;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CIDR prefix -> campaign ordinals, as a path-compressed binary radix tree over the 128-bit
+ * {@link IpAddress} space (IPv4 prefixes sit under ::ffff:0:0/96).
+ *
+ * Nodes live in parallel primitive arrays; a node only exists where a prefix ends or two prefixes
+ * diverge, so a lookup is one walk of at most (distinct prefix lengths on the path) steps however
+ * many prefixes are stored. Every prefix on the path that contains the address contributes its
+ * bitmap, so a /8 and a /24 both match 10.1.2.3. Built once by {@link TargetingIndex}.
+ */
+final class IpRadixTree {
+
+    private long[] hi = new long[16];
+    private long[] lo = new long[16];
+    private short[] len = new short[16]; // prefix length 0..128
+    private int[] zero = new int[16];    // child for next bit 0, -1 none
+    private int[] one = new int[16];     // child for next bit 1, -1 none
+    private int[] value = new int[16];   // index into values, -1 none
+    private int size;
+
+    private final List<RoaringBitmap> values = new ArrayList<>();
+
+    IpRadixTree() {
+        node(new IpAddress(0, 0), 0); // root: the empty prefix
+    }
+
+    boolean isEmpty() { return values.isEmpty(); }
+
+    void add(IpAddress.Cidr cidr, int ord) {
+        IpAddress p = cidr.network();
+        int plen = cidr.prefix();
+        int n = 0;
+        while (true) {
+            if (plen == prefix(n)) {
+                bitmap(n).add(ord);
+                return;
+            }
+            int b = p.bit(prefix(n));
+            int c = child(n, b);
+            if (c < 0) {
+                int leaf = node(p, plen);
+                setChild(n, b, leaf);
+                bitmap(leaf).add(ord);
+                return;
+            }
+            int common = Math.min(Math.min(p.commonPrefix(address(c)), plen), prefix(c));
+            if (common == prefix(c)) {
+                n = c;
+                continue;
+            }
+            // p and c diverge (or p ends) inside c's edge: split it
+            int mid = node(p.mask(common), common);
+            setChild(n, b, mid);
+            setChild(mid, address(c).bit(common), c);
+            if (common == plen) {
+                bitmap(mid).add(ord);
+            } else {
+                int leaf = node(p, plen);
+                setChild(mid, p.bit(common), leaf);
+                bitmap(leaf).add(ord);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Union of the bitmaps of every stored prefix containing {@code a}, or null when none do.
+     * The result may be one of the tree's own bitmaps: don't modify it.
+     */
+    RoaringBitmap match(IpAddress a) {
+        RoaringBitmap hit = null;
+        boolean shared = true;
+        int n = 0;
+        while (n >= 0) {
+            int plen = prefix(n);
+            if (plen > 0 && commonPrefix(a, n) < plen) break;
+            if (value[n] >= 0) {
+                RoaringBitmap b = values.get(value[n]);
+                if (hit == null) {
+                    hit = b;
+                } else if (shared) {
+                    hit = RoaringBitmap.or(hit, b);
+                    shared = false;
+                } else {
+                    hit.or(b);
+                }
+            }
+            if (plen == 128) break;
+            n = child(n, a.bit(plen));
+        }
+        return hit;
+    }
+
+    void optimize() {
+        values.forEach(RoaringBitmap::runOptimize);
+        hi = Arrays.copyOf(hi, size);
+        lo = Arrays.copyOf(lo, size);
+        len = Arrays.copyOf(len, size);
+        zero = Arrays.copyOf(zero, size);
+        one = Arrays.copyOf(one, size);
+        value = Arrays.copyOf(value, size);
+    }
+
+    // ---------- node arrays ----------
+
+    private int node(IpAddress p, int plen) {
+        if (size == hi.length) {
+            int cap = size * 2;
+            hi = Arrays.copyOf(hi, cap);
+            lo = Arrays.copyOf(lo, cap);
+            len = Arrays.copyOf(len, cap);
+            zero = Arrays.copyOf(zero, cap);
+            one = Arrays.copyOf(one, cap);
+            value = Arrays.copyOf(value, cap);
+        }
+        int n = size++;
+        hi[n] = p.hi();
+        lo[n] = p.lo();
+        len[n] = (short) plen;
+        zero[n] = -1;
+        one[n] = -1;
+        value[n] = -1;
+        return n;
+    }
+
+    private int prefix(int n)           { return len[n]; }
+    private IpAddress address(int n)    { return new IpAddress(hi[n], lo[n]); }
+    private int child(int n, int b)     { return b == 0 ? zero[n] : one[n]; }
+
+    private int commonPrefix(IpAddress a, int n) {
+        long x = a.hi() ^ hi[n];
+        if (x != 0) return Long.numberOfLeadingZeros(x);
+        long y = a.lo() ^ lo[n];
+        return y == 0 ? 128 : 64 + Long.numberOfLeadingZeros(y);
+    }
+
+    private void setChild(int n, int b, int c) {
+        if (b == 0) zero[n] = c;
+        else one[n] = c;
+    }
+
+    private RoaringBitmap bitmap(int n) {
+        if (value[n] < 0) {
+            value[n] = values.size();
+            values.add(new RoaringBitmap());
+        }
+        return values.get(value[n]);
+    }
+}
@@ -1,23 +1,19 @@
 // src/main/java/com/gaurav/adDeliveryTesting/service/LazyIndexer.java
 package com.gaurav.adDeliveryTesting.service;
 
-import com.gaurav.adDeliveryTesting.model.Campaign;
-import com.gaurav.adDeliveryTesting.model.CampaignFilters;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
 import com.gaurav.adDeliveryTesting.repo.AdDeliveryNativeRepo;
-import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
-import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -25,7 +21,7 @@ import java.util.concurrent.TimeUnit;
 public class LazyIndexer {
 
     private final AdDeliveryNativeRepo nativeRepo;
-    private final AdDeliveryRepo repo;
+    private final CampaignTargetingRepo rows;
     private final StringRedisTemplate redis;
     private final RedissonClient redisson;
     private final CampaignMetadataCache meta;
@@ -36,17 +32,14 @@ public class LazyIndexer {
     private static final int SLICE_SIZE        = 50;      // load & pipe this many per slice
     private static final Duration KEY_TTL      = Duration.ofHours(6);
 
-    @PersistenceContext
-    private EntityManager em;
-
     public LazyIndexer(AdDeliveryNativeRepo nativeRepo,
-                       AdDeliveryRepo repo,
+                       CampaignTargetingRepo rows,
                        StringRedisTemplate redis,
                        RedissonClient redisson,
                        CampaignMetadataCache meta,
                        CampaignCacheService cache) {
         this.nativeRepo = nativeRepo;
-        this.repo = repo;
+        this.rows = rows;
         this.redis = redis;
         this.redisson = redisson;
         this.meta = meta;
@@ -55,11 +48,13 @@ public class LazyIndexer {
 
     /** Idempotent: creates the coarse-key ZSET & per-campaign sets if missing. */
     public void ensureIndexed(String country, String language, String device, String os) {
-        final String zsetKey = CampaignCacheService.zsetKey(country, language, device, os);
+        final String zsetKey = RedisKeys.zset(country, language, device, os);
+        // DIM layout has no per-segment ZSET to probe (the serve Lua materializes it), so a marker records the pass
+        final boolean dim = cache.layout() == IndexLayout.DIM;
+        final String doneKey = dim ? RedisKeys.seg(country, language, device, os) + ":lazy" : null;
 
         // quick check — if present and non-empty, done
-        Long size = redis.opsForZSet().zCard(zsetKey);
-        if (size != null && size > 0) return;
+        if (indexed(zsetKey, doneKey)) return;
 
         // lock per-coarse-key to avoid thundering herd; short wait/lease
         RLock lock = redisson.getLock("lock:index:" + zsetKey);
@@ -69,25 +64,25 @@ public class LazyIndexer {
             if (!locked) return;
 
             // recheck under lock
-            size = redis.opsForZSet().zCard(zsetKey);
-            if (size != null && size > 0) return;
+            if (indexed(zsetKey, doneKey)) return;
 
             // 1) find top candidates for this coarse key (cheap native query)
             List<Integer> ids = nativeRepo.findTopIdsForCoarseKey(country, language, device, os, TOP_LIMIT_PER_KEY);
             if (ids == null || ids.isEmpty()) {
                 // still set a short TTL zset to avoid rework storms on empty segments
-                redisson.getKeys().expireAsync(zsetKey, 60, TimeUnit.SECONDS);
+                if (dim) redis.opsForValue().set(doneKey, "0", Duration.ofSeconds(60));
+                else redisson.getKeys().expireAsync(zsetKey, 60, TimeUnit.SECONDS);
                 return;
             }
 
             // 2) load + write in small slices to keep memory flat
             for (int i = 0; i < ids.size(); i += SLICE_SIZE) {
                 List<Integer> sliceIds = ids.subList(i, Math.min(i + SLICE_SIZE, ids.size()));
-                // loads with EntityGraph, but only 50 at a time
-                List<Campaign> slice = repo.findBatchWithFilters(sliceIds);
+                // one row per campaign, collections as arrays (no entity graph)
+                List<CampaignTargeting> slice = rows.findByIds(sliceIds);
 
-                // fill the tiny metadata cache from entities (no extra DB calls)
-                for (Campaign c : slice) meta.put(c);
+                // fill the tiny metadata cache from the snapshots (no extra DB calls)
+                for (CampaignTargeting t : slice) meta.put(t);
 
                 // single pipeline for the slice
                 redis.executePipelined(new SessionCallback<Object>() {
@@ -96,61 +91,19 @@ public class LazyIndexer {
                     public Object execute(RedisOperations operations) throws DataAccessException {
                         RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
 
-                        for (Campaign c : slice) {
-                            String idStr = Integer.toString(c.getCampaignId());
-                            // budgets
-                            ops.opsForHash().put("campaign:budget:" + idStr, "remaining",
-                                    Long.toString(MoneyUtils.toCents(c.getRemainingBudget())));
-                            ops.opsForValue().set("campaign:delta:" + idStr, "0");
-
-                            CampaignFilters f = c.getFilters();
-                            if (f == null) continue;
-
-                            // allow/block (one SADD per set)
-                            CampaignCacheService.writeAllowSetOps(ops,
-                                    CampaignCacheService.allowBrowserKey(c.getCampaignId()),
-                                    f.getBrowsers());
-
-                            CampaignCacheService.writeAllowSetOps(ops,
-                                    CampaignCacheService.allowIabKey(c.getCampaignId()),
-                                    f.getIabCategory());
-
-                            CampaignCacheService.writeAllowSetOps(ops,
-                                    CampaignCacheService.allowIpKey(c.getCampaignId()),
-                                    f.getAllowedIP());
-
-                            CampaignCacheService.writeAllowSetOps(ops,
-                                    CampaignCacheService.allowDomainKey(c.getCampaignId()),
-                                    CampaignCacheService.toLowerSet(f.getAllowedDomain()));
-
-                            CampaignCacheService.writeBlockSetOps(ops,
-                                    CampaignCacheService.blockIpKey(c.getCampaignId()),
-                                    f.getExcludedIP());
-
-                            CampaignCacheService.writeBlockSetOps(ops,
-                                    CampaignCacheService.blockDomainKey(c.getCampaignId()),
-                                    CampaignCacheService.toLowerSet(f.getExcludedDomain()));
-
-                            // coarse zset memberships
-                            for (String ctry : safe(f.getCountries()))
-                                for (String lang : safe(f.getLanguages()))
-                                    for (String dev  : safe(f.getDevices()))
-                                        for (String osItem : safe(f.getOsList()))
-                                            CampaignCacheService.addCampaignToZsetOps(ops, c, ctry, lang, dev, osItem);
-                        }
-
-                        // put a TTL on this particular coarse zset
-                        ops.expire(zsetKey, KEY_TTL);
+                        // budgets, targeting record + non-empty allow/block sets, index memberships (see IndexLayout)
+                        for (CampaignTargeting t : slice) cache.writeCampaignOps(ops, t);
+
+                        // put a TTL on this particular coarse zset (dim keys are shared by every segment)
+                        if (!dim) ops.expire(zsetKey, KEY_TTL);
                         return null;
                     }
                 });
-
-                // free the slice from the persistence context to keep heap flat
-                em.clear();
             }
 
             // Redisson expire with (long, TimeUnit) — avoids Duration overload issues
-            redisson.getKeys().expireAsync(zsetKey, KEY_TTL.toSeconds(), TimeUnit.SECONDS);
+            if (dim) redis.opsForValue().set(doneKey, "1", KEY_TTL);
+            else redisson.getKeys().expireAsync(zsetKey, KEY_TTL.toSeconds(), TimeUnit.SECONDS);
 
         } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
@@ -161,29 +114,36 @@ public class LazyIndexer {
         }
     }
 
-    @org.springframework.scheduling.annotation.Async
+    @Async
     public void enqueueIndex(String country, String language, String device, String os, int id) {
         var dto = meta.get(id);
         if (dto == null) return;
 
-        String z = CampaignCacheService.zsetKey(country, language, device, os);
-        String rr= CampaignCacheService.rrKey(country, language, device, os);
-
-        // ZADD single member
-        redis.opsForZSet().add(z, Integer.toString(id), (double) dto.bidCents());
-        // keep a membership set so you can clean later if you want
-        redis.opsForSet().add(CampaignCacheService.membershipKey(id), z);
-
-        // TTL so cold keys evaporate
-        redis.expire(z, java.time.Duration.ofHours(6));
-        redis.expire(rr, java.time.Duration.ofHours(6));
+        if (cache.layout() == IndexLayout.DIM) {
+            // dim keys come from the campaign's own filters, not from the request that found it
+            List<CampaignTargeting> one = rows.findByIds(List.of(id));
+            if (one.isEmpty()) return;
+            cache.addCampaignToIndex(one.get(0));
+        } else {
+            String z = RedisKeys.zset(country, language, device, os);
+            String rr= RedisKeys.rr(country, language, device, os);
+
+            // ZADD single member
+            redis.opsForZSet().add(z, Integer.toString(id), (double) dto.bidCents());
+            // keep a membership set so you can clean later if you want
+            redis.opsForSet().add(RedisKeys.membership(id), z);
+
+            // TTL so cold keys evaporate
+            redis.expire(z, java.time.Duration.ofHours(6));
+            redis.expire(rr, java.time.Duration.ofHours(6));
+        }
 
         // budgets/deltas (only if missing)
-        String bkey = "campaign:budget:" + id;
+        String bkey = RedisKeys.budget(id);
         Boolean has = redis.hasKey(bkey);
         if (has == null || !has) {
             redis.opsForHash().put(bkey, "remaining", Long.toString(dto.remainingCents()));
-            redis.opsForValue().set("campaign:delta:" + id, "0");
+            redis.opsForValue().set(RedisKeys.delta(id), "0");
         }
 
         // Allow/block sets: skip here (they’re only needed when present).
@@ -192,7 +152,9 @@ public class LazyIndexer {
         // but do it in another async task to keep TTFB low.
     }
 
-    private static <T> Iterable<T> safe(Iterable<T> it) {
-        return it == null ? new ArrayList<>() : it;
+    private boolean indexed(String zsetKey, String doneKey) {
+        if (doneKey != null) return Boolean.TRUE.equals(redis.hasKey(doneKey));
+        Long size = redis.opsForZSet().zCard(zsetKey);
+        return size != null && size > 0;
     }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
+import org.redisson.api.RBatch;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serve engine that picks on the request thread from an in-JVM {@link TargetingIndex}
+ * and only goes to Redis for the budget spend.
+ *
+ * Enabled with adserve.engine=local; the Redis Lua engine stays the default.
+ */
+@Service
+@ConditionalOnProperty(value = "adserve.engine", havingValue = "local")
+public class LocalServeEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalServeEngine.class);
+
+    private static final int BUILD_CHUNK        = 1000;  // snapshot fetch size + budgets per seed batch
+    private static final int MAX_SPEND_ATTEMPTS = 8;     // spend round trips per request, worst case
+
+    private static final ServeScriptService.ServeResult NO_SERVE = new ServeScriptService.ServeResult(0, null, null);
+
+    private final CampaignTargetingRepo rows;
+    private final CampaignMetadataCache meta;
+    private final BudgetCounterService budget;
+    private final RedissonClient redisson;
+
+    // index + ordinals we learned are out of budget since it was built; swapped together
+    private record State(TargetingIndex index, RoaringBitmap exhausted) {}
+
+    private final AtomicReference<State> state =
+            new AtomicReference<>(new State(TargetingIndex.EMPTY, new RoaringBitmap()));
+
+    // campaigns seen by the last rebuild; their budgets were seeded then (or already existed)
+    private volatile Set<Integer> seeded = Set.of();
+
+    public LocalServeEngine(CampaignTargetingRepo rows,
+                            CampaignMetadataCache meta,
+                            BudgetCounterService budget,
+                            RedissonClient redisson) {
+        this.rows = rows;
+        this.meta = meta;
+        this.budget = budget;
+        this.redisson = redisson;
+    }
+
+    /** Same contract as {@link ServeScriptService#pickAndSpend}. */
+    public ServeScriptService.ServeResult pickAndSpend(String country, String language, String device, String os,
+                                                       String ip, String domain, String browser, String iab) {
+        State s = state.get();
+        TargetingIndex idx = s.index();
+
+        RoaringBitmap r = idx.match(country, language, device, os,
+                nvl(ip), nvl(lower(domain)), nvl(browser), nvl(iab));
+        r.andNot(s.exhausted());
+        if (r.isEmpty()) return NO_SERVE;
+
+        for (int ord : idx.ranked(r, MAX_SPEND_ATTEMPTS, ThreadLocalRandom.current().nextInt())) {
+            var res = budget.spend(idx.campaignId(ord), idx.bidCents(ord));
+            if (res.code == 0) continue; // may only be this instance's lease running dry
+            if (res.code == 2) markExhausted(idx, ord);
+            return res;
+        }
+        return NO_SERVE;
+    }
+
+    /** Same contract as {@link ServeScriptService#pickAndSpendMany}. */
+    public List<ServeScriptService.ServeResult> pickAndSpendMany(String country, String language, String device, String os,
+                                                                 String ip, String domain, String browser, String iab,
+                                                                 int slots, int maxScan) {
+        State s = state.get();
+        TargetingIndex idx = s.index();
+
+        RoaringBitmap r = idx.match(country, language, device, os,
+                nvl(ip), nvl(lower(domain)), nvl(browser), nvl(iab));
+        r.andNot(s.exhausted());
+        if (r.isEmpty()) return List.of();
+
+        List<ServeScriptService.ServeResult> out = new ArrayList<>(slots);
+        for (int ord : idx.ranked(r, maxScan, ThreadLocalRandom.current().nextInt())) {
+            var res = budget.spend(idx.campaignId(ord), idx.bidCents(ord));
+            if (res.code == 0) continue;
+            if (res.code == 2) markExhausted(idx, ord);
+            out.add(res);
+            if (out.size() >= slots) break;
+        }
+        return out;
+    }
+
+    /**
+     * Full rebuild from the DB; runs once at startup and then on a fixed delay.
+     * With a campaign snapshot (TargetingWarmup) set adserve.local.initial.delay.ms so the
+     * first DB rebuild doesn't race the snapshot load.
+     */
+    @Scheduled(fixedDelayString = "${adserve.local.refresh.ms:30000}",
+               initialDelayString = "${adserve.local.initial.delay.ms:0}")
+    public void rebuild() {
+        long t0 = System.nanoTime();
+        List<CampaignTargeting> all = new ArrayList<>();
+        List<CampaignTargeting> chunk = new ArrayList<>(BUILD_CHUNK);
+        Set<Integer> known = seeded;
+        Set<Integer> seen = new HashSet<>();
+
+        rows.streamAll(BUILD_CHUNK, t -> {
+            meta.put(t);
+            all.add(t);
+            seen.add(t.campaignId());
+            if (known.contains(t.campaignId())) return;
+            chunk.add(t);
+            if (chunk.size() >= BUILD_CHUNK) {
+                seedBudgets(chunk);
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()) seedBudgets(chunk);
+        seeded = seen;
+
+        TargetingIndex next = TargetingIndex.build(all);
+        state.set(new State(next, new RoaringBitmap()));
+        log.info("Local targeting index rebuilt: {} live campaigns in {} ms",
+                next.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    /** Swap in an index built from already loaded snapshots (startup from a campaign snapshot). */
+    public void install(Collection<CampaignTargeting> campaigns) {
+        TargetingIndex next = TargetingIndex.build(campaigns);
+        state.set(new State(next, new RoaringBitmap()));
+        log.info("Local targeting index installed from snapshot: {} live campaigns", next.size());
+    }
+
+    /**
+     * The spend path needs campaign:budget:{id}; create it where no warm pass has (never overwrite).
+     * Only for campaigns new since the last rebuild: after that the budget is Redis's to keep.
+     */
+    private void seedBudgets(List<CampaignTargeting> chunk) {
+        RBatch batch = redisson.createBatch();
+        for (CampaignTargeting t : chunk) {
+            batch.<String, String>getMap(RedisKeys.budget(t.campaignId()), StringCodec.INSTANCE)
+                    .fastPutIfAbsentAsync("remaining", Long.toString(t.remainingCents()));
+        }
+        batch.execute();
+    }
+
+    private void markExhausted(TargetingIndex idx, int ord) {
+        state.updateAndGet(s -> {
+            if (s.index() != idx || s.exhausted().contains(ord)) return s;
+            RoaringBitmap copy = s.exhausted().clone();
+            copy.add(ord);
+            return new State(idx, copy);
+        });
+    }
+
+    private static String nvl(String s) { return (s == null ? "" : s); }
+    private static String lower(String s) { return (s == null ? null : s.toLowerCase()); }
+}
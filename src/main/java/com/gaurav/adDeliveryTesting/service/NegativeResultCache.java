@@ -3,23 +3,58 @@ package com.gaurav.adDeliveryTesting.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.springframework.stereotype.Component;
 
-import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Recent DB-fallback misses by request fingerprint. Entries expire individually: a plain miss
+ * after 3 s, the short surge / lost-race misses after the ttl passed to {@link #markMiss(PickKey, long)}.
+ */
 @Component
 class NegativeResultCache {
-    private final com.github.benmanes.caffeine.cache.Cache<String, Boolean> cache =
-            com.github.benmanes.caffeine.cache.Caffeine.newBuilder()
-                    .maximumSize(500_000)
-                    .expireAfterWrite(java.time.Duration.ofSeconds(3))
-                    .build();
-
-    boolean recentlyMissed(String key) { return cache.getIfPresent(key) != null; }
-    void markMiss(String key) { cache.put(key, Boolean.TRUE); }
-    void markMiss(String key, long ttlMs) {
-        // tiny ad-hoc TTL: store a sub-key with millis if you want,
-        // or keep single cache with 3s and rely on normal expiry.
-        cache.put(key, Boolean.TRUE);
+    private static final long DEFAULT_TTL_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    private final Cache<PickKey, Boolean> cache;
+    private final Policy.VarExpiration<PickKey, Boolean> ttl;
+
+    NegativeResultCache() {
+        this(Ticker.systemTicker());
+    }
+
+    NegativeResultCache(Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(500_000)
+                .expireAfter(new Expiry<PickKey, Boolean>() {
+                    @Override public long expireAfterCreate(PickKey k, Boolean v, long now) { return DEFAULT_TTL_NANOS; }
+                    @Override public long expireAfterUpdate(PickKey k, Boolean v, long now, long current) { return DEFAULT_TTL_NANOS; }
+                    @Override public long expireAfterRead(PickKey k, Boolean v, long now, long current) { return current; }
+                })
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        this.ttl = cache.policy().expireVariably().orElseThrow();
+    }
+
+    boolean recentlyMissed(PickKey key) { return cache.getIfPresent(key) != null; }
+    void markMiss(PickKey key) { cache.put(key, Boolean.TRUE); }
+    void markMiss(PickKey key, long ttlMs) { ttl.put(key, Boolean.TRUE, ttlMs, TimeUnit.MILLISECONDS); }
+
+    /** Same shape as {@link PositivePickCache#stats()}, for /admin/pick-caches. */
+    Map<String, Object> stats() {
+        CacheStats s = cache.stats();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("size", cache.estimatedSize());
+        m.put("hits", s.hitCount());
+        m.put("misses", s.missCount());
+        m.put("hitRate", s.hitRate());
+        m.put("evictions", s.evictionCount());
+        return m;
     }
 }
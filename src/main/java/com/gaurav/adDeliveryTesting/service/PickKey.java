@@ -0,0 +1,56 @@
+package com.gaurav.adDeliveryTesting.service;
+
+/**
+ * 128-bit fingerprint of a DB-fallback pick request (the eight pickTopOne inputs), used as the
+ * key of {@link NegativeResultCache} and {@link PositivePickCache}.
+ *
+ * Hashed straight off the argument Strings, two independent 64-bit lanes, each field followed by
+ * its length so ("ab","c") and ("a","bc") differ and null differs from "". 16 bytes of state
+ * instead of a ~100-char joined String per entry; at 128 bits a collision among a few million
+ * live keys is not a practical concern.
+ */
+record PickKey(long hi, long lo) {
+
+    private static final long SEED_HI = 0x9E3779B97F4A7C15L;
+    private static final long SEED_LO = 0xC2B2AE3D27D4EB4FL;
+    private static final long M1 = 0xFF51AFD7ED558CCDL;
+    private static final long M2 = 0xC4CEB9FE1A85EC53L;
+
+    static PickKey of(String country, String language, String device, String os,
+                      String browser, String iab, String ip, String domain) {
+        long[] h = {SEED_HI, SEED_LO};
+        mix(h, country);
+        mix(h, language);
+        mix(h, device);
+        mix(h, os);
+        mix(h, browser);
+        mix(h, iab);
+        mix(h, ip);
+        mix(h, domain);
+        return new PickKey(fmix(h[0] ^ h[1]), fmix(h[1] + h[0] * M2));
+    }
+
+    private static void mix(long[] h, String s) {
+        long a = h[0], b = h[1];
+        int n = (s == null) ? -1 : s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            a = (a ^ c) * M1;
+            b = Long.rotateLeft(b + c, 31) * M2;
+        }
+        a = (a ^ n) * M1;
+        b = Long.rotateLeft(b ^ n, 27) * M2 + a;
+        h[0] = a;
+        h[1] = b;
+    }
+
+    // MurmurHash3 finalizer
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= M1;
+        k ^= k >>> 33;
+        k *= M2;
+        k ^= k >>> 33;
+        return k;
+    }
+}
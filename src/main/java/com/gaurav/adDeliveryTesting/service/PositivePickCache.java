@@ -3,20 +3,45 @@ package com.gaurav.adDeliveryTesting.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 // PositivePickCache.java
 @Component
 class PositivePickCache {
-    private final com.github.benmanes.caffeine.cache.Cache<String, Integer> cache =
-            com.github.benmanes.caffeine.cache.Caffeine.newBuilder()
-                    .maximumSize(500_000)
-                    .expireAfterWrite(java.time.Duration.ofMillis(1000))
-                    .build();
+    private final Cache<PickKey, Integer> cache;
 
-    Integer get(String key){ return cache.getIfPresent(key); }
-    void put(String key, Integer id){ cache.put(key, id); }
-    void invalidate(String key){ cache.invalidate(key); }
-}
\ No newline at end of file
+    PositivePickCache() {
+        this(Ticker.systemTicker());
+    }
+
+    PositivePickCache(Ticker ticker) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(500_000)
+                .expireAfterWrite(Duration.ofMillis(1000))
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    Integer get(PickKey key){ return cache.getIfPresent(key); }
+    void put(PickKey key, Integer id){ cache.put(key, id); }
+    void invalidate(PickKey key){ cache.invalidate(key); }
+
+    /** Caffeine stats in the shape the admin endpoints return. */
+    Map<String, Object> stats() {
+        CacheStats s = cache.stats();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("size", cache.estimatedSize());
+        m.put("hits", s.hitCount());
+        m.put("misses", s.missCount());
+        m.put("hitRate", s.hitRate());
+        m.put("evictions", s.evictionCount());
+        return m;
+    }
+}
@@ -0,0 +1,100 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.redisson.client.RedisConnectionException;
+import org.redisson.client.RedisTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Breaker around the Redis serve path.
+ *
+ * adserve.redis.breaker.failures consecutive Redisson timeouts / connection failures open it for
+ * adserve.redis.breaker.open.ms; after that one request is let through as a probe and its outcome
+ * closes or re-opens it. Other Redis errors (script errors, NOSCRIPT, ...) don't count: they are
+ * bugs, not an outage, and should surface. A probe that gets one still reached Redis, so it closes
+ * the breaker; a probe whose outcome is never reported is replaced after another open.ms.
+ */
+@Component
+public class RedisCircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    @Value("${adserve.redis.breaker.failures:5}")
+    private int failureThreshold;
+
+    @Value("${adserve.redis.breaker.open.ms:2000}")
+    private long openMs;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong(0);       // 0 = closed
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final AtomicLong probeSince = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+
+    /** True if the caller may use Redis now (closed, or it won the half-open probe). */
+    public boolean allow() {
+        long until = openUntil.get();
+        if (until == 0) return true;
+        long now = System.currentTimeMillis();
+        if (now < until) return false;
+        if (probing.compareAndSet(false, true)) {
+            probeSince.set(now);
+            return true;
+        }
+        // the probe's caller never reported back: let another request try
+        long since = probeSince.get();
+        return now - since >= openMs && probeSince.compareAndSet(since, now);
+    }
+
+    public boolean isOpen() { return openUntil.get() != 0; }
+
+    public long trips() { return trips.get(); }
+
+    public void onSuccess() {
+        if (failures.get() != 0) failures.set(0); // read first: this runs on every request
+        if (openUntil.get() != 0) close();
+    }
+
+    /** Records {@code e}; returns true if it was an outage-type failure (the caller should degrade). */
+    public boolean onFailure(Throwable e) {
+        if (!isOutage(e)) {
+            // Redis answered, just not happily: a probe with a script/decode error still proves it's up
+            if (openUntil.get() != 0 && probing.get()) {
+                failures.set(0);
+                close();
+            }
+            return false;
+        }
+        if (openUntil.get() != 0) {
+            // failed probe (or a straggler from before the trip): stay open for another window
+            openUntil.set(System.currentTimeMillis() + openMs);
+            probing.set(false);
+            return true;
+        }
+        if (failures.incrementAndGet() >= failureThreshold) {
+            openUntil.set(System.currentTimeMillis() + openMs);
+            trips.incrementAndGet();
+            log.warn("Redis breaker open for {} ms after {} consecutive failures", openMs, failures.get(), e);
+        }
+        return true;
+    }
+
+    private void close() {
+        openUntil.set(0);
+        probing.set(false);
+        log.info("Redis breaker closed");
+    }
+
+    static boolean isOutage(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof RedisTimeoutException || c instanceof RedisConnectionException) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import static com.gaurav.adDeliveryTesting.service.CampaignCacheService.part;
+
+/**
+ * Every Redis key name, in one place, laid out for Redis Cluster.
+ *
+ * Per-campaign keys are campaign:<kind>:{<id>}, the id being the hash tag (campaign:budget:{42},
+ * campaign:allow:ip:{42}, budget sub-counters campaign:budget:{42}:s0, ...), so everything one
+ * campaign's targeting check and spend touch sits in one slot and a script can declare it all.
+ * A product-layout segment ZSET and its rr counter share the segment as tag; DIM-layout keys all
+ * share {dim}, because the serve script unions and intersects them (that keeps the DIM index on
+ * one node). The global sets (touched, flush pending, IP prefixes, sharded campaigns) are each
+ * their own slot and only written from Java in cluster mode (see {@link TouchedCampaigns}).
+ *
+ * The tags are harmless on a single node; /admin/migrate/keys moves data written under the
+ * untagged names (see {@link WarmService#migrateKeyLayout}).
+ */
+public final class RedisKeys {
+
+    private RedisKeys() { }
+
+    // ---------- global ----------
+
+    /** Campaigns with unflushed spend in campaign:delta:{id}. */
+    public static final String TOUCHED = "campaign:touched";
+    /** Budget flush batches drained from Redis but not yet known to be committed. */
+    public static final String FLUSH_PENDING = "campaign:flush:pending";
+    /** Every CIDR prefix length used by an IP allow/block set (see {@link IpPrefixes}); only grows. */
+    public static final String IP_PREFIXES = "campaign:ip:prefixes";
+    /** Campaigns whose budget is split over sub-counters (see {@link BudgetShards}). */
+    public static final String BUDGET_SHARDED = "campaign:budget:sharded";
+
+    // ---------- per campaign ----------
+
+    public static String budget(int id)       { return campaign("budget", id); }
+    public static String delta(int id)        { return campaign("delta", id); }
+    /** Spend drained from delta by an unfinished cluster-mode flush, field = batch id. */
+    public static String inflight(int id)     { return campaign("inflight", id); }
+    public static String targeting(int id)    { return campaign("tgt", id); }
+    public static String allowBrowser(int id) { return campaign("allow:browser", id); }
+    public static String allowIab(int id)     { return campaign("allow:iab", id); }
+    public static String allowIp(int id)      { return campaign("allow:ip", id); }
+    public static String allowDomain(int id)  { return campaign("allow:domain", id); }
+    public static String blockIp(int id)      { return campaign("block:ip", id); }
+    public static String blockDomain(int id)  { return campaign("block:domain", id); }
+    /** Reverse index: every index ZSET the campaign was added to. */
+    public static String membership(int id)   { return campaign("zsetkeys", id); }
+
+    /** Kinds the serve scripts check, in the order of {@link #targetingKeys}. */
+    static final String[] TARGETING_KINDS = {
+            "tgt", "allow:browser", "allow:iab", "allow:ip", "allow:domain", "block:ip", "block:domain"};
+
+    /** The targeting record and six allow/block sets of one campaign. */
+    static String[] targetingKeys(int id) {
+        String[] keys = new String[TARGETING_KINDS.length];
+        for (int i = 0; i < keys.length; i++) keys[i] = campaign(TARGETING_KINDS[i], id);
+        return keys;
+    }
+
+    static String campaign(String kind, int id) {
+        return "campaign:" + kind + ":{" + id + "}";
+    }
+
+    /** Lua twin of {@link #campaign}; defines ckey(kind, id). */
+    static final String LUA_CKEY = """
+  local function ckey(kind, id) return 'campaign:' .. kind .. ':{' .. id .. '}' end
+""";
+
+    // ---------- index ----------
+
+    /** PRODUCT layout: campaigns for one os/device/lang/country combination, scored by bid. */
+    public static String zset(String country, String language, String device, String os) {
+        return "campaign:filters:{" + segment(country, language, device, os) + "}";
+    }
+
+    /** Tie-break counter for one segment (adserve.serve.tiebreak=counter), same slot as its ZSET. */
+    public static String rr(String country, String language, String device, String os) {
+        return "campaign:rr:{" + segment(country, language, device, os) + "}";
+    }
+
+    /** DIM layout: campaigns targeting {@code value} on one dimension (country/lang/device/os); "any" = untargeted. */
+    public static String dim(String dim, String value) {
+        return "campaign:dim:{dim}:" + dim + ":" + part(value);
+    }
+
+    /** DIM layout: materialized (exact ∪ any) intersection for one request segment, short TTL. */
+    public static String seg(String country, String language, String device, String os) {
+        return "campaign:seg:{dim}:" + segment(country, language, device, os);
+    }
+
+    private static String segment(String country, String language, String device, String os) {
+        return part(os) + ":" + part(device) + ":" + part(language) + ":" + part(country);
+    }
+}
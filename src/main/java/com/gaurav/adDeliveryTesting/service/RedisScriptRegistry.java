@@ -0,0 +1,133 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisException;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lua scripts are loaded once (SCRIPT LOAD) and called by SHA instead of resending the source
+ * with every EVAL.
+ *
+ * The SHA is computed locally from the source, so it doubles as the script version: instances
+ * running different script revisions simply call different SHAs side by side during a rollout.
+ * A NOSCRIPT reply (Redis restart, failover to a replica with an empty script cache) reloads
+ * the script and retries once.
+ */
+@Component
+public class RedisScriptRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisScriptRegistry.class);
+
+    private final RedissonClient redisson;
+    private final Map<String, Script> scripts = new ConcurrentHashMap<>();
+
+    public RedisScriptRegistry(RedissonClient redisson) {
+        this.redisson = redisson;
+    }
+
+    /** Register a script under a stable name; loading happens at startup or lazily on first NOSCRIPT. */
+    public Script register(String name, String source) {
+        Script s = new Script(name, source, sha1(source));
+        Script prev = scripts.putIfAbsent(name, s);
+        if (prev != null && !prev.sha.equals(s.sha)) {
+            throw new IllegalStateException("Script '" + name + "' registered twice with different sources");
+        }
+        return prev != null ? prev : s;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadAll() {
+        for (Script s : scripts.values()) {
+            try {
+                s.load();
+            } catch (Exception e) {
+                // Redis may not be up yet; the first call will load it via NOSCRIPT recovery
+                log.warn("Could not preload script {} ({})", s.name, s.sha, e);
+            }
+        }
+    }
+
+    /** name -> SHA of the source this instance runs. */
+    public Map<String, String> versions() {
+        Map<String, String> out = new TreeMap<>();
+        scripts.forEach((n, s) -> out.put(n, s.sha));
+        return out;
+    }
+
+    public final class Script {
+        private final String name;
+        private final String source;
+        private final String sha;
+
+        private Script(String name, String source, String sha) {
+            this.name = name;
+            this.source = source;
+            this.sha = sha;
+        }
+
+        public String name() { return name; }
+        public String sha()  { return sha; }
+
+        public <R> R eval(RScript.Mode mode, RScript.ReturnType returnType, List<Object> keys, Object... args) {
+            RScript script = redisson.getScript(StringCodec.INSTANCE);
+            try {
+                return script.evalSha(mode, sha, returnType, keys, args);
+            } catch (RedisException e) {
+                if (!isNoScript(e)) throw e;
+                load();
+                return script.evalSha(mode, sha, returnType, keys, args);
+            }
+        }
+
+        public <R> CompletionStage<R> evalAsync(RScript.Mode mode, RScript.ReturnType returnType,
+                                                List<Object> keys, Object... args) {
+            RScript script = redisson.getScript(StringCodec.INSTANCE);
+            CompletableFuture<R> first = script.<R>evalShaAsync(mode, sha, returnType, keys, args).toCompletableFuture();
+            return first.exceptionallyCompose(err -> {
+                if (!isNoScript(err)) return CompletableFuture.failedFuture(err);
+                return script.scriptLoadAsync(source).toCompletableFuture()
+                        .thenCompose(loaded -> script.<R>evalShaAsync(mode, sha, returnType, keys, args));
+            });
+        }
+
+        private void load() {
+            String loaded = redisson.getScript(StringCodec.INSTANCE).scriptLoad(source);
+            if (!sha.equals(loaded)) {
+                log.warn("Script {} loaded as {} but expected {}", name, loaded, sha);
+            }
+        }
+    }
+
+    private static boolean isNoScript(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c.getMessage() != null && c.getMessage().contains("NOSCRIPT")) return true;
+        }
+        return false;
+    }
+
+    private static String sha1(String source) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,46 +1,206 @@
 package com.gaurav.adDeliveryTesting.service;
 
+import com.gaurav.adDeliveryTesting.config.RedisCacheConfig;
+import com.gaurav.adDeliveryTesting.utils.DomainUtils;
 import org.redisson.api.RScript;
-import org.redisson.api.RedissonClient;
-import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
+/**
+ * Pick + spend in Redis.
+ *
+ * On a single node one script does everything per request: it reads the index ZSET, checks each
+ * candidate's targeting keys and spends its budget, deriving the per-campaign key names itself.
+ * Redis Cluster won't run a script that touches keys it wasn't given, and the index and each
+ * campaign live in different slots, so there the work is split in two: a pick script in the
+ * index's slot returns the best-first candidates, and a candidate script per campaign, in that
+ * campaign's slot ({@link RedisKeys}), checks targeting and spends. Tries stop at the first win,
+ * so a normal serve is two round trips; {@link TouchedCampaigns} marks the spend for the flusher.
+ */
 @Service
 public class ServeScriptService {
 
-    private static final String TOUCHED_SET  = "campaign:touched";
-    private static final String BUDGET_PREF  = "campaign:budget:";
-    private static final String DELTA_PREF   = "campaign:delta:";
+    private static final int CLUSTER_PICK_SCAN = 32; // candidates fetched for a single pick in cluster mode
 
+    // shared ARGV 1..5 (one-shot and candidate scripts):
+    //   1 = ip patterns, space separated (IpPrefixes.patterns: canonical address + enclosing
+    //       ranges for the CIDR lengths in use); empty when there is no IP
+    //   2 = domain patterns for the host, space separated (DomainUtils.suffixPatterns:
+    //       "news.example.com *.example.com *.com"); empty when there is no host
+    //   3 = browser
+    //   4 = iabCode  (e.g. "IAB1-1"; pass empty for "no iab constraint")
+    //   5 = spend mode: "1" spend here, "0" pick only (budget leases spend locally)
+    //       pick-only returns candidates instead of spending: code 3 when 'remaining' still covers
+    //       the bid (a lease grant can succeed), 4 when only outstanding leases do (usable only if
+    //       this instance holds one); the caller spends from its lease and falls through on failure
+    private static final String ARGS = """
+  local ips         = {}
+  for v in string.gmatch(ARGV[1], '%S+') do ips[#ips + 1] = v end
+  local domains     = {}
+  for d in string.gmatch(ARGV[2], '%S+') do domains[#domains + 1] = d end
+  local browser     = ARGV[3]
+  local iab         = ARGV[4]
+  local spendMode   = ARGV[5]
+""";
+
+    // dim layout: build zsetKey = AND over dimensions of (exact OR any), reused for ttl ms; the
+    // exact/any dim key pairs for country, lang, device, os are KEYS[d0..d0+7].
+    // Scores are the bid on every input, so MAX keeps them unchanged (and tolerates exact == any).
+    static final String MATERIALIZE = """
+  local function materialize(zsetKey, d0, ttl)
+    if #KEYS < d0 + 7 then return end
+    local built = zsetKey .. ':built'
+    if redis.call('EXISTS', built) == 1 then return end
+    local tmp = {}
+    for d = 0, 3 do
+      tmp[d + 1] = zsetKey .. ':u' .. d
+      redis.call('ZUNIONSTORE', tmp[d + 1], 2, KEYS[d0 + 2 * d], KEYS[d0 + 1 + 2 * d], 'AGGREGATE', 'MAX')
+    end
+    redis.call('ZINTERSTORE', zsetKey, 4, tmp[1], tmp[2], tmp[3], tmp[4], 'AGGREGATE', 'MAX')
+    redis.call('DEL', tmp[1], tmp[2], tmp[3], tmp[4])
+    redis.call('PEXPIRE', zsetKey, ttl)
+    redis.call('SET', built, '1', 'PX', ttl)
+  end
+""";
+
+    // Targeting check. Needs tkey(kind, id) -> key name (see RedisKeys.TARGETING_KINDS).
+    // Per candidate: one HGET of the tgt hash's mask, then one SISMEMBER per constrained
+    // dimension (see CampaignCacheService); campaigns without the hash use the old six-set checks.
+    private static final String TARGETING = """
+  local function isAllowed(allowKey, value)
+    -- '*' => allow all
+    local hasStar = redis.call('SISMEMBER', allowKey, '*')
+    if hasStar == 1 then return true end
+    -- empty set => no constraint => allow
+    local sz = redis.call('SCARD', allowKey)
+    if (not sz) or (sz == 0) then return true end
+    if (value == nil) or (value == '') then return false end
+    local hit = redis.call('SISMEMBER', allowKey, value)
+    return hit == 1
+  end
+
+  -- compact layout: only sets whose bit is in the tgt hash's mask exist and get checked
+  local function member(key, value)
+    if value == '' then return false end
+    return redis.call('SISMEMBER', key, value) == 1
+  end
+
+  -- domain sets hold exact hosts and '*.suffix' patterns, IP sets canonical addresses and CIDR
+  -- ranges: one SISMEMBER per host label / CIDR length in use at most
+  local function memberAny(key, values)
+    for i = 1, #values do
+      if redis.call('SISMEMBER', key, values[i]) == 1 then return true end
+    end
+    return false
+  end
+
+  local function isAllowedAny(allowKey, values)
+    if redis.call('SISMEMBER', allowKey, '*') == 1 then return true end
+    local sz = redis.call('SCARD', allowKey)
+    if (not sz) or (sz == 0) then return true end
+    return memberAny(allowKey, values)
+  end
+
+  local function passesMask(mask, id)
+    if mask == 0 then return true end
+    if bit.band(mask, 1) ~= 0 and not member(tkey('allow:browser', id), browser) then return false end
+    if bit.band(mask, 2) ~= 0 and iab ~= '' and not member(tkey('allow:iab', id), iab) then return false end
+    if bit.band(mask, 4) ~= 0 and not memberAny(tkey('allow:ip', id), ips) then return false end
+    if bit.band(mask, 8) ~= 0 and not memberAny(tkey('allow:domain', id), domains) then return false end
+    if bit.band(mask, 16) ~= 0 and memberAny(tkey('block:ip', id), ips) then return false end
+    if bit.band(mask, 32) ~= 0 and memberAny(tkey('block:domain', id), domains) then return false end
+    return true
+  end
+
+  -- pre-migration layout: six allow/block sets, '*'/empty checks on each
+  local function passesLegacy(id)
+    if not isAllowed(tkey('allow:browser', id), browser) then return false end
+    if (iab ~= nil and iab ~= '') and (not isAllowed(tkey('allow:iab', id), iab)) then return false end
+    if not isAllowedAny(tkey('allow:ip', id), ips) then return false end
+    if not isAllowedAny(tkey('allow:domain', id), domains) then return false end
+    if memberAny(tkey('block:ip', id), ips) then return false end
+    if memberAny(tkey('block:domain', id), domains) then return false end
+    return true
+  end
+
+  local function passes(id)
+    local mask = tonumber(redis.call('HGET', tkey('tgt', id), 'mask'))
+    if mask then return passesMask(mask, id) end
+    return passesLegacy(id)
+  end
+""";
+
+    // code, value: 1 spent / 2 spent and exhausted (value = new remaining),
+    // 3 / 4 pick-only (value = bid, see ARGV 5); nil when there is no budget.
+    // Needs touchedKey: the touched set, or nil when the caller marks it (cluster).
+    private static final String SPEND_ONE = BudgetShards.SPEND_FN + """
+  local function spendOne(budgetKey, deltaKey, id, score, seed)
+    if spendMode == '0' then
+      local b = redis.call('HMGET', budgetKey, 'remaining', 'leased')
+      if (tonumber(b[1]) or 0) >= score then return 3, score end
+      if (tonumber(b[2]) or 0) > 0 then return 4, score end
+      return nil
+    end
+
+    local code, val = spendBudget(budgetKey, score, seed)
+    if not code then return nil end
+    redis.call('INCRBY', deltaKey, score)
+    if touchedKey then redis.call('SADD', touchedKey, id) end
+    return code, val
+  end
+""";
+
+    // ---------- single node: one script per request ----------
+    //
     // KEYS:
-    //   KEYS[1] = ZSET key (os/device/lang/country)
+    //   KEYS[1] = ZSET key (os/device/lang/country; campaign:seg:... under the dim layout)
     //   KEYS[2] = touched set
-    //   KEYS[3] = rr key
+    //   KEYS[3] = rr key (only used when ARGV[7] is empty)
+    //   KEYS[4..11] = dim layout only: exact/any dim key pairs for country, lang, device, os
     //
-    // ARGV:
-    //   1 = budget prefix
-    //   2 = delta  prefix
-    //   3 = ip
-    //   4 = domain (lowercased)
-    //   5 = browser
-    //   6 = iabCode  (e.g. "IAB1-1"; pass empty for "no iab constraint")
+    // ARGV: 1..5 as above, then
+    //   6 = segment TTL in ms (dim layout: how long a materialized KEYS[1] is reused)
+    //   7 = tie-break seed: random per request, or empty to INCR the segment's rr key; also picks
+    //       the first sub-counter tried for a sharded budget (BudgetShards)
+    //   8 = slots    (multi-pick only)
+    //   9 = max candidates to examine (multi-pick only)
     //
-    // We'll derive allow/block set keys inside Lua to avoid sending many KEYS.
-    private static final String LUA = """
+    // Per-campaign keys are derived inside Lua (ckey) to avoid sending many KEYS, which is why
+    // this one can't run on a cluster.
+    private static final String PRELUDE = RedisKeys.LUA_CKEY + ARGS + """
   local zsetKey     = KEYS[1]
   local touchedKey  = KEYS[2]
   local rrKey       = KEYS[3]
 
-  local budgetPref  = ARGV[1]
-  local deltaPref   = ARGV[2]
-  local ip          = ARGV[3]
-  local domain      = ARGV[4]
-  local browser     = ARGV[5]
-  local iab         = ARGV[6]
+  local function tkey(kind, id) return ckey(kind, id) end
+
+  -- rotation seed for tie sets; the rr counter is one more write on a key every serve of the
+  -- segment shares, so callers normally send a random one
+  local function seed()
+    local s = tonumber(ARGV[7])
+    if s then return s end
+    return redis.call('INCR', rrKey)
+  end
+""" + MATERIALIZE + TARGETING + SPEND_ONE;
+
+    // single pick: only the top tie set, rotated by the seed.
+    // Returns {code, id, value}, or {0}; pick-only: up to 8 {3|4, id, bid} triples to try in order.
+    private static final String LUA = PRELUDE + """
+
+  materialize(zsetKey, 4, tonumber(ARGV[6]) or 5000)
 
   -- find top score
   local top = redis.call('ZREVRANGE', zsetKey, 0, 0, 'WITHSCORES')
@@ -51,106 +211,452 @@ public class ServeScriptService {
   local tieCount = redis.call('ZCOUNT', zsetKey, topScore, topScore)
   if (not tieCount) or (tieCount == 0) then return {0} end
 
-  local rr = redis.call('INCR', rrKey)
+  local rr = seed()
   local start = (rr - 1) % tieCount
-
-  local function isAllowed(allowKey, value)
-    -- '*' => allow all
-    local hasStar = redis.call('SISMEMBER', allowKey, '*')
-    if hasStar == 1 then return true end
-    -- empty set => no constraint => allow
-    local sz = redis.call('SCARD', allowKey)
-    if (not sz) or (sz == 0) then return true end
-    if (value == nil) or (value == '') then return false end
-    local hit = redis.call('SISMEMBER', allowKey, value)
-    return hit == 1
-  end
-
-  local function isBlocked(blockKey, value)
-    local sz = redis.call('SCARD', blockKey)
-    if (not sz) or (sz == 0) then return false end
-    if (value == nil) or (value == '') then return false end
-    local hit = redis.call('SISMEMBER', blockKey, value)
-    return hit == 1
-  end
+  local picked = {}
 
   for i = 0, tieCount - 1 do
     local offset = (start + i) % tieCount
     local ids = redis.call('ZREVRANGEBYSCORE', zsetKey, topScore, topScore, 'LIMIT', offset, 1)
     if ids and (#ids > 0) then
       local id = ids[1]
+      if passes(id) then
+        local code, val = spendOne(ckey('budget', id), ckey('delta', id), id, topScore, rr)
+        if code then
+          if spendMode ~= '0' then return {code, id, val} end
+          -- pick-only: the caller's lease may not cover the first one, hand back a few
+          picked[#picked + 1] = code
+          picked[#picked + 1] = id
+          picked[#picked + 1] = val
+          if #picked >= 24 then break end
+        end
+      end
+    end
+  end
+
+  if #picked > 0 then return picked end
+  return {0}
+""";
+
+    // multi pick: walks score levels best-first (past the top tie set) until `slots` distinct
+    // campaigns are spent or `maxScan` candidates were examined.
+    // Returns a flat list of {code, id, value} triples, empty when nothing filled. Pick-only
+    // candidates don't take a slot here: the caller's lease spend decides that.
+    private static final String MULTI_LUA = PRELUDE + """
+
+  materialize(zsetKey, 4, tonumber(ARGV[6]) or 5000)
+
+  local slots   = tonumber(ARGV[8])
+  local maxScan = tonumber(ARGV[9])
+  local total   = redis.call('ZCARD', zsetKey)
+  if (not total) or (total == 0) then return {} end
+
+  local rr = seed()
+  local out = {}
+  local won, scanned, level = 0, 0, 0
 
-      local allowBrowserKey = 'campaign:allow:browser:' .. id
-      local allowIabKey     = 'campaign:allow:iab:' .. id
-      local allowIpKey      = 'campaign:allow:ip:' .. id
-      local allowDomKey     = 'campaign:allow:domain:' .. id
-
-      local blockIpKey      = 'campaign:block:ip:' .. id
-      local blockDomKey     = 'campaign:block:domain:' .. id
-
-      local pass = true
-      if pass and (not isAllowed(allowBrowserKey, browser)) then pass = false end
-      if pass and (iab ~= nil and iab ~= '') and (not isAllowed(allowIabKey, iab)) then pass = false end
-      if pass and (not isAllowed(allowIpKey, ip)) then pass = false end
-      if pass and (not isAllowed(allowDomKey, domain)) then pass = false end
-      if pass and isBlocked(blockIpKey, ip) then pass = false end
-      if pass and isBlocked(blockDomKey, domain) then pass = false end
-
-      if pass then
-        local budgetKey = budgetPref .. id
-        local deltaKey  = deltaPref  .. id
-
-        local newRem = redis.call('HINCRBY', budgetKey, 'remaining', -topScore)
-        if (not newRem) then
-          -- missing field/key => treat as no-serve
-        else
-          if newRem < 0 then
-            redis.call('HINCRBY', budgetKey, 'remaining', topScore)
-          else
-            redis.call('INCRBY', deltaKey, topScore)
-            redis.call('SADD', touchedKey, id)
-            if newRem <= 0 then return {2, id, 0} end
-            return {1, id, newRem}
-          end
+  while won < slots and scanned < maxScan and level < total do
+    local head = redis.call('ZREVRANGE', zsetKey, level, level, 'WITHSCORES')
+    if (not head) or (#head == 0) then break end
+    local score = tonumber(head[2])
+    local tieCount = redis.call('ZCOUNT', zsetKey, score, score)
+    local start = (rr - 1) % tieCount
+    local take = math.min(tieCount, maxScan - scanned)
+
+    -- rotated window of the tie level: [start, end) then wrap to [0, ...)
+    local members = redis.call('ZREVRANGE', zsetKey, level + start, level + math.min(tieCount, start + take) - 1)
+    if #members < take then
+      local rest = redis.call('ZREVRANGE', zsetKey, level, level + (take - #members) - 1)
+      for _, m in ipairs(rest) do members[#members + 1] = m end
+    end
+
+    for _, id in ipairs(members) do
+      if won >= slots then break end
+      scanned = scanned + 1
+      if passes(id) then
+        local code, val = spendOne(ckey('budget', id), ckey('delta', id), id, score, rr)
+        if code then
+          out[#out + 1] = code
+          out[#out + 1] = id
+          out[#out + 1] = val
+          if code == 1 or code == 2 then won = won + 1 end
         end
       end
     end
+    level = level + tieCount
+  end
+
+  return out
+""";
+
+    // ---------- cluster: pick in the index's slot, then check + spend in each campaign's ----------
+
+    // KEYS = CampaignCacheService.serveKeys (index ZSET, then the dim keys under the dim layout)
+    // ARGV: 1 = seed, 2 = segment TTL in ms, 3 = "1" top tie set only, 4 = max candidates
+    // returns flat {id, bid, id, bid, ...}, best bid first, each tie set rotated by the seed
+    private static final String PICK_LUA = MATERIALIZE + """
+
+  local zsetKey = KEYS[1]
+  materialize(zsetKey, 2, tonumber(ARGV[2]) or 5000)
+
+  local rr      = tonumber(ARGV[1])
+  local topOnly = ARGV[3] == '1'
+  local maxScan = tonumber(ARGV[4])
+  local total   = redis.call('ZCARD', zsetKey)
+  if (not total) or (total == 0) then return {} end
+
+  local out = {}
+  local scanned, level = 0, 0
+  while scanned < maxScan and level < total do
+    local head = redis.call('ZREVRANGE', zsetKey, level, level, 'WITHSCORES')
+    if (not head) or (#head == 0) then break end
+    local score = tonumber(head[2])
+    local tieCount = redis.call('ZCOUNT', zsetKey, score, score)
+    local start = (rr - 1) % tieCount
+    local take = math.min(tieCount, maxScan - scanned)
+
+    local members = redis.call('ZREVRANGE', zsetKey, level + start, level + math.min(tieCount, start + take) - 1)
+    if #members < take then
+      local rest = redis.call('ZREVRANGE', zsetKey, level, level + (take - #members) - 1)
+      for _, m in ipairs(rest) do members[#members + 1] = m end
+    end
+
+    for _, id in ipairs(members) do
+      out[#out + 1] = id
+      out[#out + 1] = score
+    end
+    scanned = scanned + #members
+    if topOnly then break end
+    level = level + tieCount
   end
+  return out
+""";
+
+    // KEYS[1..7] = RedisKeys.targetingKeys(id), KEYS[8] = budget, KEYS[9] = delta (one slot)
+    // ARGV: 1..5 as above, 6 = campaign id, 7 = bid, 8 = seed
+    // returns {code, value} as spendOne, {0} when targeting fails or there's no budget
+    private static final String CANDIDATE_LUA = ARGS + """
+  local TK = { ['tgt'] = 1, ['allow:browser'] = 2, ['allow:iab'] = 3, ['allow:ip'] = 4,
+               ['allow:domain'] = 5, ['block:ip'] = 6, ['block:domain'] = 7 }
+  local function tkey(kind, id) return KEYS[TK[kind]] end
+  local touchedKey = nil
+""" + TARGETING + SPEND_ONE + """
 
+  local id = ARGV[6]
+  if not passes(id) then return {0} end
+  local code, val = spendOne(KEYS[8], KEYS[9], id, tonumber(ARGV[7]), tonumber(ARGV[8]))
+  if code then return {code, val} end
   return {0}
 """;
 
-    private final RedissonClient redisson;
+    private static final ServeResult NO_SERVE = new ServeResult(0, null, null);
+
+    private final RedisScriptRegistry.Script serveScript;
+    private final RedisScriptRegistry.Script serveMultiScript;
+    private final RedisScriptRegistry.Script pickScript;
+    private final RedisScriptRegistry.Script candidateScript;
+
+    private final CampaignCacheService cache;
+    private final IpPrefixes ipPrefixes;
+    private final TouchedCampaigns touched;
+    private final boolean cluster;
+    private final Executor leaseExecutor; // async lease spends, off the Redisson threads
+
+    @Autowired(required = false)
+    private BudgetLeaseService leases; // only with adserve.budget.lease.enabled=true
+
+    @Value("${adserve.index.segment.ttl.ms:5000}")
+    private long segmentTtlMs;
+
+    @Value("${adserve.serve.tiebreak:random}")
+    private String tieBreak;
+
+    public ServeScriptService(RedisScriptRegistry scripts, CampaignCacheService cache, IpPrefixes ipPrefixes,
+                              TouchedCampaigns touched, RedisProperties redisProps,
+                              @Qualifier("serveLeaseExecutor") Executor leaseExecutor) {
+        this.serveScript = scripts.register("serve", LUA);
+        this.serveMultiScript = scripts.register("serve-multi", MULTI_LUA);
+        this.pickScript = scripts.register("serve-pick", PICK_LUA);
+        this.candidateScript = scripts.register("serve-candidate", CANDIDATE_LUA);
+        this.cache = cache;
+        this.ipPrefixes = ipPrefixes;
+        this.touched = touched;
+        this.cluster = RedisCacheConfig.isCluster(redisProps);
+        this.leaseExecutor = leaseExecutor;
+    }
+
+    /** [index key, touched, rr, dim keys...]; see the KEYS layout above. */
+    private List<Object> keys(String country, String language, String device, String os) {
+        List<Object> idx = cache.serveKeys(country, language, device, os);
+        List<Object> keys = new ArrayList<>(idx.size() + 2);
+        keys.add(idx.get(0));
+        keys.add(RedisKeys.TOUCHED);
+        keys.add(RedisKeys.rr(country, language, device, os));
+        keys.addAll(idx.subList(1, idx.size()));
+        return keys;
+    }
 
-    public ServeScriptService(RedissonClient redisson) {
-        this.redisson = redisson;
+    /** Shared ARGV 1..5 followed by {@code extra}. */
+    private Object[] args(String ip, String domain, String browser, String iab, String... extra) {
+        Object[] a = new Object[5 + extra.length];
+        a[0] = ipPatterns(ip);
+        a[1] = domainPatterns(domain);
+        a[2] = nvl(browser);
+        a[3] = nvl(iab);
+        a[4] = leases == null ? "1" : "0";
+        System.arraycopy(extra, 0, a, 5, extra.length);
+        return a;
     }
 
     public ServeResult pickAndSpend(String country, String language, String device, String os,
                                     String ip, String domain, String browser, String iab) {
-        final String zsetKey = CampaignCacheService.zsetKey(country, language, device, os);
-        final String rrKey   = CampaignCacheService.rrKey(country, language, device, os);
+        if (cluster) {
+            String seed = randomSeed();
+            List<Object> candidates = pick(country, language, device, os, seed, true, CLUSTER_PICK_SCAN);
+            Object[] argv = args(ip, domain, browser, iab);
+            for (int i = 0; i + 1 < candidates.size(); i += 2) {
+                ServeResult r = settle(tryCandidate(candidates.get(i), candidates.get(i + 1), argv, seed));
+                if (r.code != 0) return r;
+            }
+            return NO_SERVE;
+        }
 
-        List<Object> res = redisson.getScript(StringCodec.INSTANCE).eval(
+        List<Object> res = serveScript.eval(
                 RScript.Mode.READ_WRITE,
-                LUA,
                 RScript.ReturnType.MULTI,
-                Arrays.asList(zsetKey, TOUCHED_SET, rrKey),
-                BUDGET_PREF, DELTA_PREF,
-                nvl(ip), nvl(lower(domain)), nvl(browser), nvl(iab)
+                keys(country, language, device, os),
+                args(ip, domain, browser, iab, Long.toString(segmentTtlMs), tieBreakSeed())
         );
 
+        if (leases == null) return toResult(res);
+        // pick-only: spend the first candidate the local lease can cover
+        List<ServeResult> won = spendLeased(res, 1);
+        return won.isEmpty() ? NO_SERVE : won.get(0);
+    }
+
+    /**
+     * Same as {@link #pickAndSpend} without holding the calling thread for the eval.
+     * Completes on a Redisson thread, so callers must not make blocking Redis calls in dependent stages.
+     */
+    public CompletableFuture<ServeResult> pickAndSpendAsync(String country, String language, String device, String os,
+                                                            String ip, String domain, String browser, String iab) {
+        if (cluster) {
+            String seed = randomSeed();
+            Object[] argv = args(ip, domain, browser, iab);
+            return pickScript.<List<Object>>evalAsync(
+                            RScript.Mode.READ_WRITE,
+                            RScript.ReturnType.MULTI,
+                            cache.serveKeys(country, language, device, os),
+                            seed, Long.toString(segmentTtlMs), "1", Integer.toString(CLUSTER_PICK_SCAN))
+                    .toCompletableFuture()
+                    .thenCompose(candidates -> tryCandidatesAsync(candidates, 0, argv, seed));
+        }
+
+        return serveScript.<List<Object>>evalAsync(
+                        RScript.Mode.READ_WRITE,
+                        RScript.ReturnType.MULTI,
+                        keys(country, language, device, os),
+                        args(ip, domain, browser, iab, Long.toString(segmentTtlMs), tieBreakSeed()))
+                .toCompletableFuture()
+                .thenCompose(res -> {
+                    if (leases == null) return CompletableFuture.completedFuture(toResult(res));
+                    // a dry lease refills with a sync eval, which Redisson refuses on its own threads
+                    return onLeaseExecutor(() -> {
+                        List<ServeResult> won = spendLeased(res, 1);
+                        return won.isEmpty() ? NO_SERVE : won.get(0);
+                    });
+                });
+    }
+
+    private CompletableFuture<ServeResult> tryCandidatesAsync(List<Object> candidates, int i, Object[] argv, String seed) {
+        if (candidates == null || i + 1 >= candidates.size()) return CompletableFuture.completedFuture(NO_SERVE);
+        Integer id = toIntOrNull(candidates.get(i));
+        if (id == null) return tryCandidatesAsync(candidates, i + 2, argv, seed);
+
+        return candidateScript.<List<Object>>evalAsync(
+                        RScript.Mode.READ_WRITE,
+                        RScript.ReturnType.MULTI,
+                        candidateKeys(id),
+                        candidateArgs(argv, id, candidates.get(i + 1), seed))
+                .toCompletableFuture()
+                .thenCompose(res -> {
+                    ServeResult r = toCandidateResult(id, res);
+                    if (r.code == 0) return tryCandidatesAsync(candidates, i + 2, argv, seed);
+                    if (r.code == 3 || r.code == 4) {
+                        return onLeaseExecutor(() -> spendLeased(r))
+                                .thenCompose(spent -> spent.code == 0
+                                        ? tryCandidatesAsync(candidates, i + 2, argv, seed)
+                                        : CompletableFuture.completedFuture(spent));
+                    }
+                    touched.mark(id);
+                    return CompletableFuture.completedFuture(r);
+                });
+    }
+
+    /** Runs a lease spend on the lease pool; a full pool answers no-serve, not an error (the breaker would count it). */
+    private CompletableFuture<ServeResult> onLeaseExecutor(Supplier<ServeResult> spend) {
+        try {
+            return CompletableFuture.supplyAsync(spend, leaseExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(NO_SERVE);
+        }
+    }
+
+    private static ServeResult toResult(List<Object> res) {
         if (res == null || res.isEmpty()) return new ServeResult(0, null, null);
 
         int code = toInt(res.get(0));
         Integer id = (res.size() > 1 ? toIntOrNull(res.get(1)) : null);
         Long newRem = (res.size() > 2 ? toLongOrNull(res.get(2)) : null);
+        if (code == 3 && (id == null || newRem == null)) return new ServeResult(0, null, null);
         return new ServeResult(code, id, newRem);
     }
 
+    /** Spends pick-only {code, id, bid} triples from the local lease in order, until {@code slots} win. */
+    private List<ServeResult> spendLeased(List<Object> res, int slots) {
+        if (res == null) return List.of();
+        List<ServeResult> out = new ArrayList<>(slots);
+        for (int i = 0; i + 2 < res.size() && out.size() < slots; i += 3) {
+            Integer id = toIntOrNull(res.get(i + 1));
+            Long val = toLongOrNull(res.get(i + 2));
+            if (id == null || val == null) continue;
+            ServeResult r = spendLeased(new ServeResult(toInt(res.get(i)), id, val));
+            if (r.code == 1 || r.code == 2) out.add(r);
+        }
+        return out;
+    }
+
+    /**
+     * One pick-only candidate (value = bid) spent from the local lease; code 0 when it can't be.
+     * Code 4 means only leases cover it in Redis, possibly other instances', so without local
+     * headroom it isn't worth a grant round trip.
+     */
+    private ServeResult spendLeased(ServeResult r) {
+        if (r.code == 4 && !leases.hasHeadroom(r.campaignId, r.newRemaining)) return NO_SERVE;
+        if (r.code != 3 && r.code != 4) return r;
+        return leases.trySpend(r.campaignId, r.newRemaining);
+    }
+
+    /**
+     * Up to {@code slots} distinct winners in one round trip, best bid first.
+     * Only spent results are returned (codes 1/2); an empty list means nothing filled.
+     * In cluster mode: one pick round trip plus one per candidate tried.
+     */
+    public List<ServeResult> pickAndSpendMany(String country, String language, String device, String os,
+                                              String ip, String domain, String browser, String iab,
+                                              int slots, int maxScan) {
+        if (cluster) {
+            String seed = randomSeed();
+            List<Object> candidates = pick(country, language, device, os, seed, false, maxScan);
+            Object[] argv = args(ip, domain, browser, iab);
+            List<ServeResult> out = new ArrayList<>(slots);
+            for (int i = 0; i + 1 < candidates.size() && out.size() < slots; i += 2) {
+                ServeResult r = settle(tryCandidate(candidates.get(i), candidates.get(i + 1), argv, seed));
+                if (r.code == 1 || r.code == 2) out.add(r);
+            }
+            return out;
+        }
+
+        List<Object> res = serveMultiScript.eval(
+                RScript.Mode.READ_WRITE,
+                RScript.ReturnType.MULTI,
+                keys(country, language, device, os),
+                args(ip, domain, browser, iab, Long.toString(segmentTtlMs), tieBreakSeed(),
+                        Integer.toString(slots), Integer.toString(maxScan))
+        );
+        if (res == null || res.isEmpty()) return List.of();
+        if (leases != null) return spendLeased(res, slots);
+
+        List<ServeResult> out = new ArrayList<>(res.size() / 3);
+        for (int i = 0; i + 2 < res.size(); i += 3) {
+            int code = toInt(res.get(i));
+            Integer id = toIntOrNull(res.get(i + 1));
+            Long val = toLongOrNull(res.get(i + 2));
+            if (id == null) continue;
+            if (code == 1 || code == 2) out.add(new ServeResult(code, id, val));
+        }
+        return out;
+    }
+
+    // ---------- cluster helpers ----------
+
+    /** Flat {id, bid, ...} candidates from the pick script, best first. */
+    private List<Object> pick(String country, String language, String device, String os,
+                              String seed, boolean topOnly, int maxScan) {
+        List<Object> res = pickScript.eval(
+                RScript.Mode.READ_WRITE,
+                RScript.ReturnType.MULTI,
+                cache.serveKeys(country, language, device, os),
+                seed, Long.toString(segmentTtlMs), topOnly ? "1" : "0", Integer.toString(maxScan));
+        return res == null ? List.of() : res;
+    }
+
+    /** Targeting check + spend of one candidate in its own slot; code 0 = not this one. */
+    private ServeResult tryCandidate(Object rawId, Object bid, Object[] argv, String seed) {
+        Integer id = toIntOrNull(rawId);
+        if (id == null) return NO_SERVE;
+        List<Object> res = candidateScript.eval(
+                RScript.Mode.READ_WRITE,
+                RScript.ReturnType.MULTI,
+                candidateKeys(id),
+                candidateArgs(argv, id, bid, seed));
+        return toCandidateResult(id, res);
+    }
+
+    /** Lease spend for a pick-only result (code 0 if the lease can't cover it), touched mark for a Redis spend. */
+    private ServeResult settle(ServeResult r) {
+        if (r.code == 3 || r.code == 4) return spendLeased(r);
+        if (r.code == 1 || r.code == 2) touched.mark(r.campaignId);
+        return r;
+    }
+
+    private static List<Object> candidateKeys(int id) {
+        List<Object> keys = new ArrayList<>(RedisKeys.TARGETING_KINDS.length + 2);
+        keys.addAll(List.of(RedisKeys.targetingKeys(id)));
+        keys.add(RedisKeys.budget(id));
+        keys.add(RedisKeys.delta(id));
+        return keys;
+    }
+
+    private static Object[] candidateArgs(Object[] argv, int id, Object bid, String seed) {
+        Object[] a = Arrays.copyOf(argv, argv.length + 3);
+        a[argv.length] = Integer.toString(id);
+        a[argv.length + 1] = String.valueOf(toLongOrNull(bid));
+        a[argv.length + 2] = seed;
+        return a;
+    }
+
+    private static ServeResult toCandidateResult(int id, List<Object> res) {
+        if (res == null || res.isEmpty()) return NO_SERVE;
+        int code = toInt(res.get(0));
+        Long val = (res.size() > 1 ? toLongOrNull(res.get(1)) : null);
+        if (code == 0 || val == null) return NO_SERVE;
+        return new ServeResult(code, id, val);
+    }
+
+    /** ARGV[7]: a random seed, or empty for the shared rr counter (adserve.serve.tiebreak=counter). */
+    private String tieBreakSeed() {
+        return "counter".equals(tieBreak) ? "" : randomSeed();
+    }
+
+    /** Cluster mode always rotates with a random seed: the rr key isn't in the dim layout's slot. */
+    private static String randomSeed() {
+        return Integer.toString(ThreadLocalRandom.current().nextInt(1 << 30) + 1);
+    }
+
     private static String nvl(String s) { return (s == null ? "" : s); }
     private static String lower(String s) { return (s == null ? null : s.toLowerCase()); }
 
+    /** ARGV[1]: the client IP's canonical form and enclosing ranges, space separated. */
+    private String ipPatterns(String ip) {
+        return String.join(" ", ipPrefixes.patterns(nvl(ip).trim()));
+    }
+
+    /** ARGV[2]: the host plus its "*.parent" patterns, space separated. */
+    private static String domainPatterns(String domain) {
+        return String.join(" ", DomainUtils.suffixPatterns(lower(domain)));
+    }
+
     private static int toInt(Object o) {
         if (o == null) return 0;
         if (o instanceof Number n) return n.intValue();
@@ -0,0 +1,77 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller (leader) runs the loader, callers
+ * arriving while it runs (followers) wait for its result instead of running their own.
+ *
+ * Nothing is cached: the entry is removed as soon as the leader finishes, so the next caller
+ * loads again. Followers wait on a CompletableFuture (no monitors), which is fine on virtual threads.
+ */
+final class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder followers = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * The loader's result for {@code key}, run here or by a concurrent leader.
+     * A follower gives up after {@code waitMs} with a TimeoutException; loader exceptions are
+     * rethrown to the leader and every follower already waiting, and forgotten with the flight.
+     * Callers decide what a failure means: the DB fallback caches only real misses, never a
+     * shed or failed pick.
+     */
+    V execute(K key, long waitMs, Supplier<V> loader) throws TimeoutException {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+
+        if (running == null) {
+            leaders.increment();
+            try {
+                V v = loader.get();
+                mine.complete(v);
+                return v;
+            } catch (RuntimeException | Error e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+
+        followers.increment();
+        try {
+            return running.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("inFlight", inFlight.size());
+        m.put("leaders", leaders.sum());
+        m.put("followers", followers.sum());
+        m.put("followerTimeouts", timeouts.sum());
+        return m;
+    }
+}
@@ -0,0 +1,149 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cold-start warm that streams campaigns off a DB cursor and fans the Redis writes out to a small
+ * worker pool, instead of loading ids + entity graphs and writing one chunk at a time.
+ *
+ * Backpressure: the pool's queue is bounded and full submissions run on the reader thread, which
+ * stops pulling rows until a worker frees up. At most (workers + queue + 1) chunks are in memory.
+ */
+@Service
+public class StreamingWarmService {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingWarmService.class);
+
+    private static final long REPORT_EVERY_NS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Snapshot of the current (or last) run, for GET /admin/warm-stream. */
+    public record Progress(boolean running, long total, long written, long failed, long elapsedMs, double perSecond) {}
+
+    private final CampaignTargetingRepo rows;
+    private final StringRedisTemplate redis;
+    private final CampaignMetadataCache meta;
+    private final CampaignCacheService cache;
+
+    private final ReentrantLock runLock = new ReentrantLock(); // one warm at a time
+    private final AtomicReference<Progress> last = new AtomicReference<>(new Progress(false, 0, 0, 0, 0, 0));
+
+    public StreamingWarmService(CampaignTargetingRepo rows, StringRedisTemplate redis, CampaignMetadataCache meta,
+                                CampaignCacheService cache) {
+        this.rows = rows;
+        this.redis = redis;
+        this.meta = meta;
+        this.cache = cache;
+    }
+
+    public Progress progress() { return last.get(); }
+
+    /**
+     * @param chunkSize campaigns per Redis pipeline (and DB fetch size)
+     * @param workers   concurrent pipelines
+     * @return the final progress, or null if another warm is already running
+     */
+    public Progress warmAll(int chunkSize, int workers) {
+        if (!runLock.tryLock()) return null;
+        try {
+            return run(chunkSize, workers);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    private Progress run(int chunkSize, int workers) {
+        final long t0 = System.nanoTime();
+        final long total = rows.count();
+        final LongAdder written = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                workers, workers, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workers * 2),
+                Thread.ofPlatform().name("warm-writer-", 1).daemon(true).factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        // reader-thread state, mutated from the row callback
+        var cur = new Object() {
+            List<CampaignTargeting> chunk = new ArrayList<>(chunkSize);
+            long nextReport = t0 + REPORT_EVERY_NS;
+        };
+
+        try {
+            rows.streamAll(chunkSize, t -> {
+                cur.chunk.add(t);
+                if (cur.chunk.size() < chunkSize) return;
+                List<CampaignTargeting> full = cur.chunk;
+                cur.chunk = new ArrayList<>(chunkSize);
+                pool.execute(() -> write(full, written, failed));
+
+                long now = System.nanoTime();
+                if (now >= cur.nextReport) {
+                    cur.nextReport = now + REPORT_EVERY_NS;
+                    Progress p = snapshot(true, total, written, failed, t0);
+                    last.set(p);
+                    log.info("Streaming warm: {}/{} campaigns, {} failed, {} /s",
+                            p.written(), p.total(), p.failed(), (long) p.perSecond());
+                }
+            });
+            List<CampaignTargeting> tail = cur.chunk;
+            if (!tail.isEmpty()) pool.execute(() -> write(tail, written, failed));
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(10, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        meta.invalidateCampaignListCache();
+        Progress done = snapshot(false, total, written, failed, t0);
+        last.set(done);
+        log.info("Streaming warm finished: {} campaigns in {} ms ({} /s), {} failed",
+                done.written(), done.elapsedMs(), (long) done.perSecond(), done.failed());
+        return done;
+    }
+
+    private void write(List<CampaignTargeting> chunk, LongAdder written, LongAdder failed) {
+        try {
+            redis.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    @SuppressWarnings("unchecked")
+                    RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
+                    for (CampaignTargeting t : chunk) cache.writeCampaignOps(ops, t);
+                    return null;
+                }
+            });
+            for (CampaignTargeting t : chunk) meta.put(t);
+            written.add(chunk.size());
+        } catch (Exception e) {
+            failed.add(chunk.size());
+            log.warn("Streaming warm: pipeline of {} campaigns failed", chunk.size(), e);
+        }
+    }
+
+    private static Progress snapshot(boolean running, long total, LongAdder written, LongAdder failed, long t0) {
+        long ms = Math.max(1, (System.nanoTime() - t0) / 1_000_000);
+        long w = written.sum();
+        return new Progress(running, total, w, failed.sum(), ms, w * 1000.0 / ms);
+    }
+}
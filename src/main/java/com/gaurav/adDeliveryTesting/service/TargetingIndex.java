@@ -0,0 +1,291 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.utils.IpAddress;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable in-JVM inverted index: dimension value -> bitmap of campaign ordinals.
+ *
+ * Ordinals are handed out in (bid desc, id asc) order — the same order as the Redis ZSETs and
+ * pickTopOne — so the lowest ordinal of a match bitmap is always the best bid and a tie level
+ * is a contiguous ordinal range. Rebuilt wholesale and swapped by {@link LocalServeEngine}.
+ */
+public final class TargetingIndex {
+
+    public static final TargetingIndex EMPTY = build(List.of());
+
+    private final int[] ids;        // ordinal -> campaignId
+    private final long[] bids;      // ordinal -> bid cents
+    private final int[] levelEnd;   // ordinal -> first ordinal with a lower bid
+
+    // coarse dims (the ZSET key parts), keyed by CampaignCacheService.part(value);
+    // campaigns with an empty list on a dimension sit under "any" and match every value
+    private final Map<String, RoaringBitmap> countries;
+    private final Map<String, RoaringBitmap> languages;
+    private final Map<String, RoaringBitmap> devices;
+    private final Map<String, RoaringBitmap> oses;
+
+    // allow lists: empty or '*' => unconstrained (same rule as the serve Lua)
+    private final AllowDim browsers;
+    private final AllowDim iabs;
+
+    // IPs: addresses and CIDR ranges in radix trees, entries that don't parse as either by string
+    private final RoaringBitmap openIps;
+    private final IpRadixTree allowIpRanges;
+    private final Map<String, RoaringBitmap> allowIpOther;
+
+    // domains: exact + "*.suffix" patterns, see DomainSuffixTrie
+    private final RoaringBitmap openDomains;
+    private final DomainSuffixTrie allowDomains;
+
+    // block lists
+    private final IpRadixTree blockIpRanges;
+    private final Map<String, RoaringBitmap> blockIpOther;
+    private final DomainSuffixTrie blockDomains;
+
+    private TargetingIndex(int[] ids, long[] bids, int[] levelEnd,
+                           Map<String, RoaringBitmap> countries, Map<String, RoaringBitmap> languages,
+                           Map<String, RoaringBitmap> devices, Map<String, RoaringBitmap> oses,
+                           AllowDim browsers, AllowDim iabs,
+                           RoaringBitmap openIps, IpRadixTree allowIpRanges, Map<String, RoaringBitmap> allowIpOther,
+                           RoaringBitmap openDomains, DomainSuffixTrie allowDomains,
+                           IpRadixTree blockIpRanges, Map<String, RoaringBitmap> blockIpOther,
+                           DomainSuffixTrie blockDomains) {
+        this.ids = ids;
+        this.bids = bids;
+        this.levelEnd = levelEnd;
+        this.countries = countries;
+        this.languages = languages;
+        this.devices = devices;
+        this.oses = oses;
+        this.browsers = browsers;
+        this.iabs = iabs;
+        this.openIps = openIps;
+        this.allowIpRanges = allowIpRanges;
+        this.allowIpOther = allowIpOther;
+        this.openDomains = openDomains;
+        this.allowDomains = allowDomains;
+        this.blockIpRanges = blockIpRanges;
+        this.blockIpOther = blockIpOther;
+        this.blockDomains = blockDomains;
+    }
+
+    public int size()                  { return ids.length; }
+    public int campaignId(int ordinal) { return ids[ordinal]; }
+    public long bidCents(int ordinal)  { return bids[ordinal]; }
+
+    // ---------- Query ----------
+
+    /**
+     * All ordinals matching the request. Inputs follow the serve Lua conventions:
+     * ip/domain/browser/iab are "" when absent, domain is already lowercased.
+     */
+    public RoaringBitmap match(String country, String language, String device, String os,
+                               String ip, String domain, String browser, String iab) {
+        RoaringBitmap c = coarse(countries, country);
+        RoaringBitmap l = coarse(languages, language);
+        RoaringBitmap d = coarse(devices, device);
+        RoaringBitmap o = coarse(oses, os);
+        if (c == null || l == null || d == null || o == null) return new RoaringBitmap();
+
+        RoaringBitmap r = RoaringBitmap.and(c, l);
+        r.and(d);
+        r.and(o);
+        if (r.isEmpty()) return r;
+
+        browsers.restrict(r, browser);
+        if (!iab.isEmpty()) iabs.restrict(r, iab);
+
+        // the client IP is parsed once here; both trees are walked with the numeric form
+        IpAddress addr = ip.isEmpty() ? null : IpAddress.parse(ip);
+        RoaringBitmap ipHit = union(addr == null ? null : allowIpRanges.match(addr), allowIpOther.get(ip));
+        r.and(ipHit == null ? openIps : RoaringBitmap.or(openIps, ipHit));
+
+        RoaringBitmap allowed = allowDomains.match(domain);
+        r.and(allowed == null ? openDomains : RoaringBitmap.or(openDomains, allowed));
+
+        if (!ip.isEmpty()) {
+            RoaringBitmap b = union(addr == null ? null : blockIpRanges.match(addr), blockIpOther.get(ip));
+            if (b != null) r.andNot(b);
+        }
+        RoaringBitmap blocked = blockDomains.match(domain);
+        if (blocked != null) r.andNot(blocked);
+        return r;
+    }
+
+    private static RoaringBitmap union(RoaringBitmap a, RoaringBitmap b) {
+        if (a == null) return b;
+        return b == null ? a : RoaringBitmap.or(a, b);
+    }
+
+    /** exact ∪ any for one coarse dimension; null when neither exists. */
+    private static RoaringBitmap coarse(Map<String, RoaringBitmap> m, String value) {
+        RoaringBitmap exact = m.get(CampaignCacheService.part(value));
+        RoaringBitmap any = m.get(CampaignCacheService.ANY);
+        if (exact == null || exact == any) return any;
+        return any == null ? exact : RoaringBitmap.or(exact, any);
+    }
+
+    /**
+     * Up to {@code limit} ordinals of {@code r} in serve order: bid levels best-first, and inside
+     * each tie level a rotation starting at {@code seed} (the local stand-in for the Lua rr counter).
+     */
+    public int[] ranked(RoaringBitmap r, int limit, int seed) {
+        int card = r.getCardinality();
+        int[] out = new int[Math.min(limit, card)];
+        int k = 0;
+        int rank = 0;
+        while (k < out.length && rank < card) {
+            int first = r.select(rank);
+            int ties = (int) r.rangeCardinality(first, levelEnd[first]);
+            int start = Math.floorMod(seed, ties);
+            for (int i = 0; i < ties && k < out.length; i++) {
+                out[k++] = r.select(rank + (start + i) % ties);
+            }
+            rank += ties;
+        }
+        return out;
+    }
+
+    // ---------- Build ----------
+
+    /** Builds from campaign snapshots. Campaigns without filters or budget are skipped. */
+    public static TargetingIndex build(Collection<CampaignTargeting> campaigns) {
+        List<CampaignTargeting> live = new ArrayList<>(campaigns.size());
+        for (CampaignTargeting t : campaigns) {
+            if (!t.hasFilters() || t.remainingCents() <= 0) continue;
+            live.add(t);
+        }
+        live.sort(Comparator.comparingLong(CampaignTargeting::bidCents).reversed()
+                .thenComparingInt(CampaignTargeting::campaignId));
+
+        int n = live.size();
+        int[] ids = new int[n];
+        long[] bids = new long[n];
+        int[] levelEnd = new int[n];
+
+        Map<String, RoaringBitmap> countries = new HashMap<>();
+        Map<String, RoaringBitmap> languages = new HashMap<>();
+        Map<String, RoaringBitmap> devices = new HashMap<>();
+        Map<String, RoaringBitmap> oses = new HashMap<>();
+        AllowDim browsers = new AllowDim();
+        AllowDim iabs = new AllowDim();
+        RoaringBitmap openIps = new RoaringBitmap();
+        IpRadixTree allowIpRanges = new IpRadixTree();
+        Map<String, RoaringBitmap> allowIpOther = new HashMap<>();
+        RoaringBitmap openDomains = new RoaringBitmap();
+        DomainSuffixTrie allowDomains = new DomainSuffixTrie();
+        IpRadixTree blockIpRanges = new IpRadixTree();
+        Map<String, RoaringBitmap> blockIpOther = new HashMap<>();
+        DomainSuffixTrie blockDomains = new DomainSuffixTrie();
+
+        for (int ord = 0; ord < n; ord++) {
+            CampaignTargeting t = live.get(ord);
+            ids[ord] = t.campaignId();
+            bids[ord] = t.bidCents();
+
+            addCoarse(countries, t.countries(), ord);
+            addCoarse(languages, t.languages(), ord);
+            addCoarse(devices, t.devices(), ord);
+            addCoarse(oses, t.oses(), ord);
+
+            browsers.add(t.browsers(), false, ord);
+            iabs.add(t.iabCategories(), false, ord);
+            List<String> allowIp = cleaned(t.allowedIps(), false);
+            if (allowIp.isEmpty() || allowIp.contains("*")) openIps.add(ord);
+            else for (String v : allowIp) addIp(allowIpRanges, allowIpOther, v, ord);
+            List<String> allow = cleaned(t.allowedDomains(), true);
+            if (allow.isEmpty() || allow.contains("*")) openDomains.add(ord);
+            else for (String d : allow) allowDomains.add(d, ord);
+
+            for (String v : cleaned(t.excludedIps(), false)) addIp(blockIpRanges, blockIpOther, v, ord);
+            for (String d : cleaned(t.excludedDomains(), true)) blockDomains.add(d, ord);
+        }
+
+        for (int end = n, ord = n - 1; ord >= 0; ord--) {
+            if (ord < n - 1 && bids[ord] != bids[ord + 1]) end = ord + 1;
+            levelEnd[ord] = end;
+        }
+
+        for (Map<String, RoaringBitmap> m : List.of(countries, languages, devices, oses, allowIpOther, blockIpOther)) {
+            m.values().forEach(RoaringBitmap::runOptimize);
+        }
+        browsers.optimize();
+        iabs.optimize();
+        openIps.runOptimize();
+        allowIpRanges.optimize();
+        blockIpRanges.optimize();
+        openDomains.runOptimize();
+        allowDomains.optimize();
+        blockDomains.optimize();
+
+        return new TargetingIndex(ids, bids, levelEnd, countries, languages, devices, oses,
+                browsers, iabs, openIps, allowIpRanges, allowIpOther, openDomains, allowDomains,
+                blockIpRanges, blockIpOther, blockDomains);
+    }
+
+    private static void addCoarse(Map<String, RoaringBitmap> m, Collection<String> vals, int ord) {
+        if (vals == null || vals.isEmpty()) {
+            m.computeIfAbsent(CampaignCacheService.ANY, k -> new RoaringBitmap()).add(ord);
+            return;
+        }
+        for (String v : vals) m.computeIfAbsent(CampaignCacheService.part(v), k -> new RoaringBitmap()).add(ord);
+    }
+
+    /** An address or CIDR range goes into the tree; anything else keeps the old exact-string match. */
+    private static void addIp(IpRadixTree tree, Map<String, RoaringBitmap> other, String v, int ord) {
+        IpAddress.Cidr c = IpAddress.parseCidr(v);
+        if (c != null) tree.add(c, ord);
+        else other.computeIfAbsent(v, k -> new RoaringBitmap()).add(ord);
+    }
+
+    private static List<String> cleaned(Collection<String> vals, boolean lower) {
+        List<String> out = new ArrayList<>();
+        if (vals == null) return out;
+        for (String v : vals) {
+            String t = clean(v, lower);
+            if (t != null) out.add(t);
+        }
+        return out;
+    }
+
+    private static String clean(String v, boolean lower) {
+        if (v == null) return null;
+        String t = v.trim();
+        if (t.isEmpty()) return null;
+        return lower ? t.toLowerCase() : t;
+    }
+
+    /** One allow-list dimension: campaigns without a constraint plus value -> campaigns. */
+    private static final class AllowDim {
+        private final RoaringBitmap open = new RoaringBitmap();
+        private final Map<String, RoaringBitmap> values = new HashMap<>();
+
+        void add(Collection<String> vals, boolean lower, int ord) {
+            List<String> cleaned = cleaned(vals, lower);
+            if (cleaned.isEmpty() || cleaned.contains("*")) {
+                open.add(ord);
+                return;
+            }
+            for (String t : cleaned) values.computeIfAbsent(t, k -> new RoaringBitmap()).add(ord);
+        }
+
+        void restrict(RoaringBitmap r, String value) {
+            RoaringBitmap hit = value.isEmpty() ? null : values.get(value);
+            r.and(hit == null ? open : RoaringBitmap.or(open, hit));
+        }
+
+        void optimize() {
+            open.runOptimize();
+            values.values().forEach(RoaringBitmap::runOptimize);
+        }
+    }
+}
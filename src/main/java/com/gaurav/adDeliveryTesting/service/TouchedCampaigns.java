@@ -0,0 +1,54 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.config.RedisCacheConfig;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marks campaigns with unflushed spend in {@link RedisKeys#TOUCHED} for the BudgetDeltaFlusher.
+ *
+ * On one node the spend scripts SADD it themselves, atomically with the spend. In a cluster the
+ * set lives in another slot than the campaign's budget/delta, so the scripts get
+ * {@link #spendKeys} without it and the caller marks the campaign afterwards with {@link #mark}.
+ * A crash in between leaves that spend in campaign:delta:{id} until the campaign's next spend
+ * marks it again; the Redis budget itself is right either way.
+ */
+@Component
+public class TouchedCampaigns {
+
+    private static final Logger log = LoggerFactory.getLogger(TouchedCampaigns.class);
+
+    private final RedissonClient redisson;
+    private final boolean cluster;
+
+    public TouchedCampaigns(RedissonClient redisson, RedisProperties props) {
+        this.redisson = redisson;
+        this.cluster = RedisCacheConfig.isCluster(props);
+    }
+
+    /** KEYS for a spend script: budget, delta, and on one node the touched set as KEYS[3]. */
+    public List<Object> spendKeys(int campaignId) {
+        List<Object> keys = new ArrayList<>(3);
+        keys.add(RedisKeys.budget(campaignId));
+        keys.add(RedisKeys.delta(campaignId));
+        if (!cluster) keys.add(RedisKeys.TOUCHED);
+        return keys;
+    }
+
+    /** After a spend that went through {@link #spendKeys}: a no-op on one node, an async SADD in a cluster. */
+    public void mark(int campaignId) {
+        if (!cluster) return;
+        redisson.getSet(RedisKeys.TOUCHED, StringCodec.INSTANCE)
+                .addAsync(Integer.toString(campaignId))
+                .whenComplete((ok, err) -> {
+                    if (err != null) log.warn("Could not mark campaign {} touched", campaignId, err);
+                });
+    }
+}
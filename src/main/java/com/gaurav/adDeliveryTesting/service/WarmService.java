@@ -1,74 +1,136 @@
 package com.gaurav.adDeliveryTesting.service;
 
-import com.gaurav.adDeliveryTesting.model.Campaign;
-import com.gaurav.adDeliveryTesting.model.CampaignFilters;
+import com.gaurav.adDeliveryTesting.config.RedisCacheConfig;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
 import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
-import com.gaurav.adDeliveryTesting.utils.MoneyUtils;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
+import org.redisson.api.RScript;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class WarmService {
 
+    // Moves one campaign's spend state from the pre-cluster names (campaign:budget:42) to the
+    // {id}-tagged ones and drops its old targeting keys and index entries. Single node only.
+    // KEYS[1] = campaign:touched, ARGV[1] = campaign id, ARGV[2] = remaining_budget in cents from the DB
+    static final String MIGRATE_LUA = RedisKeys.LUA_CKEY + """
+local id = ARGV[1]
+local function old(kind) return 'campaign:' .. kind .. ':' .. id end
+
+local od = tonumber(redis.call('GET', old('delta'))) or 0
+local nb = ckey('budget', id)
+
+-- budget: pool sub-counters back into 'remaining', then move the hash (leased included)
+local ob = old('budget')
+local moved = false
+if redis.call('EXISTS', ob) == 1 then
+  local k = tonumber(redis.call('HGET', ob, 'shards')) or 0
+  local pooled = 0
+  for i = 0, k - 1 do
+    pooled = pooled + (tonumber(redis.call('GET', ob .. ':s' .. i)) or 0)
+    redis.call('DEL', ob .. ':s' .. i)
+  end
+  if k > 0 then
+    redis.call('HINCRBY', ob, 'remaining', pooled)
+    redis.call('HDEL', ob, 'shards')
+  end
+  -- a budget already written under the new name (serving since the deploy) wins
+  if redis.call('EXISTS', nb) == 0 then
+    redis.call('RENAME', ob, nb)
+    moved = true
+  else
+    redis.call('DEL', ob)
+  end
+end
+if (not moved) and redis.call('EXISTS', nb) == 0 then
+  redis.call('HSET', nb, 'remaining', ARGV[2])
+end
+
+-- unflushed spend is added, never overwritten. A budget seeded under the new name came from the
+-- DB, which hasn't seen that spend yet, so it pays for it too (the moved one already has).
+if od > 0 then
+  if not moved then redis.call('HINCRBY', nb, 'remaining', -od) end
+  redis.call('INCRBY', ckey('delta', id), od)
+  redis.call('SADD', KEYS[1], id)
+end
+redis.call('DEL', old('delta'))
+
+-- targeting is rewritten from the DB by the caller
+for _, kind in ipairs({'tgt', 'allow:browser', 'allow:iab', 'allow:ip', 'allow:domain', 'block:ip', 'block:domain'}) do
+  redis.call('DEL', old(kind))
+end
+
+-- old index ZSETs: drop this campaign, so they empty out (and vanish) once all are migrated
+local om = old('zsetkeys')
+for _, z in ipairs(redis.call('SMEMBERS', om)) do redis.call('ZREM', z, id) end
+redis.call('DEL', om)
+return 1
+""";
+
+    // KEYS[1] = campaign:budget:{id}, ARGV[1] = cents added to remaining_budget in the DB
+    // a missing budget is left alone: whoever seeds it reads the DB, top-up included
+    private static final String TOPUP_LUA = """
+if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end
+return redis.call('HINCRBY', KEYS[1], 'remaining', ARGV[1])
+""";
+
     private final AdDeliveryRepo repo;
+    private final CampaignTargetingRepo rows;
     private final CampaignCacheService cache;
     private final CampaignMetadataCache meta;
     private final StringRedisTemplate redis;
+    private final boolean cluster;
+    private final RedisScriptRegistry.Script migrateScript;
+    private final RedisScriptRegistry.Script topUpScript;
 
     public WarmService(AdDeliveryRepo repo,
+                       CampaignTargetingRepo rows,
                        CampaignCacheService cache,
                        CampaignMetadataCache meta,
-                       StringRedisTemplate redis) {
+                       StringRedisTemplate redis,
+                       RedisProperties redisProps,
+                       RedisScriptRegistry scripts) {
         this.repo = repo;
+        this.rows = rows;
         this.cache = cache;
         this.meta = meta;
         this.redis = redis;
+        this.cluster = RedisCacheConfig.isCluster(redisProps);
+        this.migrateScript = scripts.register("migrate-keys", MIGRATE_LUA);
+        this.topUpScript = scripts.register("budget-topup", TOPUP_LUA);
     }
 
     /** Warm a single campaign completely, fully pipelined. */
     public boolean warmOne(int id) {
-        var opt = repo.findById(id);
-        if (opt.isEmpty()) {
+        List<CampaignTargeting> found = rows.findByIds(List.of(id));
+        if (found.isEmpty()) {
             cache.removeCampaignEverywhere(id);
             meta.invalidate(id);
             return false;
         }
-        Campaign c = opt.get();
-        meta.put(c);
+        CampaignTargeting t = found.get(0);
+        meta.put(t);
 
         redis.executePipelined(new SessionCallback<Object>() {
             @Override
             public Object execute(RedisOperations operations) throws DataAccessException {
                 @SuppressWarnings("unchecked")
                 RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
-
-                String idStr = Integer.toString(c.getCampaignId());
-                // budget & delta
-                ops.opsForHash().put("campaign:budget:" + idStr, "remaining",
-                        Long.toString(MoneyUtils.toCents(c.getRemainingBudget())));
-                ops.opsForValue().set("campaign:delta:" + idStr, "0");
-
-                CampaignFilters f = c.getFilters();
-                if (f != null) {
-                    CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowBrowserKey(c.getCampaignId()), f.getBrowsers());
-                    CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowIabKey(c.getCampaignId()),     f.getIabCategory());
-                    CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowIpKey(c.getCampaignId()),      f.getAllowedIP());
-                    CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowDomainKey(c.getCampaignId()),  CampaignCacheService.toLowerSet(f.getAllowedDomain()));
-
-                    CampaignCacheService.writeBlockSetOps(ops, CampaignCacheService.blockIpKey(c.getCampaignId()),      f.getExcludedIP());
-                    CampaignCacheService.writeBlockSetOps(ops, CampaignCacheService.blockDomainKey(c.getCampaignId()),  CampaignCacheService.toLowerSet(f.getExcludedDomain()));
-
-                    for (String country : f.getCountries())
-                        for (String lang : f.getLanguages())
-                            for (String device : f.getDevices())
-                                for (String os : f.getOsList())
-                                    CampaignCacheService.addCampaignToZsetOps(ops, c, country, lang, device, os);
-                }
+                cache.writeCampaignOps(ops, t);
                 return null;
             }
         });
@@ -88,39 +150,16 @@ public class WarmService {
 
             for (int j = 0; j < page.size(); j += batchLoadSize) {
                 List<Integer> chunkIds = page.subList(j, Math.min(j + batchLoadSize, page.size()));
-                List<Campaign> chunk = repo.findBatchWithFilters(chunkIds);
+                List<CampaignTargeting> chunk = rows.findByIds(chunkIds);
 
-                for (Campaign c : chunk) meta.put(c);
+                for (CampaignTargeting t : chunk) meta.put(t);
 
                 redis.executePipelined(new SessionCallback<Object>() {
                     @Override
                     public Object execute(RedisOperations operations) throws DataAccessException {
                         @SuppressWarnings("unchecked")
                         RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
-
-                        for (Campaign c : chunk) {
-                            String idStr = Integer.toString(c.getCampaignId());
-                            ops.opsForHash().put("campaign:budget:" + idStr, "remaining",
-                                    Long.toString(MoneyUtils.toCents(c.getRemainingBudget())));
-                            ops.opsForValue().set("campaign:delta:" + idStr, "0");
-
-                            CampaignFilters f = c.getFilters();
-                            if (f == null) continue;
-
-                            CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowBrowserKey(c.getCampaignId()), f.getBrowsers());
-                            CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowIabKey(c.getCampaignId()),     f.getIabCategory());
-                            CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowIpKey(c.getCampaignId()),      f.getAllowedIP());
-                            CampaignCacheService.writeAllowSetOps(ops, CampaignCacheService.allowDomainKey(c.getCampaignId()),  CampaignCacheService.toLowerSet(f.getAllowedDomain()));
-
-                            CampaignCacheService.writeBlockSetOps(ops, CampaignCacheService.blockIpKey(c.getCampaignId()),      f.getExcludedIP());
-                            CampaignCacheService.writeBlockSetOps(ops, CampaignCacheService.blockDomainKey(c.getCampaignId()),  CampaignCacheService.toLowerSet(f.getExcludedDomain()));
-
-                            for (String country : f.getCountries())
-                                for (String lang : f.getLanguages())
-                                    for (String device : f.getDevices())
-                                        for (String os : f.getOsList())
-                                            CampaignCacheService.addCampaignToZsetOps(ops, c, country, lang, device, os);
-                        }
+                        for (CampaignTargeting t : chunk) cache.writeCampaignOps(ops, t);
                         return null;
                     }
                 });
@@ -131,4 +170,173 @@ public class WarmService {
         meta.invalidateCampaignListCache();
         return processed;
     }
-}
\ No newline at end of file
+
+    /**
+     * Incremental re-index for a set of changed campaigns (change-capture listener, outbox poller).
+     * Moves each campaign between index ZSETs according to its current filters, rewrites its
+     * targeting record and refreshes local metadata; deleted campaigns are taken out of every ZSET.
+     * Budgets are only created when missing: remaining/delta are live spend state and a DB copy
+     * may lag the last flush (top-ups arrive separately, see {@link #applyTopUps}).
+     */
+    public int reindexBatch(Collection<Integer> ids) {
+        if (ids.isEmpty()) return 0;
+        List<Integer> idList = new ArrayList<>(ids);
+
+        // current ZSET memberships, one pipelined SMEMBERS per id
+        List<Object> before = redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                @SuppressWarnings("unchecked")
+                RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
+                for (Integer id : idList) ops.opsForSet().members(RedisKeys.membership(id));
+                return null;
+            }
+        });
+
+        Map<Integer, CampaignTargeting> live = new HashMap<>();
+        for (CampaignTargeting t : rows.findByIds(idList)) live.put(t.campaignId(), t);
+
+        redis.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                @SuppressWarnings("unchecked")
+                RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
+
+                for (int i = 0; i < idList.size(); i++) {
+                    int id = idList.get(i);
+                    String idStr = Integer.toString(id);
+                    @SuppressWarnings("unchecked")
+                    Set<String> oldKeys = (before.get(i) instanceof Set<?> set) ? (Set<String>) set : Set.of();
+
+                    CampaignTargeting t = live.get(id);
+                    List<String> newKeys = (t == null || !t.hasFilters()) ? List.of() : cache.indexKeys(t);
+
+                    Set<String> keep = new HashSet<>(newKeys);
+                    for (String k : oldKeys) {
+                        if (!keep.contains(k)) ops.opsForZSet().remove(k, idStr);
+                    }
+                    ops.delete(RedisKeys.membership(id));
+
+                    if (t == null) {
+                        ops.delete(RedisKeys.targeting(id));
+                        continue;
+                    }
+
+                    ops.opsForHash().putIfAbsent(RedisKeys.budget(id), "remaining",
+                            Long.toString(t.remainingCents()));
+                    if (!t.hasFilters()) continue;
+
+                    CampaignCacheService.writeTargetingOps(ops, t);
+                    CampaignCacheService.addToIndexOps(ops, id, t.bidCents(), newKeys);
+                }
+                return null;
+            }
+        });
+
+        for (Integer id : idList) {
+            CampaignTargeting t = live.get(id);
+            if (t == null) meta.invalidate(id);
+            else meta.put(t);
+        }
+        return live.size();
+    }
+
+    /**
+     * Adds budget top-ups (remaining_budget raised in the DB, recorded by the change-capture
+     * triggers) to the live Redis budgets, which a re-index leaves alone. Run before the re-index
+     * of the same campaigns, so a budget that re-index seeds from the DB isn't topped up twice.
+     */
+    public void applyTopUps(Map<Integer, Long> cents) {
+        if (cents.isEmpty()) return;
+        CompletableFuture.allOf(cents.entrySet().stream()
+                .map(e -> topUpScript.evalAsync(
+                        RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                        List.of(RedisKeys.budget(e.getKey())), Long.toString(e.getValue())).toCompletableFuture())
+                .toArray(CompletableFuture[]::new)).join();
+    }
+
+    /**
+     * One-off migration to the compact targeting layout: rewrites campaign:tgt:{id} plus the
+     * non-empty allow/block sets for every campaign, leaving budgets and ZSETs alone.
+     * Until a campaign is rewritten the serve Lua keeps checking its old six sets.
+     */
+    public int migrateTargetingRecords(int batchLoadSize) {
+        List<Integer> ids = repo.findAllIds();
+        int processed = 0;
+
+        for (int i = 0; i < ids.size(); i += batchLoadSize) {
+            List<CampaignTargeting> chunk = rows.findByIds(ids.subList(i, Math.min(i + batchLoadSize, ids.size())));
+
+            redis.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    @SuppressWarnings("unchecked")
+                    RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
+                    for (CampaignTargeting t : chunk) {
+                        if (t.hasFilters()) CampaignCacheService.writeTargetingOps(ops, t);
+                    }
+                    return null;
+                }
+            });
+            processed += chunk.size();
+        }
+        return processed;
+    }
+
+    /**
+     * One-off migration to the cluster key layout ({@link RedisKeys}): moves each campaign's budget
+     * and unflushed delta to the {id}-tagged names, then rewrites its targeting record and index
+     * entries from the DB.
+     *
+     * This build only reads and writes the tagged names, so from the deploy until its campaign is
+     * migrated a campaign is not served by the Redis engine (no tagged budget or index entry; the
+     * DB fallback still works), and spend recorded under the old names isn't flushed. To run it:
+     * <ol>
+     *   <li>snapshot Redis first (BGSAVE): the old keys are deleted as they are moved;</li>
+     *   <li>deploy the new build to every instance; an old-layout instance still serving keeps
+     *       writing campaign:delta:42 behind the migration;</li>
+     *   <li>POST /admin/migrate/keys once, against the single node (refused in cluster mode);</li>
+     *   <li>only then move the data to a cluster and set spring.data.redis.cluster.nodes.</li>
+     * </ol>
+     * Re-running is safe: a campaign with no old keys left is only re-indexed, old deltas are
+     * added once and then deleted, and a budget already under the new name is kept. Such a
+     * budget was seeded from the DB (LazyIndexer, warm passes, or here when there is none)
+     * without the old unflushed delta, so that delta is debited from it as well as moved; the
+     * campaign can't overspend by what it spent under the old names.
+     */
+    public int migrateKeyLayout(int batchLoadSize) {
+        if (cluster) {
+            throw new IllegalStateException("Key layout migration runs against a single node; migrate before moving to a cluster");
+        }
+        List<Integer> ids = repo.findAllIds();
+        int processed = 0;
+
+        for (int i = 0; i < ids.size(); i += batchLoadSize) {
+            List<CampaignTargeting> chunk = rows.findByIds(ids.subList(i, Math.min(i + batchLoadSize, ids.size())));
+
+            CompletableFuture.allOf(chunk.stream()
+                    .map(t -> migrateScript.evalAsync(
+                            RScript.Mode.READ_WRITE, RScript.ReturnType.INTEGER,
+                            List.of(RedisKeys.TOUCHED), Integer.toString(t.campaignId()),
+                            Long.toString(t.remainingCents())).toCompletableFuture())
+                    .toArray(CompletableFuture[]::new)).join();
+
+            redis.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    @SuppressWarnings("unchecked")
+                    RedisOperations<String,String> ops = (RedisOperations<String,String>) operations;
+                    for (CampaignTargeting t : chunk) {
+                        if (!t.hasFilters()) continue;
+                        CampaignCacheService.writeTargetingOps(ops, t);
+                        CampaignCacheService.addToIndexOps(ops, t.campaignId(), t.bidCents(), cache.indexKeys(t));
+                    }
+                    return null;
+                }
+            });
+            processed += chunk.size();
+        }
+        meta.invalidateCampaignListCache();
+        return processed;
+    }
+}
@@ -0,0 +1,94 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Aho–Corasick automaton over up to 64 lowercase ASCII tokens, ASCII case-insensitive.
+ *
+ * {@link #scan} walks the input once, without allocating, and returns a bit per token
+ * (bit i = tokens[i]) that occurs anywhere in it. Transitions are a dense states x 128 table
+ * with the failure links already folded in, so each char is one array read; non-ASCII chars
+ * can't be part of a token and reset to the root.
+ */
+final class AsciiTokenMatcher {
+
+    private static final int ALPHABET = 128;
+
+    private final int[] next;    // state * ALPHABET + c -> state
+    private final long[] out;    // state -> tokens ending here (incl. via failure links)
+
+    AsciiTokenMatcher(String... tokens) {
+        if (tokens.length > 64) throw new IllegalArgumentException("at most 64 tokens");
+
+        int maxStates = 1;
+        for (String t : tokens) maxStates += t.length();
+        int[] gotoFn = new int[maxStates * ALPHABET];
+        Arrays.fill(gotoFn, -1);
+        long[] output = new long[maxStates];
+        int states = 1;
+
+        for (int i = 0; i < tokens.length; i++) {
+            String t = tokens[i];
+            if (t.isEmpty() || !t.equals(t.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("token must be non-empty lowercase: " + t);
+            }
+            int s = 0;
+            for (int k = 0; k < t.length(); k++) {
+                char c = t.charAt(k);
+                if (c >= ALPHABET) throw new IllegalArgumentException("token must be ASCII: " + t);
+                int idx = s * ALPHABET + c;
+                if (gotoFn[idx] < 0) gotoFn[idx] = states++;
+                s = gotoFn[idx];
+            }
+            output[s] |= 1L << i;
+        }
+
+        // BFS: fill missing transitions from the failure state and inherit its outputs
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int s = gotoFn[c];
+            if (s < 0) {
+                gotoFn[c] = 0;
+            } else {
+                fail[s] = 0;
+                queue.add(s);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int r = queue.poll();
+            output[r] |= output[fail[r]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int idx = r * ALPHABET + c;
+                int s = gotoFn[idx];
+                if (s < 0) {
+                    gotoFn[idx] = gotoFn[fail[r] * ALPHABET + c];
+                } else {
+                    fail[s] = gotoFn[fail[r] * ALPHABET + c];
+                    queue.add(s);
+                }
+            }
+        }
+
+        this.next = Arrays.copyOf(gotoFn, states * ALPHABET);
+        this.out = Arrays.copyOf(output, states);
+    }
+
+    long scan(CharSequence s) {
+        long hits = 0;
+        int state = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= ALPHABET) {
+                state = 0;
+                continue;
+            }
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            state = next[state * ALPHABET + c];
+            hits |= out[state];
+        }
+        return hits;
+    }
+}
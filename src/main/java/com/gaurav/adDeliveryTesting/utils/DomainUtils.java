@@ -1,27 +1,140 @@
 package com.gaurav.adDeliveryTesting.utils;
 
-import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Request host extraction and the domain targeting patterns.
+ *
+ * Targeting lists hold exact hosts ("example.com") and wildcards ("*.example.com", which matches
+ * any subdomain of example.com but not example.com itself; list both for both).
+ */
 public final class DomainUtils {
     private DomainUtils() {}
 
+    public static final String WILDCARD = "*.";
+
     public static String extractHost(String xDomain, String origin, String referer) {
         String host = firstHost(xDomain);
         if (host == null) host = urlHost(origin);
         if (host == null) host = urlHost(referer);
-        return host == null ? "" : host.toLowerCase();
+        return host == null ? "" : host;
+    }
+
+    /**
+     * Every targeting pattern that matches {@code host}, most specific first:
+     * news.example.com -> [news.example.com, *.example.com, *.com]. {@code [""]} for no host, so
+     * callers can always bind at least one value. A fully-qualified "example.com." counts as example.com.
+     */
+    public static List<String> suffixPatterns(String host) {
+        if (host != null && host.endsWith(".")) host = host.substring(0, host.length() - 1);
+        if (host == null || host.isEmpty()) return List.of("");
+        List<String> out = new ArrayList<>(4);
+        out.add(host);
+        for (int dot = host.indexOf('.'); dot >= 0 && dot < host.length() - 1; dot = host.indexOf('.', dot + 1)) {
+            out.add(WILDCARD + host.substring(dot + 1));
+        }
+        return out;
     }
 
+    // ---------- Scanner ----------
+    //
+    // Hand-rolled instead of URI.create: one pass over the header, no URI object, and the only
+    // allocation is the (lowercased) host String itself. Anything that isn't a plain
+    // hostname / IPv4 / [IPv6] comes back as null, like URI.getHost() would.
+
+    /** X-Domain: a bare host ("example.com", "example.com/path") or a full URL. */
     private static String firstHost(String s) {
-        if (s == null || s.isBlank()) return null;
-        String t = s.trim().toLowerCase();
-        if (t.startsWith("http://") || t.startsWith("https://")) return urlHost(t);
-        int slash = t.indexOf('/');
-        return (slash > 0) ? t.substring(0, slash) : t;
+        if (s == null) return null;
+        int from = skipSpace(s, 0), to = trimEnd(s, from);
+        if (from == to) return null;
+        int auth = authorityStart(s, from, to);
+        return host(s, auth >= 0 ? auth : from, to);
     }
 
+    /** Origin / Referer: only URLs with an authority part ("scheme://host..." or "//host..."). */
     private static String urlHost(String url) {
-        if (url == null || url.isBlank()) return null;
-        try { return URI.create(url).getHost(); } catch (Exception ignored) { return null; }
+        if (url == null) return null;
+        int from = skipSpace(url, 0), to = trimEnd(url, from);
+        int auth = authorityStart(url, from, to);
+        return auth < 0 ? null : host(url, auth, to);
+    }
+
+    /** Index just past "scheme://" or a leading "//"; -1 if there is none. */
+    private static int authorityStart(String s, int from, int to) {
+        if (s.startsWith("//", from)) return from + 2;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == ':') return (i > from && s.startsWith("//", i + 1)) ? i + 3 : -1;
+            boolean schemeChar = isAlnum(c) || (i > from && (c == '+' || c == '-' || c == '.'));
+            if (!schemeChar) return -1;
+        }
+        return -1;
+    }
+
+    /** Host of the authority starting at {@code from}: userinfo, port and a trailing dot dropped. */
+    private static String host(String s, int from, int to) {
+        int end = from;
+        while (end < to) {
+            char c = s.charAt(end);
+            if (c == '/' || c == '?' || c == '#') break;
+            end++;
+        }
+        int at = s.lastIndexOf('@', end - 1);
+        if (at >= from) from = at + 1;
+        if (from >= end) return null;
+
+        int hostEnd;
+        if (s.charAt(from) == '[') {                 // IPv6 literal, kept with its brackets
+            int close = s.indexOf(']', from);
+            if (close < 0 || close >= end) return null;
+            hostEnd = close + 1;
+            for (int i = from + 1; i < close; i++) {
+                char c = s.charAt(i);
+                if (!(isHex(c) || c == ':' || c == '.')) return null;
+            }
+        } else {
+            hostEnd = from;
+            boolean upper = false;
+            while (hostEnd < end) {
+                char c = s.charAt(hostEnd);
+                if (c == ':') break;
+                if (!(isAlnum(c) || c == '-' || c == '.' || c == '_')) return null;
+                upper |= (c >= 'A' && c <= 'Z');
+                hostEnd++;
+            }
+            if (hostEnd > from && s.charAt(hostEnd - 1) == '.') hostEnd--;
+            if (hostEnd <= from) return null;
+            return upper ? lowerAscii(s, from, hostEnd) : s.substring(from, hostEnd);
+        }
+        return lowerAscii(s, from, hostEnd);
+    }
+
+    private static String lowerAscii(String s, int from, int to) {
+        char[] out = new char[to - from];
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            out[i - from] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(out);
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && s.charAt(i) <= ' ') i++;
+        return i;
+    }
+
+    private static int trimEnd(String s, int from) {
+        int to = s.length();
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    private static boolean isAlnum(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,195 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+/**
+ * An IPv4 or IPv6 address as 128 bits (hi, lo); IPv4 lives in the IPv4-mapped range
+ * ::ffff:0:0/96, so one prefix tree covers both families.
+ *
+ * Parsing is done by hand: InetAddress.getByName would fall back to a DNS lookup on anything
+ * that isn't a literal, which is not something a request header should be able to trigger.
+ */
+public record IpAddress(long hi, long lo) {
+
+    private static final long V4_MAPPED = 0x0000_ffff_0000_0000L;
+
+    /** Network address + prefix length, both in the 128-bit space (an IPv4 /24 has prefix 120). */
+    public record Cidr(IpAddress network, int prefix) {
+
+        /** "a.b.c.d/n" / "v6/n" with the host bits cleared, or the bare address for a full-length prefix. */
+        public String canonical() {
+            if (prefix == 128) return network.toString();
+            return network.toString() + "/" + (network.isV4() ? prefix - 96 : prefix);
+        }
+    }
+
+    public boolean isV4() {
+        return hi == 0 && (lo >>> 32) == 0xffffL;
+    }
+
+    /** Bit {@code i} counted from the most significant (0..127). */
+    public int bit(int i) {
+        return (int) ((i < 64 ? hi >>> (63 - i) : lo >>> (127 - i)) & 1);
+    }
+
+    /** This address with everything after the first {@code prefix} bits cleared. */
+    public IpAddress mask(int prefix) {
+        if (prefix >= 128) return this;
+        if (prefix <= 0) return new IpAddress(0, 0);
+        if (prefix <= 64) return new IpAddress(prefix == 64 ? hi : hi & (-1L << (64 - prefix)), 0);
+        return new IpAddress(hi, lo & (-1L << (128 - prefix)));
+    }
+
+    /** Number of leading bits {@code this} and {@code o} have in common (0..128). */
+    public int commonPrefix(IpAddress o) {
+        long x = hi ^ o.hi;
+        if (x != 0) return Long.numberOfLeadingZeros(x);
+        long y = lo ^ o.lo;
+        return y == 0 ? 128 : 64 + Long.numberOfLeadingZeros(y);
+    }
+
+    // ---------- Parsing ----------
+
+    /** A literal address ("1.2.3.4", "2001:db8::1", "[::1]", "fe80::1%eth0"), or null. */
+    public static IpAddress parse(String s) {
+        if (s == null) return null;
+        int from = 0, to = s.length();
+        while (from < to && s.charAt(from) <= ' ') from++;
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        if (from < to && s.charAt(from) == '[' && s.charAt(to - 1) == ']') { from++; to--; }
+        if (from >= to) return null;
+        if (s.indexOf(':', from) < 0 || s.indexOf(':', from) >= to) {
+            long v4 = parseV4(s, from, to);
+            return v4 < 0 ? null : new IpAddress(0, V4_MAPPED | v4);
+        }
+        int zone = s.indexOf('%', from);
+        if (zone >= 0 && zone < to) to = zone;
+        return parseV6(s, from, to);
+    }
+
+    /** "addr/len" or a bare address (full-length prefix); null if either part is invalid. */
+    public static Cidr parseCidr(String s) {
+        if (s == null) return null;
+        int slash = s.indexOf('/');
+        if (slash < 0) {
+            IpAddress a = parse(s);
+            return a == null ? null : new Cidr(a, 128);
+        }
+        IpAddress a = parse(s.substring(0, slash));
+        if (a == null) return null;
+        int len;
+        try {
+            len = Integer.parseInt(s.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        int prefix = a.isV4() ? len + 96 : len;
+        if (len < 0 || prefix > 128 || (a.isV4() && len > 32)) return null;
+        return new Cidr(a.mask(prefix), prefix);
+    }
+
+    /** Canonical text of an address or CIDR ({@link Cidr#canonical}); the trimmed input if it isn't one. */
+    public static String canonical(String s) {
+        Cidr c = parseCidr(s);
+        return c == null ? s.trim() : c.canonical();
+    }
+
+    /** 32-bit value, or -1 if [from, to) is not a dotted quad. */
+    private static long parseV4(String s, int from, int to) {
+        long v = 0;
+        int parts = 0, i = from;
+        while (parts < 4) {
+            int start = i, octet = 0;
+            while (i < to && i - start < 3 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                octet = octet * 10 + (s.charAt(i) - '0');
+                i++;
+            }
+            if (i == start || octet > 255) return -1;
+            v = (v << 8) | octet;
+            parts++;
+            if (parts < 4) {
+                if (i >= to || s.charAt(i) != '.') return -1;
+                i++;
+            }
+        }
+        return i == to ? v : -1;
+    }
+
+    private static IpAddress parseV6(String s, int from, int to) {
+        int[] groups = new int[8];
+        int n = 0, gap = -1, i = from;
+        if (s.startsWith("::", i)) {
+            gap = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int start = i, g = 0;
+            while (i < to && i - start < 4 && Character.digit(s.charAt(i), 16) >= 0) {
+                g = (g << 4) | Character.digit(s.charAt(i), 16);
+                i++;
+            }
+            if (i < to && s.charAt(i) == '.') {          // embedded IPv4 tail, e.g. ::ffff:1.2.3.4
+                long v4 = parseV4(s, start, to);
+                if (v4 < 0 || n > 6) return null;
+                groups[n++] = (int) (v4 >>> 16);
+                groups[n++] = (int) (v4 & 0xffff);
+                i = to;
+                break;
+            }
+            if (i == start || n == 8) return null;
+            groups[n++] = g;
+            if (i == to) break;
+            if (s.charAt(i) != ':') return null;
+            i++;
+            if (i < to && s.charAt(i) == ':') {
+                if (gap >= 0) return null;               // only one "::"
+                gap = n;
+                i++;
+            } else if (i == to) {
+                return null;                             // trailing single ':'
+            }
+        }
+        if (gap < 0 ? n != 8 : n > 7) return null;
+
+        long hi = 0, lo = 0;
+        int fill = 8 - n;
+        for (int k = 0, g = 0; k < 8; k++) {
+            int val = (gap >= 0 && k >= gap && k < gap + fill) ? 0 : groups[g++];
+            if (k < 4) hi = (hi << 16) | val;
+            else lo = (lo << 16) | val;
+        }
+        return new IpAddress(hi, lo);
+    }
+
+    // ---------- Formatting ----------
+
+    /** Dotted quad for IPv4, RFC 5952 form (lowercase, longest zero run as "::") for IPv6. */
+    @Override
+    public String toString() {
+        if (isV4()) {
+            long v = lo & 0xffff_ffffL;
+            return (v >>> 24) + "." + ((v >>> 16) & 0xff) + "." + ((v >>> 8) & 0xff) + "." + (v & 0xff);
+        }
+        int[] g = new int[8];
+        for (int k = 0; k < 4; k++) {
+            g[k] = (int) ((hi >>> (48 - 16 * k)) & 0xffff);
+            g[k + 4] = (int) ((lo >>> (48 - 16 * k)) & 0xffff);
+        }
+        int bestStart = -1, bestLen = 1;                 // a single zero group is not compressed
+        for (int k = 0; k < 8; ) {
+            if (g[k] != 0) { k++; continue; }
+            int start = k;
+            while (k < 8 && g[k] == 0) k++;
+            if (k - start > bestLen) { bestStart = start; bestLen = k - start; }
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int k = 0; k < 8; k++) {
+            if (k == bestStart) {
+                sb.append("::");
+                k += bestLen - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') sb.append(':');
+            sb.append(Integer.toHexString(g[k]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,12 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+/** OS / browser / device classes of one User-Agent, as stored in the targeting tables. */
+public record UserAgentInfo(String os, String browser, String device) {
+
+    public static final UserAgentInfo UNKNOWN = new UserAgentInfo("Others", "Others", "Desktop");
+
+    /** Explicit X-Device header wins over the UA heuristic. */
+    public String device(String override) {
+        return (override != null && !override.isBlank()) ? override.trim() : device;
+    }
+}
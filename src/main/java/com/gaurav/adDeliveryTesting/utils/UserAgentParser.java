@@ -1,42 +1,72 @@
 package com.gaurav.adDeliveryTesting.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * UA -> OS / browser / device in one pass: every token below goes into one {@link AsciiTokenMatcher}
+ * and the classes are derived from the resulting bit mask (same precedence as the old per-field
+ * contains() chains). Results are cached per UA string; real traffic has a few thousand distinct
+ * UAs, so almost every request is a cache hit.
+ */
 @Service
 public class UserAgentParser {
 
+    // bit positions in the matcher's result
+    private static final int WINDOWS = 0, MACINTOSH = 1, MAC_OS = 2, ANDROID = 3, IPHONE = 4, IPAD = 5, IOS = 6,
+            SMARTTV = 7, HBBTV = 8, TIZEN = 9, WEBOS = 10, EDG = 11, CHROME = 12, FIREFOX = 13, SAFARI = 14;
+
+    private static final AsciiTokenMatcher TOKENS = new AsciiTokenMatcher(
+            "windows", "macintosh", "mac os", "android", "iphone", "ipad", "ios",
+            "smarttv", "hbbtv", "tizen", "webos", "edg", "chrome", "firefox", "safari");  // "edg" also covers "edge"
+
+    private static final long MAC = bit(MACINTOSH) | bit(MAC_OS);
+    private static final long IOS_ANY = bit(IPHONE) | bit(IPAD) | bit(IOS);
+    private static final long TV = bit(SMARTTV) | bit(HBBTV) | bit(TIZEN) | bit(WEBOS);
+    private static final long HANDHELD = bit(IPHONE) | bit(IPAD) | bit(ANDROID);  // tablets count as Mobile
+
+    // longer strings are junk / abuse; classify them but don't let them into the cache
+    private static final int MAX_CACHED_LENGTH = 1024;
+
+    private final Cache<String, UserAgentInfo> cache;
+
+    public UserAgentParser() {
+        this(10_000);
+    }
+
+    @Autowired
+    public UserAgentParser(@Value("${adserve.ua.cache.size:10000}") long cacheSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /** Cached classification; {@link UserAgentInfo#UNKNOWN} for a missing UA. */
+    public UserAgentInfo classify(String userAgent) {
+        if (userAgent == null) return UserAgentInfo.UNKNOWN;
+        if (userAgent.length() > MAX_CACHED_LENGTH) return parse(userAgent);
+        return cache.get(userAgent, UserAgentParser::parse);
+    }
+
+    /** Uncached single-pass classification. */
+    public static UserAgentInfo parse(String userAgent) {
+        if (userAgent == null) return UserAgentInfo.UNKNOWN;
+        long m = TOKENS.scan(userAgent);
+        return new UserAgentInfo(os(m), browser(m), device(m));
+    }
+
     public String parseOS(String userAgent) {
-        if (userAgent == null) return "Others";
-        String ua = userAgent.toLowerCase();
-        if (ua.contains("windows")) return "Windows";
-        if (ua.contains("macintosh") || ua.contains("mac os")) return "Mac";
-        if (ua.contains("android")) return "Android";
-        if (ua.contains("iphone") || ua.contains("ipad") || ua.contains("ios")) return "iOS";
-        if (ua.contains("smarttv") || ua.contains("hbbtv") || ua.contains("tizen") || ua.contains("webos")) return "TV";
-        return "Others";
+        return classify(userAgent).os();
     }
 
     public String parseBrowser(String userAgent) {
-        if (userAgent == null) return "Others";
-        String ua = userAgent.toLowerCase();
-        if (ua.contains("edg") || ua.contains("edge")) return "Edge";
-        if (ua.contains("chrome") && !ua.contains("edge") && !ua.contains("edg")) return "Chrome";
-        if (ua.contains("firefox")) return "Firefox";
-        if (ua.contains("safari") && !ua.contains("chrome")) return "Safari";
-        return "Others";
+        return classify(userAgent).browser();
     }
 
     /** Prefer explicit X-Device header; fallback to UA heuristic. */
     public String parseDevice(String userAgent, String override) {
-        if (override != null && !override.isBlank()) return override.trim();
-        if (userAgent == null) return "Desktop";
-        String ua = userAgent.toLowerCase();
-        if (ua.contains("iphone") || ua.contains("android") && ua.contains("mobile")) return "Mobile";
-        if (ua.contains("ipad") || (ua.contains("android") && !ua.contains("mobile"))) return "Mobile"; // treat tablets as Mobile unless you store "Tablet"
-        if (ua.contains("smarttv") || ua.contains("hbbtv") || ua.contains("tizen") || ua.contains("webos")) return "TV";
-        // Default desktop class; if you store "Laptop" rather than "Desktop", map here:
-        if (ua.contains("macintosh") || ua.contains("windows") || ua.contains("linux")) return "Desktop";
-        return "Desktop";
+        return classify(userAgent).device(override);
     }
 
     public String parseLanguage(String acceptedLanguage) {
@@ -45,4 +75,32 @@ public class UserAgentParser {
         String first = acceptedLanguage.split(",")[0].trim();
         return first.isEmpty() ? "Others" : first;
     }
-}
\ No newline at end of file
+
+    private static String os(long m) {
+        if (has(m, WINDOWS)) return "Windows";
+        if ((m & MAC) != 0) return "Mac";
+        if (has(m, ANDROID)) return "Android";
+        if ((m & IOS_ANY) != 0) return "iOS";
+        if ((m & TV) != 0) return "TV";
+        return "Others";
+    }
+
+    private static String browser(long m) {
+        if (has(m, EDG)) return "Edge";
+        if (has(m, CHROME)) return "Chrome";
+        if (has(m, FIREFOX)) return "Firefox";
+        if (has(m, SAFARI)) return "Safari";  // Chrome UAs also say Safari, handled above
+        return "Others";
+    }
+
+    private static String device(long m) {
+        if ((m & HANDHELD) != 0) return "Mobile";
+        if ((m & TV) != 0) return "TV";
+        // Default desktop class; if you store "Laptop" rather than "Desktop", map here
+        return "Desktop";
+    }
+
+    private static boolean has(long m, int token) { return (m & bit(token)) != 0; }
+
+    private static long bit(int token) { return 1L << token; }
+}
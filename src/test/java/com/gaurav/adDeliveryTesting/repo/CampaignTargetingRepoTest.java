@@ -0,0 +1,152 @@
+package com.gaurav.adDeliveryTesting.repo;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link CampaignTargetingRepo} on a real Postgres: one snapshot per campaign, with every filter
+ * collection exactly as stored however many the others hold (no cartesian product).
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CampaignTargetingRepoTest {
+
+    @Container
+    private static final GenericContainer<?> POSTGRES =
+            new GenericContainer<>(DockerImageName.parse("postgres:16-alpine"))
+                    .withEnv("POSTGRES_PASSWORD", "test")
+                    .withExposedPorts(5432)
+                    .waitingFor(Wait.forLogMessage(".*database system is ready to accept connections.*", 2));
+
+    private JdbcTemplate jdbc;
+    private CampaignTargetingRepo repo;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:postgresql://" + POSTGRES.getHost() + ":" + POSTGRES.getMappedPort(5432) + "/postgres",
+                "postgres", "test");
+        jdbc = new JdbcTemplate(ds);
+        repo = new CampaignTargetingRepo(jdbc, new DataSourceTransactionManager(ds));
+
+        jdbc.execute("DROP SCHEMA public CASCADE; CREATE SCHEMA public");
+        jdbc.execute("""
+            CREATE TABLE campaign (campaign_id int PRIMARY KEY, delivery_link text, total_budget numeric(19, 2),
+                                   remaining_budget numeric(19, 2), bidding_rate numeric(19, 2));
+            CREATE TABLE campaign_filters (id serial PRIMARY KEY, campaign_id int NOT NULL UNIQUE);
+            CREATE TABLE campaign_countries (filter_id int, country text);
+            CREATE TABLE campaign_languages (filter_id int, language text);
+            CREATE TABLE campaign_devices (filter_id int, device text);
+            CREATE TABLE campaign_oses (filter_id int, os text);
+            CREATE TABLE campaign_browsers (filter_id int, browser text);
+            CREATE TABLE campaign_iab_category_filter (filter_id int, iab_category text);
+            CREATE TABLE campaign_allowed_domain (filter_id int, allowed_domain text);
+            CREATE TABLE campaign_allowed_ip (filter_id int, allowed_ip text);
+            CREATE TABLE campaign_excluded_domain (filter_id int, excluded_domain text);
+            CREATE TABLE campaign_excluded_ip (filter_id int, excluded_ip text);
+            """);
+
+        jdbc.update("INSERT INTO campaign VALUES (1, 'https://ads.example/1', 100.00, 50.00, 0.25)");
+        jdbc.update("INSERT INTO campaign_filters (campaign_id) VALUES (1)");
+        filter(1, "campaign_countries", "US", "DE", "AT");
+        filter(1, "campaign_languages", "en", "de");
+        filter(1, "campaign_devices", "Mobile", "Desktop");
+        filter(1, "campaign_oses", "iOS", "Android", "Windows");
+        filter(1, "campaign_browsers", "Chrome", "Safari");
+        filter(1, "campaign_iab_category_filter", "IAB1");
+        filter(1, "campaign_allowed_domain", "*.example.com", "example.org");
+        filter(1, "campaign_allowed_ip", "10.0.0.0/8");
+        filter(1, "campaign_excluded_domain", "spam.example");
+        filter(1, "campaign_excluded_ip", "10.1.0.0/16", "10.2.0.0/16");
+
+        jdbc.update("INSERT INTO campaign VALUES (2, 'https://ads.example/2', 10.00, 9.99, 1.50)"); // no filters row
+    }
+
+    @Test
+    void everyCollectionComesBackOnceAndWhole() {
+        List<CampaignTargeting> found = repo.findByIds(List.of(1));
+        assertEquals(1, found.size());
+
+        CampaignTargeting t = found.get(0);
+        assertEquals("https://ads.example/1", t.deliveryLink());
+        assertEquals(25, t.bidCents());
+        assertEquals(5_000, t.remainingCents());
+        assertTrue(t.hasFilters());
+        assertValues(t.countries(), "US", "DE", "AT");
+        assertValues(t.languages(), "en", "de");
+        assertValues(t.devices(), "Mobile", "Desktop");
+        assertValues(t.oses(), "iOS", "Android", "Windows");
+        assertValues(t.browsers(), "Chrome", "Safari");
+        assertValues(t.iabCategories(), "IAB1");
+        assertValues(t.allowedDomains(), "*.example.com", "example.org");
+        assertValues(t.allowedIps(), "10.0.0.0/8");
+        assertValues(t.excludedDomains(), "spam.example");
+        assertValues(t.excludedIps(), "10.1.0.0/16", "10.2.0.0/16");
+    }
+
+    @Test
+    void campaignWithoutFiltersHasEmptyLists() {
+        CampaignTargeting t = repo.findByIds(List.of(2)).get(0);
+        assertFalse(t.hasFilters());
+        assertEquals(150, t.bidCents());
+        assertEquals(999, t.remainingCents());
+        assertEquals(List.of(), t.countries());
+        assertEquals(List.of(), t.excludedIps());
+    }
+
+    @Test
+    void findByIdsSkipsUnknownIds() {
+        List<CampaignTargeting> found = repo.findByIds(List.of(2, 1, 404));
+        assertEquals(2, found.size());
+        assertEquals(Set.of(1, 2), Set.of(found.get(0).campaignId(), found.get(1).campaignId()));
+        assertEquals(List.of(), repo.findByIds(List.of(404)));
+        assertEquals(List.of(), repo.findByIds(List.of()));
+    }
+
+    @Test
+    void streamAllVisitsEveryCampaignOnceAcrossFetches() {
+        for (int id = 3; id <= 7; id++) {
+            jdbc.update("INSERT INTO campaign VALUES (?, 'l', 10.00, 10.00, 0.10)", id);
+            jdbc.update("INSERT INTO campaign_filters (campaign_id) VALUES (?)", id);
+            filter(id, "campaign_countries", "US", "DE");
+            filter(id, "campaign_oses", "iOS", "Android");
+        }
+
+        Map<Integer, CampaignTargeting> seen = new TreeMap<>();
+        repo.streamAll(2, t -> assertNull(seen.put(t.campaignId(), t), "twice: " + t.campaignId()));
+
+        assertEquals(Set.of(1, 2, 3, 4, 5, 6, 7), seen.keySet());
+        assertEquals(7, repo.count());
+        assertValues(seen.get(5).countries(), "US", "DE");
+        assertValues(seen.get(5).oses(), "iOS", "Android");
+        assertValues(seen.get(1).countries(), "US", "DE", "AT");
+    }
+
+    private void filter(int campaignId, String table, String... values) {
+        Integer filterId = jdbc.queryForObject("SELECT id FROM campaign_filters WHERE campaign_id = ?", Integer.class, campaignId);
+        for (String v : values) jdbc.update("INSERT INTO " + table + " VALUES (?, ?)", filterId, v);
+    }
+
+    private static void assertValues(List<String> actual, String... expected) {
+        assertEquals(expected.length, actual.size(), "no duplicates: " + actual);
+        assertEquals(Set.of(expected), Set.copyOf(actual));
+    }
+}
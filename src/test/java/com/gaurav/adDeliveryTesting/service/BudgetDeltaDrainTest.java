@@ -0,0 +1,109 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** {@link BudgetDeltaFlusher#DRAIN_LUA} against a real Redis. */
+@Testcontainers(disabledWithoutDocker = true)
+class BudgetDeltaDrainTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private Jedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void drainsPositiveDeltasAndParksThemUnderTheBatch() {
+        redis.set(RedisKeys.delta(1), "150");
+        redis.set(RedisKeys.delta(2), "0");
+        redis.set(RedisKeys.delta(3), "75");
+        redis.sadd(RedisKeys.TOUCHED, "1", "2", "3", "4"); // 4 has no delta key at all
+
+        List<Object> res = drain(10, "b1");
+
+        assertEquals(4L, res.get(0), "every popped id counts, drained or not");
+        assertEquals(Map.of("1", "150", "3", "75"), pairs(res));
+        assertEquals("0", redis.get(RedisKeys.delta(1)));
+        assertEquals("0", redis.get(RedisKeys.delta(3)));
+        assertFalse(redis.exists(RedisKeys.TOUCHED));
+
+        Map<String, String> parked = new TreeMap<>();
+        for (String p : redis.hget(RedisKeys.FLUSH_PENDING, "b1").split(",")) {
+            parked.put(p.substring(0, p.indexOf(':')), p.substring(p.indexOf(':') + 1));
+        }
+        assertEquals(pairs(res), parked, "the replay sees exactly what was returned");
+    }
+
+    @Test
+    void popsAtMostTheBatchSize() {
+        for (int id = 1; id <= 5; id++) {
+            redis.set(RedisKeys.delta(id), "10");
+            redis.sadd(RedisKeys.TOUCHED, Integer.toString(id));
+        }
+        List<Object> first = drain(3, "b1");
+        assertEquals(3L, first.get(0));
+        assertEquals(2, redis.scard(RedisKeys.TOUCHED));
+
+        List<Object> second = drain(3, "b2");
+        assertEquals(2L, second.get(0), "fewer than asked: the set is empty");
+        assertEquals(5, pairs(first).size() + pairs(second).size());
+    }
+
+    @Test
+    void spendAfterTheDrainStartsAFreshDelta() {
+        redis.set(RedisKeys.delta(7), "40");
+        redis.sadd(RedisKeys.TOUCHED, "7");
+        drain(10, "b1");
+
+        redis.incrBy(RedisKeys.delta(7), 25);
+        redis.sadd(RedisKeys.TOUCHED, "7");
+        assertEquals(Map.of("7", "25"), pairs(drain(10, "b2")));
+        assertEquals("7:40", redis.hget(RedisKeys.FLUSH_PENDING, "b1"), "b1 is untouched until its commit removes it");
+    }
+
+    @Test
+    void nothingDrainedNothingParked() {
+        redis.set(RedisKeys.delta(9), "0");
+        redis.sadd(RedisKeys.TOUCHED, "9");
+        assertEquals(List.of(1L), drain(10, "b1"));
+        assertEquals(List.of(0L), drain(10, "b2"));
+        assertFalse(redis.exists(RedisKeys.FLUSH_PENDING));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> drain(int max, String batchId) {
+        return (List<Object>) redis.eval(BudgetDeltaFlusher.DRAIN_LUA,
+                List.of(RedisKeys.TOUCHED, RedisKeys.FLUSH_PENDING), List.of(Integer.toString(max), batchId));
+    }
+
+    private static Map<String, String> pairs(List<Object> res) {
+        Map<String, String> out = new TreeMap<>();
+        for (int i = 1; i + 1 < res.size(); i += 2) out.put(res.get(i).toString(), res.get(i + 1).toString());
+        return out;
+    }
+}
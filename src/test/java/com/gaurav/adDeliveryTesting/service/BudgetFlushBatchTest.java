@@ -0,0 +1,132 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * {@link BudgetDeltaFlusher} end to end on a real Redis and Postgres: deltas drained into
+ * campaign.remaining_budget, and a batch left pending by a crash replayed without debiting twice.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class BudgetFlushBatchTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    @Container
+    private static final GenericContainer<?> POSTGRES =
+            new GenericContainer<>(DockerImageName.parse("postgres:16-alpine"))
+                    .withEnv("POSTGRES_PASSWORD", "test")
+                    .withExposedPorts(5432)
+                    .waitingFor(Wait.forLogMessage(".*database system is ready to accept connections.*", 2));
+
+    private Jedis redis;
+    private RedissonClient redisson;
+    private JdbcTemplate jdbc;
+    private BudgetDeltaFlusher flusher;
+
+    @BeforeEach
+    void setUp() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://" + REDIS.getHost() + ":" + REDIS.getMappedPort(6379));
+        redisson = Redisson.create(config);
+
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:postgresql://" + POSTGRES.getHost() + ":" + POSTGRES.getMappedPort(5432) + "/postgres",
+                "postgres", "test");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP TABLE IF EXISTS campaign, budget_flush_batch");
+        jdbc.execute("CREATE TABLE campaign (campaign_id int PRIMARY KEY, remaining_budget numeric(19, 2))");
+        // as IndexCreator creates it
+        jdbc.execute("CREATE TABLE budget_flush_batch (batch_id text PRIMARY KEY, applied_at timestamptz NOT NULL DEFAULT now())");
+        jdbc.update("INSERT INTO campaign VALUES (1, 10.00), (2, 20.00), (3, 30.00)");
+
+        flusher = new BudgetDeltaFlusher(new RedisScriptRegistry(redisson), redisson, new RedisProperties(), ds);
+    }
+
+    @AfterEach
+    void close() {
+        redisson.shutdown();
+        redis.close();
+    }
+
+    @Test
+    void drainedDeltasDebitTheDb() {
+        spend(1, 150);
+        spend(3, 75);
+        redis.sadd(RedisKeys.TOUCHED, "2"); // touched, nothing to flush
+
+        flusher.flushDeltas();
+
+        assertEquals(new BigDecimal("8.50"), remaining(1));
+        assertEquals(new BigDecimal("20.00"), remaining(2));
+        assertEquals(new BigDecimal("29.25"), remaining(3));
+        assertEquals("0", redis.get(RedisKeys.delta(1)));
+        assertFalse(redis.exists(RedisKeys.FLUSH_PENDING), "removed after commit");
+        assertEquals(1, batches());
+    }
+
+    /** Crash after commit, before the pending entry was removed: the replay is a no-op. */
+    @Test
+    void replayOfACommittedBatchDoesNotDebitTwice() {
+        spend(1, 150);
+        flusher.flushDeltas();
+        String batchId = jdbc.queryForObject("SELECT batch_id FROM budget_flush_batch", String.class);
+        redis.hset(RedisKeys.FLUSH_PENDING, batchId, "1:150");
+
+        flusher.flushDeltas();
+
+        assertEquals(new BigDecimal("8.50"), remaining(1));
+        assertFalse(redis.exists(RedisKeys.FLUSH_PENDING));
+        assertEquals(1, batches());
+    }
+
+    /** Crash after the drain, before commit: the replay applies the batch exactly once. */
+    @Test
+    void replayOfAnUncommittedBatchAppliesOnce() {
+        redis.hset(RedisKeys.FLUSH_PENDING, "lost-batch", "2:500,3:25");
+        spend(3, 100); // served since: flushed under a new batch id
+
+        flusher.flushDeltas();
+        flusher.flushDeltas();
+
+        assertEquals(new BigDecimal("15.00"), remaining(2));
+        assertEquals(new BigDecimal("28.75"), remaining(3));
+        assertEquals(2, batches());
+    }
+
+    private void spend(int id, long cents) {
+        redis.incrBy(RedisKeys.delta(id), cents);
+        redis.sadd(RedisKeys.TOUCHED, Integer.toString(id));
+    }
+
+    private BigDecimal remaining(int id) {
+        return jdbc.queryForObject("SELECT remaining_budget FROM campaign WHERE campaign_id = ?", BigDecimal.class, id);
+    }
+
+    private int batches() {
+        return jdbc.queryForObject("SELECT count(*) FROM budget_flush_batch", Integer.class);
+    }
+}
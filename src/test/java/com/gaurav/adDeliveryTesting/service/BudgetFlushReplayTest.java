@@ -0,0 +1,108 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * {@link BudgetDeltaFlusher#TAKE_LUA} on a real Redis, walked through the cluster-mode flush steps
+ * (take, apply, release the inflight field, remove the pending entry) with a crash between them.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class BudgetFlushReplayTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private static final String DELTA = RedisKeys.delta(42);
+    private static final String INFLIGHT = RedisKeys.inflight(42);
+
+    private Jedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void takeParksTheDeltaUnderTheBatch() {
+        redis.set(DELTA, "100");
+        assertEquals(100, take("b1", false));
+        assertEquals("0", redis.get(DELTA));
+        assertEquals("100", redis.hget(INFLIGHT, "b1"));
+
+        redis.incrBy(DELTA, 40);
+        assertEquals(100, take("b1", false), "a second take for the same batch re-reads, it doesn't take more");
+        assertEquals("40", redis.get(DELTA));
+    }
+
+    @Test
+    void nothingToTake() {
+        assertEquals(0, take("b1", false));
+        redis.set(DELTA, "0");
+        assertEquals(0, take("b1", false));
+        assertFalse(redis.exists(INFLIGHT));
+    }
+
+    /** Crash after commit and release, before pending.fastRemove: the replay must not take new spend. */
+    @Test
+    void replayOfACommittedBatchLeavesFreshSpendAlone() {
+        redis.set(DELTA, "100");
+        assertEquals(100, take("b1", false));
+        // apply("b1") commits; the inflight field is released; the process dies before removing pending
+        redis.hdel(INFLIGHT, "b1");
+        redis.incrBy(DELTA, 40); // served since
+
+        assertEquals(0, take("b1", true), "b1 is in budget_flush_batch: a delta filed under it is never applied");
+        assertEquals("40", redis.get(DELTA));
+        assertNull(redis.hget(INFLIGHT, "b1"));
+
+        // the flusher re-marks 42 touched; the next batch picks the 40 up
+        assertEquals(40, take("b2", false));
+        assertEquals("0", redis.get(DELTA));
+    }
+
+    /** Crash before commit: the replay re-applies exactly what the batch took, under the same id. */
+    @Test
+    void replayOfAnUncommittedBatchReappliesWhatItTook() {
+        redis.set(DELTA, "100");
+        assertEquals(100, take("b1", false));
+        redis.incrBy(DELTA, 40);
+
+        assertEquals(100, take("b1", true));
+        assertEquals("40", redis.get(DELTA));
+        assertEquals("100", redis.hget(INFLIGHT, "b1"));
+    }
+
+    /** Crash between parking the ids in pending and taking this one: the delta stays for a later batch. */
+    @Test
+    void replayNeverTakesForAnIdTheBatchDidNotReach() {
+        redis.set(DELTA, "75");
+        assertEquals(0, take("b1", true));
+        assertEquals("75", redis.get(DELTA));
+        assertFalse(redis.exists(INFLIGHT));
+    }
+
+    private long take(String batchId, boolean replay) {
+        return (Long) redis.eval(BudgetDeltaFlusher.TAKE_LUA, List.of(DELTA, INFLIGHT),
+                List.of(batchId, replay ? "1" : "0"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * {@link BudgetLeaseService} with its grant/settle scripts run on a real Redis: cents only move
+ * between 'remaining', 'leased', the local lease and campaign:delta:{id}, and are never lost.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class BudgetLeaseAccountingTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private static final int ID = 42;
+    private static final String BUDGET = RedisKeys.budget(ID);
+
+    private Jedis redis;
+    private BudgetLeaseService leases;
+
+    @BeforeEach
+    void setUp() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+
+        // register() hands back scripts that EVAL the registered source through Jedis
+        RedisScriptRegistry scripts = mock(RedisScriptRegistry.class, reg -> {
+            if (!reg.getMethod().getName().equals("register")) return null;
+            String source = reg.getArgument(1);
+            return mock(RedisScriptRegistry.Script.class, call -> {
+                if (!call.getMethod().getName().startsWith("eval")) return null;
+                Object[] raw = call.getRawArguments();
+                List<String> keys = ((List<?>) raw[2]).stream().map(String::valueOf).toList();
+                List<String> args = Arrays.stream((Object[]) raw[3]).map(String::valueOf).toList();
+                Object res = redis.eval(source, keys, args);
+                return call.getMethod().getName().equals("evalAsync") ? CompletableFuture.completedFuture(res) : res;
+            });
+        });
+        TouchedCampaigns touched = mock(TouchedCampaigns.class, call -> {
+            if (!call.getMethod().getName().equals("spendKeys")) return null;
+            int id = call.getArgument(0);
+            return List.<Object>of(RedisKeys.budget(id), RedisKeys.delta(id), RedisKeys.TOUCHED);
+        });
+
+        leases = new BudgetLeaseService(scripts, touched);
+        ReflectionTestUtils.setField(leases, "multiplier", 100L);
+        ReflectionTestUtils.setField(leases, "idleMs", 60_000L);
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void grantSpendSettleAndReturnConserveTheBudget() {
+        long initial = 100_000, bid = 10;
+        redis.hset(BUDGET, "remaining", Long.toString(initial));
+
+        assertEquals(1, leases.trySpend(ID, bid).code);
+        assertEquals(initial - 1_000, remaining(), "one slice of multiplier x bid");
+        assertEquals(1_000, leased());
+        assertTrue(leases.hasHeadroom(ID, bid));
+
+        long spent = bid;
+        for (int i = 0; i < 250; i++) {
+            assertEquals(1, leases.trySpend(ID, bid).code);
+            spent += bid;
+        }
+        assertEquals(initial, remaining() + leased(), "nothing settled yet: Redis still holds every cent");
+        assertEquals("0", delta());
+
+        leases.settle();
+        assertEquals(Long.toString(spent), delta());
+        assertTrue(redis.sismember(RedisKeys.TOUCHED, Integer.toString(ID)));
+        assertEquals(initial, remaining() + leased() + spent);
+
+        leases.returnAll();
+        assertEquals(0, leased());
+        assertEquals(initial - spent, remaining());
+        assertFalse(leases.hasHeadroom(ID, bid));
+    }
+
+    @Test
+    void lastSliceReportsExhaustion() {
+        redis.hset(BUDGET, "remaining", "95");
+
+        for (int i = 0; i < 8; i++) assertEquals(1, leases.trySpend(ID, 10).code);
+        assertEquals(2, leases.trySpend(ID, 10).code, "5 cents left locally and none in Redis");
+        assertEquals(0, leases.trySpend(ID, 10).code);
+        assertEquals(0, remaining());
+        assertEquals(95, leased());
+
+        leases.settle();
+        assertEquals("90", delta());
+        assertEquals(5, leased(), "the unspent 5 stay leased until the lease is returned");
+
+        leases.returnAll();
+        assertEquals(5, remaining());
+        assertEquals(0, leased());
+    }
+
+    @Test
+    void idleLeasesGoBack() {
+        redis.hset(BUDGET, "remaining", "10000");
+        leases.trySpend(ID, 10);
+        ReflectionTestUtils.setField(leases, "idleMs", -1L);
+
+        leases.settle();
+        assertEquals(9_990, remaining());
+        assertEquals(0, leased());
+        assertEquals("10", delta());
+
+        leases.settle(); // the dropped lease is settled once more, with nothing left in it
+        assertEquals(9_990, remaining());
+        assertEquals("10", delta());
+    }
+
+    @Test
+    void noBudgetHashNoSpend() {
+        assertEquals(0, leases.trySpend(ID, 10).code);
+        assertFalse(redis.exists(BUDGET));
+        leases.settle();
+        assertFalse(redis.exists(RedisKeys.delta(ID)));
+    }
+
+    private long remaining() {
+        return Long.parseLong(redis.hget(BUDGET, "remaining"));
+    }
+
+    private long leased() {
+        String v = redis.hget(BUDGET, "leased");
+        return v == null ? 0 : Long.parseLong(v);
+    }
+
+    private String delta() {
+        String v = redis.get(RedisKeys.delta(ID));
+        return v == null ? "0" : v;
+    }
+}
@@ -0,0 +1,205 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BudgetShards#SPEND_FN} and {@link BudgetShards#REBALANCE_LUA} against a real Redis: money
+ * is only ever moved between 'remaining' and the sub-counters or spent, never created or lost,
+ * and draining shards can't spend more than the budget.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class BudgetShardsScriptTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private static final String BUDGET = RedisKeys.budget(42);
+    private static final int MAX_SHARDS = 8;
+
+    // spendBudget() as the serve scripts call it; nil comes back as false -> null
+    private static final String SPEND = BudgetShards.SPEND_FN + """
+local code, value = spendBudget(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2]))
+if not code then return false end
+return {code, value}
+""";
+
+    private Jedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = jedis();
+        redis.flushAll();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void spendAndRebalanceConserveTheBudget() {
+        long initial = 1_000_000;
+        redis.hset(BUDGET, "remaining", Long.toString(initial));
+        assertEquals(initial, rebalance(MAX_SHARDS, 0));
+        assertEquals("8", redis.hget(BUDGET, "shards"));
+        assertEquals(initial, total());
+
+        Random rnd = new Random(1);
+        int[] shardCounts = {8, 5, 3, 1, 8, 2};
+        long spent = 0, toppedUp = 0;
+        for (int i = 1; i <= 3_000; i++) {
+            long bid = 1 + rnd.nextInt(500);
+            List<Long> r = spend(bid, rnd.nextInt(1 << 30));
+            assertNotNull(r, "budget left, spend must succeed");
+            spent += bid;
+
+            if (i % 250 == 0) {
+                // outage reconcile / top-up lands on 'remaining' while the campaign is sharded
+                redis.hincrBy(BUDGET, "remaining", 1_000);
+                toppedUp += 1_000;
+            }
+            if (i % 100 == 0) {
+                long pooled = rebalance(shardCounts[(i / 100) % shardCounts.length], 0);
+                assertEquals(initial + toppedUp - spent, pooled, "rebalance pools exactly what is left");
+            }
+            assertEquals(initial + toppedUp - spent, total(), "after spend " + i);
+        }
+    }
+
+    @Test
+    void drainingShardsNeverOverspends() {
+        long initial = 10_000, bid = 7;
+        redis.hset(BUDGET, "remaining", Long.toString(initial));
+        rebalance(MAX_SHARDS, 0); // 1250 per sub-counter = 178 bids + 4 cents
+
+        long spent = 0;
+        int exhausted = 0;
+        List<Long> last = null;
+        for (int seed = 0; seed < 10_000; seed++) {
+            List<Long> r = spend(bid, seed);
+            if (r == null) break;
+            spent += bid;
+            if (r.get(0) == 2) exhausted++;
+            last = r;
+        }
+        assertEquals(8 * 178 * bid, spent);
+        assertEquals(List.of(2L, 0L), last, "the spend that drains the last sub-counter reports exhaustion");
+        assertEquals(1, exhausted, "earlier sub-counters ran dry while others still had budget");
+        for (int i = 0; i < MAX_SHARDS; i++) {
+            long sub = Long.parseLong(redis.get(BUDGET + ":s" + i));
+            assertTrue(sub >= 0 && sub < bid, "s" + i + " = " + sub);
+        }
+        assertEquals(initial - spent, total());
+
+        // back on the plain counter the tail is spent exactly
+        rebalance(1, 0);
+        assertNull(redis.hget(BUDGET, "shards"));
+        while (spend(bid, 0) != null) spent += bid;
+        assertEquals(initial - spent, Long.parseLong(redis.hget(BUDGET, "remaining")));
+        assertTrue(initial - spent < bid);
+    }
+
+    @Test
+    void concurrentSpendsNeverOverspend() throws Exception {
+        long initial = 100_000, bid = 13;
+        redis.hset(BUDGET, "remaining", Long.toString(initial));
+        rebalance(MAX_SHARDS, 0);
+
+        List<Future<Long>> workers = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(8)) {
+            for (int w = 0; w < 8; w++) {
+                int seed0 = w;
+                workers.add(pool.submit(() -> {
+                    long mine = 0;
+                    try (Jedis own = jedis()) {
+                        for (int seed = seed0; ; seed += 8) {
+                            Object r = own.eval(SPEND, List.of(BUDGET), List.of(Long.toString(bid), Integer.toString(seed)));
+                            if (r == null) return mine;
+                            mine += bid;
+                        }
+                    }
+                }));
+            }
+        }
+        long spent = 0;
+        for (Future<Long> f : workers) spent += f.get();
+        assertTrue(spent <= initial);
+        assertEquals(initial - spent, total());
+        assertTrue(total() < MAX_SHARDS * bid + MAX_SHARDS, "left " + total());
+    }
+
+    @Test
+    void fewerSubCountersAsTheBudgetShrinks() {
+        redis.hset(BUDGET, "remaining", "10000");
+        rebalance(MAX_SHARDS, 700); // 10000 / 700 = 14 >= 8
+        assertEquals("8", redis.hget(BUDGET, "shards"));
+
+        redis.set(BUDGET + ":s0", "3000");
+        for (int i = 1; i < MAX_SHARDS; i++) redis.set(BUDGET + ":s" + i, "0");
+        redis.hset(BUDGET, "remaining", "1");
+        assertEquals(3001, rebalance(MAX_SHARDS, 700));
+        assertEquals("4", redis.hget(BUDGET, "shards"));
+        assertEquals("750", redis.get(BUDGET + ":s3"));
+        assertFalse(redis.exists(BUDGET + ":s4"), "sub-counters past the new count are dropped");
+        assertEquals("1", redis.hget(BUDGET, "remaining"), "odd cents stay on remaining");
+
+        redis.set(BUDGET + ":s0", "0");
+        assertEquals(2251, rebalance(MAX_SHARDS, 2_000)); // one sub-counter's worth: plain counter again
+        assertNull(redis.hget(BUDGET, "shards"));
+        assertFalse(redis.exists(BUDGET + ":s0"));
+        assertEquals("2251", redis.hget(BUDGET, "remaining"));
+    }
+
+    @Test
+    void noBudgetHashIsNotSpendable() {
+        assertEquals(-1, rebalance(MAX_SHARDS, 0));
+        assertNull(spend(5, 1));
+        assertFalse(redis.exists(BUDGET));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> spend(long bid, int seed) {
+        return (List<Long>) redis.eval(SPEND, List.of(BUDGET), List.of(Long.toString(bid), Integer.toString(seed)));
+    }
+
+    private long rebalance(int shards, long minEach) {
+        return (Long) redis.eval(BudgetShards.REBALANCE_LUA, List.of(BUDGET),
+                List.of(Integer.toString(shards), Long.toString(minEach)));
+    }
+
+    /** 'remaining' plus every sub-counter that exists. */
+    private long total() {
+        String rem = redis.hget(BUDGET, "remaining");
+        long t = rem == null ? 0 : Long.parseLong(rem);
+        for (int i = 0; i < MAX_SHARDS; i++) {
+            String sub = redis.get(BUDGET + ":s" + i);
+            if (sub != null) t += Long.parseLong(sub);
+        }
+        return t;
+    }
+
+    private static Jedis jedis() {
+        return new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+    }
+}
@@ -0,0 +1,147 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.bootstrap.ChangeCaptureInstaller;
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import com.gaurav.adDeliveryTesting.repo.CampaignTargetingRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * {@link CampaignSnapshotService} on a real Postgres with change capture installed: a snapshot
+ * written, the DB changed behind it, and the warmup load catching up through the outbox.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CampaignSnapshotServiceTest {
+
+    @Container
+    private static final GenericContainer<?> POSTGRES =
+            new GenericContainer<>(DockerImageName.parse("postgres:16-alpine"))
+                    .withEnv("POSTGRES_PASSWORD", "test")
+                    .withExposedPorts(5432)
+                    .waitingFor(Wait.forLogMessage(".*database system is ready to accept connections.*", 2));
+
+    @TempDir
+    Path dir;
+
+    private JdbcTemplate jdbc;
+    private CampaignTargetingRepo repo;
+    private CampaignSnapshotService snapshots;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:postgresql://" + POSTGRES.getHost() + ":" + POSTGRES.getMappedPort(5432) + "/postgres",
+                "postgres", "test");
+        jdbc = new JdbcTemplate(ds);
+        DataSourceTransactionManager txm = new DataSourceTransactionManager(ds);
+
+        jdbc.execute("DROP SCHEMA public CASCADE; CREATE SCHEMA public");
+        jdbc.execute("""
+            CREATE TABLE campaign (campaign_id int PRIMARY KEY, delivery_link text, total_budget numeric(19, 2),
+                                   remaining_budget numeric(19, 2), bidding_rate numeric(19, 2));
+            CREATE TABLE campaign_filters (id serial PRIMARY KEY, campaign_id int NOT NULL UNIQUE);
+            CREATE TABLE campaign_countries (filter_id int, country text);
+            CREATE TABLE campaign_languages (filter_id int, language text);
+            CREATE TABLE campaign_devices (filter_id int, device text);
+            CREATE TABLE campaign_oses (filter_id int, os text);
+            CREATE TABLE campaign_browsers (filter_id int, browser text);
+            CREATE TABLE campaign_iab_category_filter (filter_id int, iab_category text);
+            CREATE TABLE campaign_allowed_domain (filter_id int, allowed_domain text);
+            CREATE TABLE campaign_allowed_ip (filter_id int, allowed_ip text);
+            CREATE TABLE campaign_excluded_domain (filter_id int, excluded_domain text);
+            CREATE TABLE campaign_excluded_ip (filter_id int, excluded_ip text);
+            """);
+        new ChangeCaptureInstaller(jdbc, txm).install();
+
+        for (int id = 1; id <= 3; id++) {
+            jdbc.update("INSERT INTO campaign VALUES (?, ?, 100.00, 50.00, 0.25)", id, "https://ads.example/" + id);
+            jdbc.update("INSERT INTO campaign_filters (campaign_id) VALUES (?)", id);
+            jdbc.update("INSERT INTO campaign_countries SELECT id, 'US' FROM campaign_filters WHERE campaign_id = ?", id);
+        }
+        processOutbox();
+
+        repo = new CampaignTargetingRepo(jdbc, txm);
+        snapshots = new CampaignSnapshotService(repo, jdbc, txm, null, dir.resolve("snap/campaigns.snap").toString());
+        ReflectionTestUtils.setField(snapshots, "maxAgeHours", 12L);
+    }
+
+    @Test
+    void unchangedDbLoadsTheSnapshotAsWritten() throws IOException {
+        assertEquals(3, snapshots.write());
+        assertEquals(byId(dbRows()), byId(snapshots.loadCurrent()));
+        try (Stream<Path> files = Files.list(dir.resolve("snap"))) {
+            assertEquals(List.of(dir.resolve("snap/campaigns.snap")), files.toList(), "the temp file was renamed into place");
+        }
+    }
+
+    @Test
+    void changesSinceTheSnapshotAreAppliedOnLoad() throws IOException {
+        snapshots.write();
+
+        jdbc.update("UPDATE campaign SET bidding_rate = 0.40 WHERE campaign_id = 1");
+        jdbc.update("INSERT INTO campaign_countries SELECT id, 'DE' FROM campaign_filters WHERE campaign_id = 3");
+        jdbc.update("DELETE FROM campaign_countries WHERE filter_id = (SELECT id FROM campaign_filters WHERE campaign_id = 2)");
+        jdbc.update("DELETE FROM campaign_filters WHERE campaign_id = 2");
+        jdbc.update("DELETE FROM campaign WHERE campaign_id = 2");
+        jdbc.update("INSERT INTO campaign VALUES (4, 'https://ads.example/4', 10.00, 10.00, 0.10)");
+        processOutbox(); // already handled by the listener: still newer than the snapshot
+
+        Map<Integer, CampaignTargeting> loaded = byId(snapshots.loadCurrent());
+        assertEquals(byId(dbRows()), loaded);
+        assertEquals(List.of(1, 3, 4), List.copyOf(loaded.keySet()));
+        assertEquals(40, loaded.get(1).bidCents());
+        assertEquals(Set.of("US", "DE"), Set.copyOf(loaded.get(3).countries()));
+    }
+
+    @Test
+    void unusableSnapshotsLoadNothing() throws IOException {
+        assertNull(snapshots.loadCurrent(), "none written yet");
+
+        snapshots.write();
+        ReflectionTestUtils.setField(snapshots, "maxAgeHours", -1L);
+        assertNull(snapshots.loadCurrent(), "too old");
+
+        ReflectionTestUtils.setField(snapshots, "maxAgeHours", 12L);
+        Path file = dir.resolve("snap/campaigns.snap");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+        assertNull(snapshots.loadCurrent(), "checksum mismatch");
+    }
+
+    private List<CampaignTargeting> dbRows() {
+        return repo.findByIds(jdbc.queryForList("SELECT campaign_id FROM campaign", Integer.class));
+    }
+
+    private static Map<Integer, CampaignTargeting> byId(List<CampaignTargeting> ts) {
+        Map<Integer, CampaignTargeting> out = new TreeMap<>();
+        for (CampaignTargeting t : ts) out.put(t.campaignId(), t);
+        return out;
+    }
+
+    private void processOutbox() {
+        jdbc.update("UPDATE campaign_change_outbox SET processed_at = clock_timestamp() WHERE processed_at IS NULL");
+    }
+}
@@ -0,0 +1,101 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** {@link CampaignSnapshot} write/read round trip and what makes a file unusable. */
+class CampaignSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static final List<CampaignTargeting> CAMPAIGNS = List.of(
+            new CampaignTargeting(1, "https://ads.example/1", 25, 5_000, true,
+                    List.of("US", "DE"), List.of("en"), List.of("Mobile"), List.of("iOS", "Android"),
+                    List.of("Chrome"), List.of("IAB1"), List.of("*.example.com"), List.of("10.0.0.0/8"),
+                    List.of("spam.example"), List.of("10.1.0.0/16")),
+            new CampaignTargeting(2, "https://ads.example/ü", 150, 0, true,
+                    List.of("US"), List.of(), List.of(), List.of("iOS"),
+                    List.of(), List.of(), List.of(), List.of(), List.of(), List.of()),
+            new CampaignTargeting(3, null, 1, 1, false,
+                    List.of(), List.of(), List.of(), List.of(), List.of(), List.of(),
+                    List.of(), List.of(), List.of(), List.of()));
+
+    @Test
+    void roundTrip() throws IOException {
+        Path file = dir.resolve("campaigns.snap");
+        CampaignSnapshot.write(file, 1_700_000_000_000L, 42, CAMPAIGNS);
+
+        CampaignSnapshot.Contents snap = CampaignSnapshot.read(file);
+        assertEquals(new CampaignSnapshot.Header(CampaignSnapshot.VERSION, 1_700_000_000_000L, 42, 3), snap.header());
+        assertEquals(CAMPAIGNS, snap.campaigns());
+        assertEquals(snap.header(), CampaignSnapshot.readHeader(file));
+
+        List<CampaignTargeting> read = snap.campaigns();
+        assertSame(read.get(0).countries().get(0), read.get(1).countries().get(0), "strings come from one dictionary");
+        assertSame(read.get(0).oses().get(0), read.get(1).oses().get(0));
+    }
+
+    @Test
+    void emptySnapshot() throws IOException {
+        Path file = dir.resolve("empty.snap");
+        CampaignSnapshot.write(file, 5, -1, List.of());
+
+        CampaignSnapshot.Contents snap = CampaignSnapshot.read(file);
+        assertEquals(new CampaignSnapshot.Header(CampaignSnapshot.VERSION, 5, -1, 0), snap.header());
+        assertEquals(List.of(), snap.campaigns());
+    }
+
+    @Test
+    void corruptFileIsRejected() throws IOException {
+        Path file = dir.resolve("campaigns.snap");
+        CampaignSnapshot.write(file, 1, 1, CAMPAIGNS);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> CampaignSnapshot.read(file));
+    }
+
+    @Test
+    void notASnapshot() throws IOException {
+        assertNull(CampaignSnapshot.readHeader(dir.resolve("missing.snap")));
+
+        Path tiny = Files.write(dir.resolve("tiny.snap"), new byte[]{0x41, 0x44});
+        assertNull(CampaignSnapshot.readHeader(tiny));
+
+        Path other = dir.resolve("other.snap");
+        CampaignSnapshot.write(other, 1, 1, CAMPAIGNS);
+        byte[] bytes = Files.readAllBytes(other);
+        ByteBuffer.wrap(bytes).putShort(4, (short) (CampaignSnapshot.VERSION + 1));
+        Files.write(other, bytes);
+        assertNull(CampaignSnapshot.readHeader(other), "another version");
+        assertThrows(IOException.class, () -> CampaignSnapshot.read(other));
+    }
+
+    @Test
+    void manyCampaigns() throws IOException {
+        List<CampaignTargeting> many = new ArrayList<>();
+        for (int id = 1; id <= 20_000; id++) {
+            many.add(new CampaignTargeting(id, "https://ads.example/" + id, id % 500, id * 10L, true,
+                    List.of(id % 2 == 0 ? "US" : "DE"), List.of("en"), List.of(), List.of(), List.of(), List.of(),
+                    List.of("d" + id + ".example"), List.of(), List.of(), List.of()));
+        }
+        Path file = dir.resolve("many.snap");
+        CampaignSnapshot.write(file, 1, 1, many);
+        assertEquals(many, CampaignSnapshot.read(file).campaigns());
+    }
+}
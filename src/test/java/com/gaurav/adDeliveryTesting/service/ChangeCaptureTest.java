@@ -0,0 +1,153 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.bootstrap.ChangeCaptureInstaller;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * {@link ChangeCaptureInstaller}'s triggers on a real Postgres, and {@link CampaignChangeListener}'s
+ * outbox backstop draining what they capture.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ChangeCaptureTest {
+
+    @Container
+    private static final GenericContainer<?> POSTGRES =
+            new GenericContainer<>(DockerImageName.parse("postgres:16-alpine"))
+                    .withEnv("POSTGRES_PASSWORD", "test")
+                    .withExposedPorts(5432)
+                    .waitingFor(Wait.forLogMessage(".*database system is ready to accept connections.*", 2));
+
+    private DriverManagerDataSource ds;
+    private JdbcTemplate jdbc;
+    private DataSourceTransactionManager txm;
+
+    @BeforeEach
+    void setUp() {
+        ds = new DriverManagerDataSource(
+                "jdbc:postgresql://" + POSTGRES.getHost() + ":" + POSTGRES.getMappedPort(5432) + "/postgres",
+                "postgres", "test");
+        jdbc = new JdbcTemplate(ds);
+        txm = new DataSourceTransactionManager(ds);
+
+        jdbc.execute("DROP SCHEMA public CASCADE; CREATE SCHEMA public");
+        jdbc.execute("""
+            CREATE TABLE campaign (campaign_id int PRIMARY KEY, delivery_link text, total_budget numeric(19, 2),
+                                   remaining_budget numeric(19, 2), bidding_rate numeric(19, 2));
+            CREATE TABLE campaign_filters (id serial PRIMARY KEY, campaign_id int NOT NULL UNIQUE);
+            CREATE TABLE campaign_countries (filter_id int, country text);
+            CREATE TABLE campaign_languages (filter_id int, language text);
+            CREATE TABLE campaign_devices (filter_id int, device text);
+            CREATE TABLE campaign_oses (filter_id int, os text);
+            CREATE TABLE campaign_browsers (filter_id int, browser text);
+            CREATE TABLE campaign_iab_category_filter (filter_id int, iab_category text);
+            CREATE TABLE campaign_allowed_domain (filter_id int, allowed_domain text);
+            CREATE TABLE campaign_allowed_ip (filter_id int, allowed_ip text);
+            CREATE TABLE campaign_excluded_domain (filter_id int, excluded_domain text);
+            CREATE TABLE campaign_excluded_ip (filter_id int, excluded_ip text);
+            """);
+        new ChangeCaptureInstaller(jdbc, txm).install();
+        new ChangeCaptureInstaller(jdbc, txm).install(); // runs on every start
+
+        jdbc.update("INSERT INTO campaign VALUES (1, 'https://ads.example/1', 100.00, 50.00, 0.25)");
+        jdbc.update("INSERT INTO campaign_filters (campaign_id) VALUES (1)");
+        processAll();
+    }
+
+    @Test
+    void definitionChangesAreCapturedOncePerCampaign() throws Exception {
+        try (Connection listen = ds.getConnection()) {
+            try (Statement st = listen.createStatement()) {
+                st.execute("LISTEN " + ChangeCaptureInstaller.CHANNEL);
+            }
+
+            jdbc.update("UPDATE campaign SET bidding_rate = 0.30 WHERE campaign_id = 1");
+            jdbc.update("INSERT INTO campaign_countries SELECT id, 'US' FROM campaign_filters WHERE campaign_id = 1");
+            jdbc.update("INSERT INTO campaign VALUES (2, 'https://ads.example/2', 10.00, 10.00, 0.10)");
+
+            assertEquals(List.of(1, 2), pending(), "one pending row per campaign");
+            Set<String> notified = new HashSet<>();
+            PGConnection pg = listen.unwrap(PGConnection.class);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (notified.size() < 2 && System.currentTimeMillis() < deadline) {
+                PGNotification[] ns = pg.getNotifications(500);
+                if (ns != null) for (PGNotification n : ns) notified.add(n.getParameter());
+            }
+            assertEquals(Set.of("1", "2"), notified);
+        }
+    }
+
+    @Test
+    void spendIsNotAChangeButATopUpIs() {
+        jdbc.update("UPDATE campaign SET remaining_budget = remaining_budget - 1.25 WHERE campaign_id = 1");
+        assertEquals(List.of(), pending(), "the flusher's debit doesn't re-index");
+        assertEquals(0, topUps());
+
+        jdbc.update("UPDATE campaign SET remaining_budget = remaining_budget + 5.00 WHERE campaign_id = 1");
+        assertEquals(List.of(1), pending());
+        assertEquals(new BigDecimal("5.00"),
+                jdbc.queryForObject("SELECT amount FROM campaign_budget_topup WHERE applied_at IS NULL", BigDecimal.class));
+    }
+
+    @Test
+    void outboxBackstopAppliesTopUpsAndReindexesOnce() {
+        WarmService warm = mock(WarmService.class);
+        AdDeliveryFallbackService outage = mock(AdDeliveryFallbackService.class);
+        CampaignChangeListener listener = new CampaignChangeListener(ds, jdbc, txm, warm, outage);
+        ReflectionTestUtils.setField(listener, "running", true); // as after start(), without the LISTEN thread
+
+        jdbc.update("UPDATE campaign SET remaining_budget = remaining_budget + 2.00 WHERE campaign_id = 1");
+        jdbc.update("UPDATE campaign SET remaining_budget = remaining_budget + 3.00 WHERE campaign_id = 1");
+        jdbc.update("UPDATE campaign SET delivery_link = 'https://ads.example/new' WHERE campaign_id = 1");
+
+        listener.drainOutbox();
+
+        verify(warm).applyTopUps(Map.of(1, 500L));
+        verify(warm).reindexBatch(Set.of(1));
+        assertEquals(List.of(), pending());
+        assertEquals(0, topUps());
+
+        listener.drainOutbox();
+        verify(warm, times(1)).reindexBatch(any());
+        verify(warm, times(1)).applyTopUps(Map.of(1, 500L));
+    }
+
+    private List<Integer> pending() {
+        return jdbc.queryForList(
+                "SELECT campaign_id FROM campaign_change_outbox WHERE processed_at IS NULL ORDER BY campaign_id", Integer.class);
+    }
+
+    private int topUps() {
+        return jdbc.queryForObject("SELECT count(*) FROM campaign_budget_topup WHERE applied_at IS NULL", Integer.class);
+    }
+
+    private void processAll() {
+        jdbc.update("UPDATE campaign_change_outbox SET processed_at = now() WHERE processed_at IS NULL");
+        jdbc.update("UPDATE campaign_budget_topup SET applied_at = now() WHERE applied_at IS NULL");
+    }
+}
@@ -0,0 +1,162 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Permits are timed with a fake clock, so every RTT sample (and the limit it produces) is exact. */
+class DbBulkheadTest {
+
+    private static final long MS = 1_000_000;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void growsToMaxWhileLatencyHolds() {
+        DbBulkhead b = new DbBulkhead(2, 20, 4, 0, 0, 40, clock::get);
+        int prev = limit(b);
+        for (int round = 0; round < 30; round++) {
+            fillAndRelease(b, 10 * MS);
+            int now = limit(b);
+            assertTrue(now >= prev, "limit went down at steady latency: " + prev + " -> " + now);
+            prev = now;
+        }
+        assertEquals(20, limit(b), "capped at max");
+        assertEquals(10.0, (double) b.stats().get("rttBaseMs"));
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        DbBulkhead b = new DbBulkhead(2, 20, 20, 0, 0, 40, clock::get);
+        fillAndRelease(b, 10 * MS); // baseline 10ms
+        assertEquals(20, limit(b));
+
+        for (int round = 0; round < 30; round++) fillAndRelease(b, 100 * MS);
+        // at 10x the baseline the gradient is pinned at 0.5: limit -> limit/2 + sqrt(limit), i.e. ~4
+        assertTrue(limit(b) <= 5, () -> "limit " + limit(b));
+        assertTrue(limit(b) >= 2);
+
+        // latency back to normal: grows again
+        for (int round = 0; round < 60; round++) fillAndRelease(b, 10 * MS);
+        assertEquals(20, limit(b));
+    }
+
+    @Test
+    void lightlyLoadedSamplesDontMoveTheLimit() {
+        DbBulkhead b = new DbBulkhead(2, 20, 10, 0, 0, 40, clock::get);
+        for (int i = 0; i < 50; i++) {
+            DbBulkhead.Permit p = b.tryAcquire(); // one in flight, under limit / 2
+            clock.addAndGet(100 * MS);
+            p.close();
+        }
+        assertEquals(10, limit(b));
+    }
+
+    @Test
+    void rejectsAtTheLimitWithoutQueue() {
+        DbBulkhead b = new DbBulkhead(2, 2, 2, 0, 0, 40, clock::get);
+        DbBulkhead.Permit p1 = b.tryAcquire();
+        DbBulkhead.Permit p2 = b.tryAcquire();
+        assertNotNull(p1);
+        assertNotNull(p2);
+        assertNull(b.tryAcquire());
+        assertEquals(1L, b.stats().get("rejected"));
+
+        p1.close();
+        p1.close(); // idempotent: one slot back, not two
+        assertNotNull(b.tryAcquire());
+        assertNull(b.tryAcquire());
+        assertEquals(2, b.stats().get("inFlight"));
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() {
+        DbBulkhead b = new DbBulkhead(1, 1, 1, 5_000, 0, 40, clock::get);
+        assertNotNull(b.tryAcquire());
+        assertNull(b.tryAcquire(), "queue.max=0 means no waiting even with queue.ms set");
+        assertEquals(0L, b.stats().get("queuedTotal"));
+    }
+
+    @Test
+    void failedCallsBackOffAndAreNotSamples() {
+        DbBulkhead b = new DbBulkhead(4, 20, 10, 0, 0, 40, clock::get);
+        DbBulkhead.Permit p = b.tryAcquire();
+        clock.addAndGet(5 * MS);
+        p.failed();
+        p.close();
+        assertEquals(9, limit(b)); // 10 x 0.9
+        assertEquals(1L, b.stats().get("failed"));
+        assertEquals(0.0, (double) b.stats().get("rttShortMs"), "a failure is not an RTT sample");
+        assertEquals(0, b.stats().get("inFlight"));
+
+        for (int i = 0; i < 20; i++) {
+            DbBulkhead.Permit f = b.tryAcquire();
+            f.failed();
+            f.close();
+        }
+        assertEquals(4, limit(b), "floored at min");
+    }
+
+    @Test
+    void queuedCallerIsWokenByARelease() throws Exception {
+        DbBulkhead b = new DbBulkhead(1, 1, 1, 10_000, 4, 40, clock::get);
+        DbBulkhead.Permit held = b.tryAcquire();
+
+        try (ExecutorService pool = Executors.newSingleThreadExecutor()) {
+            Future<DbBulkhead.Permit> waiter = pool.submit(b::tryAcquire);
+            awaitQueued(b, 1);
+            assertFalse(waiter.isDone());
+
+            held.close();
+            DbBulkhead.Permit p = waiter.get(5, TimeUnit.SECONDS); // well before queue.ms
+            assertNotNull(p);
+            p.close();
+        }
+        assertEquals(1L, b.stats().get("queuedTotal"));
+        assertEquals(0L, b.stats().get("rejected"));
+        assertEquals(0, b.stats().get("queued"));
+    }
+
+    @Test
+    void queuedCallerGivesUpAfterQueueMs() {
+        DbBulkhead b = new DbBulkhead(1, 1, 1, 20, 4, 40, clock::get);
+        assertNotNull(b.tryAcquire());
+        long t0 = System.nanoTime();
+        assertNull(b.tryAcquire());
+        assertTrue(System.nanoTime() - t0 >= 20 * MS);
+        assertEquals(1L, b.stats().get("queuedTotal"));
+        assertEquals(1L, b.stats().get("rejected"));
+    }
+
+    /** Takes every permit the current limit allows, lets {@code rttNanos} pass, releases them all. */
+    private void fillAndRelease(DbBulkhead b, long rttNanos) {
+        List<DbBulkhead.Permit> held = new ArrayList<>();
+        for (DbBulkhead.Permit p; (p = b.tryAcquire()) != null; ) held.add(p);
+        clock.addAndGet(rttNanos);
+        held.forEach(DbBulkhead.Permit::close);
+    }
+
+    private static int limit(DbBulkhead b) {
+        return (int) b.stats().get("limit");
+    }
+
+    private static void awaitQueued(DbBulkhead b, int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((int) b.stats().get("queued") < n) {
+            if (System.nanoTime() > deadline) throw new AssertionError("caller never queued");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ServeScriptService#MATERIALIZE} on a real Redis, over campaigns indexed under the DIM
+ * layout's keys: the segment is AND over dimensions of (exact OR any), scored by bid.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class DimSegmentScriptTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private static final String SCRIPT = ServeScriptService.MATERIALIZE + """
+  materialize(KEYS[1], 2, tonumber(ARGV[1]))
+  return redis.call('ZRANGE', KEYS[1], 0, -1, 'WITHSCORES')
+""";
+
+    private final CampaignCacheService cache = new CampaignCacheService(null, "dim");
+    private Jedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+
+        index(1, 100, List.of("US"), List.of("en"), List.of(), List.of());
+        index(2, 200, List.of(), List.of(), List.of("Mobile"), List.of());
+        index(3, 300, List.of("DE"), List.of(), List.of(), List.of());
+        index(4, 400, List.of("US"), List.of("fr"), List.of(), List.of());
+        index(5, 500, List.of("US", "DE"), List.of("en", "de"), List.of("Desktop"), List.of("Windows"));
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void exactOrAnyOnEveryDimension() {
+        assertEquals(Map.of("1", "100", "2", "200"), segment("US", "en", "Mobile", "iOS"));
+        assertEquals(Map.of("2", "200", "3", "300"), segment("DE", "fr", "Mobile", "Android"));
+        assertEquals(Map.of("3", "300"), segment("DE", "", "Desktop", "Windows"),
+                "a blank language matches only campaigns without a language list");
+    }
+
+    @Test
+    void segmentIsReusedUntilItsTtlAndTempKeysAreGone() {
+        String seg = cache.serveKeys("US", "en", "Mobile", "iOS").get(0).toString();
+        assertEquals(Map.of("1", "100", "2", "200"), segment("US", "en", "Mobile", "iOS"));
+        for (int d = 0; d < 4; d++) assertFalse(redis.exists(seg + ":u" + d));
+        assertTrue(redis.pttl(seg) > 0);
+
+        index(6, 600, List.of(), List.of(), List.of(), List.of());
+        assertEquals(Map.of("1", "100", "2", "200"), segment("US", "en", "Mobile", "iOS"), "built within the ttl");
+
+        redis.del(seg + ":built");
+        assertEquals(Map.of("1", "100", "2", "200", "6", "600"), segment("US", "en", "Mobile", "iOS"));
+    }
+
+    private void index(int id, long bid, List<String> countries, List<String> langs, List<String> devices, List<String> oses) {
+        for (String key : cache.indexKeys(countries, langs, devices, oses)) redis.zadd(key, bid, Integer.toString(id));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> segment(String country, String language, String device, String os) {
+        List<String> keys = cache.serveKeys(country, language, device, os).stream().map(Object::toString).toList();
+        List<Object> res = (List<Object>) redis.eval(SCRIPT, keys, List.of("60000"));
+        Map<String, String> out = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < res.size(); i += 2) out.put(res.get(i).toString(), res.get(i + 1).toString());
+        return out;
+    }
+}
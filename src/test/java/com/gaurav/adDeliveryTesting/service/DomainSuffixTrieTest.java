@@ -0,0 +1,100 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.utils.DomainUtils;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DomainSuffixTrieTest {
+
+    private static final List<String> PATTERNS = List.of(
+            "example.com",        // 0
+            "*.example.com",      // 1
+            "*.com",              // 2
+            "news.example.com",   // 3
+            "other.org",          // 4
+            "*.co.uk",            // 5
+            "example.co.uk");     // 6
+
+    private static final List<String> HOSTS = List.of(
+            "example.com", "news.example.com", "a.b.example.com", "notexample.com", "example.com.evil.org",
+            "com", "other.org", "www.other.org", "example.co.uk", "shop.example.co.uk", "co.uk", "uk",
+            "example.org", "localhost", "news.example.com.");
+
+    @Test
+    void exactAndSubdomainPatterns() {
+        DomainSuffixTrie t = trie();
+        assertEquals(Set.of(0, 2), match(t, "example.com"));
+        assertEquals(Set.of(1, 2, 3), match(t, "news.example.com"));
+        assertEquals(Set.of(1, 2), match(t, "a.b.example.com"));
+        assertEquals(Set.of(4), match(t, "other.org"));
+        assertEquals(Set.of(5, 6), match(t, "example.co.uk"));
+        assertEquals(Set.of(5), match(t, "shop.example.co.uk"));
+    }
+
+    @Test
+    void suffixesMatchOnLabelsOnly() {
+        DomainSuffixTrie t = trie();
+        assertEquals(Set.of(2), match(t, "notexample.com"), "notexample.com is not under example.com");
+        assertNull(t.match("example.com.evil.org"));
+        assertNull(t.match("www.other.org"), "exact patterns don't cover subdomains");
+        assertNull(t.match("com"), "*.com doesn't match com itself");
+        assertNull(t.match("example.org"));
+        assertNull(t.match("localhost"));
+    }
+
+    @Test
+    void trailingDotIsIgnored() {
+        DomainSuffixTrie t = trie();
+        assertEquals(match(t, "news.example.com"), match(t, "news.example.com."));
+        assertEquals(match(t, "example.com"), match(t, "example.com."));
+    }
+
+    @Test
+    void noHostMatchesNothing() {
+        DomainSuffixTrie t = trie();
+        assertNull(t.match(null));
+        assertNull(t.match(""));
+        assertNull(t.match("."));
+        assertNull(new DomainSuffixTrie().match("example.com"));
+    }
+
+    @Test
+    void bareWildcardIsIgnored() {
+        DomainSuffixTrie t = new DomainSuffixTrie();
+        t.add("*.", 0);
+        assertNull(t.match("example.com"));
+    }
+
+    /** The Redis/SQL paths match DomainUtils.suffixPatterns against the same lists: same answers. */
+    @Test
+    void agreesWithSuffixPatterns() {
+        DomainSuffixTrie t = trie();
+        for (String host : HOSTS) {
+            Set<Integer> expected = new TreeSet<>();
+            List<String> candidates = DomainUtils.suffixPatterns(host);
+            for (int i = 0; i < PATTERNS.size(); i++) if (candidates.contains(PATTERNS.get(i))) expected.add(i);
+            assertEquals(expected, match(t, host), host);
+        }
+    }
+
+    private static DomainSuffixTrie trie() {
+        DomainSuffixTrie t = new DomainSuffixTrie();
+        for (int i = 0; i < PATTERNS.size(); i++) t.add(PATTERNS.get(i), i);
+        t.optimize();
+        return t;
+    }
+
+    private static Set<Integer> match(DomainSuffixTrie t, String host) {
+        RoaringBitmap b = t.match(host);
+        Set<Integer> out = new TreeSet<>();
+        if (b != null) for (int o : b.toArray()) out.add(o);
+        return out;
+    }
+}
@@ -0,0 +1,68 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Which index keys a campaign is written under, and which a request reads, per {@link IndexLayout}. */
+class IndexLayoutTest {
+
+    private final CampaignCacheService product = new CampaignCacheService(null, "product");
+    private final CampaignCacheService dim = new CampaignCacheService(null, "dim");
+
+    @Test
+    void parse() {
+        assertEquals(IndexLayout.PRODUCT, IndexLayout.parse(null));
+        assertEquals(IndexLayout.PRODUCT, IndexLayout.parse(" "));
+        assertEquals(IndexLayout.DIM, IndexLayout.parse(" dim "));
+        assertThrows(IllegalArgumentException.class, () -> IndexLayout.parse("columnar"));
+    }
+
+    @Test
+    void productIsOneKeyPerCombination() {
+        assertEquals(List.of(
+                        "campaign:filters:{iOS:Mobile:en:US}", "campaign:filters:{Android:Mobile:en:US}",
+                        "campaign:filters:{iOS:Mobile:de:US}", "campaign:filters:{Android:Mobile:de:US}",
+                        "campaign:filters:{iOS:Mobile:en:DE}", "campaign:filters:{Android:Mobile:en:DE}",
+                        "campaign:filters:{iOS:Mobile:de:DE}", "campaign:filters:{Android:Mobile:de:DE}"),
+                product.indexKeys(List.of("US", "DE"), List.of("en", "de"), List.of("Mobile"), List.of("iOS", "Android")));
+        assertEquals(List.of(), product.indexKeys(List.of("US"), List.of(), List.of("Mobile"), List.of("iOS")),
+                "an untargeted dimension has no product keys");
+    }
+
+    @Test
+    void dimIsOneKeyPerValueWithAnyForUntargeted() {
+        List<String> keys = dim.indexKeys(List.of("US", "DE"), List.of("en", "de"), List.of(), List.of("iOS", "Android"));
+        assertEquals(List.of(
+                "campaign:dim:{dim}:country:US", "campaign:dim:{dim}:country:DE",
+                "campaign:dim:{dim}:lang:en", "campaign:dim:{dim}:lang:de",
+                "campaign:dim:{dim}:device:any",
+                "campaign:dim:{dim}:os:iOS", "campaign:dim:{dim}:os:Android"), keys);
+
+        assertEquals(4, dim.indexKeys(List.of(), List.of(), List.of(), List.of()).size(), "untargeted: 'any' on every dimension");
+        assertEquals(20, dim.indexKeys(range(5), range(5), range(5), range(5)).size(), "the sum of the list sizes, not 625");
+    }
+
+    @Test
+    void serveKeys() {
+        assertEquals(List.of("campaign:filters:{iOS:Mobile:en:US}"), product.serveKeys("US", "en", "Mobile", "iOS"));
+
+        List<Object> keys = dim.serveKeys("US", "", "Mobile", "iOS");
+        assertEquals(List.of(
+                "campaign:seg:{dim}:iOS:Mobile:any:US",
+                "campaign:dim:{dim}:country:US", "campaign:dim:{dim}:country:any",
+                "campaign:dim:{dim}:lang:any", "campaign:dim:{dim}:lang:any",
+                "campaign:dim:{dim}:device:Mobile", "campaign:dim:{dim}:device:any",
+                "campaign:dim:{dim}:os:iOS", "campaign:dim:{dim}:os:any"), keys, "a blank request value reads only 'any'");
+        for (Object k : keys) assertTrue(k.toString().contains("{dim}"), "one slot for the serve script: " + k);
+    }
+
+    private static List<String> range(int n) {
+        return IntStream.range(0, n).mapToObj(Integer::toString).toList();
+    }
+}
@@ -0,0 +1,53 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IpPrefixesTest {
+
+    @Test
+    void noRangesInUseIsJustTheCanonicalAddress() {
+        IpPrefixes p = prefixes();
+        assertEquals(List.of("10.1.2.3"), p.patterns("10.1.2.3"));
+        assertEquals(List.of("10.1.2.3", "010.1.2.3"), p.patterns("010.1.2.3"), "raw text kept for exact-match sets");
+    }
+
+    @Test
+    void ipv4GetsOneRangePerLengthInUse() {
+        IpPrefixes p = prefixes(128 - 8, 128 - 24, 96, 32, 0); // /24, /8, /0 in IPv4 terms
+        assertEquals(List.of("10.1.2.3", "10.1.2.0/24", "10.0.0.0/8", "0.0.0.0/0"), p.patterns("10.1.2.3"));
+    }
+
+    @Test
+    void v4MappedIpv6IsMatchedAsIpv4() {
+        IpPrefixes p = prefixes(120, 104);
+        assertEquals(List.of("10.1.2.3", "::ffff:10.1.2.3", "10.1.2.0/24", "10.0.0.0/8"), p.patterns("::ffff:10.1.2.3"));
+    }
+
+    @Test
+    void ipv6UsesEveryLength() {
+        IpPrefixes p = prefixes(64, 32, 0);
+        assertEquals(List.of("2001:db8::1", "2001:DB8:0::1", "2001:db8::/64", "2001:db8::/32", "::/0"),
+                p.patterns("2001:DB8:0::1"));
+    }
+
+    @Test
+    void noOrUnparseableIp() {
+        IpPrefixes p = prefixes(120);
+        assertEquals(List.of(""), p.patterns(null));
+        assertEquals(List.of(""), p.patterns(""));
+        assertEquals(List.of("unknown"), p.patterns("unknown"));
+        assertEquals(List.of("1.2.3.256"), p.patterns("1.2.3.256"));
+    }
+
+    /** Lengths in the 128-bit space, descending, as refresh() leaves them. */
+    private static IpPrefixes prefixes(int... lengths) {
+        IpPrefixes p = new IpPrefixes(null);
+        ReflectionTestUtils.setField(p, "lengths", lengths);
+        return p;
+    }
+}
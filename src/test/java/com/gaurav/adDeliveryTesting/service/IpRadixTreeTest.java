@@ -0,0 +1,150 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.utils.IpAddress;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpRadixTreeTest {
+
+    private static final String[] PREFIXES = {
+            "10.0.0.0/8",        // 0
+            "10.1.0.0/16",       // 1
+            "10.1.2.0/24",       // 2
+            "10.1.2.3/32",       // 3
+            "2001:db8::/32",     // 4
+            "::/0",              // 5: everything, IPv4 included (it lives under ::ffff:0:0/96)
+            "0.0.0.0/0",         // 6: every IPv4 address
+            "2001:db8::1/128",   // 7
+            "192.168.0.0/16",    // 8
+    };
+
+    @Test
+    void everyContainingPrefixMatches() {
+        IpRadixTree t = tree(PREFIXES);
+        assertEquals(Set.of(0, 1, 2, 3, 5, 6), match(t, "10.1.2.3"));
+        assertEquals(Set.of(0, 1, 2, 5, 6), match(t, "10.1.2.4"));
+        assertEquals(Set.of(0, 5, 6), match(t, "10.2.0.1"));
+        assertEquals(Set.of(5, 6), match(t, "11.0.0.1"));
+        assertEquals(Set.of(5, 6, 8), match(t, "192.168.255.255"));
+        assertEquals(Set.of(5, 6), match(t, "192.169.0.0"));
+        assertEquals(Set.of(4, 5, 7), match(t, "2001:db8::1"));
+        assertEquals(Set.of(4, 5), match(t, "2001:db8:ffff::1"));
+        assertEquals(Set.of(5), match(t, "2001:db9::1"));
+        assertEquals(Set.of(5), match(t, "::"));
+    }
+
+    @Test
+    void v4MappedIpv6MatchesLikeIpv4() {
+        IpRadixTree t = tree(PREFIXES);
+        assertEquals(match(t, "10.1.2.3"), match(t, "::ffff:10.1.2.3"));
+        assertEquals(match(t, "192.168.1.1"), match(t, "::ffff:c0a8:101"));
+    }
+
+    @Test
+    void noMatchIsNull() {
+        IpRadixTree empty = new IpRadixTree();
+        assertTrue(empty.isEmpty());
+        assertNull(empty.match(IpAddress.parse("10.1.2.3")));
+
+        IpRadixTree t = tree("10.0.0.0/8", "10.1.2.3/32", "2001:db8::/32");
+        assertNull(t.match(IpAddress.parse("11.0.0.1")));
+        assertNull(t.match(IpAddress.parse("9.255.255.255")));
+        assertNull(t.match(IpAddress.parse("2001:db9::")));
+        assertNull(t.match(IpAddress.parse("::ffff:0:0")), "0.0.0.0 is not under 10/8");
+    }
+
+    @Test
+    void hostPrefixesMatchOnlyThemselves() {
+        IpRadixTree t = tree("10.1.2.3/32", "10.1.2.2/32", "2001:db8::1/128", "2001:db8::/128");
+        assertEquals(Set.of(0), match(t, "10.1.2.3"));
+        assertEquals(Set.of(1), match(t, "10.1.2.2"));
+        assertEquals(Set.of(), match(t, "10.1.2.1"));
+        assertEquals(Set.of(2), match(t, "2001:db8::1"));
+        assertEquals(Set.of(3), match(t, "2001:db8::"));
+        assertEquals(Set.of(), match(t, "2001:db8::2"));
+    }
+
+    @Test
+    void samePrefixTwiceKeepsBothOrdinals() {
+        IpRadixTree t = new IpRadixTree();
+        t.add(IpAddress.parseCidr("10.0.0.0/8"), 1);
+        t.add(IpAddress.parseCidr("10.9.9.9/8"), 2); // same network once masked
+        t.add(IpAddress.parseCidr("0.0.0.0/0"), 3);
+        t.add(IpAddress.parseCidr("1.1.1.1/0"), 4);
+        assertEquals(Set.of(1, 2, 3, 4), ords(t.match(IpAddress.parse("10.0.0.1"))));
+        assertEquals(Set.of(3, 4), ords(t.match(IpAddress.parse("11.0.0.1"))));
+    }
+
+    @Test
+    void insertionOrderDoesNotMatter() {
+        String[] reversed = new String[PREFIXES.length];
+        for (int i = 0; i < PREFIXES.length; i++) reversed[i] = PREFIXES[PREFIXES.length - 1 - i];
+        IpRadixTree forward = tree(PREFIXES);
+        IpRadixTree backward = tree(reversed);
+        for (String ip : new String[]{"10.1.2.3", "10.1.9.9", "11.0.0.1", "2001:db8::1", "2001:db8::2", "::"}) {
+            Set<Integer> back = new TreeSet<>();
+            for (int o : match(backward, ip)) back.add(PREFIXES.length - 1 - o);
+            assertEquals(match(forward, ip), back, ip);
+        }
+    }
+
+    @Test
+    void matchesALinearScanOnRandomPrefixes() {
+        Random rnd = new Random(7);
+        List<IpAddress.Cidr> cidrs = new ArrayList<>();
+        IpRadixTree t = new IpRadixTree();
+        // clustered so prefixes nest and share long paths, in both families
+        for (int i = 0; i < 400; i++) {
+            IpAddress a = randomAddress(rnd);
+            int plen = a.isV4() ? 96 + rnd.nextInt(33) : rnd.nextInt(129);
+            IpAddress.Cidr c = new IpAddress.Cidr(a.mask(plen), plen);
+            cidrs.add(c);
+            t.add(c, i);
+        }
+        t.optimize();
+
+        for (int n = 0; n < 5_000; n++) {
+            IpAddress a = randomAddress(rnd);
+            Set<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < cidrs.size(); i++) {
+                IpAddress.Cidr c = cidrs.get(i);
+                if (a.mask(c.prefix()).equals(c.network())) expected.add(i);
+            }
+            assertEquals(expected, ords(t.match(a)), a::toString);
+        }
+    }
+
+    private static IpAddress randomAddress(Random rnd) {
+        if (rnd.nextBoolean()) {
+            // 10.0.0.0/14: few enough addresses that random prefixes overlap often
+            return new IpAddress(0, 0x0000_ffff_0a00_0000L | rnd.nextInt(1 << 18));
+        }
+        return new IpAddress(0x2001_0db8_0000_0000L | rnd.nextInt(1 << 4), rnd.nextInt(1 << 4) == 0 ? 0 : rnd.nextLong());
+    }
+
+    private static IpRadixTree tree(String... prefixes) {
+        IpRadixTree t = new IpRadixTree();
+        for (int i = 0; i < prefixes.length; i++) t.add(IpAddress.parseCidr(prefixes[i]), i);
+        return t;
+    }
+
+    private static Set<Integer> match(IpRadixTree t, String ip) {
+        return ords(t.match(IpAddress.parse(ip)));
+    }
+
+    private static Set<Integer> ords(RoaringBitmap b) {
+        Set<Integer> out = new TreeSet<>();
+        if (b != null) for (int o : b.toArray()) out.add(o);
+        return out;
+    }
+}
@@ -0,0 +1,159 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link WarmService#MIGRATE_LUA} on a real Redis, seeded with the pre-cluster layout
+ * (campaign:budget:42, its :s0.. sub-counters, campaign:delta:42, ...).
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class KeyLayoutMigrationTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private static final String OLD_ZSET = "campaign:filters:US:en:Mobile:iOS";
+    private static final long DB_REMAINING = 9_000; // remaining_budget the caller passes, in cents
+
+    private Jedis redis;
+
+    @BeforeEach
+    void seedOldLayout() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+
+        // 42: sharded budget, unflushed spend, targeting, one index entry; some spend already
+        // recorded under the new delta name since the deploy
+        redis.hset("campaign:budget:42", Map.of("remaining", "5", "shards", "4", "leased", "100"));
+        redis.set("campaign:budget:42:s0", "1000");
+        redis.set("campaign:budget:42:s1", "2000");
+        redis.set("campaign:budget:42:s2", "3000");
+        redis.set("campaign:budget:42:s3", "4000");
+        redis.set("campaign:delta:42", "250");
+        redis.set(RedisKeys.delta(42), "50");
+        redis.hset("campaign:tgt:42", "bid", "100");
+        redis.sadd("campaign:allow:ip:42", "10.0.0.0/8");
+        redis.zadd(OLD_ZSET, 100, "42");
+        redis.zadd(OLD_ZSET, 90, "43");
+        redis.sadd("campaign:zsetkeys:42", OLD_ZSET);
+
+        // 43: sharded too, but re-warmed under the new name already; nothing unflushed
+        redis.hset("campaign:budget:43", Map.of("remaining", "1", "shards", "2"));
+        redis.set("campaign:budget:43:s0", "500");
+        redis.set("campaign:budget:43:s1", "500");
+        redis.set("campaign:delta:43", "0");
+        redis.hset(RedisKeys.budget(43), "remaining", "7000");
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void shardedBudgetAndDeltaMoveWithNothingLost() {
+        migrate(42);
+
+        String budget = RedisKeys.budget(42);
+        assertEquals("10005", redis.hget(budget, "remaining"), "5 + 1000 + 2000 + 3000 + 4000");
+        assertEquals("100", redis.hget(budget, "leased"), "leased slices move with the hash");
+        assertNull(redis.hget(budget, "shards"), "pooled: the rebalancer re-shards under the new name");
+        for (int i = 0; i < 4; i++) {
+            assertFalse(redis.exists("campaign:budget:42:s" + i));
+            assertFalse(redis.exists(budget + ":s" + i));
+        }
+        assertFalse(redis.exists("campaign:budget:42"));
+
+        assertEquals("300", redis.get(RedisKeys.delta(42)), "old delta added to the new one");
+        assertFalse(redis.exists("campaign:delta:42"));
+        assertTrue(redis.sismember(RedisKeys.TOUCHED, "42"), "flushed on the next pass");
+
+        assertFalse(redis.exists("campaign:tgt:42"));
+        assertFalse(redis.exists("campaign:allow:ip:42"));
+        assertFalse(redis.exists("campaign:zsetkeys:42"));
+        assertNull(redis.zscore(OLD_ZSET, "42"));
+        assertEquals(90.0, redis.zscore(OLD_ZSET, "43").doubleValue(), "other campaigns' entries stay until they migrate");
+    }
+
+    @Test
+    void budgetAlreadyUnderTheNewNameWins() {
+        migrate(43);
+
+        assertEquals(Map.of("remaining", "7000"), redis.hgetAll(RedisKeys.budget(43)));
+        assertFalse(redis.exists("campaign:budget:43"));
+        assertFalse(redis.exists("campaign:budget:43:s0"));
+        assertFalse(redis.exists("campaign:budget:43:s1"));
+
+        assertFalse(redis.exists("campaign:delta:43"));
+        assertFalse(redis.exists(RedisKeys.delta(43)), "a zero delta isn't carried over");
+        assertFalse(redis.sismember(RedisKeys.TOUCHED, "43"));
+    }
+
+    /** Seeded from the DB by LazyIndexer after the deploy, while old-layout spend was still unflushed. */
+    @Test
+    void seededBudgetPaysForTheOldUnflushedSpend() {
+        redis.hset("campaign:budget:45", "remaining", "800");
+        redis.set("campaign:delta:45", "250");
+        redis.hset(RedisKeys.budget(45), "remaining", "5000");
+        redis.set(RedisKeys.delta(45), "30");
+
+        migrate(45);
+
+        assertEquals("4750", redis.hget(RedisKeys.budget(45), "remaining"), "5000 - 250 the DB hasn't seen");
+        assertEquals("280", redis.get(RedisKeys.delta(45)));
+        assertTrue(redis.sismember(RedisKeys.TOUCHED, "45"));
+        assertFalse(redis.exists("campaign:budget:45"));
+        assertFalse(redis.exists("campaign:delta:45"));
+    }
+
+    @Test
+    void missingBudgetIsSeededFromTheDbLessTheOldDelta() {
+        redis.set("campaign:delta:46", "60");
+
+        migrate(46);
+
+        assertEquals(String.valueOf(DB_REMAINING - 60), redis.hget(RedisKeys.budget(46), "remaining"));
+        assertEquals("60", redis.get(RedisKeys.delta(46)));
+        assertFalse(redis.exists("campaign:delta:46"));
+    }
+
+    @Test
+    void rerunningChangesNothing() {
+        migrate(42);
+        migrate(43);
+        Map<String, String> budget42 = redis.hgetAll(RedisKeys.budget(42));
+        Map<String, String> budget43 = redis.hgetAll(RedisKeys.budget(43));
+
+        migrate(42);
+        migrate(43);
+        migrate(44); // never existed under the old names
+        migrate(44);
+
+        assertEquals(budget42, redis.hgetAll(RedisKeys.budget(42)));
+        assertEquals(budget43, redis.hgetAll(RedisKeys.budget(43)));
+        assertEquals("300", redis.get(RedisKeys.delta(42)), "old delta counted once");
+        assertEquals(Map.of("remaining", String.valueOf(DB_REMAINING)), redis.hgetAll(RedisKeys.budget(44)));
+        assertFalse(redis.exists(RedisKeys.delta(44)));
+    }
+
+    private void migrate(int campaignId) {
+        Object r = redis.eval(WarmService.MIGRATE_LUA, List.of(RedisKeys.TOUCHED), List.of(Integer.toString(campaignId), Long.toString(DB_REMAINING)));
+        assertEquals(1L, r);
+    }
+}
@@ -0,0 +1,126 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The fingerprint behind the DB-fallback pick caches, and the caches' expiry on a fake ticker. */
+class PickKeyTest {
+
+    // PickKey.of("US", "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com")
+    private static final PickKey GOLDEN = new PickKey(0x30BCFB63654A6350L, 0xF0DE141B7D8A045BL);
+
+    private final AtomicLong ticker = new AtomicLong();
+
+    @Test
+    void sameInputsSameKey() {
+        PickKey a = PickKey.of("US", "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com");
+        PickKey b = PickKey.of(new String("US"), "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(new PickKey(a.hi(), a.lo()), a);
+    }
+
+    @Test
+    void stableAcrossRuns() {
+        PickKey k = PickKey.of("US", "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com");
+        assertEquals(GOLDEN, k, "a pure function of the inputs: no identity hashes, no per-run seed");
+    }
+
+    @Test
+    void fieldBoundariesCount() {
+        String[] base = {"US", "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com"};
+        PickKey k = key(base);
+        // the same characters, with one character moved across each boundary
+        for (int i = 0; i + 1 < base.length; i++) {
+            String[] left = base.clone();
+            left[i] = base[i] + base[i + 1].charAt(0);
+            left[i + 1] = base[i + 1].substring(1);
+            assertNotEquals(k, key(left), "boundary " + i + "/" + (i + 1));
+
+            String[] swapped = base.clone();
+            swapped[i] = base[i + 1];
+            swapped[i + 1] = base[i];
+            assertNotEquals(k, key(swapped), "swap " + i + "/" + (i + 1));
+        }
+        assertNotEquals(PickKey.of("ab", "c", "", "", "", "", "", ""), PickKey.of("a", "bc", "", "", "", "", "", ""));
+        assertNotEquals(PickKey.of("US", "", "", "", "", "", "", ""), PickKey.of("", "US", "", "", "", "", "", ""));
+        assertNotEquals(PickKey.of("", "", "", "", "", "", "", "US"), PickKey.of("", "", "", "", "", "", "US", ""));
+    }
+
+    @Test
+    void nullIsNotEmpty() {
+        assertNotEquals(PickKey.of(null, "", "", "", "", "", "", ""), PickKey.of("", "", "", "", "", "", "", ""));
+        assertNotEquals(PickKey.of("", "", "", "", "", "", "", null), PickKey.of("", "", "", "", "", "", "", ""));
+        assertEquals(PickKey.of(null, null, null, null, null, null, null, null),
+                PickKey.of(null, null, null, null, null, null, null, null));
+    }
+
+    @Test
+    void noCollisionsOnNearIdenticalRequests() {
+        String[] parts = {"", "a", "b", "ab", "ba", "aa", "US", "U", "S"};
+        Map<PickKey, String> seen = new HashMap<>();
+        // every split of the same few strings over the first four fields, the rest fixed
+        for (String c : parts) for (String l : parts) for (String d : parts) for (String o : parts) {
+            String fields = c + "|" + l + "|" + d + "|" + o;
+            String prev = seen.put(PickKey.of(c, l, d, o, "Chrome", "", "1.2.3.4", "example.com"), fields);
+            assertNull(prev, () -> fields + " collides with " + seen.get(PickKey.of(c, l, d, o, "Chrome", "", "1.2.3.4", "example.com")));
+        }
+        assertEquals((int) Math.pow(parts.length, 4), seen.size());
+    }
+
+    @Test
+    void positivePicksExpireAfterOneSecond() {
+        PositivePickCache pos = new PositivePickCache(ticker::get);
+        PickKey k = key("US", "en", "Mobile", "iOS", "Safari", "IAB1", "10.1.2.3", "example.com");
+        pos.put(k, 42);
+        advanceMs(999);
+        assertEquals(42, (int) pos.get(k));
+        advanceMs(1);
+        assertNull(pos.get(k));
+
+        pos.put(k, 7);
+        pos.invalidate(k);
+        assertNull(pos.get(k));
+        assertEquals(1L, pos.stats().get("hits"));
+        assertEquals(2L, pos.stats().get("misses"));
+    }
+
+    @Test
+    void missesExpireAfterTheirOwnTtl() {
+        NegativeResultCache neg = new NegativeResultCache(ticker::get);
+        PickKey plain = key("US", "en", "Mobile", "iOS", "", "", "", "");
+        PickKey surge = key("DE", "de", "Desktop", "Windows", "", "", "", "");
+        neg.markMiss(plain);        // 3 s default
+        neg.markMiss(surge, 1000);  // short override
+        assertTrue(neg.recentlyMissed(plain));
+        assertTrue(neg.recentlyMissed(surge));
+
+        advanceMs(1000);
+        assertTrue(neg.recentlyMissed(plain));
+        assertFalse(neg.recentlyMissed(surge));
+
+        advanceMs(1999);
+        assertTrue(neg.recentlyMissed(plain));
+        advanceMs(1);
+        assertFalse(neg.recentlyMissed(plain));
+        assertFalse(neg.recentlyMissed(key("FR", "", "", "", "", "", "", "")));
+    }
+
+    private void advanceMs(long ms) {
+        ticker.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    private static PickKey key(String... f) {
+        return PickKey.of(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7]);
+    }
+}
@@ -0,0 +1,95 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+import org.redisson.client.RedisConnectionException;
+import org.redisson.client.RedisException;
+import org.redisson.client.RedisTimeoutException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedisCircuitBreakerTest {
+
+    private static final long OPEN_MS = 50;
+
+    @Test
+    void opensAfterConsecutiveOutagesOnly() {
+        RedisCircuitBreaker b = breaker();
+        assertTrue(b.onFailure(new RedisTimeoutException("t")));
+        assertTrue(b.onFailure(new RedisConnectionException("c")));
+        b.onSuccess(); // resets the streak
+        assertTrue(b.onFailure(new RedisTimeoutException("t")));
+        assertTrue(b.onFailure(new RedisTimeoutException("t")));
+        assertFalse(b.isOpen());
+
+        assertFalse(b.onFailure(new RedisException("ERR script")), "script errors are not outages");
+        assertFalse(b.isOpen());
+
+        assertTrue(b.onFailure(new IllegalStateException(new RedisTimeoutException("wrapped"))));
+        assertTrue(b.isOpen());
+        assertFalse(b.allow());
+        assertEquals(1, b.trips());
+    }
+
+    @Test
+    void successfulProbeCloses() throws InterruptedException {
+        RedisCircuitBreaker b = tripped();
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow(), "first caller after the window is the probe");
+        assertFalse(b.allow(), "one probe at a time");
+        b.onSuccess();
+        assertFalse(b.isOpen());
+        assertTrue(b.allow());
+    }
+
+    @Test
+    void failedProbeReopensAndReleasesTheProbe() throws InterruptedException {
+        RedisCircuitBreaker b = tripped();
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow());
+        assertTrue(b.onFailure(new RedisTimeoutException("still down")));
+        assertTrue(b.isOpen());
+        assertFalse(b.allow(), "new open window");
+
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow(), "next window gets a new probe");
+    }
+
+    @Test
+    void probeWithNonOutageErrorCloses() throws InterruptedException {
+        RedisCircuitBreaker b = tripped();
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow());
+        assertFalse(b.onFailure(new RedisException("NOSCRIPT")));
+        assertFalse(b.isOpen(), "Redis answered, so it is reachable");
+        assertTrue(b.allow());
+    }
+
+    @Test
+    void unreportedProbeIsReplaced() throws InterruptedException {
+        RedisCircuitBreaker b = tripped();
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow()); // this probe's caller never reports back
+        assertFalse(b.allow());
+        Thread.sleep(OPEN_MS + 10);
+        assertTrue(b.allow(), "a stale probe must not hold the breaker open");
+        b.onSuccess();
+        assertFalse(b.isOpen());
+    }
+
+    private static RedisCircuitBreaker breaker() {
+        RedisCircuitBreaker b = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(b, "failureThreshold", 3);
+        ReflectionTestUtils.setField(b, "openMs", OPEN_MS);
+        return b;
+    }
+
+    private static RedisCircuitBreaker tripped() {
+        RedisCircuitBreaker b = breaker();
+        for (int i = 0; i < 3; i++) b.onFailure(new RedisTimeoutException("t"));
+        assertTrue(b.isOpen());
+        return b;
+    }
+}
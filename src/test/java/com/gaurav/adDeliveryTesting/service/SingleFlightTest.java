@@ -0,0 +1,140 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private static final int FOLLOWERS = 8;
+
+    @Test
+    void followersShareTheLeadersResult() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch leaderIn = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(FOLLOWERS + 1)) {
+            Future<Integer> leader = pool.submit(() -> flight.execute("k", 5_000, () -> {
+                loads.incrementAndGet();
+                leaderIn.countDown();
+                await(release);
+                return 42;
+            }));
+            assertTrue(leaderIn.await(5, TimeUnit.SECONDS));
+
+            List<Future<Integer>> followers = startFollowers(pool, flight, () -> {
+                loads.incrementAndGet();
+                return -1;
+            });
+            awaitFollowers(flight);
+            release.countDown();
+
+            assertEquals(42, (int) leader.get());
+            for (Future<Integer> f : followers) assertEquals(42, (int) f.get());
+        }
+        assertEquals(1, loads.get(), "one load for the whole burst");
+        assertEquals(0, flight.stats().get("inFlight"));
+    }
+
+    @Test
+    void leaderFailureReachesFollowersAndIsNotKept() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        RuntimeException transientFailure = new IllegalStateException("db busy");
+        CountDownLatch leaderIn = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(FOLLOWERS + 1)) {
+            Future<Integer> leader = pool.submit(() -> flight.execute("k", 5_000, () -> {
+                leaderIn.countDown();
+                await(release);
+                throw transientFailure;
+            }));
+            assertTrue(leaderIn.await(5, TimeUnit.SECONDS));
+
+            List<Future<Integer>> followers = startFollowers(pool, flight, () -> -1);
+            awaitFollowers(flight);
+            release.countDown();
+
+            assertSame(transientFailure, cause(leader));
+            for (Future<Integer> f : followers) assertSame(transientFailure, cause(f));
+        }
+
+        // the failure is gone with the flight: the next caller loads again
+        assertEquals(0, flight.stats().get("inFlight"));
+        assertEquals(7, (int) flight.execute("k", 100, () -> 7));
+    }
+
+    @Test
+    void followerTimesOutWhileLeaderRuns() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>();
+        CountDownLatch leaderIn = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService pool = Executors.newSingleThreadExecutor()) {
+            Future<Integer> leader = pool.submit(() -> flight.execute("k", 5_000, () -> {
+                leaderIn.countDown();
+                await(release);
+                return 1;
+            }));
+            assertTrue(leaderIn.await(5, TimeUnit.SECONDS));
+
+            assertThrows(TimeoutException.class, () -> flight.execute("k", 20, () -> 2));
+            assertEquals(2, (int) flight.execute("other", 20, () -> 2), "other keys don't wait");
+
+            release.countDown();
+            assertEquals(1, (int) leader.get());
+        }
+        assertEquals(1L, flight.stats().get("followerTimeouts"));
+    }
+
+    private static List<Future<Integer>> startFollowers(ExecutorService pool, SingleFlight<String, Integer> flight,
+                                                        Supplier<Integer> loader) {
+        List<Future<Integer>> followers = new ArrayList<>();
+        for (int i = 0; i < FOLLOWERS; i++) followers.add(pool.submit(() -> flight.execute("k", 5_000, loader)));
+        return followers;
+    }
+
+    /** Followers count themselves before they block, so this is when all of them are waiting. */
+    private static void awaitFollowers(SingleFlight<String, Integer> flight) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((long) flight.stats().get("followers") < FOLLOWERS) {
+            if (System.nanoTime() > deadline) throw new AssertionError("followers never arrived");
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable cause(Future<?> f) throws InterruptedException {
+        try {
+            f.get();
+            throw new AssertionError("expected a failure");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
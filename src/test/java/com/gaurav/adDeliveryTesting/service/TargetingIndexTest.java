@@ -0,0 +1,150 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.CampaignTargeting;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TargetingIndexTest {
+
+    @Test
+    void coarseDimsMatchExactOrAny() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(1).countries("US").languages("en").devices("Mobile").oses("iOS").t(),
+                c(2).languages("en").t(),                  // every country, device, os
+                c(3).countries("DE", "AT").t()));
+
+        assertEquals(Set.of(1, 2), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "", "", "")));
+        assertEquals(Set.of(2), ids(idx, idx.match("US", "en", "Desktop", "iOS", "", "", "", "")));
+        assertEquals(Set.of(2, 3), ids(idx, idx.match("AT", "en", "TV", "Tizen", "", "", "", "")));
+        assertEquals(Set.of(3), ids(idx, idx.match("DE", "de", "Mobile", "iOS", "", "", "", "")));
+        assertEquals(Set.of(2), ids(idx, idx.match(null, "en", null, "", "", "", "", "")), "blank request values are 'any'");
+    }
+
+    @Test
+    void allowListsConstrainOnlyWhenSet() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(1).browsers("Chrome").t(),
+                c(2).browsers("*").t(),                    // '*' = every browser
+                c(3).iabs("IAB1").t(),
+                c(4).t()));
+
+        assertEquals(Set.of(1, 2, 3, 4), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "", "Chrome", "IAB1")));
+        assertEquals(Set.of(2, 4), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "", "Safari", "IAB2")));
+        assertEquals(Set.of(2, 3, 4), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "", "", "")),
+                "no browser fails a browser allow list; no IAB category skips the IAB check");
+    }
+
+    @Test
+    void ipAndDomainAllowLists() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(1).allowIps("10.0.0.0/8").t(),
+                c(2).allowIps("192.168.1.7").t(),
+                c(3).allowDomains("*.Example.com").t(),
+                c(4).allowDomains("example.com").t()));
+
+        assertEquals(Set.of(1), ids(idx, idx.match("US", "en", "Mobile", "iOS", "10.200.0.1", "", "", "")));
+        assertEquals(Set.of(2), ids(idx, idx.match("US", "en", "Mobile", "iOS", "192.168.1.7", "", "", "")));
+        assertEquals(Set.of(), ids(idx, idx.match("US", "en", "Mobile", "iOS", "11.0.0.1", "", "", "")));
+        assertEquals(Set.of(3), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "news.example.com", "", "")));
+        assertEquals(Set.of(4), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "example.com", "", "")));
+    }
+
+    @Test
+    void blockListsRemoveMatches() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(1).blockIps("10.1.0.0/16").t(),
+                c(2).blockDomains("*.spam.example").t(),
+                c(3).t()));
+
+        assertEquals(Set.of(2, 3), ids(idx, idx.match("US", "en", "Mobile", "iOS", "10.1.2.3", "", "", "")));
+        assertEquals(Set.of(1, 2, 3), ids(idx, idx.match("US", "en", "Mobile", "iOS", "10.2.0.1", "", "", "")));
+        assertEquals(Set.of(1, 3), ids(idx, idx.match("US", "en", "Mobile", "iOS", "", "ads.spam.example", "", "")));
+    }
+
+    @Test
+    void liveCampaignsOnly() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(1).t(),
+                c(2).remaining(0).t(),
+                new CampaignTargeting(3, "l", 100, 1000, false,
+                        List.of(), List.of(), List.of(), List.of(), List.of(), List.of(),
+                        List.of(), List.of(), List.of(), List.of())));
+        assertEquals(1, idx.size());
+        assertEquals(1, idx.campaignId(0));
+        assertTrue(TargetingIndex.EMPTY.match("US", "en", "Mobile", "iOS", "", "", "", "").isEmpty());
+    }
+
+    @Test
+    void rankedByBidThenRotatedWithinATie() {
+        TargetingIndex idx = TargetingIndex.build(List.of(
+                c(5).bid(100).t(), c(4).bid(200).t(), c(3).bid(200).t(), c(2).bid(200).t(), c(1).bid(300).t()));
+        RoaringBitmap all = idx.match("US", "en", "Mobile", "iOS", "", "", "", "");
+
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, campaigns(idx, idx.ranked(all, 10, 0)), "bid desc, then id asc");
+        assertArrayEquals(new int[]{1, 3, 4, 2, 5}, campaigns(idx, idx.ranked(all, 10, 1)));
+        assertArrayEquals(new int[]{1, 4, 2, 3, 5}, campaigns(idx, idx.ranked(all, 10, -1)));
+        assertArrayEquals(new int[]{1, 3}, campaigns(idx, idx.ranked(all, 2, 4)));
+
+        all.remove(idx.ranked(all, 1, 0)[0]); // the top campaign ran out
+        assertArrayEquals(new int[]{2, 3, 4, 5}, campaigns(idx, idx.ranked(all, 10, 0)));
+        assertEquals(200, idx.bidCents(idx.ranked(all, 1, 0)[0]));
+    }
+
+    private static Set<Integer> ids(TargetingIndex idx, RoaringBitmap r) {
+        Set<Integer> out = new TreeSet<>();
+        for (int ord : r.toArray()) out.add(idx.campaignId(ord));
+        return out;
+    }
+
+    private static int[] campaigns(TargetingIndex idx, int[] ordinals) {
+        int[] out = new int[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) out[i] = idx.campaignId(ordinals[i]);
+        return out;
+    }
+
+    private static C c(int id) {
+        return new C(id);
+    }
+
+    /** A live campaign with a 1.00 bid, untargeted unless told otherwise. */
+    private static final class C {
+        private final int id;
+        private long bid = 100, remaining = 10_000;
+        private List<String> countries = List.of(), languages = List.of(), devices = List.of(), oses = List.of(),
+                browsers = List.of(), iabs = List.of(), allowDomains = List.of(), allowIps = List.of(),
+                blockDomains = List.of(), blockIps = List.of();
+
+        C(int id) { this.id = id; }
+
+        C bid(long cents)               { bid = cents; return this; }
+        C remaining(long cents)         { remaining = cents; return this; }
+        C countries(String... v)        { countries = list(v); return this; }
+        C languages(String... v)        { languages = list(v); return this; }
+        C devices(String... v)          { devices = list(v); return this; }
+        C oses(String... v)             { oses = list(v); return this; }
+        C browsers(String... v)         { browsers = list(v); return this; }
+        C iabs(String... v)             { iabs = list(v); return this; }
+        C allowDomains(String... v)     { allowDomains = list(v); return this; }
+        C allowIps(String... v)         { allowIps = list(v); return this; }
+        C blockDomains(String... v)     { blockDomains = list(v); return this; }
+        C blockIps(String... v)         { blockIps = list(v); return this; }
+
+        CampaignTargeting t() {
+            return new CampaignTargeting(id, "https://ads.example/" + id, bid, remaining, true,
+                    countries, languages, devices, oses, browsers, iabs, allowDomains, allowIps, blockDomains, blockIps);
+        }
+
+        private static List<String> list(String... v) {
+            return new ArrayList<>(List.of(v));
+        }
+    }
+}
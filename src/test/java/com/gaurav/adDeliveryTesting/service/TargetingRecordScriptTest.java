@@ -0,0 +1,89 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** {@link CampaignCacheService#TARGETING_LUA} against a real Redis. */
+@Testcontainers(disabledWithoutDocker = true)
+class TargetingRecordScriptTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private Jedis redis;
+
+    @BeforeEach
+    void connect() {
+        redis = new Jedis(REDIS.getHost(), REDIS.getMappedPort(6379));
+        redis.flushAll();
+    }
+
+    @AfterEach
+    void close() {
+        redis.close();
+    }
+
+    @Test
+    void writesOnlyTheConstrainingSetsAndTheirMask() {
+        long mask = write(42, List.of("Chrome", "Safari"), List.of(), List.of(), List.of(), List.of("10.0.0.0/8"), List.of());
+
+        assertEquals(CampaignCacheService.T_ALLOW_BROWSER | CampaignCacheService.T_BLOCK_IP, mask);
+        assertEquals(Long.toString(mask), redis.hget(RedisKeys.targeting(42), "mask"));
+        assertEquals(Set.of("Chrome", "Safari"), redis.smembers(RedisKeys.allowBrowser(42)));
+        assertEquals(Set.of("10.0.0.0/8"), redis.smembers(RedisKeys.blockIp(42)));
+        assertFalse(redis.exists(RedisKeys.allowIab(42)));
+        assertFalse(redis.exists(RedisKeys.blockDomain(42)));
+    }
+
+    @Test
+    void rewriteReplacesEverySetAndClearsDroppedOnes() {
+        write(42, List.of("Chrome"), List.of("IAB1"), List.of(), List.of(), List.of("10.0.0.1"), List.of("bad.example"));
+        long mask = write(42, List.of("Firefox"), List.of(), List.of(), List.of("shop.example"), List.of(), List.of());
+
+        assertEquals(CampaignCacheService.T_ALLOW_BROWSER | CampaignCacheService.T_ALLOW_DOMAIN, mask);
+        assertEquals(Set.of("Firefox"), redis.smembers(RedisKeys.allowBrowser(42)), "old values don't survive");
+        assertEquals(Set.of("shop.example"), redis.smembers(RedisKeys.allowDomain(42)));
+        assertFalse(redis.exists(RedisKeys.allowIab(42)));
+        assertFalse(redis.exists(RedisKeys.blockIp(42)));
+        assertFalse(redis.exists(RedisKeys.blockDomain(42)));
+    }
+
+    @Test
+    void unconstrainedCampaignKeepsOnlyAZeroMask() {
+        write(7, List.of("Chrome"), List.of(), List.of(), List.of(), List.of(), List.of());
+        assertEquals(0, write(7, List.of(), List.of(), List.of(), List.of(), List.of(), List.of()));
+        assertEquals("0", redis.hget(RedisKeys.targeting(7), "mask"));
+        assertFalse(redis.exists(RedisKeys.allowBrowser(7)));
+    }
+
+    @Test
+    void largeListsGoInChunks() {
+        List<String> domains = IntStream.range(0, 10_001).mapToObj(i -> "d" + i + ".example").toList();
+        assertEquals(CampaignCacheService.T_BLOCK_DOMAIN,
+                write(9, List.of(), List.of(), List.of(), List.of(), List.of(), domains));
+        assertEquals(10_001, redis.scard(RedisKeys.blockDomain(9)));
+    }
+
+    @SafeVarargs
+    private long write(int id, List<String>... dims) {
+        List<String> args = new ArrayList<>();
+        for (List<String> d : dims) args.add(Integer.toString(d.size()));
+        for (List<String> d : dims) args.addAll(d);
+        return (Long) redis.eval(CampaignCacheService.TARGETING_LUA, List.of(RedisKeys.targetingKeys(id)), args);
+    }
+}
@@ -0,0 +1,124 @@
+package com.gaurav.adDeliveryTesting.service;
+
+import com.gaurav.adDeliveryTesting.model.Campaign;
+import com.gaurav.adDeliveryTesting.repo.AdDeliveryRepo;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the blocking pieces of the serve path on virtual threads with JFR's jdk.VirtualThreadPinned
+ * event on, and fails if any of them park while pinned to a carrier.
+ */
+class VirtualThreadPinningTest {
+
+    private static final String PINNED = "jdk.VirtualThreadPinned";
+
+    @Test
+    void servePathDoesNotPinCarriers() throws Exception {
+        // queueing on: waiters park on the limiter's Condition, which must not pin either
+        DbBulkhead bulkhead = new DbBulkhead(4, 8, 4, 50, 1000, 40);
+
+        // slow repo stands in for JDBC; the metadata cache must not hold a monitor while it waits
+        AdDeliveryRepo repo = mock(AdDeliveryRepo.class);
+        when(repo.findById(anyInt())).thenAnswer(inv -> {
+            Thread.sleep(5);
+            int id = inv.getArgument(0);
+            return Optional.of(new Campaign(id, "https://ads.example/" + id,
+                    new BigDecimal("100"), new BigDecimal("50"), new BigDecimal("0.25"), null));
+        });
+
+        try (ExecutorService loads = Executors.newVirtualThreadPerTaskExecutor()) {
+            CampaignMetadataCache meta = new CampaignMetadataCache(repo, null, loads);
+
+            List<RecordedEvent> pinned = record(() -> runOnVirtualThreads(500, i -> {
+                DbBulkhead.Permit permit = bulkhead.tryAcquire();
+                if (permit != null) {
+                    try {
+                        Thread.sleep(1);
+                    } finally {
+                        permit.close();
+                    }
+                }
+                meta.get(i % 20);
+                meta.getAsync(i % 40).join();
+            }));
+
+            assertTrue(pinned.isEmpty(), () -> "virtual threads pinned at:\n" + describe(pinned));
+        }
+    }
+
+    /** Guards the check itself: parking inside synchronized must be reported (JDK 21-23 behaviour). */
+    @Test
+    void detectsPinningInsideSynchronized() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24, "synchronized no longer pins from JDK 24");
+        Object lock = new Object();
+
+        List<RecordedEvent> pinned = record(() -> runOnVirtualThreads(4, i -> {
+            synchronized (lock) {
+                Thread.sleep(5);
+            }
+        }));
+
+        assertFalse(pinned.isEmpty());
+    }
+
+    // ---------- helpers ----------
+
+    private interface Body { void run(int i) throws Exception; }
+    private interface Workload { void run() throws Exception; }
+
+    private static List<RecordedEvent> record(Workload w) throws Exception {
+        List<RecordedEvent> events = new CopyOnWriteArrayList<>();
+        try (RecordingStream rs = new RecordingStream()) {
+            rs.enable(PINNED).withThreshold(Duration.ZERO).withStackTrace();
+            rs.onEvent(PINNED, events::add);
+            rs.startAsync();
+            w.run();
+            rs.stop(); // flushes and waits until every recorded event has been delivered
+        }
+        return events;
+    }
+
+    private static void runOnVirtualThreads(int n, Body body) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(n);
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < n; i++) {
+                final int idx = i;
+                futures.add(ex.submit(() -> {
+                    body.run(idx);
+                    return null;
+                }));
+            }
+        } // close() waits for all tasks
+        for (Future<?> f : futures) f.get(); // surface failures from the workload itself
+    }
+
+    private static String describe(List<RecordedEvent> events) {
+        return events.stream()
+                .limit(5)
+                .map(e -> e.getStackTrace() == null ? "(no stack)" : e.getStackTrace().getFrames().stream()
+                        .limit(8)
+                        .map(f -> "  " + f.getMethod().getType().getName() + "." + f.getMethod().getName() + ":" + f.getLineNumber())
+                        .collect(Collectors.joining("\n")))
+                .collect(Collectors.joining("\n---\n"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class DomainUtilsTest {
+
+    @Test
+    void bareHostsAreLowercasedWithoutTrailingDot() {
+        assertEquals("example.com", DomainUtils.extractHost("example.com", null, null));
+        assertEquals("example.com", DomainUtils.extractHost("Example.COM", null, null));
+        assertEquals("example.com", DomainUtils.extractHost("example.com.", null, null));
+        assertEquals("example.com", DomainUtils.extractHost("  EXAMPLE.com./path?q=1 ", null, null));
+        assertEquals("example.com", DomainUtils.extractHost("example.com:8080", null, null));
+        assertEquals("localhost", DomainUtils.extractHost("localhost", null, null));
+    }
+
+    @Test
+    void urlsKeepOnlyTheHost() {
+        assertEquals("news.example.com",
+                DomainUtils.extractHost("https://User:pw@News.Example.com.:8443/x?y#z", null, null));
+        assertEquals("example.com", DomainUtils.extractHost("//example.com/a", null, null));
+        assertEquals("[2001:db8::1]", DomainUtils.extractHost("http://[2001:DB8::1]:8080/", null, null));
+        assertEquals("10.1.2.3", DomainUtils.extractHost("http://10.1.2.3/", null, null));
+    }
+
+    @Test
+    void fallsBackToOriginThenReferer() {
+        assertEquals("o.example.com", DomainUtils.extractHost(null, "https://o.example.com", "https://r.example.com/p"));
+        assertEquals("o.example.com", DomainUtils.extractHost("  ", "https://O.example.com", null));
+        assertEquals("r.example.com", DomainUtils.extractHost(null, "null", "https://r.example.com/p"), "opaque origin");
+        assertEquals("r.example.com", DomainUtils.extractHost(null, "o.example.com", "https://r.example.com/p"),
+                "Origin/Referer must be URLs");
+    }
+
+    @Test
+    void noUsableHostIsEmpty() {
+        assertEquals("", DomainUtils.extractHost(null, null, null));
+        assertEquals("", DomainUtils.extractHost("", "", ""));
+        assertEquals("", DomainUtils.extractHost(".", null, null));
+        assertEquals("", DomainUtils.extractHost("exa mple.com", null, null));
+        assertEquals("", DomainUtils.extractHost("ex%61mple.com", null, null));
+        assertEquals("", DomainUtils.extractHost("http://", null, null));
+        assertEquals("", DomainUtils.extractHost("http://[zz::1]/", null, null));
+    }
+
+    @Test
+    void suffixPatternsMostSpecificFirst() {
+        assertEquals(List.of("news.example.com", "*.example.com", "*.com"), DomainUtils.suffixPatterns("news.example.com"));
+        assertEquals(List.of("example.com", "*.com"), DomainUtils.suffixPatterns("example.com"));
+        assertEquals(List.of("example.com", "*.com"), DomainUtils.suffixPatterns("example.com."));
+        assertEquals(List.of("localhost"), DomainUtils.suffixPatterns("localhost"));
+    }
+
+    @Test
+    void wildcardNeedsALabelBoundary() {
+        List<String> p = DomainUtils.suffixPatterns("notexample.com");
+        assertFalse(p.contains("example.com"));
+        assertFalse(p.contains("*.example.com"));
+        assertFalse(DomainUtils.suffixPatterns("example.com").contains("*.example.com"), "*.x doesn't match x itself");
+    }
+
+    @Test
+    void noHostStillBindsOneValue() {
+        assertEquals(List.of(""), DomainUtils.suffixPatterns(null));
+        assertEquals(List.of(""), DomainUtils.suffixPatterns(""));
+        assertEquals(List.of(""), DomainUtils.suffixPatterns("."));
+    }
+}
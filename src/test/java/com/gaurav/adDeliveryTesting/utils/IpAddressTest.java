@@ -0,0 +1,116 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpAddressTest {
+
+    @Test
+    void parsesIpv4IntoTheMappedRange() {
+        IpAddress a = IpAddress.parse("10.1.2.3");
+        assertEquals(new IpAddress(0, 0x0000_ffff_0a01_0203L), a);
+        assertTrue(a.isV4());
+        assertEquals("10.1.2.3", a.toString());
+        assertEquals("0.0.0.0", IpAddress.parse("0.0.0.0").toString());
+        assertEquals("255.255.255.255", IpAddress.parse("255.255.255.255").toString());
+        assertEquals("10.1.2.3", IpAddress.parse(" 010.001.2.3 ").toString(), "padded octets, surrounding blanks");
+    }
+
+    @Test
+    void parsesIpv6AndPrintsRfc5952() {
+        assertEquals("2001:db8::1", IpAddress.parse("2001:DB8::1").toString());
+        assertEquals("2001:db8::1", IpAddress.parse("2001:0db8:0000:0000:0000:0000:0000:0001").toString());
+        assertEquals("::1", IpAddress.parse("[::1]").toString());
+        assertEquals("fe80::1", IpAddress.parse("fe80::1%eth0").toString());
+        assertEquals("::", IpAddress.parse("::").toString());
+        assertEquals("1::", IpAddress.parse("1::").toString());
+        assertEquals("2001:db8:0:1:1:1:1:1", IpAddress.parse("2001:db8::1:1:1:1:1").toString(), "one zero group stays");
+        assertEquals("1:0:0:1::1", IpAddress.parse("1:0:0:1:0:0:0:1").toString(), "longest zero run compressed");
+        assertFalse(IpAddress.parse("::1").isV4());
+    }
+
+    @Test
+    void v4MappedIpv6IsTheSameAddress() {
+        IpAddress v4 = IpAddress.parse("10.1.2.3");
+        assertEquals(v4, IpAddress.parse("::ffff:10.1.2.3"));
+        assertEquals(v4, IpAddress.parse("::FFFF:a01:203"));
+        assertEquals(v4, IpAddress.parse("0:0:0:0:0:ffff:10.1.2.3"));
+        assertTrue(IpAddress.parse("::ffff:10.1.2.3").isV4());
+        assertEquals("10.1.2.3", IpAddress.parse("::ffff:10.1.2.3").toString());
+        assertFalse(IpAddress.parse("::fffe:10.1.2.3").isV4(), "only ::ffff:0:0/96 is IPv4");
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        String[] bad = {
+                null, "", " ", "[]", "example.com", "localhost",
+                "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.", ".1.2.3", "1..2.3", "1.2.3.4a", "1234.1.1.1", "-1.2.3.4",
+                ":", ":1", "1:", "1::2::3", ":::", "12345::1", "g::1", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9",
+                "1:2:3:4:5:6:7::8", "::ffff:1.2.3", "::ffff:1.2.3.256", "1.2.3.4::", "[::1"};
+        for (String s : bad) assertNull(IpAddress.parse(s), () -> "[" + s + "]");
+    }
+
+    @Test
+    void parsesCidrsWithHostBitsCleared() {
+        IpAddress.Cidr c = IpAddress.parseCidr("10.1.2.3/8");
+        assertEquals(104, c.prefix(), "IPv4 lengths are offset by 96");
+        assertEquals(IpAddress.parse("10.0.0.0"), c.network());
+        assertEquals("10.0.0.0/8", c.canonical());
+        assertEquals("2001:db8::/32", IpAddress.parseCidr("2001:DB8:ffff::1/32").canonical());
+        assertEquals("10.0.0.0/8", IpAddress.parseCidr("::ffff:10.9.9.9/8").canonical(), "v4-mapped: IPv4 length");
+    }
+
+    @Test
+    void cidrEdgeLengths() {
+        IpAddress.Cidr v4All = IpAddress.parseCidr("1.2.3.4/0");
+        assertEquals(96, v4All.prefix());
+        assertEquals("0.0.0.0/0", v4All.canonical());
+
+        IpAddress.Cidr v4Host = IpAddress.parseCidr("1.2.3.4/32");
+        assertEquals(128, v4Host.prefix());
+        assertEquals("1.2.3.4", v4Host.canonical(), "full length prints as the bare address");
+        assertEquals(v4Host, IpAddress.parseCidr("1.2.3.4"));
+
+        IpAddress.Cidr v6All = IpAddress.parseCidr("2001:db8::1/0");
+        assertEquals(0, v6All.prefix());
+        assertEquals("::/0", v6All.canonical());
+
+        IpAddress.Cidr v6Host = IpAddress.parseCidr("2001:db8::1/128");
+        assertEquals(128, v6Host.prefix());
+        assertEquals("2001:db8::1", v6Host.canonical());
+    }
+
+    @Test
+    void rejectsMalformedCidrs() {
+        String[] bad = {null, "1.2.3.4/33", "1.2.3.4/-1", "::/129", "1.2.3.4/x", "1.2.3.4/", "x/8", "/8", "1.2.3/8"};
+        for (String s : bad) assertNull(IpAddress.parseCidr(s), () -> "[" + s + "]");
+    }
+
+    @Test
+    void canonicalTextFallsBackToTheTrimmedInput() {
+        assertEquals("10.0.0.0/8", IpAddress.canonical(" 10.1.2.3/8 "));
+        assertEquals("2001:db8::1", IpAddress.canonical("2001:0DB8::0001"));
+        assertEquals("not-an-ip", IpAddress.canonical(" not-an-ip "));
+    }
+
+    @Test
+    void bitsMasksAndCommonPrefixes() {
+        IpAddress a = IpAddress.parse("8000::1");
+        assertEquals(1, a.bit(0));
+        assertEquals(0, a.bit(1));
+        assertEquals(1, a.bit(127));
+        assertEquals(new IpAddress(0, 0), a.mask(0));
+        assertEquals(a, a.mask(128));
+        assertEquals(IpAddress.parse("8000::"), a.mask(64));
+        assertEquals(IpAddress.parse("10.1.2.0"), IpAddress.parse("10.1.2.3").mask(120));
+
+        assertEquals(128, a.commonPrefix(a));
+        assertEquals(0, a.commonPrefix(IpAddress.parse("::1")));
+        assertEquals(126, IpAddress.parse("::1").commonPrefix(IpAddress.parse("::2")));
+        assertEquals(120, IpAddress.parse("10.1.2.3").commonPrefix(IpAddress.parse("10.1.2.200")));
+    }
+}
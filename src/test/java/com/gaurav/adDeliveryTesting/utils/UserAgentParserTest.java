@@ -0,0 +1,147 @@
+package com.gaurav.adDeliveryTesting.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * The single-pass classifier must give the same answers as the per-field contains() chains it
+ * replaced (kept below as {@link Legacy}), on real UAs and on generated token soups.
+ */
+class UserAgentParserTest {
+
+    private static final List<String> CORPUS = List.of(
+            // desktop
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36 Edg/124.0.2478.51",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:125.0) Gecko/20100101 Firefox/125.0",
+            "Mozilla/5.0 (Windows NT 6.1; Trident/7.0; rv:11.0) like Gecko",
+            "Mozilla/5.0 (Windows NT 10.0) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0 Safari/537.36 Edge/18.19041",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Safari/605.1.15",
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 14.4; rv:125.0) Gecko/20100101 Firefox/125.0",
+            "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36",
+            "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0",
+            // mobile / tablet
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) CriOS/124.0 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (iPad; CPU OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Mobile/15E148 Safari/604.1",
+            "Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36",
+            "Mozilla/5.0 (Linux; Android 13; SM-X710) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36",
+            "Mozilla/5.0 (Android 14; Mobile; rv:125.0) Gecko/125.0 Firefox/125.0",
+            "Mozilla/5.0 (Linux; Android 10; K) AppleWebKit/537.36 (KHTML, like Gecko) SamsungBrowser/24.0 Chrome/117.0.0.0 Mobile Safari/537.36",
+            "Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36 EdgA/124.0.2478.64",
+            // TV
+            "Mozilla/5.0 (SMART-TV; Linux; Tizen 6.0) AppleWebKit/537.36 (KHTML, like Gecko) 76.0.3809.146/6.0 TV Safari/537.36",
+            "Mozilla/5.0 (Web0S; Linux/SmartTV) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/79.0.3945.79 Safari/537.36 WebAppManager",
+            "Mozilla/5.0 (Linux; U; Android 9; en-us; BRAVIA 4K VH2 Build/PTT1.190515.001.S52) HbbTV/1.5.1 (; Sony; BRAVIA 4K VH2; ; ; ) CE-HTML/1.0",
+            "Mozilla/5.0 (webOS/3.0; U; en-US) AppleWebKit/538.2 (KHTML, like Gecko) Version/1.0 Safari/538.2 SmartTV",
+            // bots, tools, junk, case
+            "Googlebot/2.1 (+http://www.google.com/bot.html)",
+            "curl/8.5.0",
+            "",
+            " ",
+            "WINDOWS CHROME",
+            "MaCiNtOsH FiReFoX",
+            "edgechrome",
+            "ipados",
+            "mac  os",
+            "macos",
+            "chrom safar",
+            "Mozilla/5.0 (Windows; İPHONE; ÄNDROID) Safari",
+            "tizén webos smarttv");
+
+    private static final String[] TOKENS = {
+            "windows", "macintosh", "mac os", "android", "iphone", "ipad", "ios", "smarttv", "hbbtv", "tizen",
+            "webos", "edg", "edge", "chrome", "firefox", "safari", "mobile", "linux", "WINDOWS", "Chrome", "Mac OS"};
+
+    private static final String[] FILLER = {"", " ", "/", "x", "Mozilla/5.0 (", "; ", ") ", "KHTML", "123", "é"};
+
+    @Test
+    void matchesLegacyOnRealUserAgents() {
+        for (String ua : CORPUS) assertSameAsLegacy(ua);
+    }
+
+    @Test
+    void matchesLegacyOnGeneratedUserAgents() {
+        Random rnd = new Random(42);
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder sb = new StringBuilder();
+            int parts = rnd.nextInt(7);
+            for (int i = 0; i < parts; i++) {
+                sb.append(FILLER[rnd.nextInt(FILLER.length)]);
+                String t = TOKENS[rnd.nextInt(TOKENS.length)];
+                // sometimes split a token so near-misses ("chrom", "ipho ne") are covered too
+                if (rnd.nextInt(4) == 0) {
+                    int cut = 1 + rnd.nextInt(t.length() - 1);
+                    t = t.substring(0, cut) + FILLER[rnd.nextInt(FILLER.length)] + t.substring(cut);
+                }
+                sb.append(t);
+            }
+            assertSameAsLegacy(sb.toString());
+        }
+    }
+
+    @Test
+    void nullIsUnknown() {
+        assertSame(UserAgentInfo.UNKNOWN, UserAgentParser.parse(null));
+        assertEquals("Others", Legacy.os(null));
+        assertEquals("Others", Legacy.browser(null));
+        assertEquals("Desktop", Legacy.device(null, null));
+    }
+
+    @Test
+    void cachedAndOverrideMatchUncached() {
+        UserAgentParser parser = new UserAgentParser(100);
+        for (String ua : CORPUS) {
+            assertEquals(UserAgentParser.parse(ua), parser.classify(ua));
+            assertEquals(Legacy.device(ua, "TV"), parser.parseDevice(ua, " TV "));
+        }
+    }
+
+    private static void assertSameAsLegacy(String ua) {
+        UserAgentInfo info = UserAgentParser.parse(ua);
+        assertEquals(Legacy.os(ua), info.os(), () -> "os of [" + ua + "]");
+        assertEquals(Legacy.browser(ua), info.browser(), () -> "browser of [" + ua + "]");
+        assertEquals(Legacy.device(ua, null), info.device(null), () -> "device of [" + ua + "]");
+    }
+
+    /** The classifier as it was before the single-pass matcher, verbatim. */
+    private static final class Legacy {
+
+        static String os(String userAgent) {
+            if (userAgent == null) return "Others";
+            String ua = userAgent.toLowerCase();
+            if (ua.contains("windows")) return "Windows";
+            if (ua.contains("macintosh") || ua.contains("mac os")) return "Mac";
+            if (ua.contains("android")) return "Android";
+            if (ua.contains("iphone") || ua.contains("ipad") || ua.contains("ios")) return "iOS";
+            if (ua.contains("smarttv") || ua.contains("hbbtv") || ua.contains("tizen") || ua.contains("webos")) return "TV";
+            return "Others";
+        }
+
+        static String browser(String userAgent) {
+            if (userAgent == null) return "Others";
+            String ua = userAgent.toLowerCase();
+            if (ua.contains("edg") || ua.contains("edge")) return "Edge";
+            if (ua.contains("chrome") && !ua.contains("edge") && !ua.contains("edg")) return "Chrome";
+            if (ua.contains("firefox")) return "Firefox";
+            if (ua.contains("safari") && !ua.contains("chrome")) return "Safari";
+            return "Others";
+        }
+
+        static String device(String userAgent, String override) {
+            if (override != null && !override.isBlank()) return override.trim();
+            if (userAgent == null) return "Desktop";
+            String ua = userAgent.toLowerCase();
+            if (ua.contains("iphone") || ua.contains("android") && ua.contains("mobile")) return "Mobile";
+            if (ua.contains("ipad") || (ua.contains("android") && !ua.contains("mobile"))) return "Mobile";
+            if (ua.contains("smarttv") || ua.contains("hbbtv") || ua.contains("tizen") || ua.contains("webos")) return "TV";
+            if (ua.contains("macintosh") || ua.contains("windows") || ua.contains("linux")) return "Desktop";
+            return "Desktop";
+        }
+    }
+}